@@ -0,0 +1,88 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.compression;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Sends small messages uncompressed and deflates the rest. Compressing a message of a few hundred
+ * bytes costs more time than it saves on the wire, and already compressed payloads such as images
+ * barely shrink, so those go out as they are too.
+ *
+ * <p>Deflaters are kept per thread and reused, and may be primed with a preset dictionary of
+ * strings that are common in the messages, which mostly helps the medium sized ones.
+ */
+public class AdaptiveMessageCodec implements MessageCodec {
+  public static final String NAME = "adaptive";
+
+  /** Messages are only sent compressed if that saves at least this fraction of their size. */
+  private static final double MIN_SAVING = 0.1;
+
+  private final int minCompressSize;
+  private final Set<String> rawMethods;
+  private final byte[] dictionary;
+  private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(Deflater::new);
+
+  /**
+   * @param minCompressSize messages smaller than this many bytes are never compressed.
+   * @param rawMethods the methods whose messages are never compressed.
+   * @param dictionary the preset dictionary to prime the deflater with, or null for none.
+   */
+  public AdaptiveMessageCodec(
+      int minCompressSize, Collection<String> rawMethods, byte[] dictionary) {
+    this.minCompressSize = minCompressSize;
+    this.rawMethods = Collections.unmodifiableSet(new HashSet<String>(rawMethods));
+    this.dictionary = dictionary == null ? null : dictionary.clone();
+    if (dictionary != null) {
+      MessageCodecs.registerDictionary(dictionary);
+    }
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public byte[] encode(String method, byte[] payload) {
+    if (payload.length < minCompressSize || rawMethods.contains(method)) {
+      return payload;
+    }
+    Deflater deflater = deflaters.get();
+    deflater.reset();
+    if (dictionary != null) {
+      deflater.setDictionary(dictionary);
+    }
+    deflater.setInput(payload);
+    deflater.finish();
+
+    // Give up as soon as the output grows past the point where compressing would be worth it
+    byte[] out = new byte[1 + (int) (payload.length * (1 - MIN_SAVING))];
+    out[0] = MessageCodecs.DEFLATE_MARKER;
+    int length = 1;
+    while (!deflater.finished()) {
+      if (length == out.length) {
+        return payload;
+      }
+      length += deflater.deflate(out, length, out.length - length);
+    }
+    return Arrays.copyOf(out, length);
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/** The original codec, which gzips every message regardless of its size. */
+public class GzipMessageCodec implements MessageCodec {
+  public static final String NAME = "gzip";
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public byte[] encode(String method, byte[] payload) {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream(payload.length / 2 + 32);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(bout)) {
+      gzip.write(payload);
+    } catch (IOException e) {
+      // Can't happen when writing to memory
+      throw new IllegalStateException(e);
+    }
+    return bout.toByteArray();
+  }
+}
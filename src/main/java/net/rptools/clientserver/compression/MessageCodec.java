@@ -0,0 +1,35 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.compression;
+
+/**
+ * Turns an encoded method call into the bytes that are put on the wire. Every codec must produce
+ * messages that {@link MessageCodecs#decode(byte[])} can read back, so that the receiving side does
+ * not need to know which codec the sender used.
+ */
+public interface MessageCodec {
+
+  /** @return the name the codec is negotiated by during the handshake. */
+  String getName();
+
+  /**
+   * Encodes a message.
+   *
+   * @param method the name of the method the message calls, codecs may use it to pick a strategy.
+   * @param payload the uncompressed message, it must not be modified.
+   * @return the bytes to send, which may be the payload itself.
+   */
+  byte[] encode(String method, byte[] payload);
+}
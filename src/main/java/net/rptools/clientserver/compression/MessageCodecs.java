@@ -0,0 +1,168 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Registry of the available {@link MessageCodec}s and the decoder for the messages they produce.
+ *
+ * <p>Messages describe their own format through their first bytes: a gzip header, the {@link
+ * #DEFLATE_MARKER} followed by a zlib stream, or anything else, which is taken to be uncompressed.
+ * The payloads handed to the codecs must therefore never start with either of those.
+ */
+public final class MessageCodecs {
+  /** First byte of a message compressed by {@link AdaptiveMessageCodec}. */
+  static final byte DEFLATE_MARKER = 0x01;
+
+  /** The codec used with peers that did not negotiate anything else. */
+  public static final MessageCodec GZIP = new GzipMessageCodec();
+
+  /** Codecs in order of preference. */
+  private static final List<MessageCodec> codecs = new CopyOnWriteArrayList<MessageCodec>();
+
+  /** Preset dictionaries by their Adler-32 checksum, which zlib stores in the stream header. */
+  private static final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<Integer, byte[]>();
+
+  private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+  static {
+    codecs.add(GZIP);
+  }
+
+  private MessageCodecs() {}
+
+  /**
+   * Makes a codec available for negotiation, preferred over every codec registered before it. A
+   * codec registered again under the same name replaces the old one.
+   *
+   * @param codec the codec to register.
+   */
+  public static synchronized void register(MessageCodec codec) {
+    codecs.removeIf(c -> c.getName().equals(codec.getName()));
+    codecs.add(0, codec);
+  }
+
+  /** @return the names of the registered codecs, most preferred first, separated by commas. */
+  public static String getSupportedNames() {
+    StringBuilder sb = new StringBuilder();
+    for (MessageCodec codec : codecs) {
+      if (sb.length() > 0) {
+        sb.append(',');
+      }
+      sb.append(codec.getName());
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @param name the name of the codec.
+   * @return the codec, or {@link #GZIP} if there is no codec of that name.
+   */
+  public static MessageCodec get(String name) {
+    for (MessageCodec codec : codecs) {
+      if (codec.getName().equals(name)) {
+        return codec;
+      }
+    }
+    return GZIP;
+  }
+
+  /**
+   * Picks the most preferred codec that the peer also supports.
+   *
+   * @param offered the codec names offered by the peer as returned by {@link #getSupportedNames()},
+   *     or null if the peer did not offer any.
+   * @return the codec to use with the peer.
+   */
+  public static MessageCodec negotiate(String offered) {
+    if (offered != null) {
+      List<String> names = List.of(offered.split(","));
+      for (MessageCodec codec : codecs) {
+        if (names.contains(codec.getName())) {
+          return codec;
+        }
+      }
+    }
+    return GZIP;
+  }
+
+  /**
+   * Makes a preset dictionary available to the decoder.
+   *
+   * @param dictionary the dictionary.
+   */
+  public static void registerDictionary(byte[] dictionary) {
+    Adler32 checksum = new Adler32();
+    checksum.update(dictionary);
+    dictionaries.put((int) checksum.getValue(), dictionary.clone());
+  }
+
+  /**
+   * Opens a message produced by any of the codecs.
+   *
+   * @param message the message as received.
+   * @return a stream of the uncompressed message.
+   * @throws IOException if the message is compressed but can not be decompressed.
+   */
+  public static InputStream decode(byte[] message) throws IOException {
+    if (message.length > 0 && message[0] == DEFLATE_MARKER) {
+      return new ByteArrayInputStream(inflate(message));
+    }
+    if (message.length > 1 && (message[0] & 0xff) == 0x1f && (message[1] & 0xff) == 0x8b) {
+      return new GZIPInputStream(new ByteArrayInputStream(message));
+    }
+    return new ByteArrayInputStream(message);
+  }
+
+  private static byte[] inflate(byte[] message) throws IOException {
+    Inflater inflater = inflaters.get();
+    inflater.reset();
+    inflater.setInput(message, 1, message.length - 1);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(message.length * 4);
+    byte[] buffer = new byte[8192];
+    try {
+      while (!inflater.finished()) {
+        int count = inflater.inflate(buffer);
+        if (count > 0) {
+          out.write(buffer, 0, count);
+        } else if (inflater.needsDictionary()) {
+          byte[] dictionary = dictionaries.get(inflater.getAdler());
+          if (dictionary == null) {
+            throw new IOException("Message uses an unknown compression dictionary");
+          }
+          inflater.setDictionary(dictionary);
+        } else if (inflater.needsInput()) {
+          throw new EOFException("Compressed message is truncated");
+        }
+      }
+    } catch (DataFormatException e) {
+      throw new IOException(e);
+    }
+    return out.toByteArray();
+  }
+}
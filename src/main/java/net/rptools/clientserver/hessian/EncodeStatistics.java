@@ -0,0 +1,142 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.hessian;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per method counters of how many calls were encoded, how long it took, how big they were and how
+ * well they compressed.
+ */
+public class EncodeStatistics {
+  private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+  /**
+   * Records an encoded frame.
+   *
+   * @param frame the frame that was encoded.
+   */
+  public void record(MessageFrame frame) {
+    recordEncode(frame.getMethod(), frame.getSize(), frame.getEncodeNanos());
+  }
+
+  /**
+   * Records an encoded method call.
+   *
+   * @param method the method called.
+   * @param size the size of the uncompressed call.
+   * @param nanos the time taken to encode the call.
+   */
+  public void recordEncode(String method, int size, long nanos) {
+    getEntry(method).addEncode(size, nanos);
+  }
+
+  /**
+   * Records the compression of a method call by a codec.
+   *
+   * @param method the method called.
+   * @param size the size of the uncompressed call.
+   * @param compressedSize the size of what was put on the wire.
+   * @param nanos the time taken to compress the call.
+   */
+  public void recordCompression(String method, int size, int compressedSize, long nanos) {
+    getEntry(method).addCompression(size, compressedSize, nanos);
+  }
+
+  private Entry getEntry(String method) {
+    return entries.computeIfAbsent(method, k -> new Entry());
+  }
+
+  /** @return the counters for each method, sorted by method name. */
+  public Map<String, Entry> getEntries() {
+    return new TreeMap<String, Entry>(entries);
+  }
+
+  public void reset() {
+    entries.clear();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, Entry> e : getEntries().entrySet()) {
+      Entry entry = e.getValue();
+      sb.append(
+          String.format(
+              "%s: %d encoded, %d ms, %d bytes, %d ms compressing, %.1f%% of the size on the wire%n",
+              e.getKey(),
+              entry.getCount(),
+              TimeUnit.NANOSECONDS.toMillis(entry.getEncodeNanos()),
+              entry.getBytes(),
+              TimeUnit.NANOSECONDS.toMillis(entry.getCompressNanos()),
+              entry.getCompressionRatio() * 100));
+    }
+    return sb.toString();
+  }
+
+  /** Counters for a single method. */
+  public static class Entry {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder compressInputBytes = new LongAdder();
+    private final LongAdder compressOutputBytes = new LongAdder();
+
+    private void addEncode(int size, long nanos) {
+      count.increment();
+      encodeNanos.add(nanos);
+      bytes.add(size);
+    }
+
+    private void addCompression(int size, int compressedSize, long nanos) {
+      compressNanos.add(nanos);
+      compressInputBytes.add(size);
+      compressOutputBytes.add(compressedSize);
+    }
+
+    public long getCount() {
+      return count.sum();
+    }
+
+    public long getEncodeNanos() {
+      return encodeNanos.sum();
+    }
+
+    /** @return the total size of the calls before compression. */
+    public long getBytes() {
+      return bytes.sum();
+    }
+
+    public long getCompressNanos() {
+      return compressNanos.sum();
+    }
+
+    /** @return the total size of the calls on the wire. */
+    public long getCompressedBytes() {
+      return compressOutputBytes.sum();
+    }
+
+    /** @return the size on the wire relative to the uncompressed size, 1 if nothing was sent. */
+    public double getCompressionRatio() {
+      long input = compressInputBytes.sum();
+      return input == 0 ? 1 : (double) compressOutputBytes.sum() / input;
+    }
+  }
+}
@@ -20,7 +20,7 @@
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.GZIPOutputStream;
+import net.rptools.clientserver.compression.MessageCodecs;
 
 /** @author drice */
 public class HessianUtils {
@@ -51,25 +51,26 @@ public static final byte[] methodToBytes(String method, Object... parameters) {
     return bout.toByteArray();
   }
 
-  public static final byte[] methodToBytesGZ(String method, Object... parameters) {
-
-    ByteArrayOutputStream bout = new ByteArrayOutputStream();
-
-    try {
-
-      ByteArrayOutputStream hessianBytes = new ByteArrayOutputStream();
-      HessianOutput hout = new HessianOutput(hessianBytes);
-      hout.getSerializerFactory().setAllowNonSerializable(true);
-      hout.call(method, parameters);
-
-      GZIPOutputStream gzip = new GZIPOutputStream(bout);
-      gzip.write(hessianBytes.toByteArray());
-      gzip.close();
-
-    } catch (IOException e) {
-      e.printStackTrace();
+  /**
+   * Encodes a method call into a frame that can be sent to any number of connections.
+   *
+   * @param statistics the counters to record the encoding in, may be null.
+   * @param method the method to call.
+   * @param parameters the parameters of the call.
+   * @return the encoded frame.
+   */
+  public static MessageFrame encodeFrame(
+      EncodeStatistics statistics, String method, Object... parameters) {
+    long start = System.nanoTime();
+    byte[] payload = methodToBytes(method, parameters);
+    MessageFrame frame = new MessageFrame(method, payload, System.nanoTime() - start, statistics);
+    if (statistics != null) {
+      statistics.record(frame);
     }
+    return frame;
+  }
 
-    return bout.toByteArray();
+  public static final byte[] methodToBytesGZ(String method, Object... parameters) {
+    return MessageCodecs.GZIP.encode(method, methodToBytes(method, parameters));
   }
 }
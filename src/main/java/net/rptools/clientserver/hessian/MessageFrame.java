@@ -0,0 +1,75 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.hessian;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import net.rptools.clientserver.compression.MessageCodec;
+
+/**
+ * A method call that has already been encoded for the wire. A frame is encoded once and the same
+ * bytes are handed to every connection it is sent to, so it must never be modified after
+ * construction. Connections that negotiated different {@link MessageCodec}s share the encoded call
+ * and only compress it once per codec.
+ */
+public final class MessageFrame {
+  private final String method;
+  private final byte[] payload;
+  private final long encodeNanos;
+  private final EncodeStatistics statistics;
+  private final Map<MessageCodec, byte[]> data = new ConcurrentHashMap<MessageCodec, byte[]>(2);
+
+  MessageFrame(String method, byte[] payload, long encodeNanos, EncodeStatistics statistics) {
+    this.method = method;
+    this.payload = payload;
+    this.encodeNanos = encodeNanos;
+    this.statistics = statistics;
+  }
+
+  /** @return the name of the method this frame calls. */
+  public String getMethod() {
+    return method;
+  }
+
+  /**
+   * Returns the bytes to send to a connection using the given codec. The array is shared between
+   * every queue the frame has been added to and must be treated as read only.
+   *
+   * @param codec the codec negotiated with the connection.
+   * @return the encoded bytes.
+   */
+  public byte[] getData(MessageCodec codec) {
+    return data.computeIfAbsent(codec, this::compress);
+  }
+
+  private byte[] compress(MessageCodec codec) {
+    long start = System.nanoTime();
+    byte[] bytes = codec.encode(method, payload);
+    if (statistics != null) {
+      statistics.recordCompression(method, payload.length, bytes.length, System.nanoTime() - start);
+    }
+    return bytes;
+  }
+
+  /** @return the number of bytes of the uncompressed call. */
+  public int getSize() {
+    return payload.length;
+  }
+
+  /** @return the time taken to encode the call, in nanoseconds. */
+  public long getEncodeNanos() {
+    return encodeNanos;
+  }
+}
@@ -17,10 +17,16 @@
 import java.io.IOException;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import net.rptools.clientserver.compression.MessageCodec;
+import net.rptools.clientserver.compression.MessageCodecs;
+import net.rptools.clientserver.hessian.EncodeStatistics;
 import net.rptools.clientserver.hessian.HessianUtils;
+import net.rptools.clientserver.simple.CoalescingChannel;
 
 /** @author drice */
 public class ClientConnection extends net.rptools.clientserver.simple.client.ClientConnection {
+  private final EncodeStatistics encodeStatistics = new EncodeStatistics();
+  private volatile MessageCodec messageCodec = MessageCodecs.GZIP;
 
   public ClientConnection(String host, int port, String id)
       throws UnknownHostException, IOException {
@@ -31,9 +37,42 @@ public ClientConnection(Socket socket, String id) throws IOException {
     super(socket, id);
   }
 
+  /** @return the encode counters of every call made on this connection. */
+  public EncodeStatistics getEncodeStatistics() {
+    return encodeStatistics;
+  }
+
+  /** @param messageCodec the codec negotiated with the server. */
+  public void setMessageCodec(MessageCodec messageCodec) {
+    this.messageCodec = messageCodec;
+  }
+
+  public MessageCodec getMessageCodec() {
+    return messageCodec;
+  }
+
   public void callMethod(String method, Object... parameters) {
+    callMethod((CoalescingChannel) null, null, method, parameters);
+  }
 
-    byte[] message = HessianUtils.methodToBytesGZ(method, parameters);
-    sendMessage(message);
+  /**
+   * Calls a method on a coalescing channel.
+   *
+   * @param channel the channel to send the call on.
+   * @param key the key of the call, which replaces a waiting call with the same key. May be null
+   *     for a call that must not be replaced.
+   * @param method the method to call.
+   * @param parameters the parameters of the call.
+   */
+  public void callMethod(
+      CoalescingChannel channel, Object key, String method, Object... parameters) {
+    long start = System.nanoTime();
+    byte[] payload = HessianUtils.methodToBytes(method, parameters);
+    long encoded = System.nanoTime();
+    byte[] message = messageCodec.encode(method, payload);
+    encodeStatistics.recordEncode(method, payload.length, encoded - start);
+    encodeStatistics.recordCompression(
+        method, payload.length, message.length, System.nanoTime() - encoded);
+    sendMessage(channel, key, message);
   }
 }
@@ -15,30 +15,108 @@
 package net.rptools.clientserver.hessian.server;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import net.rptools.clientserver.compression.MessageCodec;
+import net.rptools.clientserver.compression.MessageCodecs;
+import net.rptools.clientserver.hessian.EncodeStatistics;
 import net.rptools.clientserver.hessian.HessianUtils;
+import net.rptools.clientserver.hessian.MessageFrame;
+import net.rptools.clientserver.simple.AbstractConnection;
+import net.rptools.clientserver.simple.CoalescingChannel;
+import net.rptools.clientserver.simple.client.ClientConnection;
 
 /** @author drice */
 public class ServerConnection extends net.rptools.clientserver.simple.server.ServerConnection {
+  private final EncodeStatistics encodeStatistics = new EncodeStatistics();
+  private final Map<String, MessageCodec> messageCodecs =
+      new ConcurrentHashMap<String, MessageCodec>();
+
   public ServerConnection(int port) throws IOException {
     super(port);
   }
 
+  public ServerConnection(int port, boolean useNio) throws IOException {
+    super(port, useNio);
+  }
+
+  /** @return the encode counters of every frame sent by this server. */
+  public EncodeStatistics getEncodeStatistics() {
+    return encodeStatistics;
+  }
+
+  /**
+   * Sets the codec negotiated with a client. Clients without one get {@link MessageCodecs#GZIP}.
+   *
+   * @param id the id of the client.
+   * @param codec the codec to encode messages to the client with.
+   */
+  public void setMessageCodec(String id, MessageCodec codec) {
+    messageCodecs.put(id, codec);
+  }
+
+  public MessageCodec getMessageCodec(String id) {
+    return messageCodecs.getOrDefault(id, MessageCodecs.GZIP);
+  }
+
+  @Override
+  public void handleDisconnect(AbstractConnection conn) {
+    super.handleDisconnect(conn);
+    if (conn instanceof ClientConnection) {
+      messageCodecs.remove(((ClientConnection) conn).getId());
+    }
+  }
+
+  /**
+   * Encodes a method call once so that it can be sent to several clients without being encoded
+   * again.
+   *
+   * @param method the method to call.
+   * @param parameters the parameters of the call.
+   * @return the encoded frame.
+   */
+  public MessageFrame encodeFrame(String method, Object... parameters) {
+    return HessianUtils.encodeFrame(encodeStatistics, method, parameters);
+  }
+
+  public void broadcastFrame(MessageFrame frame) {
+    broadcastFrame(new String[] {}, frame);
+  }
+
+  public void broadcastFrame(String[] exclude, MessageFrame frame) {
+    broadcastFrame(exclude, null, null, frame);
+  }
+
+  /**
+   * Sends a frame on a channel to every client but the excluded ones.
+   *
+   * @param exclude the ids of the clients not to send the frame to.
+   * @param channel the channel to send the frame on, may be null.
+   * @param key if the channel is a {@link CoalescingChannel}, the key of the frame that replaces a
+   *     waiting frame with the same key, may be null.
+   * @param frame the frame.
+   */
+  public void broadcastFrame(String[] exclude, Object channel, Object key, MessageFrame frame) {
+    broadcastMessage(exclude, channel, key, id -> frame.getData(getMessageCodec(id)));
+  }
+
+  public void sendFrame(String id, Object channel, MessageFrame frame) {
+    sendMessage(id, channel, frame.getData(getMessageCodec(id)));
+  }
+
   public void broadcastCallMethod(String method, Object... parameters) {
-    broadcastMessage(HessianUtils.methodToBytesGZ(method, parameters));
+    broadcastFrame(encodeFrame(method, parameters));
   }
 
   public void broadcastCallMethod(String[] exclude, String method, Object... parameters) {
-    byte[] data = HessianUtils.methodToBytesGZ(method, parameters);
-    broadcastMessage(exclude, data);
+    broadcastFrame(exclude, encodeFrame(method, parameters));
   }
 
   public void callMethod(String id, String method, Object... parameters) {
-    byte[] data = HessianUtils.methodToBytesGZ(method, parameters);
-    sendMessage(id, null, data);
+    sendFrame(id, null, encodeFrame(method, parameters));
   }
 
   public void callMethod(String id, Object channel, String method, Object... parameters) {
-    byte[] data = HessianUtils.methodToBytesGZ(method, parameters);
-    sendMessage(id, channel, data);
+    sendFrame(id, channel, encodeFrame(method, parameters));
   }
 }
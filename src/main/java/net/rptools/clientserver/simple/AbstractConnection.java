@@ -17,13 +17,13 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import net.rptools.clientserver.ActivityListener;
 import net.rptools.clientserver.ActivityListener.Direction;
 import net.rptools.clientserver.ActivityListener.State;
@@ -36,8 +36,11 @@
 public abstract class AbstractConnection {
   // We don't need to make each list synchronized since the class is synchronized
 
-  protected Map<Object, List<byte[]>> outQueueMap = new HashMap<Object, List<byte[]>>();
-  protected List<List<byte[]>> outQueueList = new LinkedList<List<byte[]>>();
+  protected Map<Object, MessageQueue> outQueueMap = new HashMap<Object, MessageQueue>();
+  /** The queues that have messages waiting, in the order they get to send. */
+  protected List<MessageQueue> outQueueList = new LinkedList<MessageQueue>();
+  /** Numbers the messages in the order they are queued, see {@link MessageQueue#isHeldBack}. */
+  private long sequence;
   protected List<MessageHandler> messageHandlers = new CopyOnWriteArrayList<MessageHandler>();
   protected List<ActivityListener> listeners = new CopyOnWriteArrayList<ActivityListener>();
   protected List<DisconnectHandler> disconnectHandlers =
@@ -62,41 +65,104 @@ public synchronized void addMessage(byte[] message) {
   }
 
   public synchronized void addMessage(Object channel, byte[] message) {
-    List<byte[]> queue = getOutQueue(channel);
-    queue.add(message);
+    addMessage(channel, null, message);
+  }
+
+  /**
+   * Queues a message for sending. A message on a channel that is not a {@link CoalescingChannel} is
+   * only sent once the messages queued before it on the coalescing channels have been sent at the
+   * rate of their channel, and newer messages no longer replace those.
+   *
+   * @param channel the channel to send the message on, may be null.
+   * @param key if the channel is a {@link CoalescingChannel}, the key of the message a waiting
+   *     message with the same key is replaced by, may be null.
+   * @param message the message.
+   */
+  public synchronized void addMessage(Object channel, Object key, byte[] message) {
+    MessageQueue queue = getOutQueue(channel);
+    boolean wasEmpty = queue.isEmpty();
+    if (!queue.isCoalescing()) {
+      for (MessageQueue waiting : outQueueList) {
+        if (waiting.isCoalescing()) {
+          waiting.seal();
+        }
+      }
+    }
+    queue.add(key, message, sequence++);
     // Queue up for sending
-    outQueueList.add(queue);
-  }
-
-  protected List<byte[]> getOutQueue(Object channel) {
-    // Ordinarily I would synchronize this method, but I imagine the channels will be initialized
-    // once
-    // at the beginning of execution.  Thus get(channel) will only return once right at the
-    // beginning
-    // no sense incurring the cost of synchronizing the method on the class for that.
-    List<byte[]> queue = outQueueMap.get(channel);
-    if (queue == null) {
-      queue = Collections.synchronizedList(new ArrayList<byte[]>());
-      outQueueMap.put(channel, queue);
+    if (wasEmpty) {
+      outQueueList.add(queue);
     }
-    return queue;
+  }
+
+  protected MessageQueue getOutQueue(Object channel) {
+    return outQueueMap.computeIfAbsent(channel, MessageQueue::new);
   }
 
   public synchronized boolean hasMoreMessages() {
     return !outQueueList.isEmpty();
   }
 
+  /**
+   * Takes the next message to send, going round robin over the channels.
+   *
+   * @return the message, or null if the only messages waiting are on channels that may not send
+   *     yet.
+   */
   public synchronized byte[] nextMessage() {
-    if (!hasMoreMessages()) {
-      return null;
+    return nextMessage(System.nanoTime());
+  }
+
+  /**
+   * @param now the current {@link System#nanoTime()}.
+   * @return see {@link #nextMessage()}.
+   */
+  synchronized byte[] nextMessage(long now) {
+    long oldestCoalesced = getOldestCoalesced();
+    for (Iterator<MessageQueue> i = outQueueList.iterator(); i.hasNext(); ) {
+      MessageQueue queue = i.next();
+      if (queue.getSendDelay(now) == 0 && !MessageQueue.isHeldBack(queue, oldestCoalesced)) {
+        i.remove();
+        byte[] message = queue.poll(now);
+        if (!queue.isEmpty()) {
+          outQueueList.add(queue);
+        }
+        return message;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the time in milliseconds until {@link #nextMessage()} has a message to return, 0 if it
+   *     has one now, or -1 if no messages are waiting.
+   */
+  public synchronized long getSendDelay() {
+    if (outQueueList.isEmpty()) {
+      return -1;
+    }
+    long now = System.nanoTime();
+    long oldestCoalesced = getOldestCoalesced();
+    long delay = Long.MAX_VALUE;
+    for (MessageQueue queue : outQueueList) {
+      // A held back queue waits for a coalescing one, which is in the list as well
+      if (!MessageQueue.isHeldBack(queue, oldestCoalesced)) {
+        delay = Math.min(delay, queue.getSendDelay(now));
+      }
     }
-    List<byte[]> queue = outQueueList.remove(0);
+    // Round up so that the wait does not end just before the queue may send
+    return TimeUnit.NANOSECONDS.toMillis(delay + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+  }
 
-    byte[] message = queue.remove(0);
-    if (!queue.isEmpty()) {
-      outQueueList.add(queue);
+  /** @return the smallest sequence number of the messages waiting on the coalescing channels. */
+  private long getOldestCoalesced() {
+    long oldest = Long.MAX_VALUE;
+    for (MessageQueue queue : outQueueList) {
+      if (queue.isCoalescing()) {
+        oldest = Math.min(oldest, queue.getHeadSequence());
+      }
     }
-    return message;
+    return oldest;
   }
 
   public final void fireDisconnect() {
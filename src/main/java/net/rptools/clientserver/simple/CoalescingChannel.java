@@ -0,0 +1,63 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.simple;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An outbound channel for messages that go stale as soon as a newer one is sent, such as pointer
+ * positions. A message sent with a key replaces a message with the same key that is still waiting
+ * in the queue, and the channel can limit how many messages per second it lets through so that the
+ * waiting ones have a chance to be replaced.
+ *
+ * <p>Messages sent on the channel without a key are never replaced and keep their place relative
+ * to the keyed ones: only keyed messages queued after the last unkeyed one can be replaced. A
+ * message sent on a channel that is not a coalescing one acts the same way on every coalescing
+ * channel, and waits for the messages queued before it there, see {@link
+ * AbstractConnection#addMessage(Object, Object, byte[])}.
+ */
+public final class CoalescingChannel {
+  private final String name;
+  private volatile long minIntervalNanos;
+
+  /**
+   * @param name the name of the channel, for debugging.
+   * @param maxMessagesPerSecond the most messages to send per second, 0 for no limit.
+   */
+  public CoalescingChannel(String name, int maxMessagesPerSecond) {
+    this.name = name;
+    setMaxMessagesPerSecond(maxMessagesPerSecond);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /** @param maxMessagesPerSecond the most messages to send per second, 0 for no limit. */
+  public void setMaxMessagesPerSecond(int maxMessagesPerSecond) {
+    minIntervalNanos =
+        maxMessagesPerSecond <= 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / maxMessagesPerSecond;
+  }
+
+  /** @return the shortest time between two messages, in nanoseconds. */
+  public long getMinIntervalNanos() {
+    return minIntervalNanos;
+  }
+
+  @Override
+  public String toString() {
+    return "CoalescingChannel[" + name + "]";
+  }
+}
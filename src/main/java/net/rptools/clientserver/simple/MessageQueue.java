@@ -0,0 +1,157 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.simple;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outbound messages of a single channel of a connection. On a {@link CoalescingChannel} keyed
+ * messages replace each other and the send rate is limited; on any other channel it is a plain
+ * FIFO. Every message carries the sequence number the connection queued it with, so that the
+ * connection can keep the messages of other channels from overtaking it. Not thread safe, the
+ * connection owning the queue synchronizes access.
+ */
+public class MessageQueue {
+  private final Object channel;
+  private final List<Entry> messages = new ArrayList<Entry>();
+
+  /** The waiting messages that may still be replaced, by key. */
+  private final Map<Object, Entry> replaceable = new HashMap<Object, Entry>();
+
+  private long lastSendNanos;
+  private boolean sent;
+
+  private static final class Entry {
+    private final Object key;
+    private final long sequence;
+    private byte[] message;
+
+    private Entry(Object key, long sequence, byte[] message) {
+      this.key = key;
+      this.sequence = sequence;
+      this.message = message;
+    }
+  }
+
+  /** @param channel the channel the queue is for, may be null. */
+  public MessageQueue(Object channel) {
+    this.channel = channel;
+  }
+
+  public Object getChannel() {
+    return channel;
+  }
+
+  /** @return true if the queue is for a {@link CoalescingChannel}. */
+  public boolean isCoalescing() {
+    return channel instanceof CoalescingChannel;
+  }
+
+  public boolean isEmpty() {
+    return messages.isEmpty();
+  }
+
+  public int size() {
+    return messages.size();
+  }
+
+  /**
+   * Adds a message to the end of the queue, or in place of a waiting message with the same key. A
+   * replacement keeps the place and the sequence number of the message it replaces, so that it
+   * still goes out before the messages queued after that one.
+   *
+   * @param key the key of the message, or null if it must never be replaced. Keys are ignored
+   *     unless the channel is a {@link CoalescingChannel}.
+   * @param message the message.
+   * @param sequence the number of the message in the order the connection queued its messages.
+   */
+  public void add(Object key, byte[] message, long sequence) {
+    if (key == null || !isCoalescing()) {
+      // Nothing queued before this message may overtake it
+      replaceable.clear();
+      messages.add(new Entry(null, sequence, message));
+      return;
+    }
+    Entry queued = replaceable.get(key);
+    if (queued != null) {
+      queued.message = message;
+      return;
+    }
+    Entry entry = new Entry(key, sequence, message);
+    replaceable.put(key, entry);
+    messages.add(entry);
+  }
+
+  /**
+   * Keeps the waiting messages from being replaced, as if an unkeyed message had been added after
+   * them. Newer keyed messages are queued behind them instead.
+   */
+  public void seal() {
+    replaceable.clear();
+  }
+
+  /**
+   * @return the sequence number of the message at the head of the queue, or {@link Long#MAX_VALUE}
+   *     if the queue is empty.
+   */
+  public long getHeadSequence() {
+    return messages.isEmpty() ? Long.MAX_VALUE : messages.get(0).sequence;
+  }
+
+  /**
+   * @param now the current {@link System#nanoTime()}.
+   * @return the time until the queue may send its next message in nanoseconds, 0 if it may send now.
+   */
+  public long getSendDelay(long now) {
+    if (!sent || !isCoalescing()) {
+      return 0;
+    }
+    long interval = ((CoalescingChannel) channel).getMinIntervalNanos();
+    return Math.max(0, lastSendNanos + interval - now);
+  }
+
+  /**
+   * Removes the message at the head of the queue for sending.
+   *
+   * @param now the current {@link System#nanoTime()}.
+   * @return the message.
+   */
+  public byte[] poll(long now) {
+    Entry entry = messages.remove(0);
+    if (entry.key != null) {
+      replaceable.remove(entry.key);
+    }
+    lastSendNanos = now;
+    sent = true;
+    return entry.message;
+  }
+
+  /**
+   * Tells whether the head of a queue has to wait for older messages on the coalescing channels.
+   * Together with {@link #seal()} this keeps the order between the channels, so that for instance a
+   * token removal never arrives before a move of that token that was sent earlier, while the
+   * coalescing channels keep their rate.
+   *
+   * @param queue the queue.
+   * @param oldestCoalesced the smallest {@link #getHeadSequence()} of the coalescing queues.
+   * @return true if the head of the queue may not be sent yet.
+   */
+  public static boolean isHeldBack(MessageQueue queue, long oldestCoalesced) {
+    return !queue.isCoalescing() && queue.getHeadSequence() > oldestCoalesced;
+  }
+}
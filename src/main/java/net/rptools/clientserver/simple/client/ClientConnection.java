@@ -67,8 +67,21 @@ public void sendMessage(byte[] message) {
   }
 
   public void sendMessage(Object channel, byte[] message) {
-    addMessage(channel, message);
+    sendMessage(channel, null, message);
+  }
+
+  /**
+   * Sends a message on a channel.
+   *
+   * @param channel the channel, may be null.
+   * @param key if the channel is a {@link net.rptools.clientserver.simple.CoalescingChannel}, the
+   *     key of the message that replaces a waiting message with the same key, may be null.
+   * @param message the message.
+   */
+  public void sendMessage(Object channel, Object key, byte[] message) {
+    addMessage(channel, key, message);
     synchronized (send) {
+      send.wakeRequested = true;
       send.notify();
     }
   }
@@ -100,6 +113,8 @@ private class SendThread extends Thread {
     private final ClientConnection conn;
     private final OutputStream out;
     private boolean stopRequested = false;
+    /** Set when a message was queued, so that the thread does not wait for it. */
+    private boolean wakeRequested = false;
 
     public SendThread(ClientConnection conn, OutputStream out) {
       this.conn = conn;
@@ -118,21 +133,21 @@ public void run() {
       try {
         while (!stopRequested && conn.isAlive()) {
           try {
-            while (conn.hasMoreMessages()) {
-              try {
-                byte[] message = conn.nextMessage();
-                if (message == null) {
-                  continue;
-                }
-                conn.writeMessage(out, message);
-              } catch (IndexOutOfBoundsException e) {
-                // just ignore and wait
-              }
+            byte[] message;
+            while ((message = conn.nextMessage()) != null) {
+              conn.writeMessage(out, message);
             }
+            // Messages held back by a rate limited channel need a timed wait
+            long delay = conn.getSendDelay();
             synchronized (this) {
-              if (!stopRequested) {
-                this.wait();
+              if (!stopRequested && !wakeRequested) {
+                if (delay < 0) {
+                  this.wait();
+                } else if (delay > 0) {
+                  this.wait(delay);
+                }
               }
+              wakeRequested = false;
             }
           } catch (InterruptedException e) {
             // do nothing
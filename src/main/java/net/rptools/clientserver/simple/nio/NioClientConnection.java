@@ -0,0 +1,372 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.simple.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import net.rptools.clientserver.ActivityListener.Direction;
+import net.rptools.clientserver.ActivityListener.State;
+import net.rptools.clientserver.simple.MessageQueue;
+import net.rptools.clientserver.simple.client.ClientConnection;
+import org.apache.log4j.Logger;
+
+/**
+ * Server side client connection served by a {@link NioTransport} instead of a dedicated send and
+ * receive thread pair. The wire format is identical to {@link ClientConnection}: every message is
+ * a 4 byte big endian length followed by the payload.
+ *
+ * <p>Outbound messages are kept in one {@link MessageQueue} per channel and are interleaved round
+ * robin by the I/O thread, matching the fairness of {@link
+ * net.rptools.clientserver.simple.AbstractConnection#nextMessage()}. Inbound messages are
+ * dispatched in order on the transport's dispatch pool.
+ */
+public class NioClientConnection extends ClientConnection {
+  private static final Logger log = Logger.getLogger(NioClientConnection.class);
+
+  /** Stand in for the <code>null</code> channel, which a ConcurrentHashMap cannot hold. */
+  private static final Object DEFAULT_CHANNEL = new Object();
+
+  private final SocketChannel channel;
+  private final NioTransport transport;
+
+  private final Map<Object, MessageQueue> channelQueues =
+      new ConcurrentHashMap<Object, MessageQueue>();
+  private final List<MessageQueue> queueOrder = new CopyOnWriteArrayList<MessageQueue>();
+  private final AtomicBoolean writeScheduled = new AtomicBoolean();
+  private final AtomicLong sequence = new AtomicLong();
+
+  private final Queue<byte[]> inbound = new ConcurrentLinkedQueue<byte[]>();
+  private final AtomicBoolean dispatching = new AtomicBoolean();
+  private final AtomicBoolean closed = new AtomicBoolean();
+
+  private volatile NioTransport.IoThread ioThread;
+  private volatile SelectionKey selectionKey;
+
+  // Only touched by the I/O thread
+  private ByteBuffer writeBuffer;
+  private byte[] currentMessage;
+  private int currentOffset;
+  private int nextQueue;
+  private final ByteBuffer header = ByteBuffer.allocate(4);
+  private byte[] body;
+  private int bodyOffset;
+
+  public NioClientConnection(SocketChannel channel, String id, NioTransport transport) {
+    super(channel.socket(), id);
+    this.channel = channel;
+    this.transport = transport;
+  }
+
+  @Override
+  public void start() throws IOException {
+    channel.configureBlocking(false);
+    transport.register(this);
+  }
+
+  SocketChannel getChannel() {
+    return channel;
+  }
+
+  void setIoThread(NioTransport.IoThread ioThread) {
+    this.ioThread = ioThread;
+  }
+
+  SelectionKey getSelectionKey() {
+    return selectionKey;
+  }
+
+  void setSelectionKey(SelectionKey selectionKey) {
+    this.selectionKey = selectionKey;
+  }
+
+  @Override
+  public void sendMessage(Object channel, Object key, byte[] message) {
+    if (closed.get()) {
+      return;
+    }
+    MessageQueue queue = channelQueues.get(channel == null ? DEFAULT_CHANNEL : channel);
+    if (queue == null) {
+      queue =
+          channelQueues.computeIfAbsent(
+              channel == null ? DEFAULT_CHANNEL : channel,
+              k -> {
+                MessageQueue q = new MessageQueue(channel);
+                queueOrder.add(q);
+                return q;
+              });
+    }
+    if (!queue.isCoalescing()) {
+      for (MessageQueue waiting : queueOrder) {
+        if (waiting.isCoalescing()) {
+          synchronized (waiting) {
+            waiting.seal();
+          }
+        }
+      }
+    }
+    synchronized (queue) {
+      // Numbered under the lock so that the sequence numbers in a queue keep increasing
+      queue.add(key, message, sequence.getAndIncrement());
+    }
+
+    NioTransport.IoThread thread = ioThread;
+    if (thread != null && writeScheduled.compareAndSet(false, true)) {
+      thread.requestWrite(this);
+    }
+  }
+
+  @Override
+  public boolean isAlive() {
+    return !closed.get() && channel.isOpen();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed.compareAndSet(false, true)) {
+      channel.close();
+    }
+  }
+
+  /** Called by the I/O thread when the channel can no longer be used. */
+  void handleIOFailure() {
+    boolean wasOpen = !closed.get();
+    try {
+      close();
+    } catch (IOException e) {
+      log.debug(e.getMessage(), e);
+    }
+    transport.getBufferPool().release(writeBuffer);
+    writeBuffer = null;
+    if (wasOpen) {
+      fireDisconnect();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // I/O thread
+  ///////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Reads whatever is available on the channel and dispatches any completed messages.
+   *
+   * @param readBuffer scratch buffer owned by the calling I/O thread.
+   */
+  void read(ByteBuffer readBuffer) throws IOException {
+    int count = 0;
+    // Bound the work done per selection so a chatty client cannot starve the others
+    for (int i = 0; i < 16; i++) {
+      readBuffer.clear();
+      count = channel.read(readBuffer);
+      if (count <= 0) {
+        break;
+      }
+      readBuffer.flip();
+      consume(readBuffer);
+    }
+    if (count < 0) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  private void consume(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (body == null) {
+        while (header.hasRemaining() && buffer.hasRemaining()) {
+          header.put(buffer.get());
+        }
+        if (header.hasRemaining()) {
+          return;
+        }
+        header.flip();
+        int length = header.getInt();
+        header.clear();
+        if (length < 0 || length > transport.getMaxMessageSize()) {
+          // Refuse before allocating, the I/O thread closes the connection
+          log.warn("Invalid message length " + length + " from " + getId());
+          throw new IOException("Invalid message length: " + length);
+        }
+        body = new byte[length];
+        bodyOffset = 0;
+        notifyListeners(Direction.Inbound, State.Start, length, 0);
+      }
+      int count = Math.min(buffer.remaining(), body.length - bodyOffset);
+      buffer.get(body, bodyOffset, count);
+      bodyOffset += count;
+      if (bodyOffset == body.length) {
+        byte[] message = body;
+        body = null;
+        notifyListeners(Direction.Inbound, State.Complete, message.length, message.length);
+        enqueueInbound(message);
+      }
+    }
+  }
+
+  /**
+   * Writes as much of the outbound queues as the socket accepts, and keeps write interest on the
+   * selection key only while there is data left over.
+   *
+   * @return the time in nanoseconds after which messages held back by a rate limited channel may be
+   *     sent, or 0 if there are none.
+   */
+  long flush(SelectionKey key) throws IOException {
+    // Cleared first so that messages queued while we drain schedule another flush
+    writeScheduled.set(false);
+    while (true) {
+      fillWriteBuffer();
+      if (writeBuffer == null || writeBuffer.position() == 0) {
+        transport.getBufferPool().release(writeBuffer);
+        writeBuffer = null;
+        key.interestOps(SelectionKey.OP_READ);
+        return getThrottleDelay();
+      }
+      writeBuffer.flip();
+      channel.write(writeBuffer);
+      if (writeBuffer.hasRemaining()) {
+        writeBuffer.compact();
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        return 0;
+      }
+      writeBuffer.clear();
+    }
+  }
+
+  private long getThrottleDelay() {
+    long now = System.nanoTime();
+    long oldestCoalesced = getOldestCoalesced();
+    long delay = 0;
+    for (MessageQueue queue : queueOrder) {
+      synchronized (queue) {
+        if (!queue.isEmpty() && !MessageQueue.isHeldBack(queue, oldestCoalesced)) {
+          long queueDelay = queue.getSendDelay(now);
+          delay = delay == 0 ? queueDelay : Math.min(delay, queueDelay);
+        }
+      }
+    }
+    return delay;
+  }
+
+  private void fillWriteBuffer() {
+    while (true) {
+      if (currentMessage == null) {
+        if (writeBuffer != null && writeBuffer.remaining() < 4) {
+          return;
+        }
+        byte[] next = pollNextMessage();
+        if (next == null) {
+          return;
+        }
+        if (writeBuffer == null) {
+          writeBuffer = transport.getBufferPool().acquire();
+        }
+        writeBuffer.putInt(next.length);
+        currentMessage = next;
+        currentOffset = 0;
+        notifyListeners(Direction.Outbound, State.Start, next.length, 0);
+      }
+      int count = Math.min(writeBuffer.remaining(), currentMessage.length - currentOffset);
+      writeBuffer.put(currentMessage, currentOffset, count);
+      currentOffset += count;
+      if (currentOffset < currentMessage.length) {
+        return;
+      }
+      notifyListeners(
+          Direction.Outbound, State.Complete, currentMessage.length, currentMessage.length);
+      currentMessage = null;
+    }
+  }
+
+  /**
+   * @return the smallest sequence number of the messages waiting on the coalescing channels, and at
+   *     most the next sequence number as the scan starts. A coalesced message the scan misses is
+   *     numbered after that, so no message queued behind it is let through; those are queued after
+   *     the flush started and schedule another one.
+   */
+  private long getOldestCoalesced() {
+    long oldest = sequence.get();
+    for (MessageQueue queue : queueOrder) {
+      if (queue.isCoalescing()) {
+        synchronized (queue) {
+          oldest = Math.min(oldest, queue.getHeadSequence());
+        }
+      }
+    }
+    return oldest;
+  }
+
+  private byte[] pollNextMessage() {
+    long now = System.nanoTime();
+    long oldestCoalesced = getOldestCoalesced();
+    int size = queueOrder.size();
+    for (int i = 0; i < size; i++) {
+      int index = (nextQueue + i) % size;
+      MessageQueue queue = queueOrder.get(index);
+      synchronized (queue) {
+        if (!queue.isEmpty()
+            && queue.getSendDelay(now) == 0
+            && !MessageQueue.isHeldBack(queue, oldestCoalesced)) {
+          nextQueue = (index + 1) % size;
+          return queue.poll(now);
+        }
+      }
+    }
+    return null;
+  }
+
+  private void enqueueInbound(byte[] message) {
+    inbound.offer(message);
+    scheduleDispatch();
+  }
+
+  private void scheduleDispatch() {
+    if (dispatching.compareAndSet(false, true)) {
+      try {
+        transport.getDispatchPool().execute(this::drainInbound);
+      } catch (RejectedExecutionException e) {
+        // Transport is shutting down
+        dispatching.set(false);
+      }
+    }
+  }
+
+  private void drainInbound() {
+    try {
+      byte[] message;
+      while ((message = inbound.poll()) != null) {
+        try {
+          dispatchMessage(getId(), message);
+        } catch (Throwable t) {
+          // don't let a single message stop delivery of the rest
+          log.error(t.getMessage(), t);
+        }
+      }
+    } finally {
+      dispatching.set(false);
+    }
+    if (!inbound.isEmpty()) {
+      scheduleDispatch();
+    }
+  }
+}
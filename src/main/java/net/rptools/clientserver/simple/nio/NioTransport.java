@@ -0,0 +1,277 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.simple.nio;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.log4j.Logger;
+
+/**
+ * Selector based transport shared by all {@link NioClientConnection}s of a server. A small, fixed
+ * number of I/O threads multiplex every client socket, and inbound messages are handed to a shared
+ * dispatch pool so that slow message handlers never stall the selectors.
+ */
+public class NioTransport {
+  private static final Logger log = Logger.getLogger(NioTransport.class);
+
+  /** Size of the pooled direct buffers used for socket reads and writes. */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** The largest inbound message accepted by default, in bytes. */
+  public static final int DEFAULT_MAX_MESSAGE_SIZE = 256 * 1024 * 1024;
+
+  private final int maxMessageSize;
+  private final IoThread[] ioThreads;
+  private final AtomicInteger nextIoThread = new AtomicInteger();
+  private final DirectBufferPool bufferPool;
+  private final ExecutorService dispatchPool;
+
+  /** Creates a transport with one I/O thread per two cores, capped at two. */
+  public NioTransport() throws IOException {
+    this(Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 2)));
+  }
+
+  /**
+   * @param ioThreadCount the number of selector threads to run.
+   * @throws IOException if a selector could not be opened.
+   */
+  public NioTransport(int ioThreadCount) throws IOException {
+    this(ioThreadCount, DEFAULT_MAX_MESSAGE_SIZE);
+  }
+
+  /**
+   * @param ioThreadCount the number of selector threads to run.
+   * @param maxMessageSize the largest inbound message accepted, in bytes. A connection announcing a
+   *     larger one is closed before anything is allocated for it.
+   * @throws IOException if a selector could not be opened.
+   */
+  public NioTransport(int ioThreadCount, int maxMessageSize) throws IOException {
+    this.maxMessageSize = maxMessageSize;
+    bufferPool = new DirectBufferPool(BUFFER_SIZE, ioThreadCount * 32);
+    dispatchPool =
+        Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()),
+            new ThreadFactoryBuilder()
+                .setNameFormat("nio-dispatch-%d")
+                .setDaemon(true)
+                .build());
+    ioThreads = new IoThread[ioThreadCount];
+    for (int i = 0; i < ioThreadCount; i++) {
+      ioThreads[i] = new IoThread(i);
+      ioThreads[i].start();
+    }
+  }
+
+  int getMaxMessageSize() {
+    return maxMessageSize;
+  }
+
+  DirectBufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  ExecutorService getDispatchPool() {
+    return dispatchPool;
+  }
+
+  /**
+   * Hands a connection over to one of the I/O threads. The channel must already be in non-blocking
+   * mode.
+   */
+  void register(NioClientConnection conn) {
+    IoThread thread =
+        ioThreads[Math.floorMod(nextIoThread.getAndIncrement(), ioThreads.length)];
+    conn.setIoThread(thread);
+    thread.pendingRegistrations.offer(conn);
+    thread.selector.wakeup();
+  }
+
+  /** Stops the I/O threads and the dispatch pool. Connections must be closed separately. */
+  public void close() {
+    for (IoThread thread : ioThreads) {
+      thread.requestStop();
+    }
+    dispatchPool.shutdown();
+  }
+
+  /** A selector loop serving a subset of the connections. */
+  class IoThread extends Thread {
+    private final Selector selector;
+    private final Queue<NioClientConnection> pendingRegistrations =
+        new ConcurrentLinkedQueue<NioClientConnection>();
+    private final Queue<NioClientConnection> pendingWrites =
+        new ConcurrentLinkedQueue<NioClientConnection>();
+    private final ByteBuffer readBuffer;
+    /** When to flush connections holding messages back for a rate limited channel. */
+    private final Map<NioClientConnection, Long> delayedFlushes =
+        new HashMap<NioClientConnection, Long>();
+
+    private volatile boolean stopRequested = false;
+
+    IoThread(int index) throws IOException {
+      super("nio-io-" + index);
+      setDaemon(true);
+      selector = Selector.open();
+      readBuffer = bufferPool.acquire();
+    }
+
+    void requestStop() {
+      stopRequested = true;
+      selector.wakeup();
+    }
+
+    /** Called from any thread when a connection has new outbound messages. */
+    void requestWrite(NioClientConnection conn) {
+      pendingWrites.offer(conn);
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      while (!stopRequested) {
+        try {
+          long timeout = getSelectTimeout();
+          if (timeout > 0) {
+            selector.select(timeout);
+          } else {
+            selector.select();
+          }
+          registerPending();
+          flushPending();
+          flushDelayed();
+
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            NioClientConnection conn = (NioClientConnection) key.attachment();
+            try {
+              if (key.isValid() && key.isReadable()) {
+                conn.read(readBuffer);
+              }
+              if (key.isValid() && key.isWritable()) {
+                scheduleDelayedFlush(conn, conn.flush(key));
+              }
+            } catch (IOException | CancelledKeyException e) {
+              conn.handleIOFailure();
+            }
+          }
+        } catch (Throwable t) {
+          // Don't let anything kill this thread
+          log.error(t.getMessage(), t);
+        }
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        log.error(e.getMessage(), e);
+      }
+      bufferPool.release(readBuffer);
+    }
+
+    private void registerPending() {
+      NioClientConnection conn;
+      while ((conn = pendingRegistrations.poll()) != null) {
+        try {
+          SelectionKey key = conn.getChannel().register(selector, SelectionKey.OP_READ, conn);
+          conn.setSelectionKey(key);
+          // Anything queued before registration completed still needs to go out
+          flushConnection(conn, key);
+        } catch (ClosedChannelException e) {
+          conn.handleIOFailure();
+        }
+      }
+    }
+
+    private void flushPending() {
+      NioClientConnection conn;
+      while ((conn = pendingWrites.poll()) != null) {
+        SelectionKey key = conn.getSelectionKey();
+        if (key != null) {
+          flushConnection(conn, key);
+        }
+      }
+    }
+
+    private void flushConnection(NioClientConnection conn, SelectionKey key) {
+      try {
+        if (key.isValid()) {
+          scheduleDelayedFlush(conn, conn.flush(key));
+        }
+      } catch (IOException | CancelledKeyException e) {
+        conn.handleIOFailure();
+      }
+    }
+
+    private void scheduleDelayedFlush(NioClientConnection conn, long delay) {
+      if (delay > 0) {
+        delayedFlushes.merge(conn, System.nanoTime() + delay, Math::min);
+      }
+    }
+
+    /** @return the milliseconds until the next delayed flush is due, 0 if there is none. */
+    private long getSelectTimeout() {
+      if (delayedFlushes.isEmpty()) {
+        return 0;
+      }
+      long now = System.nanoTime();
+      long due = Long.MAX_VALUE;
+      for (long time : delayedFlushes.values()) {
+        due = Math.min(due, time);
+      }
+      // Rounded up, and at least 1 because select(0) would block indefinitely
+      long millis = TimeUnit.NANOSECONDS.toMillis(due - now + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+      return Math.max(1, millis);
+    }
+
+    private void flushDelayed() {
+      if (delayedFlushes.isEmpty()) {
+        return;
+      }
+      long now = System.nanoTime();
+      List<NioClientConnection> due = new ArrayList<NioClientConnection>();
+      for (Iterator<Map.Entry<NioClientConnection, Long>> i = delayedFlushes.entrySet().iterator();
+          i.hasNext(); ) {
+        Map.Entry<NioClientConnection, Long> entry = i.next();
+        if (entry.getValue() - now <= 0) {
+          due.add(entry.getKey());
+          i.remove();
+        }
+      }
+      for (NioClientConnection conn : due) {
+        SelectionKey key = conn.getSelectionKey();
+        if (key != null && conn.isAlive()) {
+          flushConnection(conn, key);
+        }
+      }
+    }
+  }
+}
@@ -15,8 +15,10 @@
 package net.rptools.clientserver.simple.server;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -25,10 +27,13 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 import net.rptools.clientserver.simple.AbstractConnection;
 import net.rptools.clientserver.simple.DisconnectHandler;
 import net.rptools.clientserver.simple.MessageHandler;
 import net.rptools.clientserver.simple.client.ClientConnection;
+import net.rptools.clientserver.simple.nio.NioClientConnection;
+import net.rptools.clientserver.simple.nio.NioTransport;
 import org.apache.log4j.Logger;
 
 /** @author drice */
@@ -39,6 +44,7 @@ public class ServerConnection extends AbstractConnection
   private final ServerSocket socket;
   private final ListeningThread listeningThread;
   private final DispatchThread dispatchThread;
+  private final NioTransport nioTransport;
 
   //    private final ReaperThread reaperThread;
 
@@ -48,7 +54,27 @@ public class ServerConnection extends AbstractConnection
       Collections.synchronizedList(new ArrayList<ServerObserver>());
 
   public ServerConnection(int port) throws IOException {
-    socket = new ServerSocket(port);
+    this(port, false);
+  }
+
+  /**
+   * @param port the port to listen on.
+   * @param useNio if true, clients are served by a shared {@link NioTransport} instead of a send
+   *     and receive thread per client.
+   * @throws IOException if the server socket could not be opened.
+   */
+  public ServerConnection(int port, boolean useNio) throws IOException {
+    if (useNio) {
+      // Accepted sockets keep their channel so they can be switched to non-blocking mode after the
+      // (blocking) connection handshake
+      ServerSocketChannel serverChannel = ServerSocketChannel.open();
+      serverChannel.bind(new InetSocketAddress(port));
+      socket = serverChannel.socket();
+      nioTransport = new NioTransport();
+    } else {
+      socket = new ServerSocket(port);
+      nioTransport = null;
+    }
     dispatchThread = new DispatchThread(this);
     dispatchThread.start();
     listeningThread = new ListeningThread(this, socket);
@@ -92,6 +118,58 @@ public void broadcastMessage(String[] exclude, byte[] message) {
     }
   }
 
+  /**
+   * Sends a message to every client but the excluded ones, built separately for each client.
+   *
+   * @param exclude the ids of the clients not to send the message to.
+   * @param messageForClient returns the message to send for the id of a client.
+   */
+  public void broadcastMessage(String[] exclude, Function<String, byte[]> messageForClient) {
+    broadcastMessage(exclude, null, null, messageForClient);
+  }
+
+  /**
+   * Sends a message to every client but the excluded ones, built separately for each client.
+   *
+   * @param exclude the ids of the clients not to send the message to.
+   * @param channel the channel to send the message on, may be null.
+   * @param key the key of the message if the channel is a coalescing one, may be null.
+   * @param messageForClient returns the message to send for the id of a client.
+   */
+  public void broadcastMessage(
+      String[] exclude, Object channel, Object key, Function<String, byte[]> messageForClient) {
+    Set<String> excludeSet = new HashSet<String>();
+    for (String e : exclude) {
+      excludeSet.add(e);
+    }
+    synchronized (clients) {
+      for (Map.Entry<String, ClientConnection> entry : clients.entrySet()) {
+        if (!excludeSet.contains(entry.getKey())) {
+          entry.getValue().sendMessage(channel, key, messageForClient.apply(entry.getKey()));
+        }
+      }
+    }
+  }
+
+  /**
+   * @param exclude the ids of the clients not to count.
+   * @return true if a broadcast to every client but the excluded ones would reach anyone.
+   */
+  public boolean hasClients(String[] exclude) {
+    Set<String> excludeSet = new HashSet<String>();
+    for (String e : exclude) {
+      excludeSet.add(e);
+    }
+    synchronized (clients) {
+      for (String id : clients.keySet()) {
+        if (!excludeSet.contains(id)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   public void sendMessage(String id, byte[] message) {
     sendMessage(id, null, message);
   }
@@ -112,6 +190,20 @@ public boolean handleConnectionHandshake(String id, Socket socket) {
     return true;
   }
 
+  /**
+   * Creates the connection for a client that passed the handshake.
+   *
+   * @param socket the accepted socket.
+   * @param id the id assigned to the client.
+   * @return the connection, not yet started.
+   */
+  protected ClientConnection createClientConnection(Socket socket, String id) {
+    if (nioTransport != null) {
+      return new NioClientConnection(socket.getChannel(), id, nioTransport);
+    }
+    return new ClientConnection(socket, id);
+  }
+
   public void close() throws IOException {
     listeningThread.suppressErrors();
     log.debug("Server closing down");
@@ -131,6 +223,9 @@ public void close() throws IOException {
     } catch (InterruptedException e) {
       log.error(e.getMessage(), e);
     }
+    if (nioTransport != null) {
+      nioTransport.close();
+    }
     //        reaperThread.requestStop();
     //        try {
     //            reaperThread.join();
@@ -228,7 +323,7 @@ public void run() {
             s.close();
             continue;
           }
-          ClientConnection conn = new ClientConnection(s, id);
+          ClientConnection conn = server.createClientConnection(s, id);
           conn.addMessageHandler(server);
           conn.addDisconnectHandler(server);
           conn.start();
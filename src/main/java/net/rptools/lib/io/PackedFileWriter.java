@@ -0,0 +1,212 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.lib.io;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.thoughtworks.xstream.XStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import net.rptools.lib.FileUtil;
+import org.apache.commons.compress.archivers.zip.ParallelScatterZipCreator;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes a new packed file in a single pass. This is the write only counterpart of {@link
+ * PackedFile} for large files that are always rewritten as a whole, such as campaigns.
+ *
+ * <p>Unlike {@link PackedFile} nothing is exploded to temporary files first: objects are serialized
+ * straight into their zip entry, binary data is compressed in parallel, and entries of an existing
+ * zip can be copied over as they are, without being decompressed and compressed again. The result
+ * is written next to the target and moved into place by {@link #save()}, so the target is never
+ * left half written.
+ */
+public class PackedFileWriter implements AutoCloseable {
+
+  private static final String PROPERTY_FILE = "properties.xml";
+  private static final String CONTENT_FILE = "content.xml";
+
+  private static final Logger log = LogManager.getLogger(PackedFileWriter.class);
+
+  private final XStream xstream = FileUtil.getConfiguredXStream();
+
+  private final File file;
+  private final File tmpFile;
+  private final ZipArchiveOutputStream zout;
+  private final ExecutorService compressPool;
+  private final ParallelScatterZipCreator compressedEntries;
+
+  private final Map<String, Object> propertyMap = new HashMap<String, Object>();
+  private boolean saved;
+
+  /**
+   * @param file the packed file to write, it is only replaced once {@link #save()} is called
+   * @throws IOException If the temporary file could not be created
+   */
+  public PackedFileWriter(File file) throws IOException {
+    this.file = file.getAbsoluteFile();
+    // Same directory as the target so that the final move can be atomic
+    tmpFile = File.createTempFile(file.getName() + ".", ".tmp", this.file.getParentFile());
+    zout = new ZipArchiveOutputStream(tmpFile);
+    compressPool =
+        Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            new ThreadFactoryBuilder()
+                .setNameFormat("packed-file-writer-%d")
+                .setDaemon(true)
+                .build());
+    compressedEntries = new ParallelScatterZipCreator(compressPool);
+  }
+
+  /**
+   * Useful for configuring the xstream for object serialization
+   *
+   * @return the xstream used to serialize objects
+   */
+  public XStream getXStream() {
+    return xstream;
+  }
+
+  public Object setProperty(String key, Object value) {
+    return propertyMap.put(key, value);
+  }
+
+  /**
+   * Set the given object as the information to write to the 'content.xml' file in the archive.
+   *
+   * @param content the content to be stored
+   * @throws IOException If an I/O error occurs
+   */
+  public void setContent(Object content) throws IOException {
+    putFile(CONTENT_FILE, content);
+  }
+
+  /**
+   * Serializes the object as UTF-8 encoded XML directly into the zip, without keeping the XML in
+   * memory.
+   *
+   * @param path location within the ZIP file
+   * @param obj the object to be written
+   * @throws IOException If an I/O error occurs
+   */
+  public void putFile(String path, Object obj) throws IOException {
+    zout.putArchiveEntry(new ZipArchiveEntry(path));
+    BufferedWriter bw =
+        new BufferedWriter(
+            new OutputStreamWriter(CloseShieldOutputStream.wrap(zout), StandardCharsets.UTF_8));
+    xstream.toXML(obj, bw);
+    bw.newLine(); // Not necessary but editing the file looks nicer. ;-)
+    bw.flush();
+    zout.closeArchiveEntry();
+  }
+
+  /**
+   * Queues binary data for the ZIP file. The data is compressed on a background thread and written
+   * by {@link #save()}, so it must not be modified afterwards.
+   *
+   * @param path location within the ZIP file
+   * @param data the binary data to be written
+   */
+  public void putFile(String path, byte[] data) {
+    ZipArchiveEntry entry = new ZipArchiveEntry(path);
+    entry.setMethod(ZipEntry.DEFLATED);
+    compressedEntries.addArchiveEntry(entry, () -> new ByteArrayInputStream(data));
+  }
+
+  /**
+   * Copies an entry from another zip file as it is, without decompressing it.
+   *
+   * @param source the zip file to copy from
+   * @param path location of the entry, both in the source and in this file
+   * @return false if the source has no such entry
+   * @throws IOException If an I/O error occurs
+   */
+  public boolean copyFile(ZipFile source, String path) throws IOException {
+    ZipArchiveEntry entry = source.getEntry(path);
+    if (entry == null || entry.isDirectory()) {
+      return false;
+    }
+    zout.addRawArchiveEntry(entry, source.getRawInputStream(entry));
+    return true;
+  }
+
+  /**
+   * Finishes the zip and replaces the target with it. Where the file system supports it the target
+   * is replaced atomically.
+   *
+   * @throws IOException If an I/O error occurs
+   */
+  public void save() throws IOException {
+    if (!propertyMap.isEmpty()) {
+      putFile(PROPERTY_FILE, propertyMap);
+    }
+    try {
+      compressedEntries.writeTo(zout);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while compressing " + file, e);
+    } catch (ExecutionException e) {
+      throw new IOException("Could not compress " + file, e.getCause());
+    }
+    zout.close();
+
+    try {
+      Files.move(
+          tmpFile.toPath(),
+          file.toPath(),
+          StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    saved = true;
+    if (log.isDebugEnabled()) {
+      log.debug(compressedEntries.getStatisticsMessage());
+    }
+  }
+
+  /** Discards the new file unless it was saved. The target is left untouched in that case. */
+  @Override
+  public void close() {
+    compressPool.shutdownNow();
+    if (!saved) {
+      try {
+        zout.close();
+      } catch (IOException e) {
+        // ignore close exception
+      }
+      if (tmpFile.exists() && !tmpFile.delete()) {
+        log.warn("Could not delete " + tmpFile);
+      }
+    }
+  }
+}
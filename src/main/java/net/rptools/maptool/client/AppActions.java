@@ -2196,6 +2196,7 @@ protected void executeAction() {
                         serverProps.getPlayerPassword(),
                         serverProps.getPort(),
                         serverProps.getRPToolsName());
+                config.setUseNioTransport(AppPreferences.getUseNioServerTransport());
 
                 // Use the existing campaign
                 Campaign campaign = MapTool.getCampaign();
@@ -2469,7 +2470,7 @@ protected PersistedCampaign doInBackground() throws Exception {
         if (MapTool.getBackupManager() != null) {
           MapTool.getBackupManager().backup(campaignFile);
         }
-        // Load
+        // Load. Maps stored separately stay in the file until they are needed, also for the server
         return PersistenceUtil.loadCampaign(campaignFile);
       } finally {
         AppState.releaseBackgroundTaskLock();
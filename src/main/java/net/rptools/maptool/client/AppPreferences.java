@@ -28,6 +28,7 @@
 import net.rptools.maptool.model.Token;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.TopologyMode;
+import net.rptools.maptool.server.MessageChannels;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -460,6 +461,22 @@ public static int getHaloLineWidth() {
   private static final String KEY_SKIP_AUTO_UPDATE_RELEASE = "skipAutoUpdateRelease";
   private static final String DEFAULT_SKIP_AUTO_UPDATE_RELEASE = "";
 
+  private static final String KEY_USE_NIO_SERVER_TRANSPORT = "useNioServerTransport";
+  private static final boolean DEFAULT_USE_NIO_SERVER_TRANSPORT = false;
+
+  private static final String KEY_MAX_TOKEN_MOVE_UPDATES_PER_SECOND =
+      "maxTokenMoveUpdatesPerSecond";
+  private static final int DEFAULT_MAX_TOKEN_MOVE_UPDATES_PER_SECOND = 20;
+
+  private static final String KEY_MAX_POINTER_UPDATES_PER_SECOND = "maxPointerUpdatesPerSecond";
+  private static final int DEFAULT_MAX_POINTER_UPDATES_PER_SECOND = 20;
+
+  private static final String KEY_SAVE_ZONES_SEPARATELY = "saveZonesSeparately";
+  private static final boolean DEFAULT_SAVE_ZONES_SEPARATELY = false;
+
+  private static final String KEY_IMAGE_CACHE_SIZE = "imageCacheSizeMB";
+  private static final int DEFAULT_IMAGE_CACHE_SIZE = 0;
+
   private static final String KEY_ALLOW_EXTERNAL_MACRO_ACCESS = "allowExternalMacroAccess";
   private static final boolean DEFAULT_ALLOW_EXTERNAL_MACRO_ACCESS = false;
 
@@ -926,6 +943,60 @@ public static int getUpnpDiscoveryTimeout() {
     return prefs.getInt(KEY_UPNP_DISCOVERY_TIMEOUT, DEFAULT_UPNP_DISCOVERY_TIMEOUT);
   }
 
+  public static void setUseNioServerTransport(boolean flag) {
+    prefs.putBoolean(KEY_USE_NIO_SERVER_TRANSPORT, flag);
+  }
+
+  public static boolean getUseNioServerTransport() {
+    return prefs.getBoolean(KEY_USE_NIO_SERVER_TRANSPORT, DEFAULT_USE_NIO_SERVER_TRANSPORT);
+  }
+
+  /** @return the most token drag updates per second sent to each connection, 0 for no limit. */
+  public static int getMaxTokenMoveUpdatesPerSecond() {
+    return prefs.getInt(
+        KEY_MAX_TOKEN_MOVE_UPDATES_PER_SECOND, DEFAULT_MAX_TOKEN_MOVE_UPDATES_PER_SECOND);
+  }
+
+  public static void setMaxTokenMoveUpdatesPerSecond(int rate) {
+    prefs.putInt(KEY_MAX_TOKEN_MOVE_UPDATES_PER_SECOND, rate);
+    MessageChannels.TOKEN_MOVE.setMaxMessagesPerSecond(rate);
+  }
+
+  /** @return the most pointer updates per second sent to each connection, 0 for no limit. */
+  public static int getMaxPointerUpdatesPerSecond() {
+    return prefs.getInt(KEY_MAX_POINTER_UPDATES_PER_SECOND, DEFAULT_MAX_POINTER_UPDATES_PER_SECOND);
+  }
+
+  public static void setMaxPointerUpdatesPerSecond(int rate) {
+    prefs.putInt(KEY_MAX_POINTER_UPDATES_PER_SECOND, rate);
+    MessageChannels.POINTER.setMaxMessagesPerSecond(rate);
+  }
+
+  /**
+   * @return true if campaigns are saved with every map in its own file entry, so that maps are only
+   *     read once they are needed. Older versions of MapTool can not read the maps of such a
+   *     campaign, so campaigns keep the layout every version reads unless this is turned on.
+   */
+  public static boolean getSaveZonesSeparately() {
+    return prefs.getBoolean(KEY_SAVE_ZONES_SEPARATELY, DEFAULT_SAVE_ZONES_SEPARATELY);
+  }
+
+  public static void setSaveZonesSeparately(boolean flag) {
+    prefs.putBoolean(KEY_SAVE_ZONES_SEPARATELY, flag);
+  }
+
+  /**
+   * @return the number of megabytes of decoded images kept in memory, or 0 to use a quarter of the
+   *     maximum heap size.
+   */
+  public static int getImageCacheSize() {
+    return prefs.getInt(KEY_IMAGE_CACHE_SIZE, DEFAULT_IMAGE_CACHE_SIZE);
+  }
+
+  public static void setImageCacheSize(int megabytes) {
+    prefs.putInt(KEY_IMAGE_CACHE_SIZE, megabytes);
+  }
+
   public static String getFileSyncPath() {
     return prefs.get(KEY_FILE_SYNC_PATH, DEFAULT_FILE_SYNC_PATH);
   }
@@ -28,6 +28,7 @@ public enum COMMAND {
     getAsset,
     removeAsset,
     putToken,
+    putTokenDelta,
     editToken,
     updateTokenProperty,
     removeToken,
@@ -46,6 +46,7 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.TopologyMode;
 import net.rptools.maptool.model.Zone.VisionType;
@@ -58,6 +59,8 @@
 import net.rptools.maptool.transfer.AssetChunk;
 import net.rptools.maptool.transfer.AssetConsumer;
 import net.rptools.maptool.transfer.AssetHeader;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 /**
  * This class is used by the clients to receive server commands sent through {@link
@@ -66,6 +69,8 @@
  * @author drice
  */
 public class ClientMethodHandler extends AbstractMethodHandler {
+  private static final Logger log = LogManager.getLogger(ClientMethodHandler.class);
+
   public ClientMethodHandler() {}
 
   public void handleMethod(final String id, final String method, final Object... parameters) {
@@ -228,6 +233,7 @@ public void handleMethod(final String id, final String method, final Object... p
               zone = MapTool.getCampaign().getZone(zoneGUID);
               token = (Token) parameters[1];
               zone.editToken(token);
+              MapTool.getTokenDeltaTracker().tokenReceived(token);
               MapTool.getFrame().refresh();
               return;
 
@@ -236,9 +242,36 @@ public void handleMethod(final String id, final String method, final Object... p
               zone = MapTool.getCampaign().getZone(zoneGUID);
               token = (Token) parameters[1];
               zone.putToken(token);
+              MapTool.getTokenDeltaTracker().tokenReceived(token);
               MapTool.getFrame().refresh();
               return;
 
+            case putTokenDelta:
+              zoneGUID = (GUID) parameters[0];
+              zone = MapTool.getCampaign().getZone(zoneGUID);
+              TokenDelta delta = (TokenDelta) parameters[1];
+              token = zone.getToken(delta.getTokenId());
+              if (token == null) {
+                return;
+              }
+              if (delta.isBasedOn(token)) {
+                token = delta.applyTo(token);
+                zone.putToken(token);
+                MapTool.getTokenDeltaTracker().tokenReceived(token);
+                MapTool.getFrame().refresh();
+              } else if (token.getSyncVersion() < delta.getBaseVersion()) {
+                // Our copy missed an update, and no later delta would apply to it either
+                log.info(
+                    "Token {} is at version {} but the update is based on {}, fetching it",
+                    token.getId(),
+                    token.getSyncVersion(),
+                    delta.getBaseVersion());
+                MapTool.serverCommand().getToken(zoneGUID, token.getId());
+              }
+              // Otherwise our copy is ahead with a change of our own, which reaches the server
+              // after this delta, and the server resolves it by sending the whole token
+              return;
+
             case putLabel:
               zoneGUID = (GUID) parameters[0];
               zone = MapTool.getCampaign().getZone(zoneGUID);
@@ -255,6 +288,7 @@ public void handleMethod(final String id, final String method, final Object... p
               if (token != null) {
                 Token.Update update = (Token.Update) parameters[2];
                 token.updateProperty(zone, update, (Object[]) parameters[3]);
+                MapTool.getTokenDeltaTracker().tokenReceived(token);
               }
               return;
 
@@ -79,6 +79,7 @@
 import net.rptools.maptool.model.ObservableList;
 import net.rptools.maptool.model.Player;
 import net.rptools.maptool.model.TextMessage;
+import net.rptools.maptool.model.TokenDeltaTracker;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.ZoneFactory;
 import net.rptools.maptool.protocol.syrinscape.SyrinscapeURLStreamHandler;
@@ -172,6 +173,7 @@ public enum PreferencesEvent {
   private static String lastWhisperer;
 
   private static final MTWebAppServer webAppServer = new MTWebAppServer();
+  private static final TokenDeltaTracker tokenDeltaTracker = new TokenDeltaTracker();
 
   // Jamz: To support new command line parameters for multi-monitor support & enhanced PrintStream
   private static boolean debug = false;
@@ -948,6 +950,11 @@ public static MapToolLineParser getParser() {
     return parser;
   }
 
+  /** @return the tracker of the token versions last exchanged with the server. */
+  public static TokenDeltaTracker getTokenDeltaTracker() {
+    return tokenDeltaTracker;
+  }
+
   public static void setCampaign(Campaign campaign) {
     setCampaign(campaign, null);
   }
@@ -955,6 +962,7 @@ public static void setCampaign(Campaign campaign) {
   public static void setCampaign(Campaign campaign, GUID defaultRendererId) {
     // Load up the new
     MapTool.campaign = campaign;
+    tokenDeltaTracker.clear();
     ZoneRenderer currRenderer = null;
 
     // Clean up
@@ -965,8 +973,18 @@ public static void setCampaign(Campaign campaign, GUID defaultRendererId) {
       clientFrame.setCurrentZoneRenderer(null);
       return;
     }
-    // Install new campaign
-    for (Zone zone : campaign.getZones()) {
+    // Install new campaign. Maps still waiting in the campaign file get their renderers once they
+    // have been read, except for the one to show first.
+    boolean pendingZones = campaign.hasPendingZones();
+    if (pendingZones) {
+      List<GUID> zoneIds = campaign.getZoneIds();
+      if (defaultRendererId != null && zoneIds.contains(defaultRendererId)) {
+        campaign.getZone(defaultRendererId);
+      } else if (campaign.getLoadedZones().isEmpty() && !zoneIds.isEmpty()) {
+        campaign.getZone(zoneIds.get(0));
+      }
+    }
+    for (Zone zone : campaign.getLoadedZones()) {
       ZoneRenderer renderer = ZoneRendererFactory.newRenderer(zone);
       clientFrame.addZoneRenderer(renderer);
       if ((currRenderer == null || zone.getId().equals(defaultRendererId))
@@ -989,7 +1007,53 @@ public static void setCampaign(Campaign campaign, GUID defaultRendererId) {
     MapTool.getFrame().getGmPanel().reset();
     // overlay vanishes after campaign change
     MapTool.getFrame().getOverlayPanel().removeAllOverlays();
-    UserDefinedMacroFunctions.getInstance().handleCampaignLoadMacroEvent();
+    if (pendingZones) {
+      installPendingZones(campaign);
+    } else {
+      UserDefinedMacroFunctions.getInstance().handleCampaignLoadMacroEvent();
+    }
+  }
+
+  /**
+   * Reads the maps still waiting in the campaign file in the background, then adds their renderers
+   * in campaign order. The campaign load macros run once all the maps are there, as they may look
+   * for tokens on any of them.
+   *
+   * @param campaign the campaign just installed
+   */
+  private static void installPendingZones(Campaign campaign) {
+    new SwingWorker<List<Zone>, Void>() {
+      @Override
+      protected List<Zone> doInBackground() {
+        return campaign.getZones();
+      }
+
+      @Override
+      protected void done() {
+        if (MapTool.campaign != campaign) {
+          return;
+        }
+        // Maps may have been added or removed in the meantime, so go by what the campaign has now
+        List<Zone> zones = campaign.getZones();
+        List<ZoneRenderer> renderers = clientFrame.getZoneRenderers();
+        for (int i = 0; i < zones.size(); i++) {
+          Zone zone = zones.get(i);
+          if (clientFrame.getZoneRenderer(zone) == null) {
+            renderers.add(Math.min(i, renderers.size()), ZoneRendererFactory.newRenderer(zone));
+            eventDispatcher.fireEvent(ZoneEvent.Added, campaign, null, zone);
+          }
+        }
+        if (clientFrame.getCurrentZoneRenderer() == null) {
+          for (ZoneRenderer renderer : renderers) {
+            if (getPlayer().isGM() || renderer.getZone().isVisible()) {
+              clientFrame.setCurrentZoneRenderer(renderer);
+              break;
+            }
+          }
+        }
+        UserDefinedMacroFunctions.getInstance().handleCampaignLoadMacroEvent();
+      }
+    }.execute();
   }
 
   public static void setServerPolicy(ServerPolicy policy) {
@@ -1235,6 +1299,9 @@ public static void disconnect() {
       }
     }
 
+    if (log.isDebugEnabled()) {
+      log.debug("Message encoding statistics:\n" + conn.getEncodeStatistics());
+    }
     try {
       conn.close();
       conn = null;
@@ -25,6 +25,7 @@
 import net.rptools.clientserver.hessian.client.ClientConnection;
 import net.rptools.maptool.model.Player;
 import net.rptools.maptool.server.Handshake;
+import net.rptools.maptool.server.MessageCompression;
 
 /** @author trevor */
 public class MapToolConnection extends ClientConnection {
@@ -71,6 +72,7 @@ public boolean sendHandshake(Socket s) throws IOException {
     boolean result = response.code == Handshake.Code.OK;
     if (result) {
       MapTool.setServerPolicy(response.policy);
+      setMessageCodec(MessageCompression.get(response.compression));
     }
     return result;
   }
@@ -14,6 +14,8 @@
  */
 package net.rptools.maptool.client;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import java.math.BigDecimal;
@@ -91,6 +93,28 @@ public class MapToolLineParser {
    */
   private List<Integer> newRolls = new LinkedList<>();
 
+  /** Maximum number of lines whose inline rolls are kept. */
+  private static final int INLINE_ROLL_CACHE_SIZE = 1000;
+
+  /** Maximum number of compiled branch regexes that are kept. */
+  private static final int PATTERN_CACHE_SIZE = 100;
+
+  /**
+   * The inline rolls of the lines already parsed, by line. Library macros run the same lines over
+   * and over, so they are only scanned once. The roll options and the expressions are cached by
+   * {@link OptionInfo} and {@link MapToolExpressionParser}. As the lines are the keys, an edited
+   * macro is simply scanned again, and its old lines are evicted in time.
+   */
+  private static final Cache<String, List<InlineRollMatch>> INLINE_ROLL_CACHE =
+      CacheBuilder.newBuilder().maximumSize(INLINE_ROLL_CACHE_SIZE).softValues().build();
+
+  /**
+   * The compiled branch regexes, by regex. Case targets are not cached, as they come from the
+   * values a macro is run with.
+   */
+  private static final Cache<String, Pattern> PATTERN_CACHE =
+      CacheBuilder.newBuilder().maximumSize(PATTERN_CACHE_SIZE).softValues().build();
+
   private enum Output { // Mutually exclusive output formats
     NONE,
     RESULT,
@@ -257,7 +281,7 @@ public String parseLine(
       resolverInitialized = resolver.initialize();
       StringBuilder builder = new StringBuilder();
       int start = 0;
-      List<InlineRollMatch> matches = this.locateInlineRolls(line);
+      List<InlineRollMatch> matches = getInlineRolls(line);
 
       for (InlineRollMatch match : matches) {
         builder.append(line, start, match.getStart()); // add everything before the roll
@@ -718,7 +742,7 @@ public String parseLine(
                 {
                   // There's only one branch, so our regex is very simple
                   String testRegex = String.format("^\\s*%s\\s*$", branchRegex);
-                  Matcher testMatcher = Pattern.compile(testRegex).matcher(roll);
+                  Matcher testMatcher = getPattern(testRegex).matcher(roll);
                   if (testMatcher.find()) {
                     rollBranch = testMatcher.group(1);
                   } else {
@@ -744,7 +768,7 @@ public String parseLine(
                       String.format(
                           "^\\s*%s\\s*(?:%s\\s*%s\\s*%s)?\\s*$",
                           branchRegex, branchSepRegex, branchRegex, branchLastSepRegex);
-                  Matcher testMatcher = Pattern.compile(testRegex).matcher(roll);
+                  Matcher testMatcher = getPattern(testRegex).matcher(roll);
                   if (testMatcher.find()) { // verifies that roll body is well-formed
                     rollBranch = testMatcher.group(1 + whichBranch);
                     if (rollBranch == null) {
@@ -772,11 +796,11 @@ public String parseLine(
                       String.format(
                           "^(?:\\s*%s\\s*%s\\s*)*\\s*%s\\s*%s\\s*$",
                           branchRegex, branchSepRegex, branchRegex, branchLastSepRegex);
-                  Matcher testMatcher = Pattern.compile(testRegex).matcher(roll);
+                  Matcher testMatcher = getPattern(testRegex).matcher(roll);
                   if (testMatcher.find()) { // verifies that roll body is well-formed
                     String scanRegex =
                         String.format("\\s*%s\\s*(?:%s)?", branchRegex, branchSepRegex);
-                    Matcher scanMatcher = Pattern.compile(scanRegex).matcher(roll);
+                    Matcher scanMatcher = getPattern(scanRegex).matcher(roll);
                     boolean foundMatch = false;
                     while (!foundMatch && scanMatcher.find()) {
                       String caseLabel = scanMatcher.group(1); // "case (xxx):"
@@ -1570,7 +1594,11 @@ public MapToolMacroContext enterContext(MapToolMacroContext context) {
    * @return The context that you leave.
    */
   public MapToolMacroContext exitContext() {
-    return contextStack.pop();
+    MapToolMacroContext context = contextStack.pop();
+    if (contextStack.isEmpty()) {
+      JSONMacroFunctions.getInstance().clearJsonCache();
+    }
+    return context;
   }
 
   /**
@@ -1649,13 +1677,43 @@ public boolean isMacroTrusted() {
     return !contextStack.isEmpty() && contextStack.peek().isTrusted();
   }
 
+  /**
+   * Get the inline rolls within a line, locating them only if the line was not parsed before.
+   *
+   * @param line The line to search for the rolls in.
+   * @return A list of the rolls, which must not be modified.
+   */
+  private static List<InlineRollMatch> getInlineRolls(String line) {
+    List<InlineRollMatch> matches = INLINE_ROLL_CACHE.getIfPresent(line);
+    if (matches == null) {
+      matches = Collections.unmodifiableList(locateInlineRolls(line));
+      INLINE_ROLL_CACHE.put(line, matches);
+    }
+    return matches;
+  }
+
+  /**
+   * Get the compiled pattern of a regex, compiling it only if it was not compiled before.
+   *
+   * @param regex the regex.
+   * @return the compiled pattern.
+   */
+  private static Pattern getPattern(String regex) {
+    Pattern pattern = PATTERN_CACHE.getIfPresent(regex);
+    if (pattern == null) {
+      pattern = Pattern.compile(regex);
+      PATTERN_CACHE.put(regex, pattern);
+    }
+    return pattern;
+  }
+
   /**
    * Locate the inline rolls within the input line.
    *
    * @param line The line to search for the rolls in.
    * @return A list of the rolls.
    */
-  private List<InlineRollMatch> locateInlineRolls(String line) {
+  private static List<InlineRollMatch> locateInlineRolls(String line) {
     List<InlineRollMatch> matches = new ArrayList<InlineRollMatch>();
     ScanState scanState = ScanState.SEARCHING_FOR_ROLL;
     int startMatch = 0;
@@ -18,6 +18,7 @@
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.LinkedBlockingQueue;
+import net.rptools.clientserver.simple.CoalescingChannel;
 import net.rptools.lib.MD5Key;
 import net.rptools.maptool.client.functions.ExecFunction;
 import net.rptools.maptool.client.functions.MacroLinkFunction;
@@ -33,6 +34,7 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.TopologyMode;
 import net.rptools.maptool.model.Zone.VisionType;
@@ -40,6 +42,7 @@
 import net.rptools.maptool.model.drawing.Drawable;
 import net.rptools.maptool.model.drawing.DrawnElement;
 import net.rptools.maptool.model.drawing.Pen;
+import net.rptools.maptool.server.MessageChannels;
 import net.rptools.maptool.server.ServerCommand;
 import net.rptools.maptool.server.ServerMethodHandler;
 import net.rptools.maptool.server.ServerPolicy;
@@ -64,7 +67,7 @@ public void heartbeat(String data) {
   }
 
   public void movePointer(String player, int x, int y) {
-    makeServerCall(COMMAND.movePointer, player, x, y);
+    makeServerCall(MessageChannels.POINTER, player, COMMAND.movePointer, player, x, y);
   }
 
   public void bootPlayer(String player) {
@@ -74,7 +77,13 @@ public void bootPlayer(String player) {
   public void setCampaign(Campaign campaign) {
     try {
       campaign.setBeingSerialized(true);
-      makeServerCall(COMMAND.setCampaign, campaign);
+      if (MapTool.isHostingServer() || MapTool.isPersonalServer()) {
+        // The server runs in this process, so it reads the maps still waiting in the campaign
+        // file on its own, rather than all of them being read for it right now
+        campaign.shareZones(() -> makeServerCall(COMMAND.setCampaign, campaign));
+      } else {
+        makeServerCall(COMMAND.setCampaign, campaign);
+      }
     } finally {
       campaign.setBeingSerialized(false);
     }
@@ -135,6 +144,7 @@ public void restoreZoneView(GUID zoneGUID) {
   }
 
   public void editToken(GUID zoneGUID, Token token) {
+    MapTool.getTokenDeltaTracker().tokenSent(token);
     MapTool.getCampaign().getZone(zoneGUID).editToken(token);
     makeServerCall(COMMAND.editToken, zoneGUID, token);
   }
@@ -144,13 +154,34 @@ public void putToken(GUID zoneGUID, Token token) {
     // after changing the token. But they don't tell the zone about it so classes
     // waiting for the zone change event don't get it.
     MapTool.getCampaign().getZone(zoneGUID).putToken(token);
-    makeServerCall(COMMAND.putToken, zoneGUID, token);
+    TokenDelta delta = MapTool.getTokenDeltaTracker().createDelta(token);
+    if (delta != null) {
+      makeServerCall(COMMAND.putTokenDelta, zoneGUID, delta);
+    } else {
+      makeServerCall(COMMAND.putToken, zoneGUID, token);
+    }
+  }
+
+  @Override
+  public void putTokenDelta(GUID zoneGUID, TokenDelta delta) {
+    Zone zone = MapTool.getCampaign().getZone(zoneGUID);
+    Token token = zone.getToken(delta.getTokenId());
+    if (token != null && delta.isBasedOn(token)) {
+      zone.putToken(delta.applyTo(token));
+    }
+    makeServerCall(COMMAND.putTokenDelta, zoneGUID, delta);
+  }
+
+  @Override
+  public void getToken(GUID zoneGUID, GUID tokenGUID) {
+    makeServerCall(COMMAND.getToken, zoneGUID, tokenGUID);
   }
 
   @Override
   public void removeToken(GUID zoneGUID, GUID tokenGUID) {
     // delete local token immediately
     MapTool.getCampaign().getZone(zoneGUID).removeToken(tokenGUID);
+    MapTool.getTokenDeltaTracker().forget(tokenGUID);
     makeServerCall(COMMAND.removeToken, zoneGUID, tokenGUID);
   }
 
@@ -158,6 +189,9 @@ public void removeToken(GUID zoneGUID, GUID tokenGUID) {
   public void removeTokens(GUID zoneGUID, List<GUID> tokenGUIDs) {
     // delete local tokens immediately
     MapTool.getCampaign().getZone(zoneGUID).removeTokens(tokenGUIDs);
+    for (GUID tokenGUID : tokenGUIDs) {
+      MapTool.getTokenDeltaTracker().forget(tokenGUID);
+    }
     makeServerCall(COMMAND.removeTokens, zoneGUID, tokenGUIDs);
   }
 
@@ -188,6 +222,7 @@ public void updateTokenProperty(Token token, Token.Update update, Object... para
     GUID zoneGUID = zone.getId();
 
     token.updateProperty(zone, update, parameters); // update locally right away
+    MapTool.getTokenDeltaTracker().tokenReceived(token);
     updateTokenProperty(zoneGUID, tokenGUID, update, parameters);
   }
 
@@ -255,7 +290,7 @@ public void hidePointer(String player) {
   }
 
   public void setLiveTypingLabel(String label, boolean show) {
-    makeServerCall(COMMAND.setLiveTypingLabel, label, show);
+    makeServerCall(MessageChannels.TYPING, label, COMMAND.setLiveTypingLabel, label, show);
   }
 
   public void enforceNotification(Boolean enforce) {
@@ -273,7 +308,13 @@ public void stopTokenMove(GUID zoneGUID, GUID tokenGUID) {
   }
 
   public void updateTokenMove(GUID zoneGUID, GUID tokenGUID, int x, int y) {
-    movementUpdateQueue.enqueue(COMMAND.updateTokenMove, zoneGUID, tokenGUID, x, y);
+    movementUpdateQueue.enqueue(
+        MessageChannels.tokenKey(zoneGUID, tokenGUID),
+        COMMAND.updateTokenMove,
+        zoneGUID,
+        tokenGUID,
+        x,
+        y);
   }
 
   public void toggleTokenMoveWaypoint(GUID zoneGUID, GUID tokenGUID, ZonePoint cp) {
@@ -361,6 +402,22 @@ private static void makeServerCall(ServerCommand.COMMAND command, Object... para
     }
   }
 
+  /**
+   * Sends a command on a coalescing channel.
+   *
+   * @param channel the channel to send the command on
+   * @param key the key of the command, a waiting command with the same key is replaced. May be
+   *     null for a command that must not be replaced.
+   * @param command the command
+   * @param params the parameters of the command
+   */
+  private static void makeServerCall(
+      CoalescingChannel channel, Object key, ServerCommand.COMMAND command, Object... params) {
+    if (MapTool.getConnection() != null) {
+      MapTool.getConnection().callMethod(channel, key, command.name(), params);
+    }
+  }
+
   public void setBoard(GUID zoneGUID, MD5Key mapAssetId, int x, int y) {
     // First, ensure that the possibly new map texture is available on the client
     // note: This may not be the optimal solution... can't tell from available documentation.
@@ -390,6 +447,7 @@ public void updateExposedAreaMeta(
    */
   private static class TimedEventQueue extends Thread {
 
+    Object key;
     ServerCommand.COMMAND command;
     Object[] params;
 
@@ -401,8 +459,9 @@ public TimedEventQueue(long millidelay) {
       delay = millidelay;
     }
 
-    public synchronized void enqueue(ServerCommand.COMMAND command, Object... params) {
+    public synchronized void enqueue(Object key, ServerCommand.COMMAND command, Object... params) {
 
+      this.key = key;
       this.command = command;
       this.params = params;
     }
@@ -410,8 +469,9 @@ public synchronized void enqueue(ServerCommand.COMMAND command, Object... params
     public synchronized void flush() {
 
       if (command != null) {
-        makeServerCall(command, params);
+        makeServerCall(MessageChannels.TOKEN_MOVE, key, command, params);
       }
+      key = null;
       command = null;
       params = null;
     }
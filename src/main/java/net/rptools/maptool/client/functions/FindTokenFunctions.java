@@ -240,22 +240,24 @@ public boolean matchToken(Token t) {
    * layers).
    */
   private static class LayerFilter implements Zone.Filter {
-    private final JsonArray filterLayers;
+    private final Set<Zone.Layer> filterLayers = EnumSet.noneOf(Zone.Layer.class);
 
     public LayerFilter(JsonArray layers) {
-      filterLayers = new JsonArray();
       for (Object s : layers) {
         // Can't use .toString() as it wraps in extra quotes - bug in the JSON lib?
         String name = ((JsonPrimitive) s).getAsString().toUpperCase();
         name = "HIDDEN".equals(name) ? "GM" : name;
-        name = Zone.Layer.valueOf(name).toString();
-        filterLayers.add(name);
+        filterLayers.add(Zone.Layer.valueOf(name));
       }
     }
 
+    public Set<Zone.Layer> getLayers() {
+      return filterLayers;
+    }
+
     public boolean matchToken(Token t) {
       // Filter out the utility lib: and image: tokens
-      return filterLayers.contains(new JsonPrimitive(t.getLayer().toString())) && !t.isImgOrLib();
+      return filterLayers.contains(t.getLayer()) && !t.isImgOrLib();
     }
   }
 
@@ -442,7 +444,8 @@ private static Object getTokenList(
       }
     }
     Zone zone = zoneRenderer.getZone();
-    allTokens = zone.getTokensFiltered(new LayerFilter(layers));
+    LayerFilter layerFilter = new LayerFilter(layers);
+    allTokens = getTokensFiltered(layerFilter, zone.getTokensOnLayers(layerFilter.getLayers()));
     List<Token> tokenList = new ArrayList<Token>(allTokens.size());
     tokenList.addAll(allTokens);
     JsonObject range = null;
@@ -463,6 +466,9 @@ private static Object getTokenList(
         match = "setStates".equalsIgnoreCase(searchType);
         // Looking for tokens that either match or don't match the states
         for (JsonElement item : states) {
+          if (match) {
+            tokenList = retainIndexed(tokenList, zone.getTokensWithState(item.getAsString()));
+          }
           tokenList =
               getTokenList(
                   resolver, FindType.STATE, item.getAsString(), match, tokenList, zoneRenderer);
@@ -535,13 +541,23 @@ private static Object getTokenList(
               I18N.getText("macro.function.json.onlyArray", json.toString(), "owned"));
         } else {
           Ownership ownership = getOwnership(json.getAsString());
+          if (ownership == Ownership.SELF) {
+            tokenList =
+                retainIndexed(tokenList, zone.getTokensOwnedBy(MapTool.getPlayer().getName()));
+          }
           tokenList = getTokensFiltered(new OwnedFilter(ownership), tokenList);
         }
       } else {
         match = booleanCheck(jobj, searchType);
         if ("npc".equalsIgnoreCase(searchType)) {
+          if (match) {
+            tokenList = retainIndexed(tokenList, zone.getTokensOfType(Token.Type.NPC));
+          }
           tokenList = getTokenList(resolver, FindType.NPC, "", match, tokenList, zoneRenderer);
         } else if ("pc".equalsIgnoreCase(searchType)) {
+          if (match) {
+            tokenList = retainIndexed(tokenList, zone.getTokensOfType(Token.Type.PC));
+          }
           tokenList = getTokenList(resolver, FindType.PC, "", match, tokenList, zoneRenderer);
         } else if ("selected".equalsIgnoreCase(searchType)) {
           tokenList = getTokenList(resolver, FindType.SELECTED, "", match, tokenList, zoneRenderer);
@@ -596,8 +612,14 @@ private static Object getTokenList(
       if (range.has("metric")) {
         metric = range.get("metric").getAsString();
       }
+      // Only measure the distance to the tokens the spatial index finds around the token
+      List<Token> candidates = tokenList;
+      Rectangle searchArea = getRangeBounds(zone, token, upto, useDistancePerCell);
+      if (searchArea != null) {
+        candidates = retainIndexed(tokenList, zone.getTokensIntersecting(searchArea));
+      }
       List<Token> inrange = new LinkedList<Token>();
-      for (Token targetToken : tokenList) {
+      for (Token targetToken : candidates) {
         double distance = instance.getDistance(token, targetToken, useDistancePerCell, metric);
         if (distance <= upto && distance >= from && token != targetToken) {
           inrange.add(targetToken);
@@ -655,8 +677,13 @@ private static Object getTokenList(
         points[ip] = new Point(joff.get("x").getAsInt() + cp.x, joff.get("y").getAsInt() + cp.y);
         ip += 1;
       }
+      List<Token> candidates = tokenList;
+      Rectangle searchArea = getPointsBounds(zone, points);
+      if (searchArea != null) {
+        candidates = retainIndexed(tokenList, zone.getTokensIntersecting(searchArea));
+      }
       Set<Token> matching = new HashSet<Token>();
-      for (Token targetToken : tokenList) {
+      for (Token targetToken : candidates) {
         if (TokenLocationFunctions.isTokenAtXY(targetToken, zone, points))
           matching.add(targetToken);
       }
@@ -682,6 +709,67 @@ private static Object getTokenList(
     }
   }
 
+  /**
+   * Returns an area of the map holding every token within a distance of a token. A distance in
+   * cells is never less than the number of cells between the tokens in either direction.
+   *
+   * @param zone the map
+   * @param token the token the distance is measured from
+   * @param upto the largest distance
+   * @param useDistancePerCell whether the distance is in map units rather than cells
+   * @return the area, or null if it is not worth limiting the search
+   */
+  private static Rectangle getRangeBounds(
+      Zone zone, Token token, int upto, boolean useDistancePerCell) {
+    if (upto < 0 || upto == Integer.MAX_VALUE || zone.getToken(token.getId()) == null) {
+      return null;
+    }
+    double cells = useDistancePerCell ? upto / zone.getUnitsPerCell() : upto;
+    double margin = (cells + 2) * getCellSize(zone.getGrid());
+    if (!(margin < Integer.MAX_VALUE / 4)) {
+      return null;
+    }
+    Rectangle bounds = token.getBounds(zone);
+    bounds.grow((int) Math.ceil(margin), (int) Math.ceil(margin));
+    return bounds;
+  }
+
+  /**
+   * Returns an area of the map holding every token at one of the points of an "area" condition.
+   *
+   * @param zone the map
+   * @param points the cells, or the pixels for gridless maps
+   * @return the area, or null if there are no points
+   */
+  private static Rectangle getPointsBounds(Zone zone, Point[] points) {
+    Grid grid = zone.getGrid();
+    boolean isCells = grid.getCapabilities().isPathingSupported();
+    Rectangle bounds = null;
+    for (Point point : points) {
+      int x = point.x;
+      int y = point.y;
+      if (isCells) {
+        ZonePoint zp = grid.convert(new CellPoint(point.x, point.y));
+        x = zp.x;
+        y = zp.y;
+      }
+      if (bounds == null) {
+        bounds = new Rectangle(x, y, 1, 1);
+      } else {
+        bounds.add(x, y);
+      }
+    }
+    if (bounds != null) {
+      int margin = isCells ? (int) Math.ceil(2 * getCellSize(grid)) : 1;
+      bounds.grow(margin, margin);
+    }
+    return bounds;
+  }
+
+  private static double getCellSize(Grid grid) {
+    return Math.max(grid.getSize(), Math.max(grid.getCellWidth(), grid.getCellHeight()));
+  }
+
   private static boolean booleanCheck(JsonObject jobj, String searchType) {
     JsonElement jel = jobj.get(searchType);
     if (jel.isJsonPrimitive()) {
@@ -797,6 +885,47 @@ private static List<Token> getTokensFiltered(Zone.Filter filter, List<Token> ori
     return tokenList;
   }
 
+  /**
+   * Keeps the tokens of a list that are also in a list looked up in the indexes of the zone. The
+   * tokens stay in the order of the original list.
+   *
+   * @param originalList the list of tokens to search from
+   * @param indexedList the tokens found in the zone indexes
+   * @return the tokens in both lists
+   */
+  private static List<Token> retainIndexed(List<Token> originalList, List<Token> indexedList) {
+    Set<Token> indexed = new HashSet<>(indexedList);
+    List<Token> tokenList = new ArrayList<>(Math.min(originalList.size(), indexed.size()));
+    for (Token token : originalList) {
+      if (indexed.contains(token)) tokenList.add(token);
+    }
+    return tokenList;
+  }
+
+  /**
+   * Gets the tokens of a map that may match a search, using the zone indexes when the search is
+   * for an indexed attribute. The tokens still have to be filtered.
+   *
+   * @param zone the map
+   * @param findType the type of search
+   * @param findArgs additional argument for the search
+   * @return the candidate tokens, in z-order
+   */
+  private static List<Token> getIndexedTokens(Zone zone, FindType findType, String findArgs) {
+    switch (findType) {
+      case NPC:
+        return zone.getTokensOfType(Token.Type.NPC);
+      case PC:
+        return zone.getTokensOfType(Token.Type.PC);
+      case STATE:
+        return zone.getTokensWithState(findArgs);
+      case OWNED:
+        return zone.getTokensOwnedBy(findArgs);
+      default:
+        return zone.getAllTokens();
+    }
+  }
+
   private static List<Token> getTokensFiltered(
       List<Token> editList, List<Token> originalList, boolean match) {
     List<Token> tokenList = new ArrayList<Token>(originalList);
@@ -832,7 +961,13 @@ private static String getTokens(
     }
     Zone zone = zoneRenderer.getZone();
     List<Token> tokens =
-        getTokenList(resolver, findType, findArgs, true, zone.getAllTokens(), zoneRenderer);
+        getTokenList(
+            resolver,
+            findType,
+            findArgs,
+            true,
+            getIndexedTokens(zone, findType, findArgs),
+            zoneRenderer);
 
     if (!tokens.isEmpty()) {
       for (Token token : tokens) {
@@ -148,7 +148,7 @@ public Object childEvaluate(
         } else {
           String str = potJson.toString().trim();
           if (str.startsWith("{") || str.startsWith("[")) {
-            JsonElement json = typeConversion.asJsonElement(str);
+            JsonElement json = typeConversion.asSharedJsonElement(str);
             if (json.isJsonArray()) {
               return JSONObjectType.ARRAY.name();
             } else if (json.isJsonObject()) {
@@ -160,7 +160,7 @@ public Object childEvaluate(
       case "json.length":
         {
           FunctionUtil.checkNumberParam(functionName, args, 1, 1);
-          JsonElement json = FunctionUtil.paramConvertedToJson(functionName, args, 0);
+          JsonElement json = FunctionUtil.paramConvertedToSharedJson(functionName, args, 0);
           if (json.isJsonObject()) {
             return jsonObjectFunctions.length(json.getAsJsonObject());
           } else {
@@ -170,7 +170,7 @@ public Object childEvaluate(
       case "json.fields":
         {
           FunctionUtil.checkNumberParam(functionName, args, 1, 2);
-          JsonElement json = FunctionUtil.paramConvertedToJson(functionName, args, 0);
+          JsonElement json = FunctionUtil.paramConvertedToSharedJson(functionName, args, 0);
           String delim = args.size() > 1 ? args.get(1).toString() : DEFAULT_STRING_LIST_DELIM;
 
           if (json.isJsonObject()) {
@@ -199,7 +199,7 @@ public Object childEvaluate(
       case "json.toList":
         {
           FunctionUtil.checkNumberParam(functionName, args, 1, 2);
-          JsonElement json = FunctionUtil.paramConvertedToJson(functionName, args, 0);
+          JsonElement json = FunctionUtil.paramConvertedToSharedJson(functionName, args, 0);
           String delim = args.size() > 1 ? args.get(1).toString() : DEFAULT_STRING_LIST_DELIM;
 
           if (json.isJsonArray()) {
@@ -225,7 +225,7 @@ public Object childEvaluate(
       case "json.toStrProp":
         {
           FunctionUtil.checkNumberParam(functionName, args, 1, 2);
-          JsonElement jsonElement = FunctionUtil.paramConvertedToJson(functionName, args, 0);
+          JsonElement jsonElement = FunctionUtil.paramConvertedToSharedJson(functionName, args, 0);
           String delim = args.size() > 1 ? args.get(1).toString() : DEFAULT_STRING_PROP_DELIM;
           if (jsonElement.isJsonArray()) {
             return jsonArrayFunctions.toStringProp(jsonElement.getAsJsonArray(), delim);
@@ -255,7 +255,7 @@ public Object childEvaluate(
           FunctionUtil.checkNumberParam(functionName, args, 2, UNLIMITED_PARAMETERS);
           JsonElement jsonElement;
           try {
-            jsonElement = FunctionUtil.paramAsJson(functionName, args, 0);
+            jsonElement = FunctionUtil.paramAsSharedJson(functionName, args, 0);
           } catch (
               ParserException
                   pe) { // If we cant convert it to a JsonArray/JsonObject then treat like array
@@ -263,20 +263,24 @@ public Object childEvaluate(
             jsonElement = new JsonArray();
             jsonElement.getAsJsonArray().add(typeConversion.asJsonElement(args.get(0)));
           }
+          // Only the part taken out is copied, the rest of a shared value is just read
           if (jsonElement.isJsonArray()) {
             if (args.size() == 2) {
-              return jsonArrayFunctions.get(
-                  jsonElement.getAsJsonArray(),
-                  FunctionUtil.paramAsInteger(functionName, args, 1, true));
+              return copyIfJson(
+                  jsonArrayFunctions.get(
+                      jsonElement.getAsJsonArray(),
+                      FunctionUtil.paramAsInteger(functionName, args, 1, true)));
             } else {
-              return jsonArrayFunctions.get(
-                  jsonElement.getAsJsonArray(),
-                  FunctionUtil.paramAsInteger(functionName, args, 1, true),
-                  FunctionUtil.paramAsInteger(functionName, args, 2, true));
+              return copyIfJson(
+                  jsonArrayFunctions.get(
+                      jsonElement.getAsJsonArray(),
+                      FunctionUtil.paramAsInteger(functionName, args, 1, true),
+                      FunctionUtil.paramAsInteger(functionName, args, 2, true)));
             }
           } else {
-            return jsonObjectFunctions.get(
-                jsonElement.getAsJsonObject(), args.subList(1, args.size()));
+            return copyIfJson(
+                jsonObjectFunctions.get(
+                    jsonElement.getAsJsonObject(), args.subList(1, args.size())));
           }
         }
       case "json.append":
@@ -307,7 +311,7 @@ public Object childEvaluate(
       case "json.indent":
         {
           FunctionUtil.checkNumberParam(functionName, args, 1, 2);
-          JsonElement jsonElement = FunctionUtil.paramConvertedToJson(functionName, args, 0);
+          JsonElement jsonElement = FunctionUtil.paramConvertedToSharedJson(functionName, args, 0);
           int indentSize = 2;
           if (args.size() > 1) {
             indentSize = FunctionUtil.paramAsInteger(functionName, args, 1, true);
@@ -317,7 +321,7 @@ public Object childEvaluate(
       case "json.contains":
         {
           FunctionUtil.checkNumberParam(functionName, args, 2, 2);
-          JsonElement jsonElement = FunctionUtil.paramConvertedToJson(functionName, args, 0);
+          JsonElement jsonElement = FunctionUtil.paramConvertedToSharedJson(functionName, args, 0);
           boolean contains;
           if (jsonElement.isJsonArray()) {
             contains = jsonArrayFunctions.contains(jsonElement.getAsJsonArray(), args.get(1));
@@ -375,7 +379,7 @@ public Object childEvaluate(
       case "json.isEmpty":
         {
           FunctionUtil.checkNumberParam(functionName, args, 1, 1);
-          JsonElement jsonElement = FunctionUtil.paramConvertedToJson(functionName, args, 0);
+          JsonElement jsonElement = FunctionUtil.paramConvertedToSharedJson(functionName, args, 0);
 
           boolean empty;
           if (jsonElement.isJsonArray()) {
@@ -388,8 +392,10 @@ public Object childEvaluate(
       case "json.equals":
         {
           FunctionUtil.checkNumberParam(functionName, args, 2, 2);
-          JsonElement jsonElement1 = FunctionUtil.paramConvertedToJson(functionName, args, 0);
-          JsonElement jsonElement2 = FunctionUtil.paramConvertedToJson(functionName, args, 1);
+          JsonElement jsonElement1 =
+              FunctionUtil.paramConvertedToSharedJson(functionName, args, 0);
+          JsonElement jsonElement2 =
+              FunctionUtil.paramConvertedToSharedJson(functionName, args, 1);
           return jsonElement1.equals(jsonElement2) ? BigDecimal.ONE : BigDecimal.ZERO;
         }
       case "json.count":
@@ -399,16 +405,16 @@ public Object childEvaluate(
           if (args.size() > 2) {
             start = FunctionUtil.paramAsInteger(functionName, args, 2, true);
           }
-          JsonArray jsonArray = FunctionUtil.paramConvertedToJsonArray(functionName, args, 0);
-          JsonElement value = asJsonElement(args.get(1));
+          JsonArray jsonArray = FunctionUtil.paramConvertedToSharedJsonArray(functionName, args, 0);
+          JsonElement value = typeConversion.asSharedJsonElement(args.get(1));
 
           return BigDecimal.valueOf(jsonArrayFunctions.count(jsonArray, value, start));
         }
       case "json.indexOf":
         {
           FunctionUtil.checkNumberParam(functionName, args, 2, 3);
-          JsonArray jsonArray = FunctionUtil.paramConvertedToJsonArray(functionName, args, 0);
-          JsonElement value = asJsonElement(args.get(1));
+          JsonArray jsonArray = FunctionUtil.paramConvertedToSharedJsonArray(functionName, args, 0);
+          JsonElement value = typeConversion.asSharedJsonElement(args.get(1));
           int start = 0;
           if (args.size() > 2) {
             start = FunctionUtil.paramAsInteger(functionName, args, 2, true);
@@ -797,7 +803,7 @@ private Object handleJsonPathFunctions(String functionName, List<Object> paramet
         case "json.path.read":
           {
             FunctionUtil.checkNumberParam(functionName, parameters, 2, 3);
-            JsonElement jsonElement = FunctionUtil.paramAsJson(functionName, parameters, 0);
+            JsonElement jsonElement = FunctionUtil.paramAsSharedJson(functionName, parameters, 0);
             String strPath = parameters.get(1).toString();
             String strConf = parameters.size() > 2 ? parameters.get(2).toString() : null;
             Configuration config = getConfig(strConf);
@@ -922,8 +928,22 @@ private JsonElement jsonPathAdd(JsonElement json, String path, Object info)
    * @return the return value as a MT Script type.
    */
   private Object jsonPathRead(JsonElement json, String path, Configuration config) {
-    JsonElement jsonElement = asJsonElement(json);
-    return typeConversion.asScriptType(JsonPath.using(config).parse(jsonElement).read(path));
+    Object value = JsonPath.using(config).parse(json).read(path);
+    return copyIfJson(typeConversion.asScriptType(value));
+  }
+
+  /**
+   * Returns a copy of a json array or object taken out of a value that may be shared, see {@link
+   * #asSharedJsonElement(Object)}, so that the caller may keep it.
+   *
+   * @param value the value taken out.
+   * @return a copy of the value if it is a json array or object, otherwise the value itself.
+   */
+  private static Object copyIfJson(Object value) {
+    if (value instanceof JsonArray || value instanceof JsonObject) {
+      return ((JsonElement) value).deepCopy();
+    }
+    return value;
   }
 
   /**
@@ -953,6 +973,23 @@ public JsonElement asJsonElement(Object o) {
     return typeConversion.asJsonElement(o);
   }
 
+  /**
+   * This method returns the object passed in as the appropriate json type, without copying the
+   * arrays and objects parsed from strings before. The result may be shared with other callers, so
+   * it must only be read, and not be kept or added to other json values.
+   *
+   * @param o the object to convert.
+   * @return the json representation.
+   */
+  public JsonElement asSharedJsonElement(Object o) {
+    return typeConversion.asSharedJsonElement(o);
+  }
+
+  /** Forget the json values parsed from strings, once the macros that used them are over. */
+  public void clearJsonCache() {
+    typeConversion.clearCache();
+  }
+
   /**
    * Converts a <code>String</code> to a {@link JsonPrimitive}.
    *
@@ -375,7 +375,7 @@ private boolean allNumbers(List<JsonElement> list) {
    * @return <code>true</code> if the {@link}
    */
   public boolean contains(JsonArray jsonArray, Object value) {
-    JsonElement jsonValue = typeConversion.asJsonElement(value);
+    JsonElement jsonValue = typeConversion.asSharedJsonElement(value);
     for (int i = 0; i < jsonArray.size(); i++) {
       if (jsonArray.get(i).equals(jsonValue)) {
         return true;
@@ -29,6 +29,9 @@ class JsonMTSTypeConversion {
   /** An empty <code>String</code> as a {@link JsonPrimitive}. */
   public static final JsonPrimitive EMPTY_STRING_ELEMENT = new JsonPrimitive("");
 
+  /** The json values already parsed from strings. */
+  private final JsonValueCache valueCache = new JsonValueCache();
+
   /**
    * Creates a new <code>JsonMTSTypeConversion</code> object.
    *
@@ -88,12 +91,31 @@ public String jsonToScriptString(JsonElement element) {
   }
 
   /**
-   * Returns a {@link JsonElement} version of the passed in object.
+   * Returns a {@link JsonElement} version of the passed in object. Arrays and objects parsed from
+   * strings are copies of the cached values, so the caller may change or keep them.
    *
    * @param o the object tp convert to a {@link JsonElement}.
    * @return a {@link JsonElement} version of the object.
    */
   JsonElement asJsonElement(Object o) {
+    if (o instanceof String s && (s.startsWith("[") || s.startsWith("{"))) {
+      JsonElement json = parseCached(s);
+      if (json != null) {
+        return json.deepCopy();
+      }
+    }
+    return asSharedJsonElement(o);
+  }
+
+  /**
+   * Returns a {@link JsonElement} version of the passed in object, without copying the arrays and
+   * objects parsed from strings. The result is shared with the other callers that convert the same
+   * string, so it must only be read, and not be kept or added to other json values.
+   *
+   * @param o the object tp convert to a {@link JsonElement}.
+   * @return a {@link JsonElement} version of the object.
+   */
+  JsonElement asSharedJsonElement(Object o) {
     if (o instanceof JsonElement) {
       return (JsonElement) o;
     }
@@ -101,12 +123,9 @@ JsonElement asJsonElement(Object o) {
     if (o instanceof String) {
       String s = o.toString();
       if (s.startsWith("[") || s.startsWith("{")) {
-        // if it could be a json object try parse it, if we want to try convert strings to numbers
-        // parsing it will do this
-        try {
-          return JsonParser.parseString(o.toString());
-        } catch (JsonSyntaxException e) {
-          // Do nothing as we will return a JsonPrimitive of the string
+        JsonElement json = parseCached(s);
+        if (json != null) {
+          return json;
         }
       }
       return new JsonPrimitive(s);
@@ -118,6 +137,29 @@ JsonElement asJsonElement(Object o) {
     }
   }
 
+  /**
+   * Parses a string that could be a json array or object, or gets the value parsed before.
+   *
+   * @param s the string to parse.
+   * @return the cached value, or null if the string is not valid json.
+   */
+  private JsonElement parseCached(String s) {
+    JsonElement json = valueCache.get(s);
+    if (json != null) {
+      return json;
+    }
+    // if it could be a json object try parse it, if we want to try convert strings to numbers
+    // parsing it will do this
+    try {
+      json = JsonParser.parseString(s);
+      valueCache.put(s, json);
+      return json;
+    } catch (JsonSyntaxException e) {
+      // Do nothing as we will return a JsonPrimitive of the string
+      return null;
+    }
+  }
+
   /**
    * Returns a {@link JsonElement} version of the passed in object. If the object is already a
    * {@link JsonElement} then it will return a cloned copy. As {@link JsonPrimitive}s are immutable
@@ -128,11 +170,14 @@ JsonElement asJsonElement(Object o) {
    */
   JsonElement asClonedJsonElement(Object json) {
     if (json instanceof JsonElement) {
-      JsonElement jsonElement = (JsonElement) json;
-      return jsonElement.deepCopy();
-    } else {
-      return asJsonElement(json);
+      return ((JsonElement) json).deepCopy();
     }
+    return asJsonElement(json);
+  }
+
+  /** Forget the json values parsed so far. */
+  void clearCache() {
+    valueCache.clear();
   }
 
   /**
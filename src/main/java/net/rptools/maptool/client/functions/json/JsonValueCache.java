@@ -0,0 +1,81 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.functions.json;
+
+import com.google.gson.JsonElement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the json values parsed from strings while a macro runs. Macros pass json around as
+ * strings, so the same string is often parsed again each time it is given to a function.
+ *
+ * <p>The cache is keyed by the text of the string. Looking up the same string instance is fast, as
+ * its hash is computed only once and equality is checked on identity first. The parsed values are
+ * shared, so they must not be modified; the json functions return modified copies instead.
+ */
+class JsonValueCache {
+
+  /** The maximum number of values in the cache. */
+  private static final int MAX_ENTRIES = 256;
+
+  /** The maximum total length of the strings in the cache. */
+  private static final int MAX_TOTAL_LENGTH = 4 * 1024 * 1024;
+
+  /** The values, least recently used first. */
+  private final LinkedHashMap<String, JsonElement> values = new LinkedHashMap<>(16, 0.75f, true);
+
+  /** The total length of the strings in the cache. */
+  private int totalLength;
+
+  /**
+   * Returns the value parsed from a string.
+   *
+   * @param json the string.
+   * @return the value, or null if it is not in the cache.
+   */
+  synchronized JsonElement get(String json) {
+    return values.get(json);
+  }
+
+  /**
+   * Adds the value parsed from a string, removing the least recently used values if the cache is
+   * full.
+   *
+   * @param json the string.
+   * @param value the value parsed from the string.
+   */
+  synchronized void put(String json, JsonElement value) {
+    if (json.length() > MAX_TOTAL_LENGTH) {
+      return;
+    }
+    JsonElement old = values.put(json, value);
+    if (old == null) {
+      totalLength += json.length();
+    }
+    Iterator<Map.Entry<String, JsonElement>> it = values.entrySet().iterator();
+    while (values.size() > MAX_ENTRIES || totalLength > MAX_TOTAL_LENGTH) {
+      totalLength -= it.next().getKey().length();
+      it.remove();
+    }
+  }
+
+  /** Removes all the values from the cache. */
+  synchronized void clear() {
+    values.clear();
+    totalLength = 0;
+  }
+}
@@ -24,6 +24,8 @@
 import net.rptools.maptool.client.AppUtil;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.language.I18N;
+import net.rptools.maptool.util.ImageManager;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.monitor.FileAlterationListener;
 import org.apache.commons.io.monitor.FileAlterationListenerAdaptor;
 import org.apache.commons.io.monitor.FileAlterationMonitor;
@@ -93,6 +95,23 @@ public void onFileDelete(File file) {
     }
   }
 
+  @Override
+  public String getToolTipText(java.awt.event.MouseEvent event) {
+    ImageManager.CacheStatistics stats = ImageManager.getCacheStatistics();
+    return "<html>"
+        + I18N.getText("ImageCacheStatusBar.toolTip")
+        + "<br>"
+        + I18N.getText(
+            "ImageCacheStatusBar.memoryToolTip",
+            FileUtils.byteCountToDisplaySize(stats.getCachedBytes()),
+            FileUtils.byteCountToDisplaySize(stats.getMaxCachedBytes()),
+            FileUtils.byteCountToDisplaySize(stats.getPinnedBytes()),
+            stats.getHitCount(),
+            stats.getMissCount(),
+            stats.getEvictionCount())
+        + "</html>";
+  }
+
   public void clear() {
     setText("");
   }
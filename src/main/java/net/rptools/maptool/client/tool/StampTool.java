@@ -733,6 +733,7 @@ public void mouseDragged(MouseEvent e) {
       }
       tokenBeingResized.setScaleX(newWidth / (double) image.getWidth());
       tokenBeingResized.setScaleY(newHeight / (double) image.getHeight());
+      renderer.getZone().updateTokenBounds(tokenBeingResized);
 
       renderer.repaint();
       return;
@@ -1374,6 +1375,7 @@ public void resizeStamp() {
 
       tokenUnderMouse.setScaleX(newScaleX);
       tokenUnderMouse.setScaleY(newScaleY);
+      renderer.getZone().updateTokenBounds(tokenUnderMouse);
 
       MapTool.getFrame().refresh();
       if (adjustAnchor)
@@ -1398,6 +1400,7 @@ public void adjustAnchor(double scaleX, double scaleY) {
     y = y - (((y / gridSize) + 1) * gridSize);
 
     tokenUnderMouse.setAnchor(-x, -y);
+    renderer.getZone().updateTokenBounds(tokenUnderMouse);
   }
 
   public Point getAdjustedAnchor(double scaleX, double scaleY) {
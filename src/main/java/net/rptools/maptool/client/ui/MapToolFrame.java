@@ -1541,9 +1541,9 @@ private void stopTokenDrag() {
    * @param renderer the ZoneRenderer
    */
   public void setCurrentZoneRenderer(ZoneRenderer renderer) {
-    // Flush first so that the new zone renderer can inject the newly needed images
+    // Keep the images of the new zone loaded, the images of other zones are evicted as needed
     if (renderer != null) {
-      ImageManager.flush(renderer.getZone().getAllAssetIds());
+      ImageManager.setPinnedImages(renderer.getZone().getAllAssetIds());
     } else {
       ImageManager.flush();
       // zoneRendererList.remove(currentRenderer);
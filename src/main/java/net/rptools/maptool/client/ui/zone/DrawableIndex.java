@@ -0,0 +1,240 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.rptools.maptool.model.drawing.DrawnElement;
+import net.rptools.maptool.model.drawing.Pen;
+
+/**
+ * Spatial index of the drawn elements of one layer, so that {@link PartitionedDrawableRenderer} can
+ * find the elements overlapping a chunk without testing all of them. The zone is divided into
+ * square cells and every element is registered in each cell its bounds overlap. Elements remember
+ * their place in the layer's list, so that they can still be drawn back to front.
+ */
+class DrawableIndex {
+  /** Size of the cells, in zone coordinates. */
+  static final int CELL_SIZE = 256;
+
+  /** Elements covering more cells than this are kept aside and tested by every query. */
+  private static final int MAX_CELLS = 64;
+
+  private final Map<DrawnElement, Entry> entries = new IdentityHashMap<>();
+  private final Map<Long, List<Entry>> entriesByCell = new HashMap<>();
+  private final List<Entry> largeEntries = new ArrayList<>();
+  private long firstOrder = 0;
+  private long lastOrder = -1;
+
+  /**
+   * Replaces the content of the index.
+   *
+   * @param elements the elements of the layer, back to front
+   */
+  void rebuild(List<DrawnElement> elements) {
+    clear();
+    for (DrawnElement element : elements) {
+      append(element);
+    }
+  }
+
+  /** @return the number of elements in the index, including those without bounds. */
+  int size() {
+    return entries.size();
+  }
+
+  boolean contains(DrawnElement element) {
+    return entries.containsKey(element);
+  }
+
+  /**
+   * Adds an element in front of all others.
+   *
+   * @return the area to redraw, or null if the element has no bounds
+   */
+  Rectangle2D append(DrawnElement element) {
+    return add(element, ++lastOrder);
+  }
+
+  /**
+   * Adds an element behind all others.
+   *
+   * @return the area to redraw, or null if the element has no bounds
+   */
+  Rectangle2D prepend(DrawnElement element) {
+    return add(element, --firstOrder);
+  }
+
+  /**
+   * Reads the bounds of an element again, for example after its pen changed.
+   *
+   * @return the area to redraw, or null if the element is not indexed or has no bounds
+   */
+  Rectangle2D update(DrawnElement element) {
+    Entry entry = entries.get(element);
+    if (entry == null) {
+      return null;
+    }
+    Rectangle2D oldBounds = remove(element);
+    Rectangle2D newBounds = add(element, entry.order);
+    if (oldBounds == null) {
+      return newBounds;
+    }
+    if (newBounds != null) {
+      oldBounds.add(newBounds);
+    }
+    return oldBounds;
+  }
+
+  /**
+   * @return the area to redraw, or null if the element is not indexed or has no bounds
+   */
+  Rectangle2D remove(DrawnElement element) {
+    Entry entry = entries.remove(element);
+    if (entry == null || entry.bounds == null) {
+      return null;
+    }
+    if (isLarge(entry.bounds)) {
+      largeEntries.remove(entry);
+    } else {
+      for (long cell : getCells(entry.bounds)) {
+        List<Entry> cellEntries = entriesByCell.get(cell);
+        cellEntries.remove(entry);
+        if (cellEntries.isEmpty()) {
+          entriesByCell.remove(cell);
+        }
+      }
+    }
+    return entry.bounds.getBounds2D();
+  }
+
+  void clear() {
+    entries.clear();
+    entriesByCell.clear();
+    largeEntries.clear();
+    firstOrder = 0;
+    lastOrder = -1;
+  }
+
+  /**
+   * @param bounds the area to look at, in zone coordinates
+   * @return the elements whose drawn bounds intersect the area, back to front
+   */
+  List<DrawnElement> getIntersecting(Rectangle2D bounds) {
+    Set<Entry> found = new HashSet<>();
+    for (long cell : getCells(bounds)) {
+      List<Entry> cellEntries = entriesByCell.get(cell);
+      if (cellEntries != null) {
+        for (Entry entry : cellEntries) {
+          if (entry.bounds.intersects(bounds)) {
+            found.add(entry);
+          }
+        }
+      }
+    }
+    for (Entry entry : largeEntries) {
+      if (entry.bounds.intersects(bounds)) {
+        found.add(entry);
+      }
+    }
+    List<Entry> sorted = new ArrayList<>(found);
+    sorted.sort(Comparator.comparingLong(e -> e.order));
+    List<DrawnElement> result = new ArrayList<>(sorted.size());
+    for (Entry entry : sorted) {
+      result.add(entry.element);
+    }
+    return result;
+  }
+
+  /**
+   * @param element the element to measure
+   * @return the bounds of the drawable grown by the pen, or null if the drawable has no bounds
+   */
+  static Rectangle2D getDrawnBounds(DrawnElement element) {
+    Rectangle bounds = element.getDrawable().getBounds();
+    if (bounds == null) {
+      return null;
+    }
+    Rectangle2D drawnBounds = new Rectangle(bounds);
+    Pen pen = element.getPen();
+    int penSize = (int) (pen.getThickness() / 2 + 1);
+    drawnBounds.setRect(
+        drawnBounds.getX() - penSize,
+        drawnBounds.getY() - penSize,
+        drawnBounds.getWidth() + pen.getThickness(),
+        drawnBounds.getHeight() + pen.getThickness());
+    return drawnBounds;
+  }
+
+  private Rectangle2D add(DrawnElement element, long order) {
+    Entry entry = new Entry(element, getDrawnBounds(element), order);
+    entries.put(element, entry);
+    if (entry.bounds == null) {
+      return null;
+    }
+    if (isLarge(entry.bounds)) {
+      largeEntries.add(entry);
+    } else {
+      for (long cell : getCells(entry.bounds)) {
+        entriesByCell.computeIfAbsent(cell, k -> new ArrayList<>()).add(entry);
+      }
+    }
+    return entry.bounds.getBounds2D();
+  }
+
+  private static boolean isLarge(Rectangle2D bounds) {
+    long columns =
+        Math.floorDiv((long) Math.ceil(bounds.getMaxX()), CELL_SIZE)
+            - Math.floorDiv((long) Math.floor(bounds.getMinX()), CELL_SIZE);
+    long rows =
+        Math.floorDiv((long) Math.ceil(bounds.getMaxY()), CELL_SIZE)
+            - Math.floorDiv((long) Math.floor(bounds.getMinY()), CELL_SIZE);
+    return (columns + 1) * (rows + 1) > MAX_CELLS;
+  }
+
+  private static List<Long> getCells(Rectangle2D bounds) {
+    int minX = Math.floorDiv((int) Math.floor(bounds.getMinX()), CELL_SIZE);
+    int minY = Math.floorDiv((int) Math.floor(bounds.getMinY()), CELL_SIZE);
+    int maxX = Math.floorDiv((int) Math.ceil(bounds.getMaxX()), CELL_SIZE);
+    int maxY = Math.floorDiv((int) Math.ceil(bounds.getMaxY()), CELL_SIZE);
+    List<Long> cells = new ArrayList<>((maxX - minX + 1) * (maxY - minY + 1));
+    for (int x = minX; x <= maxX; x++) {
+      for (int y = minY; y <= maxY; y++) {
+        cells.add(((long) x << 32) | (y & 0xffffffffL));
+      }
+    }
+    return cells;
+  }
+
+  private static class Entry {
+    final DrawnElement element;
+    final Rectangle2D bounds;
+    final long order;
+
+    Entry(DrawnElement element, Rectangle2D bounds, long order) {
+      this.element = element;
+      this.bounds = bounds;
+      this.order = order;
+    }
+  }
+}
@@ -28,4 +28,22 @@ public void renderDrawables(
   public void flush();
 
   public void setDirty();
+
+  /**
+   * Tells the renderer that an element was added to the list it renders, or that its pen changed.
+   *
+   * @param element the new or changed element
+   */
+  public default void drawableAdded(DrawnElement element) {
+    setDirty();
+  }
+
+  /**
+   * Tells the renderer that an element was removed from the list it renders.
+   *
+   * @param element the removed element
+   */
+  public default void drawableRemoved(DrawnElement element) {
+    setDirty();
+  }
 }
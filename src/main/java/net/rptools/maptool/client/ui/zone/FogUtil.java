@@ -31,12 +31,13 @@
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import net.rptools.lib.CodeTimer;
@@ -71,17 +72,60 @@ public class FogUtil {
    * @return the visible area.
    */
   public static Area calculateVisibility(int x, int y, Area vision, AreaTree topology) {
-    CodeTimer timer = new CodeTimer("calculateVisibility");
+    Point origin = new Point(x, y);
+    Area hiddenArea = getHiddenArea(origin, topology);
+    if (hiddenArea == null) {
+      return null;
+    }
 
     vision = new Area(vision);
     vision.transform(AffineTransform.getTranslateInstance(x, y));
+    if (!hiddenArea.isEmpty()) {
+      vision.subtract(hiddenArea);
+    }
 
-    Point origin = new Point(x, y);
+    // For simplicity, this catches some of the edge cases
+    return vision;
+  }
+
+  /**
+   * Return the visible areas for several origins, calculated in parallel on the common fork-join
+   * pool. Each result is the same as the one of {@link #calculateVisibility(int, int, Area,
+   * AreaTree)}.
+   *
+   * @param origins the vision origins.
+   * @param visions the lightSourceArea of each origin.
+   * @param topology the VBL topology.
+   * @return the visible area of each origin, in the same order. An entry is null if the origin is
+   *     inside the topology.
+   */
+  public static List<Area> calculateVisibility(
+      List<Point> origins, List<Area> visions, AreaTree topology) {
+    return IntStream.range(0, origins.size())
+        .parallel()
+        .mapToObj(
+            i -> calculateVisibility(origins.get(i).x, origins.get(i).y, visions.get(i), topology))
+        .collect(Collectors.toList());
+  }
 
+  /**
+   * Return the area the topology hides from an origin. It does not depend on the vision, so it is
+   * cached in the topology tree and shared by every token vision and light at the same origin.
+   *
+   * @param origin the vision origin.
+   * @param topology the VBL topology.
+   * @return the hidden area, or null if the origin is inside the topology. Must not be modified.
+   */
+  private static Area getHiddenArea(Point origin, AreaTree topology) {
     AreaOcean ocean = topology.getOceanAt(origin);
     if (ocean == null) {
       return null;
     }
+    Area hiddenArea = topology.getHiddenArea(origin);
+    if (hiddenArea != null) {
+      return hiddenArea;
+    }
+    CodeTimer timer = new CodeTimer("calculateVisibility");
     int skippedAreas = 0;
 
     // Jamz: Updated comparison for VisibleAreaSegment, hopefully this fixes the exceptions
@@ -93,7 +137,7 @@ public static Area calculateVisibility(int x, int y, Area vision, AreaTree topol
         new ArrayList<VisibleAreaSegment>(ocean.getVisibleAreaSegments(origin));
     Collections.sort(segmentList);
 
-    List<Area> clearedAreaList = new LinkedList<>();
+    List<Area> clearedAreaList = new ArrayList<>();
     nextSegment:
     for (VisibleAreaSegment segment : segmentList) {
       Rectangle r = segment.getPath().getBounds();
@@ -121,20 +165,32 @@ public static Area calculateVisibility(int x, int y, Area vision, AreaTree topol
       clearedAreaList.add(intersectedArea != null ? intersectedArea : area);
     }
 
-    while (clearedAreaList.size() > 1) {
-      Area a1 = clearedAreaList.remove(0);
-      Area a2 = clearedAreaList.remove(0);
+    hiddenArea = clearedAreaList.isEmpty() ? new Area() : union(clearedAreaList);
+    topology.putHiddenArea(ocean, origin, hiddenArea);
+    return hiddenArea;
+  }
 
-      a1.add(a2);
-      clearedAreaList.add(a1);
-    }
+  /**
+   * Unites the areas in a balanced binary tree: each half of the list is united on its own, then
+   * the two halves. Both sides of every union hold about the same number of areas, and every area
+   * takes part in log2(n) unions instead of being added to one ever growing total. Neighbours in
+   * the list are united first, which for areas in segment order keeps their outlines short.
+   *
+   * @param areas the areas, not empty. They are modified.
+   * @return the union of the areas
+   */
+  static Area union(List<Area> areas) {
+    return union(areas, 0, areas.size());
+  }
 
-    if (clearedAreaList.size() > 0) {
-      vision.subtract(clearedAreaList.get(0));
+  private static Area union(List<Area> areas, int from, int to) {
+    if (to - from == 1) {
+      return areas.get(from);
     }
-
-    // For simplicity, this catches some of the edge cases
-    return vision;
+    int middle = (from + to) >>> 1;
+    Area left = union(areas, from, middle);
+    left.add(union(areas, middle, to));
+    return left;
   }
 
   /**
@@ -14,6 +14,7 @@
  */
 package net.rptools.maptool.client.ui.zone;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Composite;
@@ -26,6 +27,10 @@
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.swing.SwingUtilities;
 import net.rptools.lib.CodeTimer;
 import net.rptools.lib.image.ImageUtil;
 import net.rptools.maptool.model.drawing.Drawable;
@@ -35,61 +40,133 @@
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-/** */
+/**
+ * Renders a layer of drawables as a grid of cached image chunks. The drawables are kept in a
+ * {@link DrawableIndex} that is updated as drawables are added and removed, so building a chunk
+ * only looks at the drawables that overlap it.
+ *
+ * <p>When painting on the event dispatch thread, chunks are built on a background pool and swapped
+ * in once they are ready; until then a chunk keeps showing its previous image, if it has one. After
+ * a change of scale the chunks of the previous scale are drawn stretched to the new one wherever a
+ * chunk is still being built.
+ */
 public class PartitionedDrawableRenderer implements DrawableRenderer {
   private static Logger log = LogManager.getLogger(PartitionedDrawableRenderer.class);
   private static boolean messageLogged = false;
 
   private static final int CHUNK_SIZE = 256;
-  private static List<BufferedImage> unusedChunkList = new LinkedList<BufferedImage>();
+  private static final Deque<BufferedImage> unusedChunkList = new ArrayDeque<BufferedImage>();
+
+  /** Builds chunks for all renderers, leaving a core for the event dispatch thread. */
+  private static final ExecutorService chunkPool =
+      Executors.newFixedThreadPool(
+          Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+          new ThreadFactoryBuilder()
+              .setNameFormat("drawable-chunk-%d")
+              .setDaemon(true)
+              .build());
+
+  private final Runnable repaint;
+
+  private final DrawableIndex index = new DrawableIndex();
+  /** The list the index was built from. */
+  private List<DrawnElement> indexedList;
+  /** Drawables added or removed since the last paint, applied to the index on the next one. */
+  private final Queue<Change> pendingChanges = new ConcurrentLinkedQueue<Change>();
+
+  /** Chunks by {@link #getKey(int, int)}, least recently used first. */
+  private final Map<Long, Chunk> chunkMap =
+      new LinkedHashMap<Long, Chunk>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Chunk> eldest) {
+          if (size() > maxChunks) {
+            discard(eldest.getValue());
+            return true;
+          }
+          return false;
+        }
+      };
 
-  private final Set<String> noImageSet = new HashSet<String>();
-  private final List<Tuple> chunkList = new LinkedList<Tuple>();
   private int maxChunks;
 
+  /** Chunks of the previous scale, shown until the chunks replacing them are built. */
+  private Map<Long, Chunk> previousChunkMap;
+
+  private double previousScale;
+
+  /** True if the last paint had chunks in view that were still being built. */
+  private boolean buildingInView;
+
+  /** Bumped whenever chunks being built can no longer be used. */
+  private int generation;
+
   private double lastScale;
   private Rectangle lastViewport;
 
   private int horizontalChunkCount;
   private int verticalChunkCount;
 
-  private boolean dirty = false;
+  private volatile boolean flushRequested = false;
+  private volatile boolean dirty = false;
 
   private CodeTimer timer;
 
+  /**
+   * @param repaint called on the event dispatch thread when chunks built in the background are
+   *     ready to be painted
+   */
+  public PartitionedDrawableRenderer(Runnable repaint) {
+    this.repaint = repaint;
+  }
+
   public void flush() {
-    int unusedSize = unusedChunkList.size();
-    for (Tuple tuple : chunkList) {
-      // Reuse the images
-      if (unusedSize < maxChunks && tuple != null) {
-        unusedChunkList.add(tuple.image);
-        unusedSize++;
-      }
-    }
-    chunkList.clear();
-    noImageSet.clear();
-    dirty = false;
+    flushRequested = true;
   }
 
   public void setDirty() {
     dirty = true;
   }
 
-  public void renderDrawables(
+  @Override
+  public void drawableAdded(DrawnElement element) {
+    pendingChanges.add(new Change(element, false));
+  }
+
+  @Override
+  public void drawableRemoved(DrawnElement element) {
+    pendingChanges.add(new Change(element, true));
+  }
+
+  public synchronized void renderDrawables(
       Graphics g, List<DrawnElement> drawableList, Rectangle viewport, double scale) {
     timer = new CodeTimer("Renderer");
     timer.setThreshold(10);
     timer.setEnabled(false);
 
+    if (flushRequested) {
+      flushRequested = false;
+      dirty = true;
+      discardChunks();
+    }
     // NOTHING TO DO
     if (drawableList == null || drawableList.isEmpty()) {
-      if (dirty) flush();
+      if (index.size() > 0 || !chunkMap.isEmpty()) {
+        discardChunks();
+      }
+      pendingChanges.clear();
+      index.clear();
+      indexedList = drawableList;
+      dirty = false;
       return;
     }
     // View changed ?
-    if (dirty || lastScale != scale) {
-      flush();
+    if (lastScale != scale) {
+      keepPreviousChunks();
     }
+    timer.start("render:UpdateIndex");
+    updateIndex(drawableList, scale);
+    timer.stop("render:UpdateIndex");
+
     if (lastViewport == null
         || viewport.width != lastViewport.width
         || viewport.height != lastViewport.height) {
@@ -110,34 +187,23 @@ public void renderDrawables(
     gridx += (viewport.x > CHUNK_SIZE && (viewport.x % CHUNK_SIZE == 0) ? -1 : 0);
     gridy += (viewport.y > CHUNK_SIZE && (viewport.y % CHUNK_SIZE == 0) ? -1 : 0);
 
+    // Screenshots and the like are painted off the EDT and need the chunks right away
+    boolean buildInBackground = SwingUtilities.isEventDispatchThread();
+    List<Rectangle> building = new ArrayList<Rectangle>();
+
     for (int row = 0; row < verticalChunkCount; row++) {
       for (int col = 0; col < horizontalChunkCount; col++) {
         int cellX = gridx + col;
         int cellY = gridy + row;
 
-        String key = getKey(cellX, cellY);
-        if (noImageSet.contains(key)) {
-          continue;
-        }
-        Tuple chunk = findChunk(chunkList, key);
+        long key = getKey(cellX, cellY);
+        Chunk chunk = chunkMap.get(key);
         if (chunk == null) {
-          chunk = new Tuple(key, createChunk(drawableList, cellX, cellY, scale));
-
-          if (chunk.image == null) {
-            noImageSet.add(key);
-            continue;
-          }
+          chunk = new Chunk();
+          chunkMap.put(key, chunk);
         }
-        // Most recently used is at the front
-        chunkList.add(0, chunk);
-
-        // Trim to the right size
-        if (chunkList.size() > maxChunks) {
-          int chunkSize = chunkList.size();
-          // chunkList.subList(maxChunks, chunkSize).clear();
-          while (chunkSize > maxChunks) {
-            chunkList.remove(--chunkSize);
-          }
+        if (chunk.stale && !chunk.building) {
+          buildChunk(chunk, cellX, cellY, scale, buildInBackground);
         }
         int x =
             col * CHUNK_SIZE
@@ -147,6 +213,12 @@ public void renderDrawables(
             row * CHUNK_SIZE
                 - ((CHUNK_SIZE - viewport.y)) % CHUNK_SIZE
                 - (gridy < -1 ? CHUNK_SIZE : 0);
+        if (chunk.image == null) {
+          if (chunk.building) {
+            building.add(new Rectangle(x, y, CHUNK_SIZE, CHUNK_SIZE));
+          }
+          continue;
+        }
 
         timer.start("render:DrawImage");
         g.drawImage(chunk.image, x, y, null);
@@ -175,10 +247,20 @@ public void renderDrawables(
             }
           }
           g.drawRect(x, y, CHUNK_SIZE - 1, CHUNK_SIZE - 1);
-          g.drawString(key, x + CHUNK_SIZE / 2, y + CHUNK_SIZE / 2);
+          g.drawString(cellX + "." + cellY, x + CHUNK_SIZE / 2, y + CHUNK_SIZE / 2);
         }
       }
     }
+    buildingInView = !building.isEmpty();
+    if (previousChunkMap != null) {
+      if (buildingInView) {
+        timer.start("render:DrawPrevious");
+        drawPreviousChunks(g, building, viewport, scale);
+        timer.stop("render:DrawPrevious");
+      } else {
+        discardPreviousChunks();
+      }
+    }
     // REMEMBER
     lastViewport = viewport;
     lastScale = scale;
@@ -189,67 +271,237 @@ public void renderDrawables(
   }
 
   /**
-   * Given a List and a String key, find the element in the list that matches the key.
-   *
-   * @param list
-   * @param key
-   * @return
+   * Brings the index up to date with the list and marks the chunks showing changed drawables as
+   * stale. Changes the renderer was not told about are caught by comparing sizes, in which case the
+   * index is rebuilt.
+   */
+  private void updateIndex(List<DrawnElement> drawableList, double scale) {
+    boolean rebuild = dirty || drawableList != indexedList;
+    Change change;
+    while (!rebuild && (change = pendingChanges.poll()) != null) {
+      DrawnElement element = change.element;
+      Rectangle2D changed;
+      if (change.removed) {
+        if (!index.contains(element)) {
+          // Part of a group, or already gone
+          rebuild = true;
+          break;
+        }
+        changed = index.remove(element);
+      } else if (index.contains(element)) {
+        changed = index.update(element);
+      } else if (drawableList.get(drawableList.size() - 1) == element) {
+        changed = index.append(element);
+      } else if (drawableList.get(0) == element) {
+        changed = index.prepend(element);
+      } else {
+        rebuild = true;
+        break;
+      }
+      if (changed != null) {
+        invalidate(changed, scale);
+      }
+    }
+    if (rebuild || index.size() != drawableList.size()) {
+      dirty = false;
+      pendingChanges.clear();
+      index.rebuild(drawableList);
+      indexedList = drawableList;
+      for (Chunk chunk : chunkMap.values()) {
+        chunk.stale = true;
+      }
+    }
+  }
+
+  /** Marks the chunks overlapping the given zone area as stale. */
+  private void invalidate(Rectangle2D bounds, double scale) {
+    for (Map.Entry<Long, Chunk> entry : chunkMap.entrySet()) {
+      long key = entry.getKey();
+      if (getChunkBounds((int) (key >> 32), (int) key, scale).intersects(bounds)) {
+        entry.getValue().stale = true;
+      }
+    }
+  }
+
+  /**
+   * Stretches the chunks of the previous scale over the given screen areas, where the chunks of the
+   * current scale are still being built.
+   */
+  private void drawPreviousChunks(
+      Graphics g, List<Rectangle> areas, Rectangle viewport, double scale) {
+    double size = CHUNK_SIZE * scale / previousScale;
+    Graphics2D g2 = (Graphics2D) g.create();
+    g2.setRenderingHint(
+        RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    for (Rectangle area : areas) {
+      g2.setClip(area);
+      int firstCol = (int) Math.floor((area.x - viewport.x) / size);
+      int lastCol = (int) Math.floor((area.x + area.width - viewport.x) / size);
+      int firstRow = (int) Math.floor((area.y - viewport.y) / size);
+      int lastRow = (int) Math.floor((area.y + area.height - viewport.y) / size);
+      for (int row = firstRow; row <= lastRow; row++) {
+        for (int col = firstCol; col <= lastCol; col++) {
+          Chunk chunk = previousChunkMap.get(getKey(col, row));
+          if (chunk == null || chunk.image == null) {
+            continue;
+          }
+          int x = (int) Math.floor(col * size) + viewport.x;
+          int y = (int) Math.floor(row * size) + viewport.y;
+          int width = (int) Math.floor((col + 1) * size) + viewport.x - x;
+          int height = (int) Math.floor((row + 1) * size) + viewport.y - y;
+          g2.drawImage(chunk.image, x, y, width, height, null);
+        }
+      }
+    }
+    g2.dispose();
+  }
+
+  private void buildChunk(
+      Chunk chunk, int gridx, int gridy, double scale, boolean buildInBackground) {
+    timer.start("render:FindDrawables");
+    List<DrawnElement> elements = index.getIntersecting(getChunkBounds(gridx, gridy, scale));
+    timer.stop("render:FindDrawables");
+
+    // Anything that changes from here on marks the chunk stale again
+    chunk.stale = false;
+    if (elements.isEmpty()) {
+      releaseChunk(chunk.image);
+      chunk.image = null;
+      return;
+    }
+    // The list is a copy already, but the groups in it may be changed while the chunk is built
+    Map<DrawablesGroup, List<DrawnElement>> groups = snapshotGroups(elements);
+    if (!buildInBackground) {
+      BufferedImage image = createChunk(elements, groups, gridx, gridy, scale);
+      releaseChunk(chunk.image);
+      chunk.image = image;
+      return;
+    }
+    chunk.building = true;
+    int buildGeneration = generation;
+    chunkPool.execute(
+        () -> {
+          BufferedImage image = createChunk(elements, groups, gridx, gridy, scale);
+          SwingUtilities.invokeLater(
+              () -> {
+                synchronized (this) {
+                  chunk.building = false;
+                  if (chunk.discarded || buildGeneration != generation) {
+                    releaseChunk(image);
+                    return;
+                  }
+                  releaseChunk(chunk.image);
+                  chunk.image = image;
+                }
+                repaint.run();
+              });
+        });
+  }
+
+  /**
+   * Sets the chunks aside to be shown while the chunks of a new scale are built. If the chunks of
+   * the previous scale were not all replaced yet, those are kept instead.
    */
-  private Tuple findChunk(List<Tuple> list, String key) {
-    ListIterator<Tuple> iter = list.listIterator();
-    while (iter.hasNext()) {
-      Tuple tuple = iter.next();
-      if (tuple.key.equals(key)) {
-        iter.remove();
-        return tuple;
+  private void keepPreviousChunks() {
+    if (chunkMap.isEmpty()) {
+      return;
+    }
+    if (previousChunkMap != null && buildingInView) {
+      discardChunks(chunkMap);
+    } else {
+      discardPreviousChunks();
+      previousChunkMap = new HashMap<Long, Chunk>(chunkMap);
+      previousScale = lastScale;
+      chunkMap.clear();
+    }
+    // Builds for the old scale are of no use any more
+    generation++;
+  }
+
+  private void discardPreviousChunks() {
+    if (previousChunkMap != null) {
+      discardChunks(previousChunkMap);
+      previousChunkMap = null;
+    }
+  }
+
+  private void discardChunks() {
+    discardChunks(chunkMap);
+    discardPreviousChunks();
+    generation++;
+  }
+
+  private void discardChunks(Map<Long, Chunk> chunks) {
+    for (Chunk chunk : chunks.values()) {
+      discard(chunk);
+    }
+    chunks.clear();
+  }
+
+  private void discard(Chunk chunk) {
+    chunk.discarded = true;
+    releaseChunk(chunk.image);
+    chunk.image = null;
+  }
+
+  /** @return the area of the zone a chunk shows, in zone coordinates. */
+  private static Rectangle2D getChunkBounds(int gridx, int gridy, double scale) {
+    return new Rectangle(
+        (int) (gridx * (CHUNK_SIZE / scale)),
+        (int) (gridy * (CHUNK_SIZE / scale)),
+        (int) (CHUNK_SIZE / scale),
+        (int) (CHUNK_SIZE / scale));
+  }
+
+  /** @return copies of the lists of the groups among the drawables, and of the groups in those. */
+  private static Map<DrawablesGroup, List<DrawnElement>> snapshotGroups(
+      List<DrawnElement> drawableList) {
+    Map<DrawablesGroup, List<DrawnElement>> groups =
+        new IdentityHashMap<DrawablesGroup, List<DrawnElement>>();
+    Deque<List<DrawnElement>> lists = new ArrayDeque<List<DrawnElement>>();
+    lists.push(drawableList);
+    while (!lists.isEmpty()) {
+      for (DrawnElement element : lists.pop()) {
+        if (element.getDrawable() instanceof DrawablesGroup) {
+          DrawablesGroup group = (DrawablesGroup) element.getDrawable();
+          if (!groups.containsKey(group)) {
+            List<DrawnElement> copy = new ArrayList<DrawnElement>(group.getDrawableList());
+            groups.put(group, copy);
+            lists.push(copy);
+          }
+        }
       }
     }
-    return null;
+    return groups;
   }
 
-  private BufferedImage createChunk(
-      List<DrawnElement> drawableList, int gridx, int gridy, double scale) {
+  /**
+   * Draws the given drawables into a new chunk image. Called on the chunk pool, so it must not touch
+   * the state of the renderer, and takes the drawables of groups from the given snapshot.
+   */
+  private static BufferedImage createChunk(
+      List<DrawnElement> drawableList,
+      Map<DrawablesGroup, List<DrawnElement>> groups,
+      int gridx,
+      int gridy,
+      double scale) {
     int x = gridx * CHUNK_SIZE;
     int y = gridy * CHUNK_SIZE;
+    Rectangle2D chunkBounds = getChunkBounds(gridx, gridy, scale);
 
     BufferedImage image = null;
     Composite oldComposite = null;
     Graphics2D g = null;
 
     for (DrawnElement element : drawableList) {
-      timer.start("createChunk:calculate");
       Drawable drawable = element.getDrawable();
-      if (drawable.getBounds() == null) {
-        timer.stop("createChunk:calculate");
+      // Elements of groups have not been through the index
+      Rectangle2D drawnBounds = DrawableIndex.getDrawnBounds(element);
+      if (drawnBounds == null || !drawnBounds.intersects(chunkBounds)) {
         continue;
       }
-
-      Rectangle2D drawnBounds = new Rectangle(drawable.getBounds());
-      Rectangle2D chunkBounds =
-          new Rectangle(
-              (int) (gridx * (CHUNK_SIZE / scale)),
-              (int) (gridy * (CHUNK_SIZE / scale)),
-              (int) (CHUNK_SIZE / scale),
-              (int) (CHUNK_SIZE / scale));
-
-      // Handle pen size
       Pen pen = element.getPen();
-      int penSize = (int) (pen.getThickness() / 2 + 1);
-      drawnBounds.setRect(
-          drawnBounds.getX() - penSize,
-          drawnBounds.getY() - penSize,
-          drawnBounds.getWidth() + pen.getThickness(),
-          drawnBounds.getHeight() + pen.getThickness());
-      timer.stop("createChunk:calculate");
-
-      timer.start("createChunk:BoundsCheck");
-      if (!drawnBounds.intersects(chunkBounds)) {
-        timer.stop("createChunk:BoundsCheck");
-        continue;
-      }
-      timer.stop("createChunk:BoundsCheck");
 
-      timer.start("createChunk:CreateChunk");
       if (image == null) {
         image = getNewChunk();
         g = image.createGraphics();
@@ -263,7 +515,6 @@ private BufferedImage createChunk(
         af.scale(scale, scale);
         g.setTransform(af);
       }
-      timer.stop("createChunk:CreateChunk");
 
       if (pen.getOpacity() != 1 && pen.getOpacity() != 0 /*
 																 * handle legacy pens, besides, it doesn't make sense to have a non visible pen
@@ -274,16 +525,15 @@ private BufferedImage createChunk(
       // g.setColor(Color.red);
       // g.draw(drawnBounds);
 
-      timer.start("createChunk:Draw");
       if (drawable instanceof DrawablesGroup) {
         DrawablesGroup dg = (DrawablesGroup) drawable;
-        BufferedImage groupImage = createChunk(dg.getDrawableList(), gridx, gridy, scale);
+        BufferedImage groupImage = createChunk(groups.get(dg), groups, gridx, gridy, scale);
         Graphics2D g2 = image.createGraphics();
         g2.drawImage(groupImage, 0, 0, CHUNK_SIZE, CHUNK_SIZE, null);
         g2.dispose();
+        releaseChunk(groupImage);
       } else drawable.draw(g, pen);
       g.setComposite(oldComposite);
-      timer.stop("createChunk:Draw");
     }
     if (g != null) {
       g.dispose();
@@ -291,10 +541,12 @@ private BufferedImage createChunk(
     return image;
   }
 
-  private BufferedImage getNewChunk() {
+  private static BufferedImage getNewChunk() {
     BufferedImage image = null;
-    if (unusedChunkList.size() > 0) {
-      image = unusedChunkList.remove(0);
+    synchronized (unusedChunkList) {
+      image = unusedChunkList.poll();
+    }
+    if (image != null) {
       ImageUtil.clearImage(image);
     } else {
       image = new BufferedImage(CHUNK_SIZE, CHUNK_SIZE, Transparency.BITMASK);
@@ -303,30 +555,44 @@ private BufferedImage getNewChunk() {
     return image;
   }
 
-  private String getKey(int col, int row) {
-    return col + "." + row;
+  /** Keeps a chunk image that is no longer shown for reuse. */
+  private static void releaseChunk(BufferedImage image) {
+    if (image == null) {
+      return;
+    }
+    synchronized (unusedChunkList) {
+      // Enough for a couple of screens full
+      if (unusedChunkList.size() < 256) {
+        unusedChunkList.add(image);
+      }
+    }
+  }
+
+  /** Packs the grid coordinates of a chunk into a single key. */
+  private static long getKey(int col, int row) {
+    return ((long) col << 32) | (row & 0xffffffffL);
   }
 
-  private static class Tuple {
-    String key;
+  private static class Chunk {
+    /** The rendered drawables, or null if there are none (yet). */
     BufferedImage image;
 
-    public Tuple(String key, BufferedImage image) {
-      this.key = key;
-      this.image = image;
-    }
+    /** True if the image no longer matches the drawables. */
+    boolean stale = true;
 
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) return true;
-      if (o == null || getClass() != o.getClass()) return false;
-      Tuple tuple = (Tuple) o;
-      return Objects.equals(key, tuple.key);
-    }
+    boolean building;
+
+    /** True once the chunk has been dropped from the cache. */
+    boolean discarded;
+  }
+
+  private static class Change {
+    final DrawnElement element;
+    final boolean removed;
 
-    @Override
-    public int hashCode() {
-      return Objects.hash(key);
+    Change(DrawnElement element, boolean removed) {
+      this.element = element;
+      this.removed = removed;
     }
   }
 }
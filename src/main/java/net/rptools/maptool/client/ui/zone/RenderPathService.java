@@ -0,0 +1,108 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the path computations of the selection sets being moved. The paths of all the sets are
+ * computed at the same time on a pool shared by all the renderers, and bounded by the number of
+ * processors.
+ *
+ * <p>Each set has at most one running computation, since a walker can only compute one path at a
+ * time. A new request for a set cancels the running one and waits for it to stop; a request still
+ * waiting is dropped when a newer one arrives, so only the latest position of the mouse is
+ * computed.
+ */
+public class RenderPathService {
+  private static final ExecutorService pool =
+      Executors.newFixedThreadPool(
+          Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+          new ThreadFactoryBuilder().setNameFormat("render-path-%d").setDaemon(true).build());
+
+  /** The requests of each set. */
+  private final Map<Object, Requests> requests = new HashMap<>();
+
+  private static class Requests {
+    /** The computation running on the pool. */
+    private RenderPathWorker running;
+    /** The computation to run once the running one is over, if any. */
+    private RenderPathWorker waiting;
+  }
+
+  /**
+   * Compute a path for a set, cancelling the computations of its previous paths.
+   *
+   * @param key the set the path is for
+   * @param worker the computation of the path
+   */
+  public synchronized void submit(Object key, RenderPathWorker worker) {
+    Requests current = requests.computeIfAbsent(key, k -> new Requests());
+    if (current.running == null) {
+      current.running = worker;
+      pool.execute(() -> run(key, worker));
+      return;
+    }
+    current.running.cancel(true);
+    if (current.waiting != null) {
+      current.waiting.cancel(false);
+    }
+    current.waiting = worker;
+  }
+
+  /**
+   * Cancel the computations of a set.
+   *
+   * @param key the set
+   */
+  public synchronized void cancel(Object key) {
+    Requests current = requests.get(key);
+    if (current == null) {
+      return;
+    }
+    current.running.cancel(true);
+    if (current.waiting != null) {
+      current.waiting.cancel(false);
+      current.waiting = null;
+    }
+  }
+
+  // Package level for testing purposes
+  synchronized boolean hasRequests(Object key) {
+    return requests.containsKey(key);
+  }
+
+  private void run(Object key, RenderPathWorker worker) {
+    try {
+      worker.run();
+    } finally {
+      synchronized (this) {
+        Requests current = requests.get(key);
+        RenderPathWorker next = current.waiting;
+        current.waiting = null;
+        current.running = next;
+        if (next == null) {
+          requests.remove(key);
+        } else {
+          pool.execute(() -> run(key, next));
+        }
+      }
+    }
+  }
+}
@@ -48,10 +48,18 @@ public RenderPathWorker(
 
   @Override
   protected Void doInBackground() {
+    walker.setRenderPathWorker(this);
     walker.replaceLastWaypoint(endPoint, restrictMovement, terrainModifiersIgnored, tokenVBL);
     return null;
   }
 
+  /** Show the rough path the walker found while it is still refining it. */
+  public void pathPublished() {
+    if (!isCancelled()) {
+      zoneRenderer.repaint();
+    }
+  }
+
   @Override
   protected void done() {
     zoneRenderer.repaint();
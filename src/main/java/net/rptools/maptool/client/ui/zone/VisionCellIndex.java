@@ -0,0 +1,133 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import net.rptools.maptool.model.GUID;
+
+/**
+ * Spatial index of the bounds of light and vision areas. The zone is divided into square cells,
+ * and every area is registered in each cell its bounds overlap, so that the areas affected by a
+ * change can be found without testing every one of them.
+ */
+class VisionCellIndex {
+  /** Size of the cells, in zone coordinates. */
+  static final int CELL_SIZE = 512;
+
+  private final Map<GUID, Rectangle2D> boundsById = new HashMap<>();
+  private final Map<Long, Set<GUID>> idsByCell = new HashMap<>();
+
+  /**
+   * Adds or moves an area.
+   *
+   * @param id the id of the token owning the area
+   * @param bounds the bounds of the area
+   */
+  void put(GUID id, Rectangle2D bounds) {
+    remove(id);
+    boundsById.put(id, bounds);
+    for (long cell : getCells(bounds)) {
+      idsByCell.computeIfAbsent(cell, k -> new HashSet<>()).add(id);
+    }
+  }
+
+  /**
+   * @param id the id of the token owning the area
+   * @return the bounds the area had, or null if it was not indexed
+   */
+  Rectangle2D remove(GUID id) {
+    Rectangle2D bounds = boundsById.remove(id);
+    if (bounds != null) {
+      for (long cell : getCells(bounds)) {
+        Set<GUID> ids = idsByCell.get(cell);
+        ids.remove(id);
+        if (ids.isEmpty()) {
+          idsByCell.remove(cell);
+        }
+      }
+    }
+    return bounds;
+  }
+
+  /**
+   * @param id the id of the token owning the area
+   * @return the bounds of the area, or null if it is not indexed
+   */
+  Rectangle2D getBounds(GUID id) {
+    return boundsById.get(id);
+  }
+
+  /**
+   * @param bounds the bounds to test
+   * @return the ids of the areas whose bounds intersect the given bounds
+   */
+  Set<GUID> getIntersecting(Rectangle2D bounds) {
+    Set<GUID> result = new HashSet<>();
+    for (long cell : getCells(bounds)) {
+      Set<GUID> ids = idsByCell.get(cell);
+      if (ids == null) {
+        continue;
+      }
+      for (GUID id : ids) {
+        if (!result.contains(id) && boundsById.get(id).intersects(bounds)) {
+          result.add(id);
+        }
+      }
+    }
+    return result;
+  }
+
+  void clear() {
+    boundsById.clear();
+    idsByCell.clear();
+  }
+
+  /**
+   * @param bounds the bounds to get the cells of
+   * @return the keys of the cells overlapped by the bounds
+   */
+  static Set<Long> getCells(Rectangle2D bounds) {
+    Set<Long> cells = new HashSet<>();
+    int minX = Math.floorDiv((int) Math.floor(bounds.getMinX()), CELL_SIZE);
+    int minY = Math.floorDiv((int) Math.floor(bounds.getMinY()), CELL_SIZE);
+    int maxX = Math.floorDiv((int) Math.ceil(bounds.getMaxX()), CELL_SIZE);
+    int maxY = Math.floorDiv((int) Math.ceil(bounds.getMaxY()), CELL_SIZE);
+    for (int x = minX; x <= maxX; x++) {
+      for (int y = minY; y <= maxY; y++) {
+        cells.add(cellKey(x, y));
+      }
+    }
+    return cells;
+  }
+
+  /**
+   * @param cell the key of the cell
+   * @return the bounds of the cell, in zone coordinates
+   */
+  static Rectangle getCellBounds(long cell) {
+    int x = (int) (cell >> 32);
+    int y = (int) cell;
+    return new Rectangle(x * CELL_SIZE, y * CELL_SIZE, CELL_SIZE, CELL_SIZE);
+  }
+
+  private static long cellKey(int x, int y) {
+    return ((long) x << 32) | (y & 0xffffffffL);
+  }
+}
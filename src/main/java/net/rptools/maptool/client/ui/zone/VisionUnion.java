@@ -0,0 +1,97 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import net.rptools.maptool.model.GUID;
+
+/**
+ * The union of the visions of a set of tokens, kept up to date as visions change. Only the region
+ * the changed visions covered before is cut out of the union, and the visions overlapping it are
+ * added back whole. As those visions are not clipped to the region, the union has no seams along
+ * its border.
+ */
+class VisionUnion {
+  /** The vision of each token included in the union. */
+  private final Map<GUID, Area> visions = new HashMap<>();
+  /** Index of the bounds of visions. */
+  private final VisionCellIndex visionIndex = new VisionCellIndex();
+  /** The union, replaced rather than changed so that it can be handed out. */
+  private Area area = new Area();
+
+  /**
+   * Update the union to the given visions. Visions are compared by identity, a vision that was
+   * recalculated must be a new {@link Area}.
+   *
+   * @param newVisions the vision of each token to include, by token id
+   * @return true if any vision was added, removed or changed
+   */
+  boolean update(Map<GUID, Area> newVisions) {
+    Path2D removedRegion = new Path2D.Double();
+    Set<GUID> added = new HashSet<>();
+    for (Iterator<Entry<GUID, Area>> i = visions.entrySet().iterator(); i.hasNext(); ) {
+      Entry<GUID, Area> entry = i.next();
+      if (!newVisions.containsKey(entry.getKey())) {
+        removedRegion.append(visionIndex.remove(entry.getKey()), false);
+        i.remove();
+      }
+    }
+    for (Entry<GUID, Area> entry : newVisions.entrySet()) {
+      Area previous = visions.put(entry.getKey(), entry.getValue());
+      if (previous == entry.getValue()) {
+        continue;
+      }
+      if (previous != null) {
+        removedRegion.append(visionIndex.remove(entry.getKey()), false);
+      }
+      visionIndex.put(entry.getKey(), entry.getValue().getBounds2D());
+      added.add(entry.getKey());
+    }
+    if (added.isEmpty() && removedRegion.getCurrentPoint() == null) {
+      return false;
+    }
+
+    Area union = new Area(area);
+    if (removedRegion.getCurrentPoint() != null) {
+      // Whatever is left of the region is covered by the visions overlapping it
+      Area region = new Area(removedRegion);
+      union.subtract(region);
+      Rectangle2D regionBounds = region.getBounds2D();
+      for (GUID tokenId : visionIndex.getIntersecting(regionBounds)) {
+        if (region.intersects(visionIndex.getBounds(tokenId))) {
+          added.add(tokenId);
+        }
+      }
+    }
+    for (GUID tokenId : added) {
+      union.add(visions.get(tokenId));
+    }
+    area = union;
+    return true;
+  }
+
+  /** @return the union of the visions, which must not be modified. */
+  Area getArea() {
+    return area;
+  }
+}
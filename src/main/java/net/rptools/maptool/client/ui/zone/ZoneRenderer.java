@@ -31,8 +31,6 @@
 import java.util.*;
 import java.util.List;
 import java.util.Map.Entry;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 import javax.imageio.ImageIO;
 import javax.swing.*;
@@ -66,6 +64,7 @@
 import net.rptools.maptool.model.drawing.*;
 import net.rptools.maptool.util.GraphicsUtil;
 import net.rptools.maptool.util.ImageManager;
+import net.rptools.maptool.util.LoadingStage;
 import net.rptools.maptool.util.StringUtil;
 import net.rptools.maptool.util.TokenUtil;
 import net.rptools.parser.ParserException;
@@ -101,10 +100,14 @@ public class ZoneRenderer extends JComponent
   private final ZoneView zoneView;
 
   private Scale zoneScale;
-  private final DrawableRenderer backgroundDrawableRenderer = new PartitionedDrawableRenderer();
-  private final DrawableRenderer objectDrawableRenderer = new PartitionedDrawableRenderer();
-  private final DrawableRenderer tokenDrawableRenderer = new PartitionedDrawableRenderer();
-  private final DrawableRenderer gmDrawableRenderer = new PartitionedDrawableRenderer();
+  private final DrawableRenderer backgroundDrawableRenderer =
+      new PartitionedDrawableRenderer(this::repaint);
+  private final DrawableRenderer objectDrawableRenderer =
+      new PartitionedDrawableRenderer(this::repaint);
+  private final DrawableRenderer tokenDrawableRenderer =
+      new PartitionedDrawableRenderer(this::repaint);
+  private final DrawableRenderer gmDrawableRenderer =
+      new PartitionedDrawableRenderer(this::repaint);
   private final List<ZoneOverlay> overlayList = new ArrayList<ZoneOverlay>();
   private final Map<Zone.Layer, List<TokenLocation>> tokenLocationMap =
       new HashMap<Zone.Layer, List<TokenLocation>>();
@@ -114,17 +117,24 @@ public class ZoneRenderer extends JComponent
   private final List<LabelLocation> labelLocationList = new LinkedList<LabelLocation>();
   private Map<Token, Set<Token>> tokenStackMap;
   private final Map<GUID, SelectionSet> selectionSetMap = new HashMap<GUID, SelectionSet>();
+  /** Computes the paths of the selection sets being moved. */
+  private final RenderPathService renderPathService = new RenderPathService();
   // private final Map<Token, TokenLocation> tokenLocationCache = Collections.synchronizedMap(new
   // HashMap<Token,
   // TokenLocation>());
   private final Map<Token, TokenLocation> tokenLocationCache = new HashMap<Token, TokenLocation>();
   private final List<TokenLocation> markerLocationList = new ArrayList<TokenLocation>();
+  /** The latest location of each token drawn in the current frame. */
+  private final Map<Token, TokenLocation> renderedTokenLocations = new HashMap<>();
+  /** The number of token locations recorded in the current frame. */
+  private int renderedTokenCount;
+  /** The tokens the spatial index finds in the viewport, found once per frame. */
+  private Set<Token> tokensInViewport;
   private GeneralPath facingArrow;
   private final List<Token> showPathList = new ArrayList<Token>();
   private boolean showAllPaths = true; // Jamz: new option to show path
   // Optimizations
   private final Map<GUID, BufferedImage> labelRenderingCache = new HashMap<GUID, BufferedImage>();
-  private final Map<Token, BufferedImage> flipImageMap = new HashMap<Token, BufferedImage>();
   private final Map<Token, BufferedImage> flipIsoImageMap = new HashMap<Token, BufferedImage>();
   private Token tokenUnderMouse;
 
@@ -403,6 +413,7 @@ public void removeMoveSelectionSet(GUID keyToken) {
     if (set == null) {
       return;
     }
+    renderPathService.cancel(set);
     repaintDebouncer.dispatch();
   }
 
@@ -651,7 +662,7 @@ public void centerOn(CellPoint point) {
   }
 
   /**
-   * Remove the token from: tokenLocationCache, flipImageMap, opacityImageMap, replacementImageMap,
+   * Remove the token from: tokenLocationCache, flipIsoImageMap, opacityImageMap, replacementImageMap,
    * labelRenderingCache. Set the visibleScreenArea, tokenStackMap, renderedLightMap, rendered Aura
    * map to null. Flush the fog. Flush the token from the zoneView.
    *
@@ -663,7 +674,6 @@ public void flush(Token token) {
     synchronized (tokenLocationCache) {
       tokenLocationCache.remove(token);
     }
-    flipImageMap.remove(token);
     flipIsoImageMap.remove(token);
     labelRenderingCache.remove(token.getId());
 
@@ -697,7 +707,6 @@ public void flush() {
     // tokenLocationCache.clear();
 
     flushDrawableRenderer();
-    flipImageMap.clear();
     flipIsoImageMap.clear();
     fogBuffer = null;
     renderedLightMap = null;
@@ -1114,6 +1123,9 @@ public void renderZone(Graphics2D g2d, PlayerView view) {
 
     // Clear internal state
     tokenLocationMap.clear();
+    renderedTokenLocations.clear();
+    renderedTokenCount = 0;
+    tokensInViewport = null;
     markerLocationList.clear();
     itemRenderList.clear();
 
@@ -1978,23 +1990,27 @@ public boolean isLoading() {
     // Get a list of all the assets in the zone
     Set<MD5Key> assetSet = zone.getAllAssetIds();
     assetSet.remove(null); // remove bad data
+    Set<MD5Key> visibleAssetSet = getVisibleAssetIds();
 
-    // Make sure they are loaded
+    // Make sure they are loaded. The assets are read and decoded in the background, what is on
+    // screen first
     int downloadCount = 0;
     int cacheCount = 0;
     boolean loaded = true;
     for (MD5Key id : assetSet) {
+      // Have we loaded the image into memory yet ?
+      Image image =
+          ImageManager.getImage(
+              id,
+              visibleAssetSet.contains(id)
+                  ? LoadingStage.Priority.VISIBLE
+                  : LoadingStage.Priority.BACKGROUND,
+              this);
+
       // Have we gotten the actual data yet ?
-      Asset asset = AssetManager.getAsset(id);
-      if (asset == null) {
-        AssetManager.getAssetAsynchronously(id);
-        loaded = false;
-        continue;
+      if (AssetManager.hasAssetInMemory(id)) {
+        downloadCount++;
       }
-      downloadCount++;
-
-      // Have we loaded the image into memory yet ?
-      Image image = ImageManager.getImage(asset.getId(), this);
       if (image == null || image == ImageManager.TRANSFERING_IMAGE) {
         loaded = false;
         continue;
@@ -2007,12 +2023,35 @@ public boolean isLoading() {
             zone.getPlayerAlias(), downloadCount, assetSet.size(), cacheCount, assetSet.size());
     isLoaded = loaded;
     if (isLoaded) {
+      for (LoadingStage stage : LoadingStage.getStages()) {
+        log.info("Loading stage " + stage);
+      }
       // Notify the token tree that it should update
       MapTool.getFrame().updateTokenTree();
     }
     return !isLoaded;
   }
 
+  /** @return the assets of the map and of the tokens that are within the view. */
+  private Set<MD5Key> getVisibleAssetIds() {
+    Set<MD5Key> idSet = new HashSet<MD5Key>();
+    idSet.add(zone.getMapAssetId());
+    if (zone.getBackgroundPaint() instanceof DrawableTexturePaint) {
+      idSet.add(((DrawableTexturePaint) zone.getBackgroundPaint()).getAssetId());
+    }
+
+    ZonePoint topLeft = new ScreenPoint(0, 0).convertToZone(this);
+    ZonePoint bottomRight = new ScreenPoint(getWidth(), getHeight()).convertToZone(this);
+    Rectangle view =
+        new Rectangle(topLeft.x, topLeft.y, bottomRight.x - topLeft.x, bottomRight.y - topLeft.y);
+    for (Token token : zone.getTokensIntersecting(view)) {
+      if (token.getBounds(zone).intersects(view)) {
+        idSet.addAll(token.getAllImageAssets());
+      }
+    }
+    return idSet;
+  }
+
   protected void renderDrawableOverlay(
       Graphics g, DrawableRenderer renderer, PlayerView view, List<DrawnElement> drawnElements) {
     Rectangle viewport =
@@ -2173,7 +2212,8 @@ protected void showBlockedMoves(Graphics2D g, PlayerView view, Set<SelectionSet>
                 this, footprintBounds.x + set.getOffsetX(), footprintBounds.y + set.getOffsetY());
 
         // get token image, using image table if present
-        BufferedImage image = getTokenImage(token);
+        MD5Key imageId = getTokenImageId(token);
+        BufferedImage image = ImageManager.getImage(imageId, this);
 
         int scaledWidth = (int) (footprintBounds.width * scale);
         int scaledHeight = (int) (footprintBounds.height * scale);
@@ -2223,21 +2263,9 @@ protected void showBlockedMoves(Graphics2D g, PlayerView view, Set<SelectionSet>
             }
           }
         }
-        // handle flipping
-        BufferedImage workImage = image;
-        if (token.isFlippedX() || token.isFlippedY()) {
-          workImage =
-              new BufferedImage(image.getWidth(), image.getHeight(), image.getTransparency());
-
-          int workW = image.getWidth() * (token.isFlippedX() ? -1 : 1);
-          int workH = image.getHeight() * (token.isFlippedY() ? -1 : 1);
-          int workX = token.isFlippedX() ? image.getWidth() : 0;
-          int workY = token.isFlippedY() ? image.getHeight() : 0;
-
-          Graphics2D wig = workImage.createGraphics();
-          wig.drawImage(image, workX, workY, workW, workH, null);
-          wig.dispose();
-        }
+        // handle scaling and flipping
+        BufferedImage workImage =
+            getTokenRenderImage(token, imageId, image, scaledWidth, scaledHeight);
         // on the iso plane
         if (token.isFlippedIso()) {
           if (flipIsoImageMap.get(token) == null) {
@@ -2247,6 +2275,7 @@ protected void showBlockedMoves(Graphics2D g, PlayerView view, Set<SelectionSet>
           }
           token.setHeight(workImage.getHeight());
           token.setWidth(workImage.getWidth());
+          zone.updateTokenBounds(token);
           footprintBounds = token.getBounds(zone);
         }
         // Draw token
@@ -2986,6 +3015,10 @@ protected void renderTokens(
         timer.stop("tokenlist-1");
       }
       timer.start("tokenlist-1.1");
+      if (!getTokensInViewport().contains(token)) {
+        timer.stop("tokenlist-1.1");
+        continue;
+      }
       TokenLocation location = tokenLocationCache.get(token);
       if (location != null && !location.maybeOnscreen(viewport)) {
         timer.stop("tokenlist-1.1");
@@ -2999,7 +3032,9 @@ protected void renderTokens(
 
       timer.start("tokenlist-1b");
       // get token image, using image table if present
-      BufferedImage image = getTokenImage(token);
+      MD5Key imageId = getTokenImageId(token);
+      // Adds this as observer so we can repaint once the image is ready. Fixes #1700.
+      BufferedImage image = ImageManager.getImage(imageId, this);
       timer.stop("tokenlist-1b");
 
       timer.start("tokenlist-1c");
@@ -3112,6 +3147,8 @@ protected void renderTokens(
       List<TokenLocation> locationList = getTokenLocations(layer);
       if (locationList != null) {
         locationList.add(location);
+        location.order = renderedTokenCount++;
+        renderedTokenLocations.put(token, location);
       }
       timer.stop("renderTokens:Locations");
 
@@ -3145,26 +3182,9 @@ protected void renderTokens(
       timer.stop("renderTokens:ShowPath");
 
       timer.start("tokenlist-5");
-      // handle flipping
-      BufferedImage workImage = image;
-      if (token.isFlippedX() || token.isFlippedY()) {
-        workImage = flipImageMap.get(token);
-        if (workImage == null) {
-          workImage =
-              new BufferedImage(image.getWidth(), image.getHeight(), image.getTransparency());
-
-          int workW = image.getWidth() * (token.isFlippedX() ? -1 : 1);
-          int workH = image.getHeight() * (token.isFlippedY() ? -1 : 1);
-          int workX = token.isFlippedX() ? image.getWidth() : 0;
-          int workY = token.isFlippedY() ? image.getHeight() : 0;
-
-          Graphics2D wig = workImage.createGraphics();
-          wig.drawImage(image, workX, workY, workW, workH, null);
-          wig.dispose();
-
-          flipImageMap.put(token, workImage);
-        }
-      }
+      // handle scaling and flipping
+      BufferedImage workImage =
+          getTokenRenderImage(token, imageId, image, scaledWidth, scaledHeight);
       timer.stop("tokenlist-5");
 
       timer.start("tokenlist-5a");
@@ -3177,6 +3197,7 @@ protected void renderTokens(
         }
         token.setHeight(workImage.getHeight());
         token.setWidth(workImage.getWidth());
+        zone.updateTokenBounds(token);
         footprintBounds = token.getBounds(zone);
       }
       timer.stop("tokenlist-5a");
@@ -3859,12 +3880,19 @@ public void selectTokens(Collection<GUID> tokens) {
    * @param rect the selection rectangle
    */
   public void selectTokens(Rectangle rect) {
-    List<GUID> selectedList = new LinkedList<GUID>();
-    for (TokenLocation location : getTokenLocations(getActiveLayer())) {
-      if (rect.intersects(location.bounds.getBounds())) {
-        selectedList.add(location.token.getId());
+    List<TokenLocation> locations = new ArrayList<TokenLocation>();
+    for (Token token : zone.getTokensIntersecting(toZoneBounds(rect))) {
+      TokenLocation location = getRenderedTokenLocation(token);
+      if (location != null && rect.intersects(location.bounds.getBounds())) {
+        locations.add(location);
       }
     }
+    locations.sort(Comparator.comparingInt(location -> location.order));
+
+    List<GUID> selectedList = new LinkedList<GUID>();
+    for (TokenLocation location : locations) {
+      selectedList.add(location.token.getId());
+    }
     selectTokens(selectedList);
   }
 
@@ -4038,15 +4066,53 @@ public Rectangle getLabelBounds(Label label) {
    * @return the token
    */
   public Token getTokenAt(int x, int y) {
-    List<TokenLocation> locationList =
-        new ArrayList<TokenLocation>(getTokenLocations(getActiveLayer()));
-    Collections.reverse(locationList);
-    for (TokenLocation location : locationList) {
-      if (location.bounds.contains(x, y)) {
-        return location.token;
+    // The token drawn last is the one on top
+    TokenLocation top = null;
+    for (Token token : zone.getTokensIntersecting(toZoneBounds(new Rectangle(x, y, 1, 1)))) {
+      TokenLocation location = getRenderedTokenLocation(token);
+      if (location != null
+          && (top == null || location.order > top.order)
+          && location.bounds.contains(x, y)) {
+        top = location;
       }
     }
-    return null;
+    return top != null ? top.token : null;
+  }
+
+  /**
+   * Returns where a token of the active layer was drawn in the last frame.
+   *
+   * @param token the token
+   * @return the location of the token, or null if it was not drawn or is on another layer
+   */
+  private TokenLocation getRenderedTokenLocation(Token token) {
+    TokenLocation location = renderedTokenLocations.get(token);
+    return location != null && location.token.getLayer() == getActiveLayer() ? location : null;
+  }
+
+  /** @return the tokens that may be drawn in the viewport in the current frame */
+  private Set<Token> getTokensInViewport() {
+    if (tokensInViewport == null) {
+      Rectangle viewport = new Rectangle(0, 0, getSize().width, getSize().height);
+      tokensInViewport = new HashSet<Token>(zone.getTokensIntersecting(toZoneBounds(viewport)));
+    }
+    return tokensInViewport;
+  }
+
+  /**
+   * Returns the area of the map under a rectangle of the screen, with a margin for rounding.
+   *
+   * @param screenBounds the rectangle, in screen coordinates
+   * @return the area, in zone coordinates
+   */
+  private Rectangle toZoneBounds(Rectangle screenBounds) {
+    ZonePoint topLeft = new ScreenPoint(screenBounds.x, screenBounds.y).convertToZone(this);
+    ZonePoint bottomRight =
+        new ScreenPoint(screenBounds.getMaxX(), screenBounds.getMaxY()).convertToZone(this);
+    Rectangle zoneBounds = new Rectangle(topLeft.x, topLeft.y, 1, 1);
+    zoneBounds.add(bottomRight.x, bottomRight.y);
+    zoneBounds.grow(2, 2);
+    return zoneBounds;
   }
 
   public Token getMarkerAt(int x, int y) {
@@ -4273,7 +4339,10 @@ public class SelectionSet {
     private int offsetY;
     // private boolean restrictMovement = true;
     private RenderPathWorker renderPathTask;
-    private ExecutorService renderPathThreadPool = Executors.newSingleThreadExecutor();
+    /** The VBL of the token, kept while the topology does not change. */
+    private Area tokenVBL;
+    /** The topology version tokenVBL was computed for, -1 if it was not computed yet. */
+    private int tokenVBLVersion = -1;
 
     public SelectionSet(String playerId, GUID tokenGUID, Set<GUID> selectionList) {
       selectionSet.addAll(selectionList);
@@ -4334,6 +4403,21 @@ public void renderFinalPath() {
       }
     }
 
+    /**
+     * Get the transformed VBL of the token. The same area is returned until the topology changes,
+     * which lets the walker keep its VBL geometry between two path computations.
+     *
+     * @return the transformed VBL of the token, or null if it has none.
+     */
+    private Area getTokenVBL() {
+      int topologyVersion = getZoneView().getTopologyVersion();
+      if (tokenVBLVersion != topologyVersion) {
+        tokenVBL = token.getTransformedVBL();
+        tokenVBLVersion = topologyVersion;
+      }
+      return tokenVBL;
+    }
+
     public void setOffset(int x, int y) {
       offsetX = x;
       offsetY = y;
@@ -4345,10 +4429,6 @@ public void setOffset(int x, int y) {
         // walker.replaceLastWaypoint(point, restrictMovement); // OLD WAY
 
         // New way threaded, off the swing UI thread...
-        if (renderPathTask != null) {
-          renderPathTask.cancel(true);
-        }
-
         boolean restictMovement = MapTool.getServerPolicy().isUsingAstarPathfinding();
 
         Set<TerrainModifierOperation> terrainModifiersIgnored = token.getTerrainModifiersIgnored();
@@ -4364,9 +4444,9 @@ public void setOffset(int x, int y) {
                 point,
                 restictMovement,
                 terrainModifiersIgnored,
-                token.getTransformedVBL(),
+                getTokenVBL(),
                 ZoneRenderer.this);
-        renderPathThreadPool.execute(renderPathTask);
+        renderPathService.submit(this, renderPathTask);
       } else {
         if (gridlessPath.getCellPath().size() > 1) {
           gridlessPath.replaceLastPoint(zp);
@@ -4432,6 +4512,8 @@ private class TokenLocation {
 
     public Area bounds;
     public Token token;
+    /** The order the location was recorded in during the frame, the top most being the last. */
+    public int order;
     public Rectangle boundsCache;
     public double scaledHeight;
     public double scaledWidth;
@@ -4718,10 +4800,9 @@ public void addTokens(
    * otherwise uses basic image
    *
    * @param token the token to get the image from.
-   * @return BufferedImage
+   * @return the asset of the image
    */
-  private BufferedImage getTokenImage(Token token) {
-    BufferedImage image = null;
+  private MD5Key getTokenImageId(Token token) {
     // Get the basic image
     if (token.getHasImageTable() && token.hasFacing() && token.getImageTableName() != null) {
       LookupTable lookupTable =
@@ -4730,19 +4811,36 @@ private BufferedImage getTokenImage(Token token) {
         try {
           LookupEntry result = lookupTable.getLookup(token.getFacing().toString());
           if (result != null) {
-            image = ImageManager.getImage(result.getImageId(), this);
+            return result.getImageId();
           }
         } catch (ParserException p) {
           // do nothing
         }
       }
     }
+    return token.getImageAssetId();
+  }
 
-    if (image == null) {
-      // Adds this as observer so we can repaint once the image is ready. Fixes #1700.
-      image = ImageManager.getImage(token.getImageAssetId(), this);
+  /**
+   * Get the image to draw for a token: the token image reduced to about the size it is drawn at,
+   * and flipped like the token. Isometric tokens take their size from the image, so they always get
+   * the image at full size.
+   *
+   * @param token the token to draw
+   * @param imageId the asset of the token image
+   * @param image the token image, as returned by the {@link ImageManager}
+   * @param width the width the token is drawn at
+   * @param height the height the token is drawn at
+   * @return the image to draw
+   */
+  private BufferedImage getTokenRenderImage(
+      Token token, MD5Key imageId, BufferedImage image, double width, double height) {
+    int level = token.isFlippedIso() ? 0 : ImageManager.getPyramidLevel(image, width, height);
+    if (level == 0 && !token.isFlippedX() && !token.isFlippedY()) {
+      return image;
     }
-    return image;
+    return ImageManager.getScaledImage(
+        imageId, level, token.isFlippedX(), token.isFlippedY(), this);
   }
 
   /*
@@ -4810,20 +4908,28 @@ public void modelChanged(ModelChangeEvent event) {
       }
       if (evt == Zone.Event.DRAWABLE_ADDED || evt == Zone.Event.DRAWABLE_REMOVED) {
         DrawnElement de = (DrawnElement) event.getArg();
+        DrawableRenderer renderer = null;
         switch (de.getDrawable().getLayer()) {
           case TOKEN:
-            tokenDrawableRenderer.setDirty();
+            renderer = tokenDrawableRenderer;
             break;
           case GM:
-            gmDrawableRenderer.setDirty();
+            renderer = gmDrawableRenderer;
             break;
           case OBJECT:
-            objectDrawableRenderer.setDirty();
+            renderer = objectDrawableRenderer;
             break;
           case BACKGROUND:
-            backgroundDrawableRenderer.setDirty();
+            renderer = backgroundDrawableRenderer;
             break;
         }
+        if (renderer != null) {
+          if (evt == Zone.Event.DRAWABLE_ADDED) {
+            renderer.drawableAdded(de);
+          } else {
+            renderer.drawableRemoved(de);
+          }
+        }
       }
       MapTool.getFrame().updateTokenTree(); // for any event
       repaintDebouncer.dispatch();
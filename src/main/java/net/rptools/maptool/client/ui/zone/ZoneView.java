@@ -27,6 +27,7 @@
 import net.rptools.maptool.client.AppUtil;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.ui.zone.vbl.AreaTree;
+import net.rptools.maptool.client.walker.astar.MovementBlockingGrid;
 import net.rptools.maptool.model.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -59,11 +60,21 @@ public class ZoneView implements ModelChangeListener {
   private final Map<GUID, Set<Area>> personalBrightLightCache = new HashMap<>();
   /** Map each token to their personal drawable lights. */
   private final Map<GUID, Set<DrawableLight>> personalDrawableLightCache = new HashMap<>();
+  /** Index of the furthest the lights of each light source token can reach. */
+  private final VisionCellIndex lightIndex = new VisionCellIndex();
+  /** Index of the bounds of each entry of tokenVisibleAreaCache. */
+  private final VisionCellIndex visionIndex = new VisionCellIndex();
 
   /** The digested topology of the map VBL, and possibly tokens VBL. */
   private AreaTree topologyTree;
   /** The VBL area of the zone VBL and the tokens VBL. */
   private Area tokenTopology;
+  /** Incremented each time the topology of the zone or of its tokens changes. */
+  private volatile int topologyVersion;
+  /** The movement blocking grids of the walkers, when VBL blocks movement and when it does not. */
+  private final BlockingGridEntry[] movementBlockingGrids = {
+    new BlockingGridEntry(), new BlockingGridEntry()
+  };
 
   /** Lumen for personal vision (darkvision). */
   private static final double LUMEN_VISION = 100;
@@ -89,7 +100,7 @@ public Area getVisibleArea(PlayerView view) {
     calculateVisibleArea(view);
     ZoneView.VisibleAreaMeta visible = visibleAreaMap.get(view);
 
-    return visible != null ? visible.visibleArea : new Area();
+    return visible != null ? visible.visibleArea.getArea() : new Area();
   }
 
   /**
@@ -108,7 +119,8 @@ public synchronized AreaTree getTopologyTree() {
 
   /**
    * Get the topologyTree. The topologyTree is "cached" and should only regenerate when topologyTree
-   * is null which should happen on flush calls.
+   * is null which should happen on flush calls. When only tokenTopology was flushed, the existing
+   * tree is updated with the new topology instead, which only digests the parts that changed.
    *
    * @param useTokenVBL using token VBL? If so and topology null, create one from VBL tokens.
    * @return the AreaTree (topologyTree).
@@ -125,7 +137,11 @@ public synchronized AreaTree getTopologyTree(boolean useTokenVBL) {
         tokenTopology.add(vblToken.getTransformedVBL());
       }
 
-      topologyTree = new AreaTree(tokenTopology);
+      if (topologyTree == null) {
+        topologyTree = new AreaTree(tokenTopology);
+      } else {
+        topologyTree.setArea(tokenTopology);
+      }
     } else if (topologyTree == null) {
       topologyTree = new AreaTree(zone.getTopology());
     }
@@ -133,6 +149,77 @@ public synchronized AreaTree getTopologyTree(boolean useTokenVBL) {
     return topologyTree;
   }
 
+  /**
+   * Get the version of the topology, which changes whenever the map VBL, the MBL or the VBL of a
+   * token changes. Cheaper than comparing areas to find out whether something derived from the
+   * topology is stale.
+   *
+   * @return the version of the topology.
+   */
+  public int getTopologyVersion() {
+    return topologyVersion;
+  }
+
+  /**
+   * Get the movement blocking grid of the zone, shared by the walkers of tokens that have no VBL of
+   * their own. It is brought up to date with the topology when asked for, keeping what it knows of
+   * the parts of the map the topology changes did not touch.
+   *
+   * @param vblBlocksMove whether VBL blocks movement, or only MBL does.
+   * @return the movement blocking grid.
+   */
+  public MovementBlockingGrid getMovementBlockingGrid(boolean vblBlocksMove) {
+    BlockingGridEntry entry = movementBlockingGrids[vblBlocksMove ? 1 : 0];
+    // One thread brings the grid up to date while the others wait for it. Changes arriving
+    // meanwhile are recorded for the next call, without waiting for the build.
+    synchronized (entry) {
+      Rectangle changed;
+      synchronized (movementBlockingGrids) {
+        changed = entry.changed;
+        entry.changed = null;
+      }
+      if (entry.grid != null && entry.grid.isFor(zone.getGrid()) && changed == null) {
+        return entry.grid;
+      }
+
+      Area vbl;
+      if (vblBlocksMove) {
+        // Copy, as the area belongs to the topology tree
+        vbl = new Area(getTopologyTree().getArea());
+        vbl.add(zone.getTopologyTerrain());
+      } else {
+        vbl = new Area(zone.getTopologyTerrain());
+      }
+
+      if (entry.grid == null || !entry.grid.isFor(zone.getGrid()) || changed.isEmpty()) {
+        entry.grid = new MovementBlockingGrid(zone.getGrid(), vbl);
+      } else {
+        entry.grid = entry.grid.update(vbl, changed);
+      }
+      return entry.grid;
+    }
+  }
+
+  /**
+   * Record a topology change for the movement blocking grids.
+   *
+   * @param bounds the bounds of the change, or null if anything may have changed.
+   */
+  private void movementBlockingChanged(Rectangle bounds) {
+    synchronized (movementBlockingGrids) {
+      for (BlockingGridEntry entry : movementBlockingGrids) {
+        if (bounds == null || bounds.isEmpty()) {
+          // An empty rectangle means the change is unknown
+          entry.changed = new Rectangle();
+        } else if (entry.changed == null) {
+          entry.changed = new Rectangle(bounds);
+        } else if (!entry.changed.isEmpty()) {
+          entry.changed.add(bounds);
+        }
+      }
+    }
+  }
+
   // Jamz: This function and such "AreaData" never seems to get used...either old or future code?
   // public AreaData getTopologyAreaData() {
   // if (topologyAreaData == null) {
@@ -365,6 +452,9 @@ public Area getVisibleArea(Token token) {
       tokenVisibleArea = FogUtil.calculateVisibility(p.x, p.y, visibleArea, getTopologyTree());
 
       tokenVisibleAreaCache.put(token.getId(), tokenVisibleArea);
+      if (tokenVisibleArea != null) {
+        visionIndex.put(token.getId(), tokenVisibleArea.getBounds2D());
+      }
     }
 
     // Stopwatch stopwatch = Stopwatch.createStarted();
@@ -375,19 +465,24 @@ public Area getVisibleArea(Token token) {
       Rectangle2D origBounds = tokenVisibleArea.getBounds();
       List<Token> lightSourceTokens = new ArrayList<Token>();
 
-      // Add the tokens from the lightSourceMap with normal (not aura) lights
+      // Add the tokens from the lightSourceMap with normal (not aura) lights that can reach the
+      // token's vision, the others cannot change it
       if (lightSourceMap.get(LightSource.Type.NORMAL) != null) {
         for (GUID lightSourceTokenId : lightSourceMap.get(LightSource.Type.NORMAL)) {
           Token lightSourceToken = zone.getToken(lightSourceTokenId);
           // Verify if the token still exists
           if (lightSourceToken != null) {
-            lightSourceTokens.add(lightSourceToken);
+            Rectangle2D lightBounds = getLightBounds(lightSourceToken);
+            if (lightBounds != null && lightBounds.intersects(origBounds)) {
+              lightSourceTokens.add(lightSourceToken);
+            }
           }
         }
       }
 
       if (token.hasLightSources() && !lightSourceTokens.contains(token)) {
         // This accounts for temporary tokens (such as during an Expose Last Path)
+        getLightBounds(token);
         lightSourceTokens.add(token);
       }
 
@@ -458,6 +553,134 @@ public Area getVisibleArea(Token token) {
     return tokenVisibleArea;
   }
 
+  /**
+   * Fill tokenVisibleAreaCache for the tokens missing from it. The visibility of the tokens is
+   * independent, so it is calculated in parallel.
+   *
+   * @param tokens the tokens to calculate the visible area of.
+   */
+  private void cacheTokenVisibleAreas(List<Token> tokens) {
+    List<Token> missingTokens = new ArrayList<>();
+    List<Point> origins = new ArrayList<>();
+    List<Area> visions = new ArrayList<>();
+    for (Token token : tokens) {
+      if (!token.getHasSight() || tokenVisibleAreaCache.get(token.getId()) != null) {
+        continue;
+      }
+      SightType sight = MapTool.getCampaign().getSightType(token.getSightType());
+      if (sight != null) {
+        missingTokens.add(token);
+        origins.add(FogUtil.calculateVisionCenter(token, zone));
+        visions.add(sight.getVisionShape(token, zone));
+      }
+    }
+    // A single token is left to getVisibleArea(Token)
+    if (missingTokens.size() < 2) {
+      return;
+    }
+    List<Area> visibleAreas = FogUtil.calculateVisibility(origins, visions, getTopologyTree());
+    for (int i = 0; i < missingTokens.size(); i++) {
+      Area tokenVisibleArea = visibleAreas.get(i);
+      tokenVisibleAreaCache.put(missingTokens.get(i).getId(), tokenVisibleArea);
+      if (tokenVisibleArea != null) {
+        visionIndex.put(missingTokens.get(i).getId(), tokenVisibleArea.getBounds2D());
+      }
+    }
+  }
+
+  /**
+   * Return the bounds of the area the lights of a token can reach, from lightIndex. If not indexed
+   * yet, estimate them from the unobstructed shape of the lights.
+   *
+   * @param lightSourceToken the token holding the light sources.
+   * @return the bounds, or null if the token has no known light source.
+   */
+  private Rectangle2D getLightBounds(Token lightSourceToken) {
+    Rectangle2D bounds = lightIndex.getBounds(lightSourceToken.getId());
+    if (bounds == null) {
+      bounds = estimateLightBounds(lightSourceToken);
+      if (bounds != null) {
+        lightIndex.put(lightSourceToken.getId(), bounds);
+      }
+    }
+    return bounds;
+  }
+
+  /**
+   * Calculate bounds containing the area of every light of a token, for every sight type. The
+   * lights are not clipped by the topology, so this is much cheaper than the light areas
+   * themselves. As the areas lit for a sight are clipped versions of these shapes, see {@link
+   * #calculateLightSourceArea}, the bounds always contain them.
+   *
+   * @param lightSourceToken the token holding the light sources.
+   * @return the bounds, or null if the token has no known light source.
+   */
+  private Rectangle2D estimateLightBounds(Token lightSourceToken) {
+    Rectangle2D bounds = null;
+    for (AttachedLightSource als : lightSourceToken.getLightSources()) {
+      LightSource lightSource = MapTool.getCampaign().getLightSource(als.getLightSourceId());
+      if (lightSource == null) {
+        continue;
+      }
+      Rectangle2D lightBounds =
+          lightSource.getArea(lightSourceToken, zone, als.getDirection()).getBounds2D();
+      bounds = bounds == null ? lightBounds : bounds.createUnion(lightBounds);
+    }
+    if (bounds == null) {
+      return null;
+    }
+    Set<Double> multipliers = new HashSet<>();
+    for (SightType sight : MapTool.getCampaign().getSightTypeMap().values()) {
+      multipliers.add(sight.getMultiplier());
+    }
+    return scaleLightBounds(
+        bounds, FogUtil.calculateVisionCenter(lightSourceToken, zone), multipliers);
+  }
+
+  /**
+   * Calculate bounds containing the shape of a light for every sight multiplier. Light shapes are
+   * relative to the vision center, and are scaled by the sight multiplier before being moved
+   * there. Darkness is not scaled, and a shape that is offset from the center does not contain
+   * it, so the unscaled bounds are always included.
+   *
+   * @param bounds the bounds of the unscaled light shape, relative to the vision center
+   * @param center the vision center of the light source token
+   * @param multipliers the multipliers of the sight types
+   * @return the bounds, in zone coordinates
+   */
+  static Rectangle2D scaleLightBounds(
+      Rectangle2D bounds, Point center, Collection<Double> multipliers) {
+    Rectangle2D result = new Rectangle2D.Double();
+    result.setRect(bounds);
+    for (double multiplier : multipliers) {
+      result.add(bounds.getMinX() * multiplier, bounds.getMinY() * multiplier);
+      result.add(bounds.getMaxX() * multiplier, bounds.getMaxY() * multiplier);
+    }
+    result.setRect(
+        result.getX() + center.x, result.getY() + center.y, result.getWidth(), result.getHeight());
+    return result;
+  }
+
+  /**
+   * Remove from tokenVisionCache the tokens whose vision intersects the given bounds.
+   *
+   * @param bounds the bounds of the changed light, may be null.
+   */
+  private void flushVisionWithin(Rectangle2D bounds) {
+    if (bounds != null) {
+      for (GUID tokenId : visionIndex.getIntersecting(bounds)) {
+        tokenVisionCache.remove(tokenId);
+      }
+    }
+  }
+
+  /** Mark every entry of visibleAreaMap as needing its token visions checked for changes. */
+  private void invalidateVisibleAreas() {
+    for (VisibleAreaMeta meta : visibleAreaMap.values()) {
+      meta.stale = true;
+    }
+  }
+
   private class CombineLightsSwingWorker extends SwingWorker<Void, List<Token>> {
     private final String sightName;
     private final List<Token> lightSourceTokens;
@@ -677,12 +900,16 @@ public void flush() {
     brightLightCache.clear();
     personalDrawableLightCache.clear();
     personalBrightLightCache.clear();
+    lightIndex.clear();
+    visionIndex.clear();
   }
 
   /**
    * Flush the ZoneView cache of the token. Remove token from tokenVisibleAreaCache,
    * tokenVisionCache, lightSourceCache, drawableLightCache, brightLightCache, and personal light
-   * caches. Can clear tokenVisionCache and visibleAreaMap depending on the token.
+   * caches. If the token has light sources, the vision of the tokens its lights reached or now
+   * reach is flushed from tokenVisionCache. Marks visibleAreaMap for an update depending on the
+   * token.
    *
    * @param token the token to flush.
    */
@@ -696,31 +923,41 @@ public void flush(Token token) {
     brightLightCache.remove(token.getId());
     personalDrawableLightCache.remove(token.getId());
     personalBrightLightCache.remove(token.getId());
+    visionIndex.remove(token.getId());
+    Rectangle2D oldLightBounds = lightIndex.remove(token.getId());
 
-    if (hadLightSource || token.hasLightSources()) {
-      // Have to recalculate all token vision
+    if (hadLightSource && oldLightBounds == null) {
+      // Don't know where the light was, have to recalculate all token vision
       tokenVisionCache.clear();
-      visibleAreaMap.clear();
+      invalidateVisibleAreas();
+    } else if (oldLightBounds != null || token.hasLightSources()) {
+      // Only the vision of the tokens in reach of the old and new light positions changes
+      flushVisionWithin(oldLightBounds);
+      flushVisionWithin(token.hasLightSources() ? getLightBounds(token) : null);
+      invalidateVisibleAreas();
     } else if (token.getHasSight()) {
-      visibleAreaMap.clear();
+      invalidateVisibleAreas();
     }
   }
 
   /**
-   * Construct the visibleAreaMap entry for a player view.
+   * Construct or update the visibleAreaMap entry for a player view. Only the token visions that
+   * changed since the last call are combined again, see {@link VisionUnion}.
    *
    * @param view the player view.
    */
   private void calculateVisibleArea(PlayerView view) {
-    if (visibleAreaMap.get(view) != null
-        && visibleAreaMap.get(view).visibleArea.getBounds().getCenterX() != 0.0d) {
+    VisibleAreaMeta meta = visibleAreaMap.get(view);
+    if (meta != null
+        && !meta.stale
+        && meta.visibleArea.getArea().getBounds().getCenterX() != 0.0d) {
       return;
     }
-    // Cache it
-    VisibleAreaMeta meta = new VisibleAreaMeta();
-    meta.visibleArea = new Area();
-
-    visibleAreaMap.put(view, meta);
+    if (meta == null) {
+      meta = new VisibleAreaMeta();
+      visibleAreaMap.put(view, meta);
+    }
+    meta.stale = false;
 
     // Calculate it
     final boolean isGMview = view.isGMView();
@@ -732,6 +969,7 @@ private void calculateVisibleArea(PlayerView view) {
             : zone.getTokensFiltered(
                 t -> t.isToken() && t.getHasSight() && (isGMview || t.isVisible()));
 
+    List<Token> viewTokens = new ArrayList<>();
     for (Token token : tokenList) {
       boolean weOwnIt = AppUtil.playerOwns(token);
       // Permission
@@ -749,14 +987,19 @@ private void calculateVisibleArea(PlayerView view) {
       if (token.isVisibleOnlyToOwner() && !weOwnIt) {
         continue;
       }
+      viewTokens.add(token);
+    }
+    cacheTokenVisibleAreas(viewTokens);
+
+    Map<GUID, Area> visions = new HashMap<>();
+    for (Token token : viewTokens) {
       Area tokenVision = getVisibleArea(token);
       if (tokenVision != null) {
-        meta.visibleArea.add(tokenVision);
+        visions.put(token.getId(), tokenVision);
       }
     }
 
-    // System.out.println("calculateVisibleArea: " + (System.currentTimeMillis() - startTime) +
-    // "ms");
+    meta.visibleArea.update(visions);
   }
 
   /**
@@ -804,6 +1047,8 @@ public void modelChanged(ModelChangeEvent event) {
       // since if a token that has VBL is added/removed/edited (rotated/moved/etc)
       // it should also trip a Topology change
       if (evt == Zone.Event.TOPOLOGY_CHANGED || tokenChangedVBL) {
+        lightIndex.clear();
+        visionIndex.clear();
         tokenVisionCache.clear();
         lightSourceCache.clear();
         brightLightCache.clear();
@@ -811,8 +1056,13 @@ public void modelChanged(ModelChangeEvent event) {
         personalBrightLightCache.clear();
         personalDrawableLightCache.clear();
         visibleAreaMap.clear();
-        topologyTree = null;
+        // The tree is updated with the new topology the next time it is needed
         tokenTopology = null;
+        topologyVersion++;
+        movementBlockingChanged(
+            evt == Zone.Event.TOPOLOGY_CHANGED && event.getArg() instanceof Area area
+                ? area.getBounds()
+                : null);
         tokenVisibleAreaCache.clear();
 
         // topologyAreaData = null; // Jamz: This isn't used, probably never completed code.
@@ -821,8 +1071,8 @@ public void modelChanged(ModelChangeEvent event) {
   }
 
   /**
-   * Update lightSourceMap with the light sources of the tokens, and clear visibleAreaMap if one of
-   * the tokens has sight.
+   * Update lightSourceMap with the light sources of the tokens, and mark visibleAreaMap for an
+   * update if one of the tokens has sight.
    *
    * @param tokens the list of tokens
    * @return if one of the token has VBL or not
@@ -852,13 +1102,23 @@ private boolean processTokenAddChangeEvent(List<Token> tokens) {
       hasSight |= token.getHasSight();
     }
 
-    if (hasSight) visibleAreaMap.clear();
+    if (hasSight) invalidateVisibleAreas();
 
     return hasVBL;
   }
 
-  /** Has a single field: the visibleArea area */
+  /** The visible area of a player view, and the token visions it was combined from. */
   private static class VisibleAreaMeta {
-    Area visibleArea;
+    /** The visible area, the union of the token visions. */
+    final VisionUnion visibleArea = new VisionUnion();
+    /** Whether the token visions must be checked for changes before using visibleArea. */
+    boolean stale = true;
+  }
+
+  /** A movement blocking grid, and the topology changes it has not taken in yet. */
+  private static class BlockingGridEntry {
+    private MovementBlockingGrid grid;
+    /** Bounds of the topology changes since the grid was made, empty if unknown, null if none. */
+    private Rectangle changed;
   }
 }
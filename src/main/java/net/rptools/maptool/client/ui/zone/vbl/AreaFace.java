@@ -22,10 +22,13 @@ public class AreaFace {
   private double facing;
   private final Point2D p1;
   private final Point2D p2;
+  private final Point2D midPoint;
 
   public AreaFace(Point2D p1, Point2D p2) {
     this.p1 = p1;
     this.p2 = p2;
+    this.midPoint =
+        new Point2D.Double((p1.getX() + p2.getX()) / 2, (p1.getY() + p2.getY()) / 2);
     computeFacing();
   }
 
@@ -46,14 +49,24 @@ public double getFacing() {
     return facing;
   }
 
+  /** @return the middle of the face. Must not be modified. */
   public Point2D getMidPoint() {
-    double x1 = Math.min(p1.getX(), p2.getX());
-    double x2 = Math.max(p1.getX(), p2.getX());
-
-    double y1 = Math.min(p1.getY(), p2.getY());
-    double y2 = Math.max(p1.getY(), p2.getY());
+    return midPoint;
+  }
 
-    return new Point2D.Double(x1 + (x2 - x1) / 2, y1 + (y2 - y1) / 2);
+  /**
+   * Whether the face is turned towards an origin, that is whether the angle between its facing and
+   * the direction from the origin to its middle is at most 90 degrees. Same as comparing {@link
+   * #getFacing()} with {@link GeometryUtil#getAngle(Point2D, Point2D)}, without the trigonometry.
+   *
+   * @param origin the point the face is looked at from.
+   * @return true if the face is seen from the front.
+   */
+  public boolean isFacing(Point2D origin) {
+    // The facing is the direction of the face turned by 90 degrees, with y pointing up
+    double dx = midPoint.getX() - origin.getX();
+    double dy = midPoint.getY() - origin.getY();
+    return (p2.getY() - p1.getY()) * dx - (p2.getX() - p1.getX()) * dy >= 0;
   }
 
   @Override
@@ -52,10 +52,7 @@ public Set<VisibleAreaSegment> getVisibleAreas(Point2D origin) {
 
     VisibleAreaSegment segment = null;
     for (AreaFace face : faceList) {
-      double originAngle = GeometryUtil.getAngle(origin, face.getMidPoint());
-      double delta = GeometryUtil.getAngleDelta(originAngle, face.getFacing());
-
-      if (Math.abs(delta) > 90) {
+      if (!face.isFacing(origin)) {
         if (segment != null) {
           segSet.add(segment);
           segment = null;
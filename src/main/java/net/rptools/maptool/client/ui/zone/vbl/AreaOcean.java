@@ -69,6 +69,11 @@ public AreaOcean getDeepestOceanAt(Point2D point) {
     return this;
   }
 
+  /** @return the outline of the ocean, or null for the ocean around everything. */
+  AreaMeta getMeta() {
+    return meta;
+  }
+
   public Set<AreaIsland> getIslands() {
     return new HashSet<AreaIsland>(islandSet);
   }
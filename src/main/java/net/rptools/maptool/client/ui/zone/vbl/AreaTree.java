@@ -17,22 +17,59 @@
 import java.awt.geom.Area;
 import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import net.rptools.maptool.util.GraphicsUtil;
+import java.util.Map;
+import java.util.Set;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.quadtree.Quadtree;
 
-/** Class digesting a VBL area into an AreaOcean. */
+/**
+ * Class digesting a VBL area into simple polygons, the closed rings of its outline. Solid rings
+ * are islands and holes are oceans. The rings are kept in a spatial index, so the ocean of a point
+ * is found by testing only the few rings whose bounds contain it. The ring directly containing
+ * each ring is kept as well, and the oceans are only built when they are looked at.
+ *
+ * <p>The area can be replaced with {@link #setArea(Area)}: rings that did not change are kept, so
+ * only the rings touched by the change are removed from and inserted into the index, and only the
+ * rings inside those look for their containing ring again.
+ */
 public class AreaTree {
   private static final Logger log = LogManager.getLogger(AreaTree.class);
-  /** The original area digested. */
-  private AreaOcean theOcean;
+  /** How many origins to remember the hidden area of. Package level for testing purposes. */
+  static final int HIDDEN_AREA_CACHE_SIZE = 256;
+
   /** The original area, in case we want to return the original area undigested */
   private Area theArea;
+  /** Every ring of the area, by its coordinates. */
+  private Map<RingKey, AreaMeta> rings = new HashMap<RingKey, AreaMeta>();
+  /** Spatial index of the rings, by bounds. */
+  private final Quadtree ringIndex = new Quadtree();
+  /** The ring directly containing each ring, see {@link #getParent(AreaMeta)}. */
+  private final Map<AreaMeta, AreaMeta> parents = new HashMap<AreaMeta, AreaMeta>();
+  /** The rings directly inside each ring, and under the null key the rings inside none. */
+  private final Map<AreaMeta, Set<AreaMeta>> children = new HashMap<AreaMeta, Set<AreaMeta>>();
+  /** The ocean of each hole, and of the space around everything under the null key. */
+  private final Map<AreaMeta, AreaOcean> oceans = new HashMap<AreaMeta, AreaOcean>();
+  /** The area hidden by the topology from each recently used origin, least recently used first. */
+  private final Map<Point2D, Area> hiddenAreaCache =
+      new LinkedHashMap<Point2D, Area>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Point2D, Area> eldest) {
+          return size() > HIDDEN_AREA_CACHE_SIZE;
+        }
+      };
 
   /**
-   * Digest the area and store it in theOcean.
+   * Digest the area into rings.
    *
    * @param area the area to digest.
    */
@@ -40,19 +77,64 @@ public AreaTree(Area area) {
     digest(area);
   }
 
-  public AreaOcean getOceanAt(Point2D point) {
-    return theOcean.getDeepestOceanAt(point);
+  /**
+   * Replace the digested area. Only the rings that differ from the current area are digested and
+   * indexed again.
+   *
+   * @param area the new area.
+   */
+  public synchronized void setArea(Area area) {
+    digest(area);
+  }
+
+  /**
+   * @param point the point to look at.
+   * @return the ocean the point is in, or null if the point is inside the topology.
+   */
+  public synchronized AreaOcean getOceanAt(Point2D point) {
+    AreaMeta ring = getDeepestRingAt(point);
+    if (ring != null && !ring.isHole()) {
+      return null;
+    }
+    return getOcean(ring);
   }
 
   // Package level for testing purposes
-  AreaOcean getOcean() {
-    return theOcean;
+  synchronized AreaOcean getOcean() {
+    // The inspector walks the whole hierarchy, so build all of it
+    AreaOcean ocean = new AreaOcean(null);
+    addIslands(ocean, null, true);
+    return ocean;
   }
 
   public Area getArea() {
     return theArea;
   }
 
+  /**
+   * @param origin the vision origin.
+   * @return the area hidden from the origin as previously stored with {@link
+   *     #putHiddenArea(AreaOcean, Point2D, Area)}, or null if it is not cached. Must not be
+   *     modified.
+   */
+  public synchronized Area getHiddenArea(Point2D origin) {
+    return hiddenAreaCache.get(origin);
+  }
+
+  /**
+   * Cache the area hidden by the topology from an origin. The cache is cleared whenever the area
+   * changes, and results calculated from an ocean of a previous area are ignored.
+   *
+   * @param ocean the ocean the hidden area was calculated from.
+   * @param origin the vision origin.
+   * @param hiddenArea the hidden area, which must not be modified afterwards.
+   */
+  public synchronized void putHiddenArea(AreaOcean ocean, Point2D origin, Area hiddenArea) {
+    if (oceans.get(ocean.getMeta()) == ocean) {
+      hiddenAreaCache.put(origin, hiddenArea);
+    }
+  }
+
   private void digest(Area area) {
     if (area == null) {
       return;
@@ -60,89 +142,226 @@ private void digest(Area area) {
 
     theArea = area;
 
-    List<AreaOcean> oceanList = new ArrayList<AreaOcean>();
-    List<AreaIsland> islandList = new ArrayList<AreaIsland>();
+    Map<RingKey, AreaMeta> newRings = new HashMap<RingKey, AreaMeta>();
+    List<AreaMeta> addedRings = new ArrayList<AreaMeta>();
 
-    // Break the big area into independent areas
+    // Break the big area into independent rings
     float[] coords = new float[6];
-    AreaMeta areaMeta = new AreaMeta();
+    float[] ringCoords = new float[64];
+    int ringSize = 0;
     for (PathIterator iter = area.getPathIterator(null); !iter.isDone(); iter.next()) {
       int type = iter.currentSegment(coords);
       switch (type) {
         case PathIterator.SEG_CLOSE:
-          areaMeta.close();
-
-          // Holes are oceans, solids are islands
-          if (areaMeta.isHole()) {
-            oceanList.add(new AreaOcean(areaMeta));
-          } else {
-            islandList.add(new AreaIsland(areaMeta));
+          RingKey key = new RingKey(Arrays.copyOf(ringCoords, ringSize));
+          AreaMeta ring = rings.remove(key);
+          if (ring == null && !newRings.containsKey(key)) {
+            ring = key.createRing();
+            if (ring != null) {
+              addedRings.add(ring);
+            }
+          }
+          if (ring != null) {
+            newRings.put(key, ring);
           }
-          break;
-        case PathIterator.SEG_LINETO:
-          areaMeta.addPoint(coords[0], coords[1]);
           break;
         case PathIterator.SEG_MOVETO:
-          areaMeta = new AreaMeta();
-          areaMeta.addPoint(coords[0], coords[1]);
+          ringSize = 0;
+          // Fall through
+        case PathIterator.SEG_LINETO:
+          if (ringSize + 2 > ringCoords.length) {
+            ringCoords = Arrays.copyOf(ringCoords, ringCoords.length * 2);
+          }
+          ringCoords[ringSize++] = coords[0];
+          ringCoords[ringSize++] = coords[1];
           break;
       }
     }
-    // Create the hierarchy
-    // Start by putting each ocean into the containing island
-    // Every ocean should have a containing island. There is only one ocean that doesn't
-    // have an explicit island and that's the global scope ocean container
-    for (AreaOcean ocean : oceanList) {
-      AreaIsland island = findSmallestContainer(ocean, islandList);
-      if (island == null) {
-        log.warn("Weird, I couldn't find an island for an ocean.  Bad/overlapping VBL?");
-        continue;
+
+    // Whatever is left of the old rings is no longer part of the area
+    for (AreaMeta ring : rings.values()) {
+      ringIndex.remove(getEnvelope(ring), ring);
+    }
+    for (AreaMeta ring : addedRings) {
+      ringIndex.insert(getEnvelope(ring), ring);
+    }
+
+    // A ring only gets a new parent if a ring around it was removed or added
+    Set<AreaMeta> moved = new LinkedHashSet<AreaMeta>(addedRings);
+    for (AreaMeta ring : rings.values()) {
+      removeChild(parents.remove(ring), ring);
+      children.remove(ring);
+      addRingsInside(ring, moved);
+    }
+    for (AreaMeta ring : addedRings) {
+      addRingsInside(ring, moved);
+    }
+    for (AreaMeta ring : moved) {
+      AreaMeta parent = getParent(ring);
+      if (!parents.containsKey(ring) || parents.get(ring) != parent) {
+        removeChild(parents.get(ring), ring);
+        parents.put(ring, parent);
+        children.computeIfAbsent(parent, p -> new LinkedHashSet<AreaMeta>()).add(ring);
       }
-      island.addOcean(ocean);
-    }
-    // Now put each island into the containing ocean
-    List<AreaIsland> globalIslandList = new ArrayList<AreaIsland>();
-    for (AreaIsland island : islandList) {
-      AreaOcean ocean = findSmallestContainer(island, oceanList);
-      if (ocean == null) {
-        globalIslandList.add(island);
-        continue;
+    }
+    log.debug(
+        "Digested topology: {} rings, {} removed, {} added, {} looked for their parent",
+        newRings.size(),
+        rings.size(),
+        addedRings.size(),
+        moved.size());
+    rings = newRings;
+
+    oceans.clear();
+    hiddenAreaCache.clear();
+  }
+
+  /**
+   * @param point the point to look at.
+   * @return the smallest ring containing the point, or null if it is not in any ring.
+   */
+  private AreaMeta getDeepestRingAt(Point2D point) {
+    AreaMeta deepest = null;
+    for (Object candidate :
+        ringIndex.query(new Envelope(point.getX(), point.getX(), point.getY(), point.getY()))) {
+      AreaMeta ring = (AreaMeta) candidate;
+      // The index may return rings whose bounds don't even contain the point
+      if (ring.area.contains(point) && (deepest == null || getSize(ring) < getSize(deepest))) {
+        deepest = ring;
+      }
+    }
+    return deepest;
+  }
+
+  /**
+   * @param hole the outline of the ocean, null for the space around everything.
+   * @return the ocean, with the islands it directly contains.
+   */
+  private AreaOcean getOcean(AreaMeta hole) {
+    AreaOcean ocean = oceans.get(hole);
+    if (ocean == null) {
+      ocean = new AreaOcean(hole);
+      addIslands(ocean, hole, false);
+      oceans.put(hole, ocean);
+    }
+    return ocean;
+  }
+
+  private void addIslands(AreaOcean ocean, AreaMeta hole, boolean recurse) {
+    for (AreaMeta ring : getChildren(hole)) {
+      AreaIsland island = new AreaIsland(ring);
+      if (recurse) {
+        for (AreaMeta innerHole : getChildren(ring)) {
+          AreaOcean innerOcean = new AreaOcean(innerHole);
+          addIslands(innerOcean, innerHole, true);
+          island.addOcean(innerOcean);
+        }
       }
       ocean.addIsland(island);
     }
+  }
+
+  /**
+   * @param parent a ring, or null for the space around everything.
+   * @return the rings directly inside the parent. These are islands if the parent is a hole or
+   *     null, and holes if the parent is an island.
+   */
+  private Set<AreaMeta> getChildren(AreaMeta parent) {
+    Set<AreaMeta> rings = children.get(parent);
+    return rings == null ? Collections.emptySet() : rings;
+  }
+
+  private void removeChild(AreaMeta parent, AreaMeta ring) {
+    Set<AreaMeta> rings = children.get(parent);
+    if (rings != null) {
+      rings.remove(ring);
+      if (rings.isEmpty()) {
+        children.remove(parent);
+      }
+    }
+  }
 
-    // Now we have our hierarchy, just hook up the global space
-    theOcean = new AreaOcean(null);
-    for (AreaIsland island : globalIslandList) {
-      theOcean.addIsland(island);
+  /** Adds the rings of the index that lie within the bounds of a ring to the given set. */
+  private void addRingsInside(AreaMeta ring, Set<AreaMeta> inside) {
+    Rectangle2D bounds = ring.area.getBounds2D();
+    for (Object candidate : ringIndex.query(getEnvelope(ring))) {
+      AreaMeta other = (AreaMeta) candidate;
+      if (other != ring && bounds.contains(other.area.getBounds2D())) {
+        inside.add(other);
+      }
     }
   }
 
-  private <T extends AreaContainer> T findSmallestContainer(AreaContainer item, List<T> list) {
-    T smallest = null;
-    for (T container : list) {
-      if (!GraphicsUtil.contains(container.getBounds(), item.getBounds())) {
+  /**
+   * Find the ring directly containing another: the smallest ring of the other kind around it.
+   * Rings of an area never cross, so a ring contains another if it contains the midpoint of any
+   * of its faces.
+   *
+   * @param ring the ring to find the parent of.
+   * @return the parent, or null if the ring is not inside any other.
+   */
+  private AreaMeta getParent(AreaMeta ring) {
+    if (ring.faceList.isEmpty()) {
+      return null;
+    }
+    Rectangle2D bounds = ring.area.getBounds2D();
+    Point2D testPoint = ring.faceList.get(0).getMidPoint();
+    AreaMeta parent = null;
+    for (Object candidate : ringIndex.query(getEnvelope(ring))) {
+      AreaMeta container = (AreaMeta) candidate;
+      if (container == ring
+          || container.isHole() == ring.isHole()
+          || !container.area.getBounds2D().contains(bounds)
+          || !container.area.contains(testPoint)) {
         continue;
       }
-      smallest = getSmallest(smallest, container);
+      if (parent == null || getSize(container) < getSize(parent)) {
+        parent = container;
+      }
     }
-    return smallest;
+    return parent;
+  }
+
+  private static double getSize(AreaMeta ring) {
+    Rectangle2D bounds = ring.area.getBounds2D();
+    return bounds.getWidth() * bounds.getHeight();
   }
 
-  private <T extends AreaContainer> T getSmallest(T left, T right) {
-    // Something is smaller than nothing, for our purposes
-    if (left == null) {
-      return right;
+  private static Envelope getEnvelope(AreaMeta ring) {
+    Rectangle2D bounds = ring.area.getBounds2D();
+    return new Envelope(bounds.getMinX(), bounds.getMaxX(), bounds.getMinY(), bounds.getMaxY());
+  }
+
+  /** The coordinates of a ring, used to recognize the rings that did not change. */
+  private static class RingKey {
+    private final float[] coords;
+    private final int hash;
+
+    RingKey(float[] coords) {
+      this.coords = coords;
+      this.hash = Arrays.hashCode(coords);
     }
-    if (right == null) {
-      return left;
+
+    AreaMeta createRing() {
+      if (coords.length == 0) {
+        return null;
+      }
+      AreaMeta ring = new AreaMeta();
+      for (int i = 0; i < coords.length; i += 2) {
+        ring.addPoint(coords[i], coords[i + 1]);
+      }
+      ring.close();
+      return ring;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof RingKey && Arrays.equals(coords, ((RingKey) obj).coords);
     }
-    // Presumably the container with the smaller area will be the contained area
-    double leftSize =
-        left.getBounds().getBounds().getWidth() * left.getBounds().getBounds().getHeight();
-    double rightSize =
-        right.getBounds().getBounds().getWidth() * right.getBounds().getBounds().getHeight();
 
-    return leftSize < rightSize ? left : right;
+    @Override
+    public int hashCode() {
+      return hash;
+    }
   }
 }
@@ -34,6 +34,10 @@ public abstract class AbstractZoneWalker implements ZoneWalker {
   protected Set<TerrainModifierOperation> terrainModifiersIgnored;
   protected Area tokenVBL;
   protected RenderPathWorker renderPathWorker;
+  /** A rough path for the last waypoint, shown while its path is calculated. */
+  private volatile List<CellPoint> pendingPath;
+  /** Whether the path being calculated is the one of the last waypoint. */
+  private volatile boolean calculatingLastWaypoint;
 
   public AbstractZoneWalker(Zone zone) {
     this.zone = zone;
@@ -85,20 +89,61 @@ public CellPoint replaceLastWaypoint(
     this.terrainModifiersIgnored = terrainModifiersIgnored;
     this.tokenVBL = tokenVBL;
 
-    if (partialPaths.isEmpty()) {
-      return null;
+    PartialPath oldPartial;
+    synchronized (partialPaths) {
+      if (partialPaths.isEmpty()) {
+        return null;
+      }
+      oldPartial = partialPaths.get(partialPaths.size() - 1);
     }
-    PartialPath oldPartial = partialPaths.remove(partialPaths.size() - 1);
 
     // short circuit exit if the point hasn't changed.
     // if (oldPartial.end.equals(point))
     // return null;
 
-    partialPaths.add(
-        new PartialPath(oldPartial.start, point, calculatePath(oldPartial.start, point)));
+    // The old path stays in place while the new one is calculated, and is then swapped at once, so
+    // the renderer never sees the path without its last leg.
+    calculatingLastWaypoint = true;
+    try {
+      List<CellPoint> path = calculatePath(oldPartial.start, point);
+      RenderPathWorker worker = renderPathWorker;
+      if (worker == null || !worker.isCancelled()) {
+        PartialPath newPartial = new PartialPath(oldPartial.start, point, path);
+        synchronized (partialPaths) {
+          if (!partialPaths.isEmpty()) {
+            partialPaths.set(partialPaths.size() - 1, newPartial);
+          }
+        }
+      }
+    } finally {
+      calculatingLastWaypoint = false;
+      pendingPath = null;
+    }
     return oldPartial.end;
   }
 
+  @Override
+  public void setRenderPathWorker(RenderPathWorker renderPathWorker) {
+    this.renderPathWorker = renderPathWorker;
+  }
+
+  /**
+   * Show a rough path to the last waypoint while its path is being calculated. Ignored when
+   * calculating any other path.
+   *
+   * @param path the rough path, from the previous waypoint to the last one.
+   */
+  protected void publishPendingPath(List<CellPoint> path) {
+    if (!calculatingLastWaypoint) {
+      return;
+    }
+    pendingPath = path;
+    RenderPathWorker worker = renderPathWorker;
+    if (worker != null) {
+      worker.pathPublished();
+    }
+  }
+
   public Path<CellPoint> getPath(RenderPathWorker renderPathWorker) {
     this.renderPathWorker = renderPathWorker;
     return getPath();
@@ -107,16 +152,27 @@ public Path<CellPoint> getPath(RenderPathWorker renderPathWorker) {
   public Path<CellPoint> getPath() {
     Path<CellPoint> path = new Path<>();
 
+    List<CellPoint> pendingPath = this.pendingPath;
     synchronized (partialPaths) {
-      if (!partialPaths.isEmpty()) {
+      boolean hasPending = pendingPath != null && !pendingPath.isEmpty();
+      // The pending path replaces the last leg, which is still the previous one.
+      int partialCount = partialPaths.size() - (hasPending ? 1 : 0);
+      if (partialCount > 0) {
         path.addPathCell(partialPaths.get(0).start);
-        for (PartialPath partial : partialPaths) {
+        for (PartialPath partial : partialPaths.subList(0, partialCount)) {
           if (partial.path.size() > 1) {
             // Remove duplicated cells (end of a path = start of next path)
             path.addAllPathCells(partial.path.subList(1, partial.path.size()));
           }
         }
       }
+      if (hasPending) {
+        if (partialCount <= 0) {
+          path.addAllPathCells(pendingPath);
+        } else {
+          path.addAllPathCells(pendingPath.subList(1, pendingPath.size()));
+        }
+      }
     }
 
     for (CellPoint cp : path.getCellPath()) {
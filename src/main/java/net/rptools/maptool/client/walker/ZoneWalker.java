@@ -45,6 +45,14 @@ public CellPoint replaceLastWaypoint(
 
   public Path<CellPoint> getPath(RenderPathWorker renderPathWorker);
 
+  /**
+   * Set the worker the path is calculated for. The worker is told when a rough path is available
+   * before the path is done, so the preview can follow long calculations.
+   *
+   * @param renderPathWorker the worker, or null.
+   */
+  public default void setRenderPathWorker(RenderPathWorker renderPathWorker) {}
+
   public CellPoint getLastPoint();
 
   /**
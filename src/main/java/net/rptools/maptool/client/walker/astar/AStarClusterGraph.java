@@ -0,0 +1,399 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import net.rptools.maptool.model.CellPoint;
+
+/**
+ * The abstract graph of hierarchical A* (HPA*) over a movement blocking grid.
+ *
+ * <p>The map is cut into square clusters of cells. The cells of a cluster that a token can reach
+ * from each other without leaving the cluster form a region, and regions of neighboring clusters
+ * are linked when the token can step from one to the other. A search over the regions gives the
+ * corridor of clusters the path goes through, and the cell level search is then restricted to that
+ * corridor.
+ *
+ * <p>Clusters are labeled the first time a search reaches them, so only the parts of the map that
+ * are searched are ever computed. A graph depends on how the token moves, so each footprint,
+ * neighborhood and set of blocking terrain has its own graph, cached with the blocking grid it was
+ * built from.
+ */
+class AStarClusterGraph {
+  /** The width and height of a cluster, in cells. */
+  static final int CLUSTER_SIZE = 16;
+
+  /** How a token moves between cells. The answers must only depend on the key of the graph. */
+  interface Mover {
+    /**
+     * @param x the x of the cell.
+     * @param y the y of the cell.
+     * @return the offsets of the neighbors of the cell.
+     */
+    int[][] getNeighborMap(int x, int y);
+
+    /**
+     * @param x the x of the cell.
+     * @param y the y of the cell.
+     * @return whether the token can stand on the cell.
+     */
+    boolean isStandable(int x, int y);
+
+    /**
+     * @param x the x of the cell moved from.
+     * @param y the y of the cell moved from.
+     * @param neighborArray the offset of the cell moved to.
+     * @return whether topology blocks the move.
+     */
+    boolean blocksMove(int x, int y, int[] neighborArray);
+  }
+
+  /** A region of a cluster. */
+  record Node(int clusterX, int clusterY, int region) {}
+
+  /** A rectangle of clusters a path is allowed to go through. */
+  static class Corridor {
+    private final int minX;
+    private final int minY;
+    private final int width;
+    private final int height;
+    private final boolean[] clusters;
+
+    private Corridor(Set<Long> clusterKeys) {
+      int minX = Integer.MAX_VALUE;
+      int minY = Integer.MAX_VALUE;
+      int maxX = Integer.MIN_VALUE;
+      int maxY = Integer.MIN_VALUE;
+      for (long key : clusterKeys) {
+        minX = Math.min(minX, (int) (key >> 32));
+        maxX = Math.max(maxX, (int) (key >> 32));
+        minY = Math.min(minY, (int) key);
+        maxY = Math.max(maxY, (int) key);
+      }
+      this.minX = minX;
+      this.minY = minY;
+      this.width = maxX - minX + 1;
+      this.height = maxY - minY + 1;
+      this.clusters = new boolean[width * height];
+      for (long key : clusterKeys) {
+        clusters[((int) key - minY) * width + (int) (key >> 32) - minX] = true;
+      }
+    }
+
+    /**
+     * @param x the x of a cell.
+     * @param y the y of a cell.
+     * @return whether the cell is in the corridor.
+     */
+    boolean contains(int x, int y) {
+      int clusterX = Math.floorDiv(x, CLUSTER_SIZE) - minX;
+      int clusterY = Math.floorDiv(y, CLUSTER_SIZE) - minY;
+      return clusterX >= 0
+          && clusterY >= 0
+          && clusterX < width
+          && clusterY < height
+          && clusters[clusterY * width + clusterX];
+    }
+  }
+
+  /** The regions of a cluster, and the links of the regions to the other clusters. */
+  private static class Cluster {
+    final int clusterX;
+    final int clusterY;
+    /** Region of each cell, -1 if the token can not stand there. */
+    final int[] regions = new int[CLUSTER_SIZE * CLUSTER_SIZE];
+    /** For each region, the cell closest to the center of the cluster. */
+    final List<CellPoint> representatives = new ArrayList<>();
+    /** For each region, the regions of other clusters it leads to. Null until computed. */
+    List<Set<Node>> links;
+
+    Cluster(int clusterX, int clusterY) {
+      this.clusterX = clusterX;
+      this.clusterY = clusterY;
+    }
+  }
+
+  private final Map<Long, Cluster> clusters = new HashMap<>();
+
+  /**
+   * Find the regions a path from the start to the goal goes through.
+   *
+   * <p>Clusters are labeled as the search reaches them, so the search is kept inside the given
+   * clusters: without a bound, a goal that can be stood on but not reached would label clusters
+   * forever. The search also gives up at the deadline, as it holds the graph while it runs.
+   *
+   * @param mover how the token moves.
+   * @param start the start cell.
+   * @param goal the goal cell.
+   * @param clusterBounds the clusters the search may go through.
+   * @param deadline the time, in milliseconds since the epoch, after which the search gives up.
+   * @return the regions from the start to the goal, or null if there is no path between them
+   *     inside the bounds, the start or goal cell can not be stood on, the deadline passed or the
+   *     thread was interrupted.
+   */
+  synchronized List<Node> findPath(
+      Mover mover, CellPoint start, CellPoint goal, Rectangle clusterBounds, long deadline) {
+    if (!clusterBounds.contains(
+            Math.floorDiv(start.x, CLUSTER_SIZE), Math.floorDiv(start.y, CLUSTER_SIZE))
+        || !clusterBounds.contains(
+            Math.floorDiv(goal.x, CLUSTER_SIZE), Math.floorDiv(goal.y, CLUSTER_SIZE))) {
+      return null;
+    }
+    Node startNode = getNode(mover, start.x, start.y);
+    Node goalNode = getNode(mover, goal.x, goal.y);
+    if (startNode == null || goalNode == null) {
+      return null;
+    }
+
+    record Entry(Node node, double f) {}
+    PriorityQueue<Entry> openList = new PriorityQueue<>((a, b) -> Double.compare(a.f, b.f));
+    Map<Node, Double> gScores = new HashMap<>();
+    Map<Node, Node> parents = new HashMap<>();
+    gScores.put(startNode, 0.0);
+    openList.add(new Entry(startNode, distance(startNode, goalNode)));
+
+    while (!openList.isEmpty()) {
+      if (Thread.currentThread().isInterrupted() || System.currentTimeMillis() > deadline) {
+        return null;
+      }
+
+      Entry entry = openList.remove();
+      Node node = entry.node;
+      double g = gScores.get(node);
+      if (entry.f > g + distance(node, goalNode)) {
+        // A better way to the node was found since this entry was queued
+        continue;
+      }
+      if (node.equals(goalNode)) {
+        List<Node> path = new ArrayList<>();
+        for (Node n = node; n != null; n = parents.get(n)) {
+          path.add(n);
+        }
+        Collections.reverse(path);
+        return path;
+      }
+
+      for (Node link : getLinks(mover, node)) {
+        if (!clusterBounds.contains(link.clusterX, link.clusterY)) {
+          continue;
+        }
+        double linkG = g + distance(node, link);
+        Double oldG = gScores.get(link);
+        if (oldG == null || linkG < oldG) {
+          gScores.put(link, linkG);
+          parents.put(link, node);
+          openList.add(new Entry(link, linkG + distance(link, goalNode)));
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the corridor of a path of regions: the clusters of the path and the clusters around them,
+   * so the refined path is not forced to hug the cluster borders.
+   *
+   * @param path the regions of the path.
+   * @return the corridor.
+   */
+  static Corridor getCorridor(List<Node> path) {
+    Set<Long> keys = new LinkedHashSet<>();
+    for (Node node : path) {
+      for (int dx = -1; dx <= 1; dx++) {
+        for (int dy = -1; dy <= 1; dy++) {
+          keys.add(AStarSearchState.cellKey(node.clusterX + dx, node.clusterY + dy));
+        }
+      }
+    }
+    return new Corridor(keys);
+  }
+
+  /**
+   * Get a rough path of cells for a path of regions, to show while the path is refined.
+   *
+   * @param path the regions of the path.
+   * @param start the start cell.
+   * @param goal the goal cell.
+   * @return the start, one cell of each region in between, and the goal.
+   */
+  synchronized List<CellPoint> getRoughPath(List<Node> path, CellPoint start, CellPoint goal) {
+    List<CellPoint> cells = new ArrayList<>();
+    cells.add(start);
+    for (int i = 1; i < path.size() - 1; i++) {
+      Node node = path.get(i);
+      Cluster cluster = clusters.get(AStarSearchState.cellKey(node.clusterX, node.clusterY));
+      CellPoint representative = cluster.representatives.get(node.region);
+      cells.add(new CellPoint(representative.x, representative.y));
+    }
+    cells.add(goal);
+    return cells;
+  }
+
+  private static double distance(Node a, Node b) {
+    return Math.hypot(a.clusterX - b.clusterX, a.clusterY - b.clusterY);
+  }
+
+  private Node getNode(Mover mover, int x, int y) {
+    Cluster cluster =
+        getCluster(mover, Math.floorDiv(x, CLUSTER_SIZE), Math.floorDiv(y, CLUSTER_SIZE));
+    int region = cluster.regions[getIndex(cluster, x, y)];
+    return region < 0 ? null : new Node(cluster.clusterX, cluster.clusterY, region);
+  }
+
+  private Set<Node> getLinks(Mover mover, Node node) {
+    Cluster cluster = getCluster(mover, node.clusterX, node.clusterY);
+    if (cluster.links == null) {
+      computeLinks(mover, cluster);
+    }
+    return cluster.links.get(node.region);
+  }
+
+  private Cluster getCluster(Mover mover, int clusterX, int clusterY) {
+    long key = AStarSearchState.cellKey(clusterX, clusterY);
+    Cluster cluster = clusters.get(key);
+    if (cluster == null) {
+      cluster = new Cluster(clusterX, clusterY);
+      labelRegions(mover, cluster);
+      clusters.put(key, cluster);
+    }
+    return cluster;
+  }
+
+  private static int getIndex(Cluster cluster, int x, int y) {
+    int column = x - cluster.clusterX * CLUSTER_SIZE;
+    int row = y - cluster.clusterY * CLUSTER_SIZE;
+    return row * CLUSTER_SIZE + column;
+  }
+
+  private static boolean isInside(Cluster cluster, int x, int y) {
+    return Math.floorDiv(x, CLUSTER_SIZE) == cluster.clusterX
+        && Math.floorDiv(y, CLUSTER_SIZE) == cluster.clusterY;
+  }
+
+  /** Split the cells of a cluster into the regions connected by moves inside the cluster. */
+  private static void labelRegions(Mover mover, Cluster cluster) {
+    final int originX = cluster.clusterX * CLUSTER_SIZE;
+    final int originY = cluster.clusterY * CLUSTER_SIZE;
+    final int cells = CLUSTER_SIZE * CLUSTER_SIZE;
+
+    // Union-find over the cells, -1 for the cells the token can not stand on
+    int[] parents = new int[cells];
+    for (int i = 0; i < cells; i++) {
+      int x = originX + i % CLUSTER_SIZE;
+      int y = originY + i / CLUSTER_SIZE;
+      parents[i] = mover.isStandable(x, y) ? i : -1;
+    }
+    for (int i = 0; i < cells; i++) {
+      if (parents[i] < 0) {
+        continue;
+      }
+      int x = originX + i % CLUSTER_SIZE;
+      int y = originY + i / CLUSTER_SIZE;
+      for (int[] neighborArray : mover.getNeighborMap(x, y)) {
+        int neighborX = x + neighborArray[0];
+        int neighborY = y + neighborArray[1];
+        if (!isInside(cluster, neighborX, neighborY)) {
+          continue;
+        }
+        int neighbor = getIndex(cluster, neighborX, neighborY);
+        if (neighbor == i || parents[neighbor] < 0) {
+          continue;
+        }
+        int root = find(parents, i);
+        int neighborRoot = find(parents, neighbor);
+        if (root != neighborRoot && !mover.blocksMove(x, y, neighborArray)) {
+          parents[neighborRoot] = root;
+        }
+      }
+    }
+
+    // Number the regions, and find the cell of each closest to the center
+    Arrays.fill(cluster.regions, -1);
+    int[] regionOfRoot = new int[cells];
+    Arrays.fill(regionOfRoot, -1);
+    List<Integer> bestDistances = new ArrayList<>();
+    for (int i = 0; i < cells; i++) {
+      if (parents[i] < 0) {
+        continue;
+      }
+      int root = find(parents, i);
+      if (regionOfRoot[root] < 0) {
+        regionOfRoot[root] = cluster.representatives.size();
+        cluster.representatives.add(null);
+        bestDistances.add(Integer.MAX_VALUE);
+      }
+      int region = regionOfRoot[root];
+      cluster.regions[i] = region;
+
+      int dx = i % CLUSTER_SIZE - CLUSTER_SIZE / 2;
+      int dy = i / CLUSTER_SIZE - CLUSTER_SIZE / 2;
+      if (dx * dx + dy * dy < bestDistances.get(region)) {
+        bestDistances.set(region, dx * dx + dy * dy);
+        cluster.representatives.set(
+            region, new CellPoint(originX + i % CLUSTER_SIZE, originY + i / CLUSTER_SIZE));
+      }
+    }
+  }
+
+  private static int find(int[] parents, int i) {
+    while (parents[i] != i) {
+      parents[i] = parents[parents[i]];
+      i = parents[i];
+    }
+    return i;
+  }
+
+  /** Find the regions of the other clusters that each region of a cluster can step into. */
+  private void computeLinks(Mover mover, Cluster cluster) {
+    final int originX = cluster.clusterX * CLUSTER_SIZE;
+    final int originY = cluster.clusterY * CLUSTER_SIZE;
+
+    List<Set<Node>> links = new ArrayList<>();
+    for (int i = 0; i < cluster.representatives.size(); i++) {
+      links.add(new LinkedHashSet<>());
+    }
+    for (int i = 0; i < cluster.regions.length; i++) {
+      int region = cluster.regions[i];
+      int x = originX + i % CLUSTER_SIZE;
+      int y = originY + i / CLUSTER_SIZE;
+      if (region < 0) {
+        continue;
+      }
+      for (int[] neighborArray : mover.getNeighborMap(x, y)) {
+        int neighborX = x + neighborArray[0];
+        int neighborY = y + neighborArray[1];
+        if (isInside(cluster, neighborX, neighborY)) {
+          continue;
+        }
+        Node neighbor = getNode(mover, neighborX, neighborY);
+        if (neighbor != null
+            && !links.get(region).contains(neighbor)
+            && !mover.blocksMove(x, y, neighborArray)) {
+          links.get(region).add(neighbor);
+        }
+      }
+    }
+    cluster.links = links;
+  }
+}
@@ -0,0 +1,342 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import java.util.Arrays;
+
+/**
+ * The search buffers of the A* walkers, kept over primitive arrays so that a search allocates
+ * nothing once the buffers have grown to the size of the searched area.
+ *
+ * <p>Each visited cell gets an index through an open addressing table keyed by the packed cell
+ * coordinates. A cell has two nodes, one for each parity of the 1-2-1 diagonal count, so the node
+ * of a cell is {@code 2 * cellIndex + (odd ? 1 : 0)}. The open list is an indexed binary min-heap
+ * on the f cost of the nodes, which allows the cost of an open node to be lowered in place.
+ *
+ * <p>Not thread safe: each walker owns its buffers and only searches one path at a time.
+ */
+class AStarSearchState {
+  /** Index of a node that is not in the open list. */
+  static final int NOT_OPEN = -1;
+  /** Parent of a node that has no parent. */
+  static final int NO_PARENT = -1;
+
+  private static final int INITIAL_CELLS = 256;
+
+  // Cell index table, open addressing with linear probing. A value of -1 is an empty slot.
+  private long[] tableKeys;
+  private int[] tableValues;
+  private int tableMask;
+
+  // Per cell
+  private int[] cellX;
+  private int[] cellY;
+  private int cellCount;
+
+  // Per node
+  private double[] g;
+  private double[] h;
+  private double[] distanceTraveled;
+  private double[] distanceTraveledWithoutTerrain;
+  private int[] parent;
+  private int[] heapIndex;
+  private boolean[] visited;
+  private boolean[] closed;
+
+  // Open list
+  private int[] heap;
+  private int heapSize;
+
+  AStarSearchState() {
+    allocateTable(INITIAL_CELLS * 2);
+    allocateCells(INITIAL_CELLS);
+  }
+
+  /** Forget all the cells of the previous search, keeping the buffers. */
+  void reset() {
+    Arrays.fill(tableValues, -1);
+    cellCount = 0;
+    heapSize = 0;
+  }
+
+  /**
+   * Pack cell coordinates into a single key.
+   *
+   * @param x the x of the cell.
+   * @param y the y of the cell.
+   * @return the key of the cell.
+   */
+  static long cellKey(int x, int y) {
+    return ((long) x << 32) | (y & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Get the node of a cell, creating the cell if it was not seen yet in this search. A new node
+   * is neither visited, open nor closed.
+   *
+   * @param x the x of the cell.
+   * @param y the y of the cell.
+   * @param odd whether the node is on an odd step of 1-2-1 movement.
+   * @return the node.
+   */
+  int node(int x, int y, boolean odd) {
+    long key = cellKey(x, y);
+    int slot = hash(key) & tableMask;
+    int cell;
+    while ((cell = tableValues[slot]) != -1) {
+      if (tableKeys[slot] == key) {
+        return 2 * cell + (odd ? 1 : 0);
+      }
+      slot = (slot + 1) & tableMask;
+    }
+
+    cell = cellCount++;
+    if (cell == cellX.length) {
+      allocateCells(cellX.length * 2);
+    }
+    cellX[cell] = x;
+    cellY[cell] = y;
+    for (int n = 2 * cell; n <= 2 * cell + 1; n++) {
+      visited[n] = false;
+      closed[n] = false;
+      heapIndex[n] = NOT_OPEN;
+      parent[n] = NO_PARENT;
+    }
+    tableKeys[slot] = key;
+    tableValues[slot] = cell;
+    if (cellCount * 2 > tableValues.length) {
+      rehash(tableValues.length * 2);
+    }
+    return 2 * cell + (odd ? 1 : 0);
+  }
+
+  int x(int node) {
+    return cellX[node >> 1];
+  }
+
+  int y(int node) {
+    return cellY[node >> 1];
+  }
+
+  boolean isOdd(int node) {
+    return (node & 1) != 0;
+  }
+
+  double g(int node) {
+    return g[node];
+  }
+
+  double h(int node) {
+    return h[node];
+  }
+
+  double fCost(int node) {
+    return g[node] + h[node];
+  }
+
+  double distanceTraveled(int node) {
+    return distanceTraveled[node];
+  }
+
+  double distanceTraveledWithoutTerrain(int node) {
+    return distanceTraveledWithoutTerrain[node];
+  }
+
+  int parent(int node) {
+    return parent[node];
+  }
+
+  /** @return whether the node has been given costs in this search. */
+  boolean isVisited(int node) {
+    return visited[node];
+  }
+
+  boolean isClosed(int node) {
+    return closed[node];
+  }
+
+  void close(int node) {
+    closed[node] = true;
+  }
+
+  boolean isOpen(int node) {
+    return heapIndex[node] != NOT_OPEN;
+  }
+
+  /**
+   * Set the heuristic of a node. It must be set before the node is opened and must not change
+   * while the node is open.
+   *
+   * @param node the node.
+   * @param value the estimated cost from the node to the goal.
+   */
+  void setH(int node, double value) {
+    h[node] = value;
+  }
+
+  /**
+   * Set the cost of reaching a node, and the path it was reached through. If the node is open, its
+   * place in the open list is updated; the cost of an open node may only go down.
+   *
+   * @param node the node.
+   * @param parentNode the node it was reached from, or {@link #NO_PARENT}.
+   * @param cost the g cost of the node.
+   * @param distance the distance traveled up to the node.
+   * @param distanceWithoutTerrain the distance traveled up to the node without terrain modifiers.
+   */
+  void setCost(
+      int node, int parentNode, double cost, double distance, double distanceWithoutTerrain) {
+    visited[node] = true;
+    parent[node] = parentNode;
+    g[node] = cost;
+    distanceTraveled[node] = distance;
+    distanceTraveledWithoutTerrain[node] = distanceWithoutTerrain;
+    if (heapIndex[node] != NOT_OPEN) {
+      siftUp(heapIndex[node]);
+    }
+  }
+
+  /** @param node the node to add to the open list. */
+  void open(int node) {
+    if (heapSize == heap.length) {
+      heap = Arrays.copyOf(heap, heap.length * 2);
+    }
+    heap[heapSize] = node;
+    heapIndex[node] = heapSize;
+    siftUp(heapSize++);
+  }
+
+  boolean hasOpen() {
+    return heapSize > 0;
+  }
+
+  /** @return the open node with the lowest f cost, after removing it from the open list. */
+  int pollOpen() {
+    int node = heap[0];
+    heapIndex[node] = NOT_OPEN;
+    heapSize--;
+    if (heapSize > 0) {
+      heap[0] = heap[heapSize];
+      heapIndex[heap[0]] = 0;
+      siftDown(0);
+    }
+    return node;
+  }
+
+  /** Empty the open list, which ends the search. */
+  void clearOpen() {
+    for (int i = 0; i < heapSize; i++) {
+      heapIndex[heap[i]] = NOT_OPEN;
+    }
+    heapSize = 0;
+  }
+
+  private void siftUp(int index) {
+    int node = heap[index];
+    double f = fCost(node);
+    while (index > 0) {
+      int parentIndex = (index - 1) >>> 1;
+      int parentNode = heap[parentIndex];
+      if (fCost(parentNode) <= f) {
+        break;
+      }
+      heap[index] = parentNode;
+      heapIndex[parentNode] = index;
+      index = parentIndex;
+    }
+    heap[index] = node;
+    heapIndex[node] = index;
+  }
+
+  private void siftDown(int index) {
+    int node = heap[index];
+    double f = fCost(node);
+    int half = heapSize >>> 1;
+    while (index < half) {
+      int child = 2 * index + 1;
+      int right = child + 1;
+      if (right < heapSize && fCost(heap[right]) < fCost(heap[child])) {
+        child = right;
+      }
+      if (f <= fCost(heap[child])) {
+        break;
+      }
+      heap[index] = heap[child];
+      heapIndex[heap[index]] = index;
+      index = child;
+    }
+    heap[index] = node;
+    heapIndex[node] = index;
+  }
+
+  private static int hash(long key) {
+    // Mixing step of MurmurHash3, to spread neighboring cells over the table
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+
+  private void allocateTable(int size) {
+    tableKeys = new long[size];
+    tableValues = new int[size];
+    tableMask = size - 1;
+    Arrays.fill(tableValues, -1);
+  }
+
+  private void rehash(int size) {
+    long[] oldKeys = tableKeys;
+    int[] oldValues = tableValues;
+    allocateTable(size);
+    for (int i = 0; i < oldValues.length; i++) {
+      if (oldValues[i] != -1) {
+        int slot = hash(oldKeys[i]) & tableMask;
+        while (tableValues[slot] != -1) {
+          slot = (slot + 1) & tableMask;
+        }
+        tableKeys[slot] = oldKeys[i];
+        tableValues[slot] = oldValues[i];
+      }
+    }
+  }
+
+  private void allocateCells(int cells) {
+    int nodes = cells * 2;
+    if (cellX == null) {
+      cellX = new int[cells];
+      cellY = new int[cells];
+      g = new double[nodes];
+      h = new double[nodes];
+      distanceTraveled = new double[nodes];
+      distanceTraveledWithoutTerrain = new double[nodes];
+      parent = new int[nodes];
+      heapIndex = new int[nodes];
+      visited = new boolean[nodes];
+      closed = new boolean[nodes];
+      heap = new int[nodes];
+    } else {
+      cellX = Arrays.copyOf(cellX, cells);
+      cellY = Arrays.copyOf(cellY, cells);
+      g = Arrays.copyOf(g, nodes);
+      h = Arrays.copyOf(h, nodes);
+      distanceTraveled = Arrays.copyOf(distanceTraveled, nodes);
+      distanceTraveledWithoutTerrain = Arrays.copyOf(distanceTraveledWithoutTerrain, nodes);
+      parent = Arrays.copyOf(parent, nodes);
+      heapIndex = Arrays.copyOf(heapIndex, nodes);
+      visited = Arrays.copyOf(visited, nodes);
+      closed = Arrays.copyOf(closed, nodes);
+    }
+  }
+}
@@ -20,62 +20,73 @@
 import java.awt.geom.Area;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 import net.rptools.maptool.client.MapTool;
+import net.rptools.maptool.client.ui.zone.ZoneRenderer;
+import net.rptools.maptool.client.ui.zone.ZoneView;
 import net.rptools.maptool.client.walker.AbstractZoneWalker;
 import net.rptools.maptool.model.CellPoint;
+import net.rptools.maptool.model.GUID;
 import net.rptools.maptool.model.Label;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Token.TerrainModifierOperation;
 import net.rptools.maptool.model.TokenFootprint;
 import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.model.ZonePoint;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.locationtech.jts.algorithm.ConvexHull;
-import org.locationtech.jts.awt.ShapeReader;
-import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.GeometryFactory;
-import org.locationtech.jts.geom.LineString;
-import org.locationtech.jts.geom.prep.PreparedGeometry;
-import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
-import org.locationtech.jts.operation.valid.IsValidOp;
 
 public abstract class AbstractAStarWalker extends AbstractZoneWalker {
   private record TerrainModifier(Token.TerrainModifierOperation operation, double value) {}
 
+  /** What the cluster graph of hierarchical A* depends on, besides the blocking grid. */
+  private record ClusterGraphKey(
+      String neighborhood, GUID footprintId, Set<CellPoint> blockedTerrainCells) {}
+
+  /**
+   * How many cells the search bounds must cover for a path farther than a cluster to be searched
+   * hierarchically.
+   */
+  private static final int HIERARCHICAL_SEARCH_CELLS = 96 * 96;
+
+  /** How often, in milliseconds, the refined part of a corridor search is shown. */
+  private static final long REFINED_PATH_INTERVAL = 100;
+
   private static boolean isInteger(double d) {
     return (int) d == d;
   }
 
   private static final Logger log = LogManager.getLogger(AbstractAStarWalker.class);
-  private final GeometryFactory geometryFactory = new GeometryFactory();
   // private List<GUID> debugLabels;
   protected int crossX = 0;
   protected int crossY = 0;
   private boolean debugCosts = false; // Manually set this to view H, G & F costs as rendered labels
-  private Area vbl = new Area();
   private double cell_cost = zone.getUnitsPerCell();
   private double distance = -1;
-  private ShapeReader shapeReader = new ShapeReader(geometryFactory);
-  private PreparedGeometry vblGeometry = null;
+  private volatile MovementBlockingGrid blockingGrid = null;
+  // What the blocking grid of a token with VBL was built from, to know when it must be rebuilt
+  private ZoneView vblZoneView = null;
+  private int vblTopologyVersion = 0;
+  private Area vblTokenVBL = null;
   // private long avgRetrieveTime;
   // private long avgTestTime;
   // private long retrievalCount;
   // private long testCount;
   private TokenFootprint footprint = new TokenFootprint();
-  private Map<CellPoint, Map<CellPoint, Boolean>> blockedMovesByGoal = new ConcurrentHashMap<>();
   private final Map<CellPoint, List<TerrainModifier>> terrainCells = new HashMap<>();
+  private final AStarSearchState search = new AStarSearchState();
+  // The corridor the current search is restricted to, if any
+  private AStarClusterGraph.Corridor corridor = null;
+  // The rough path through the corridor, the rest of which is shown after the refined part
+  private List<CellPoint> roughPath = null;
+  // Whether the last search timed out or was interrupted
+  private boolean searchAborted = false;
 
   public AbstractAStarWalker(Zone zone) {
     super(zone);
@@ -110,7 +121,17 @@ public AbstractAStarWalker(Zone zone) {
    */
   protected abstract int[][] getNeighborMap(int x, int y);
 
-  protected abstract double hScore(AStarCellPoint p1, CellPoint p2);
+  /**
+   * Estimate the cost of the path from a cell to the goal.
+   *
+   * @param x the x of the cell
+   * @param y the y of the cell
+   * @param isOddStepOfOneTwoOneMovement if the movement is 1-2-1 and an odd path was taken so far
+   * @param goal the goal of the path
+   * @return the estimated cost
+   */
+  protected abstract double hScore(
+      int x, int y, boolean isOddStepOfOneTwoOneMovement, CellPoint goal);
 
   protected abstract double getDiagonalMultiplier(int[] neighborArray);
 
@@ -123,16 +144,8 @@ public double getDistance() {
   }
 
   public Map<CellPoint, Set<CellPoint>> getBlockedMoves() {
-    final Map<CellPoint, Set<CellPoint>> result = new HashMap<>();
-    for (var entry : blockedMovesByGoal.entrySet()) {
-      result.put(
-          entry.getKey(),
-          entry.getValue().entrySet().stream()
-              .filter(Map.Entry::getValue)
-              .map(Map.Entry::getKey)
-              .collect(Collectors.toSet()));
-    }
-    return result;
+    MovementBlockingGrid blockingGrid = this.blockingGrid;
+    return blockingGrid == null ? new HashMap<>() : blockingGrid.getBlockedMoves();
   }
 
   @Override
@@ -145,11 +158,6 @@ protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
     crossX = start.x - goal.x;
     crossY = start.y - goal.y;
 
-    Queue<AStarCellPoint> openList =
-        new PriorityQueue<>(Comparator.comparingDouble(AStarCellPoint::fCost));
-    Map<AStarCellPoint, AStarCellPoint> openSet = new HashMap<>(); // For faster lookups
-    Set<AStarCellPoint> closedSet = new HashSet<>();
-
     // Current fail safe... bail out after 10 seconds of searching just in case, shouldn't hang UI
     // as this is off the AWT thread
     long timeOut = System.currentTimeMillis();
@@ -158,62 +166,7 @@ protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
     // if (start.equals(end))
     // log.info("NO WORK!");
 
-    var startNode = new AStarCellPoint(start, !isInteger(start.distanceTraveledWithoutTerrain));
-    openList.add(startNode);
-    openSet.put(startNode, startNode);
-
-    AStarCellPoint currentNode = null;
-
-    // Get current VBL for map...
-    // Using JTS because AWT Area can only intersect with Area and we want to use simple lines here.
-    // Render VBL to Geometry class once and store.
-    // Note: zoneRenderer will be null if map is not visible to players.
-    Area newVbl = new Area();
-    if (MapTool.getFrame().getCurrentZoneRenderer() != null) {
-      if (MapTool.getServerPolicy().getVblBlocksMove()) {
-        newVbl =
-            MapTool.getFrame().getCurrentZoneRenderer().getZoneView().getTopologyTree().getArea();
-
-        if (tokenVBL != null) {
-          newVbl.subtract(tokenVBL);
-        }
-
-        // Finally, add the Move Blocking Layer!
-        newVbl.add(zone.getTopologyTerrain());
-      } else {
-        newVbl = zone.getTopologyTerrain();
-      }
-    }
-
-    if (!newVbl.equals(vbl)) {
-      vbl = newVbl;
-
-      // The move cache may no longer accurately reflect the VBL limitations.
-      this.blockedMovesByGoal.clear();
-      // VBL has changed. Let's update the JTS geometry to match.
-      if (vbl.isEmpty()) {
-        this.vblGeometry = null;
-      } else {
-        try {
-          var vblGeometry =
-              shapeReader.read(new ReverseShapePathIterator(vbl.getPathIterator(null)));
-
-          // polygons
-          if (!vblGeometry.isValid()) {
-            log.info(
-                "vblGeometry is invalid! May cause issues. Check for self-intersecting polygons.");
-            log.debug("Invalid vblGeometry: " + new IsValidOp(vblGeometry).getValidationError());
-          }
-
-          vblGeometry = vblGeometry.buffer(1); // .buffer always creates valid geometry.
-          this.vblGeometry = PreparedGeometryFactory.prepare(vblGeometry);
-        } catch (Exception e) {
-          log.info("vblGeometry oh oh: ", e);
-        }
-      }
-
-      // log.info("vblGeometry bounds: " + vblGeometry.toString());
-    }
+    updateBlockingGrid();
 
     // Erase previous debug labels, this actually erases ALL labels! Use only when debugging!
     EventQueue.invokeLater(
@@ -234,44 +187,150 @@ protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
 
     Rectangle pathfindingBounds = this.getPathfindingBounds(start, goal);
 
-    while (!openList.isEmpty()) {
-      if (System.currentTimeMillis() > timeOut + estimatedTimeoutNeeded) {
-        log.info("Timing out after " + estimatedTimeoutNeeded);
-        break;
-      }
+    // On large maps, only search the corridor of clusters hierarchical A* finds
+    corridor = null;
+    roughPath = null;
+    if (restrictMovement && isLargeSearch(start, goal, pathfindingBounds)) {
+      corridor =
+          findCorridor(
+              start, goal, pathfindingBounds, timeOut + (long) estimatedTimeoutNeeded);
+    }
+    int currentNode = searchPath(start, goal, pathfindingBounds, timeOut, estimatedTimeoutNeeded);
+    if (currentNode == AStarSearchState.NO_PARENT && corridor != null && !searchAborted) {
+      // The regions of the clusters do not tell which way moves go; search everywhere after all
+      corridor = null;
+      roughPath = null;
+      currentNode = searchPath(start, goal, pathfindingBounds, timeOut, estimatedTimeoutNeeded);
+    }
+    corridor = null;
+    roughPath = null;
 
-      currentNode = openList.remove();
-      openSet.remove(currentNode);
-      if (currentNode.position.equals(goal)) {
-        break;
-      }
+    List<CellPoint> returnedCellPointList = getCellPath(currentNode);
 
-      for (AStarCellPoint currentNeighbor :
-          getNeighbors(currentNode, closedSet, pathfindingBounds)) {
-        currentNeighbor.h = hScore(currentNeighbor, goal);
-        showDebugInfo(currentNeighbor);
+    // We don't need to "calculate" distance after the fact as it's already stored as the G cost...
+    if (!returnedCellPointList.isEmpty()) {
+      CellPoint end = returnedCellPointList.get(returnedCellPointList.size() - 1);
+      distance = end.getDistanceTraveled(zone);
+    } else { // if path finding was interrupted because of timeout
+      distance = 0;
+      goal.setAStarCanceled(true);
 
-        if (openSet.containsKey(currentNeighbor)) {
-          // check if it is cheaper to get here the way that we just came, versus the previous path
-          AStarCellPoint oldNode = openSet.get(currentNeighbor);
-          if (currentNeighbor.g < oldNode.g) {
-            // We're about to modify the node cost, so we have to reinsert the node.
-            openList.remove(oldNode);
+      returnedCellPointList.add(start);
+      returnedCellPointList.add(goal);
+    }
 
-            oldNode.replaceG(currentNeighbor);
-            oldNode.parent = currentNode;
+    timeOut = (System.currentTimeMillis() - timeOut);
+    if (timeOut > 500) {
+      log.debug("Time to calculate A* path warning: " + timeOut + "ms");
+    }
 
-            openList.add(oldNode);
-          }
-          continue;
-        }
+    // if (retrievalCount > 0)
+    // log.info("avgRetrieveTime: " + Math.floor(avgRetrieveTime / retrievalCount)/1000 + " micro");
+    // if (testCount > 0)
+    // log.info("avgTestTime: " + Math.floor(avgTestTime / testCount)/1000 + " micro");
 
-        openList.add(currentNeighbor);
-        openSet.put(currentNeighbor, currentNeighbor);
+    return returnedCellPointList;
+  }
+
+  /**
+   * @param node the last node of the path, or {@link AStarSearchState#NO_PARENT}.
+   * @return the cells of the path from the start to the node, empty if there is no node.
+   */
+  private List<CellPoint> getCellPath(int node) {
+    List<CellPoint> cells = new ArrayList<>();
+    while (node != AStarSearchState.NO_PARENT) {
+      cells.add(
+          new CellPoint(
+              search.x(node),
+              search.y(node),
+              search.distanceTraveled(node),
+              search.distanceTraveledWithoutTerrain(node)));
+      node = search.parent(node);
+    }
+    Collections.reverse(cells);
+    return cells;
+  }
+
+  /**
+   * Show the path refined so far: the path to the node the search is at, then the rough path from
+   * where it is closest to the node.
+   *
+   * @param node the node the search is at.
+   */
+  private void publishRefinedPath(int node) {
+    List<CellPoint> roughPath = this.roughPath;
+    int x = search.x(node);
+    int y = search.y(node);
+    // The start is at the head of both paths, so skip it when looking for the closest point
+    int closest = roughPath.size() - 1;
+    int closestDistance = Integer.MAX_VALUE;
+    for (int i = 1; i < roughPath.size(); i++) {
+      CellPoint point = roughPath.get(i);
+      int d = Math.max(Math.abs(point.x - x), Math.abs(point.y - y));
+      if (d < closestDistance) {
+        closest = i;
+        closestDistance = d;
+      }
+    }
+    List<CellPoint> path = getCellPath(node);
+    CellPoint last = path.get(path.size() - 1);
+    for (CellPoint point : roughPath.subList(closest, roughPath.size())) {
+      if (!point.equals(last)) {
+        path.add(point);
+      }
+    }
+    publishPendingPath(path);
+  }
+
+  /**
+   * Search the path from the start to the goal.
+   *
+   * @param start the start cell.
+   * @param goal the goal cell.
+   * @param pathfindingBounds the bounds outside which the search does not go.
+   * @param startTime when the calculation of the path started.
+   * @param timeout how long the calculation may take, in milliseconds.
+   * @return the node of the goal, or {@link AStarSearchState#NO_PARENT} if no path was found.
+   */
+  private int searchPath(
+      CellPoint start,
+      CellPoint goal,
+      Rectangle pathfindingBounds,
+      long startTime,
+      double timeout) {
+    search.reset();
+    searchAborted = false;
+    int startNode = search.node(start.x, start.y, !isInteger(start.distanceTraveledWithoutTerrain));
+    search.setH(startNode, 0);
+    search.setCost(
+        startNode,
+        AStarSearchState.NO_PARENT,
+        0,
+        start.distanceTraveled,
+        start.distanceTraveledWithoutTerrain);
+    search.open(startNode);
+    long nextPublish = System.currentTimeMillis() + REFINED_PATH_INTERVAL;
+
+    while (search.hasOpen()) {
+      long now = System.currentTimeMillis();
+      if (now > startTime + timeout) {
+        log.info("Timing out after " + timeout);
+        searchAborted = true;
+        break;
       }
 
-      closedSet.add(currentNode);
-      currentNode = null;
+      int currentNode = search.pollOpen();
+      if (search.x(currentNode) == goal.x && search.y(currentNode) == goal.y) {
+        return currentNode;
+      }
+      if (roughPath != null && now >= nextPublish) {
+        publishRefinedPath(currentNode);
+        nextPublish = now + REFINED_PATH_INTERVAL;
+      }
+
+      expandNode(currentNode, goal, pathfindingBounds);
+
+      search.close(currentNode);
 
       /*
         We now calculate paths off the main UI thread but only one at a time.
@@ -280,39 +339,126 @@ protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
       */
       if (Thread.interrupted()) {
         // log.info("Thread interrupted!");
-        openList.clear();
+        search.clearOpen();
+        searchAborted = true;
       }
     }
+    return AStarSearchState.NO_PARENT;
+  }
 
-    List<CellPoint> returnedCellPointList = new LinkedList<>();
-    while (currentNode != null) {
-      returnedCellPointList.add(currentNode.position);
-      currentNode = currentNode.parent;
-    }
+  /**
+   * Check whether a path is worth searching hierarchically: the search area is large, and the goal
+   * is farther than a cluster away.
+   */
+  private boolean isLargeSearch(CellPoint start, CellPoint goal, Rectangle pathfindingBounds) {
+    int gridSize = Math.max(1, zone.getGrid().getSize());
+    long cells =
+        (long) (pathfindingBounds.width / gridSize) * (pathfindingBounds.height / gridSize);
+    int reach = Math.max(Math.abs(start.x - goal.x), Math.abs(start.y - goal.y));
+    return cells > HIERARCHICAL_SEARCH_CELLS && reach > AStarClusterGraph.CLUSTER_SIZE;
+  }
 
-    // We don't need to "calculate" distance after the fact as it's already stored as the G cost...
-    if (!returnedCellPointList.isEmpty()) {
-      distance = returnedCellPointList.get(0).getDistanceTraveled(zone);
-    } else { // if path finding was interrupted because of timeout
-      distance = 0;
-      goal.setAStarCanceled(true);
+  /**
+   * Find the corridor of clusters the path goes through with hierarchical A*, and show the rough
+   * path through them. While the path is refined, the refined part replaces the start of the rough
+   * path every {@link #REFINED_PATH_INTERVAL} milliseconds.
+   *
+   * @param start the start cell.
+   * @param goal the goal cell.
+   * @param pathfindingBounds the bounds outside which the search does not go.
+   * @param deadline the time, in milliseconds since the epoch, after which the search gives up.
+   * @return the corridor, or null if none was found.
+   */
+  private AStarClusterGraph.Corridor findCorridor(
+      CellPoint start, CellPoint goal, Rectangle pathfindingBounds, long deadline) {
+    ClusterMover mover = new ClusterMover();
+    var key =
+        new ClusterGraphKey(getNeighborhood(), footprint.getId(), mover.blockedTerrainCells);
+    AStarClusterGraph graph = blockingGrid.getDerived(key, AStarClusterGraph::new);
+
+    List<AStarClusterGraph.Node> path =
+        graph.findPath(mover, start, goal, getClusterBounds(pathfindingBounds), deadline);
+    if (path == null) {
+      return null;
+    }
+    roughPath = graph.getRoughPath(path, start, goal);
+    publishPendingPath(roughPath);
+    return AStarClusterGraph.getCorridor(path);
+  }
 
-      returnedCellPointList.add(goal);
-      returnedCellPointList.add(start);
+  /**
+   * @param pathfindingBounds the bounds outside which the search does not go.
+   * @return the clusters of the cells the bounds overlap.
+   */
+  private Rectangle getClusterBounds(Rectangle pathfindingBounds) {
+    int minX = Integer.MAX_VALUE;
+    int minY = Integer.MAX_VALUE;
+    int maxX = Integer.MIN_VALUE;
+    int maxY = Integer.MIN_VALUE;
+    for (int x : new int[] {pathfindingBounds.x, pathfindingBounds.x + pathfindingBounds.width}) {
+      for (int y :
+          new int[] {pathfindingBounds.y, pathfindingBounds.y + pathfindingBounds.height}) {
+        CellPoint cell = zone.getGrid().convert(new ZonePoint(x, y));
+        minX = Math.min(minX, Math.floorDiv(cell.x, AStarClusterGraph.CLUSTER_SIZE));
+        minY = Math.min(minY, Math.floorDiv(cell.y, AStarClusterGraph.CLUSTER_SIZE));
+        maxX = Math.max(maxX, Math.floorDiv(cell.x, AStarClusterGraph.CLUSTER_SIZE));
+        maxY = Math.max(maxY, Math.floorDiv(cell.y, AStarClusterGraph.CLUSTER_SIZE));
+      }
     }
+    return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+  }
 
-    Collections.reverse(returnedCellPointList);
-    timeOut = (System.currentTimeMillis() - timeOut);
-    if (timeOut > 500) {
-      log.debug("Time to calculate A* path warning: " + timeOut + "ms");
+  /** @return a description of the neighbor maps, telling walkers that move alike apart. */
+  private String getNeighborhood() {
+    return getClass().getName()
+        + Arrays.deepToString(getNeighborMap(0, 0))
+        + Arrays.deepToString(getNeighborMap(0, 1))
+        + Arrays.deepToString(getNeighborMap(1, 0));
+  }
+
+  /**
+   * Get the movement blocking grid for the current VBL of the map. Tokens without VBL share the
+   * grid of the zone view, which is kept up to date with the topology. A token with VBL is not
+   * blocked by its own VBL, so it gets a grid of its own, rebuilt when the topology version of the
+   * zone view changes.
+   */
+  private void updateBlockingGrid() {
+    // Note: zoneRenderer will be null if map is not visible to players.
+    ZoneRenderer zoneRenderer = MapTool.getFrame().getCurrentZoneRenderer();
+    ZoneView zoneView = zoneRenderer == null ? null : zoneRenderer.getZoneView();
+    boolean vblBlocksMove = MapTool.getServerPolicy().getVblBlocksMove();
+
+    if (zoneView == null) {
+      if (blockingGrid == null || !blockingGrid.isEmpty() || !blockingGrid.isFor(zone.getGrid())) {
+        blockingGrid = new MovementBlockingGrid(zone.getGrid(), new Area());
+      }
+      vblZoneView = null;
+      return;
     }
 
-    // if (retrievalCount > 0)
-    // log.info("avgRetrieveTime: " + Math.floor(avgRetrieveTime / retrievalCount)/1000 + " micro");
-    // if (testCount > 0)
-    // log.info("avgTestTime: " + Math.floor(avgTestTime / testCount)/1000 + " micro");
+    if (tokenVBL == null || !vblBlocksMove) {
+      blockingGrid = zoneView.getMovementBlockingGrid(vblBlocksMove);
+      vblZoneView = null;
+      return;
+    }
 
-    return returnedCellPointList;
+    int topologyVersion = zoneView.getTopologyVersion();
+    if (zoneView == vblZoneView
+        && topologyVersion == vblTopologyVersion
+        && tokenVBL == vblTokenVBL
+        && blockingGrid.isFor(zone.getGrid())) {
+      return;
+    }
+    vblZoneView = zoneView;
+    vblTopologyVersion = topologyVersion;
+    vblTokenVBL = tokenVBL;
+
+    // Copy, as the area belongs to the topology tree
+    Area vbl = new Area(zoneView.getTopologyTree().getArea());
+    vbl.subtract(tokenVBL);
+    // Finally, add the Move Blocking Layer!
+    vbl.add(zone.getTopologyTerrain());
+    blockingGrid = new MovementBlockingGrid(zone.getGrid(), vbl);
   }
 
   /**
@@ -335,7 +481,7 @@ protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
    */
   protected Rectangle getPathfindingBounds(CellPoint start, CellPoint goal) {
     // Bounding box must contain all VBL/MBL ...
-    Rectangle pathfindingBounds = vbl.getBounds();
+    Rectangle pathfindingBounds = blockingGrid.getBounds();
     // ... and the footprints of all terrain tokens ...
     for (var cellPoint : terrainCells.keySet()) {
       pathfindingBounds = pathfindingBounds.union(zone.getGrid().getBounds(cellPoint));
@@ -351,13 +497,23 @@ protected Rectangle getPathfindingBounds(CellPoint start, CellPoint goal) {
     return pathfindingBounds;
   }
 
-  protected List<AStarCellPoint> getNeighbors(
-      AStarCellPoint node, Set<AStarCellPoint> closedSet, Rectangle pathfindingBounds) {
-    List<AStarCellPoint> neighbors = new ArrayList<>();
-    int[][] neighborMap = getNeighborMap(node.position.x, node.position.y);
+  /**
+   * Open or improve the neighbors of a node.
+   *
+   * @param node the node being expanded.
+   * @param goal the goal of the path.
+   * @param pathfindingBounds the bounds outside which the search does not go.
+   */
+  private void expandNode(int node, CellPoint goal, Rectangle pathfindingBounds) {
+    final int x = search.x(node);
+    final int y = search.y(node);
+    final CellPoint position = new CellPoint(x, y);
+    // This position is too far out to possibly be part of the optimal path.
+    final boolean outOfBounds = !zone.getGrid().getBounds(position).intersects(pathfindingBounds);
+    Set<CellPoint> occupiedCells = null;
 
     // Find all the neighbors.
-    for (int[] neighborArray : neighborMap) {
+    for (int[] neighborArray : getNeighborMap(x, y)) {
       double terrainMultiplier = 0;
       double terrainAdder = 0;
       boolean terrainIsFree = false;
@@ -367,39 +523,42 @@ protected List<AStarCellPoint> getNeighbors(
       double diagonalMultiplier = getDiagonalMultiplier(neighborArray);
       boolean invertEvenOddDiagonals = !isInteger(diagonalMultiplier);
 
-      AStarCellPoint neighbor =
-          new AStarCellPoint(
-              node.position.x + neighborArray[0],
-              node.position.y + neighborArray[1],
-              node.isOddStepOfOneTwoOneMovement ^ invertEvenOddDiagonals);
-      if (closedSet.contains(neighbor)) {
+      final int neighborX = x + neighborArray[0];
+      final int neighborY = y + neighborArray[1];
+      final boolean neighborOdd = search.isOdd(node) ^ invertEvenOddDiagonals;
+      final int neighbor = search.node(neighborX, neighborY, neighborOdd);
+      if (search.isClosed(neighbor)) {
         continue;
       }
 
-      if (!zone.getGrid().getBounds(node.position).intersects(pathfindingBounds)) {
-        // This position is too far out to possibly be part of the optimal path.
-        closedSet.add(neighbor);
+      if (corridor != null && !corridor.contains(neighborX, neighborY)) {
         continue;
       }
 
-      // Add the cell we're coming from
-      neighbor.parent = node;
+      if (outOfBounds) {
+        search.close(neighbor);
+        continue;
+      }
 
       // Don't count VBL or Terrain Modifiers
       if (restrictMovement) {
-        if (tokenFootprintIntersectsVBL(neighbor.position)) {
+        CellPoint neighborPosition = new CellPoint(neighborX, neighborY);
+        if (blockingGrid.footprintIntersects(footprint, neighborX, neighborY)) {
           // The token would overlap VBL if moved to this position, so it is not a valid position.
-          closedSet.add(neighbor);
-          blockNode = true;
+          search.close(neighbor);
           continue;
         }
 
-        Set<CellPoint> occupiedCells = footprint.getOccupiedCells(node.position);
+        if (occupiedCells == null) {
+          occupiedCells = footprint.getOccupiedCells(position);
+        }
         for (CellPoint cellPoint : occupiedCells) {
           // Check whether moving the occupied cell to its new location would be prohibited by VBL.
-          var cellNeighbor =
-              new CellPoint(cellPoint.x + neighborArray[0], cellPoint.y + neighborArray[1]);
-          if (vblBlocksMovement(cellPoint, cellNeighbor)) {
+          if (blockingGrid.blocksMovement(
+              cellPoint.x,
+              cellPoint.y,
+              cellPoint.x + neighborArray[0],
+              cellPoint.y + neighborArray[1])) {
             blockNode = true;
             break;
           }
@@ -411,7 +570,7 @@ protected List<AStarCellPoint> getNeighbors(
 
         // Check for terrain modifiers
         for (TerrainModifier terrainModifier :
-            terrainCells.getOrDefault(neighbor.position, Collections.emptyList())) {
+            terrainCells.getOrDefault(neighborPosition, Collections.emptyList())) {
           if (!terrainModifiersIgnored.contains(terrainModifier.operation)) {
             switch (terrainModifier.operation) {
               case MULTIPLY:
@@ -422,8 +581,8 @@ protected List<AStarCellPoint> getNeighbors(
                 break;
               case BLOCK:
                 // Terrain blocking applies equally regardless of even/odd diagonals.
-                closedSet.add(new AStarCellPoint(neighbor.position, false));
-                closedSet.add(new AStarCellPoint(neighbor.position, true));
+                search.close(search.node(neighborX, neighborY, false));
+                search.close(search.node(neighborX, neighborY, true));
                 blockNode = true;
                 continue;
               case FREE:
@@ -449,121 +608,53 @@ protected List<AStarCellPoint> getNeighbors(
 
       terrainMultiplier = Math.abs(terrainMultiplier); // net negative multipliers screw with the AI
 
+      double g;
+      double distanceTraveled;
+      double distanceTraveledWithoutTerrain = 0;
       if (terrainIsFree) {
-        neighbor.g = node.g;
-        neighbor.position.distanceTraveled = node.position.distanceTraveled;
+        g = search.g(node);
+        distanceTraveled = search.distanceTraveled(node);
       } else {
-        neighbor.position.distanceTraveledWithoutTerrain =
-            node.position.distanceTraveledWithoutTerrain + diagonalMultiplier;
-
-        if (neighbor.isOddStepOfOneTwoOneMovement()) {
-          neighbor.g = node.g + terrainAdder + terrainMultiplier;
+        distanceTraveledWithoutTerrain =
+            search.distanceTraveledWithoutTerrain(node) + diagonalMultiplier;
 
-          neighbor.position.distanceTraveled =
-              node.position.distanceTraveled + terrainAdder + terrainMultiplier;
+        double cost;
+        if (neighborOdd) {
+          cost = terrainAdder + terrainMultiplier;
         } else {
-          neighbor.g = node.g + terrainAdder + terrainMultiplier * Math.ceil(diagonalMultiplier);
-
-          neighbor.position.distanceTraveled =
-              node.position.distanceTraveled
-                  + terrainAdder
-                  + terrainMultiplier * Math.ceil(diagonalMultiplier);
+          cost = terrainAdder + terrainMultiplier * Math.ceil(diagonalMultiplier);
         }
+        g = search.g(node) + cost;
+        distanceTraveled = search.distanceTraveled(node) + cost;
       }
 
-      neighbors.add(neighbor);
-    }
-
-    return neighbors;
-  }
+      if (search.isOpen(neighbor)) {
+        // check if it is cheaper to get here the way that we just came, versus the previous path
+        if (g < search.g(neighbor)) {
+          search.setCost(neighbor, node, g, distanceTraveled, distanceTraveledWithoutTerrain);
+          showDebugInfo(neighbor);
+        }
+        continue;
+      }
 
-  private boolean tokenFootprintIntersectsVBL(CellPoint position) {
-    if (vblGeometry == null) {
-      return false;
+      search.setH(neighbor, hScore(neighborX, neighborY, neighborOdd, goal));
+      search.setCost(neighbor, node, g, distanceTraveled, distanceTraveledWithoutTerrain);
+      search.open(neighbor);
+      showDebugInfo(neighbor);
     }
-
-    var points =
-        footprint.getOccupiedCells(position).stream()
-            .map(
-                cellPoint -> {
-                  var bounds = zone.getGrid().getBounds(cellPoint);
-                  return new Coordinate(bounds.getCenterX(), bounds.getCenterY());
-                })
-            .toArray(Coordinate[]::new);
-    Geometry footprintGeometry = new ConvexHull(points, geometryFactory).getConvexHull();
-
-    return vblGeometry.intersects(footprintGeometry);
   }
 
-  private boolean vblBlocksMovement(CellPoint start, CellPoint goal) {
-    if (vblGeometry == null) {
-      return false;
-    }
-
-    // Stopwatch stopwatch = Stopwatch.createStarted();
-    Map<CellPoint, Boolean> blockedMoves =
-        blockedMovesByGoal.computeIfAbsent(goal, pos -> new HashMap<>());
-    Boolean test = blockedMoves.get(start);
-    // if it's null then the test for that direction hasn't been set yet otherwise just return the
-    // previous result
-    if (test != null) {
-      // log.info("Time to retrieve: " + stopwatch.elapsed(TimeUnit.NANOSECONDS));
-      // avgRetrieveTime += stopwatch.elapsed(TimeUnit.NANOSECONDS);
-      // retrievalCount++;
-      return test;
-    }
-
-    Rectangle startBounds = zone.getGrid().getBounds(start);
-    Rectangle goalBounds = zone.getGrid().getBounds(goal);
-
-    if (goalBounds.isEmpty() || startBounds.isEmpty()) {
-      return false;
-    }
-
-    // If the goal center point is in vbl, allow to maintain path through vbl (should be GM only?)
-    /*
-    if (vbl.contains(goal.toPoint())) {
-      // Allow GM to move through VBL
-       return !MapTool.getPlayer().isGM();
-    }
-    */
-
-    // NEW WAY - use polygon test
-    double x1 = startBounds.getCenterX();
-    double y1 = startBounds.getCenterY();
-    double x2 = goalBounds.getCenterX();
-    double y2 = goalBounds.getCenterY();
-    LineString centerRay =
-        geometryFactory.createLineString(
-            new Coordinate[] {new Coordinate(x1, y1), new Coordinate(x2, y2)});
-
-    boolean blocksMovement;
-    try {
-      blocksMovement = vblGeometry.intersects(centerRay);
-    } catch (Exception e) {
-      log.info("clipped.intersects oh oh: ", e);
-      return true;
-    }
-
-    // avgTestTime += stopwatch.elapsed(TimeUnit.NANOSECONDS);
-    // testCount++;
-
-    blockedMoves.put(start, blocksMovement);
-
-    return blocksMovement;
-  }
-
-  protected void showDebugInfo(AStarCellPoint node) {
+  protected void showDebugInfo(int node) {
     if (!log.isDebugEnabled() && !debugCosts) {
       return;
     }
 
     final int basis = zone.getGrid().getSize() / 10;
-    final int xOffset = basis * (node.isOddStepOfOneTwoOneMovement ? 7 : 3);
+    final int xOffset = basis * (search.isOdd(node) ? 7 : 3);
 
     // if (debugLabels == null) { debugLabels = new ArrayList<>(); }
 
-    Rectangle cellBounds = zone.getGrid().getBounds(node.position);
+    Rectangle cellBounds = zone.getGrid().getBounds(new CellPoint(search.x(node), search.y(node)));
     DecimalFormat f = new DecimalFormat("##.00");
 
     Label gScore = new Label();
@@ -571,26 +662,25 @@ protected void showDebugInfo(AStarCellPoint node) {
     Label fScore = new Label();
     Label parent = new Label();
 
-    gScore.setLabel(f.format(node.g));
+    gScore.setLabel(f.format(search.g(node)));
     gScore.setX(cellBounds.x + xOffset);
     gScore.setY(cellBounds.y + 1 * basis);
 
-    hScore.setLabel(f.format(node.h));
+    hScore.setLabel(f.format(search.h(node)));
     hScore.setX(cellBounds.x + xOffset);
     hScore.setY(cellBounds.y + 3 * basis);
 
-    fScore.setLabel(f.format(node.fCost()));
+    fScore.setLabel(f.format(search.fCost(node)));
     fScore.setX(cellBounds.x + xOffset);
     fScore.setY(cellBounds.y + 5 * basis);
     fScore.setForegroundColor(Color.RED);
 
-    if (node.parent != null) {
+    int parentNode = search.parent(node);
+    if (parentNode != AStarSearchState.NO_PARENT) {
       parent.setLabel(
           String.format(
               "(%d, %d | %s)",
-              node.parent.position.x,
-              node.parent.position.y,
-              node.parent.isOddStepOfOneTwoOneMovement() ? "O" : "E"));
+              search.x(parentNode), search.y(parentNode), search.isOdd(parentNode) ? "O" : "E"));
     } else {
       parent.setLabel("(none)");
     }
@@ -611,4 +701,48 @@ protected void showDebugInfo(AStarCellPoint node) {
     // debugLabels.add(hScore.getId());
     // debugLabels.add(fScore.getId());
   }
+
+  /** How the token moves, for the cluster graph of hierarchical A*. */
+  private class ClusterMover implements AStarClusterGraph.Mover {
+    private final MovementBlockingGrid blockingGrid = AbstractAStarWalker.this.blockingGrid;
+    private final TokenFootprint footprint = AbstractAStarWalker.this.footprint;
+    private final Set<CellPoint> blockedTerrainCells = new HashSet<>();
+
+    private ClusterMover() {
+      if (restrictMovement && !terrainModifiersIgnored.contains(TerrainModifierOperation.BLOCK)) {
+        for (var entry : terrainCells.entrySet()) {
+          for (TerrainModifier terrainModifier : entry.getValue()) {
+            if (terrainModifier.operation == TerrainModifierOperation.BLOCK) {
+              blockedTerrainCells.add(entry.getKey());
+            }
+          }
+        }
+      }
+    }
+
+    @Override
+    public int[][] getNeighborMap(int x, int y) {
+      return AbstractAStarWalker.this.getNeighborMap(x, y);
+    }
+
+    @Override
+    public boolean isStandable(int x, int y) {
+      return !blockedTerrainCells.contains(new CellPoint(x, y))
+          && !blockingGrid.footprintIntersects(footprint, x, y);
+    }
+
+    @Override
+    public boolean blocksMove(int x, int y, int[] neighborArray) {
+      for (CellPoint cellPoint : footprint.getOccupiedCells(new CellPoint(x, y))) {
+        if (blockingGrid.blocksMovement(
+            cellPoint.x,
+            cellPoint.y,
+            cellPoint.x + neighborArray[0],
+            cellPoint.y + neighborArray[1])) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
 }
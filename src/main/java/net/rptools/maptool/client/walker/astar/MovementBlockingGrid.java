@@ -0,0 +1,457 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Supplier;
+import net.rptools.maptool.model.CellPoint;
+import net.rptools.maptool.model.Grid;
+import net.rptools.maptool.model.TokenFootprint;
+import net.rptools.maptool.model.ZonePoint;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.locationtech.jts.algorithm.ConvexHull;
+import org.locationtech.jts.awt.ShapeReader;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.operation.valid.IsValidOp;
+
+/**
+ * The cells and moves blocked by the VBL/MBL of a map, for the A* walkers.
+ *
+ * <p>Each cell around the topology has one bit per neighbor direction for whether moving there is
+ * blocked, and one bit per direction for whether that was computed yet. A move is tested against
+ * the topology geometry the first time it is asked for, so only the part of the map the walkers
+ * explore is ever rasterized, and every later walker on the same topology answers with a bit test.
+ * Cells outside the topology bounds can not be blocked, and are answered without storage.
+ *
+ * <p>A grid is immutable as far as its callers can tell, so it can be shared by walkers running on
+ * several threads. The bits of a cell are set atomically, so concurrent fills of the same cell
+ * never lose each other's results. When the topology changes, {@link #update(Area, Rectangle)}
+ * makes a new grid that keeps the bits of the cells away from the change.
+ */
+public class MovementBlockingGrid {
+  private static final Logger log = LogManager.getLogger(MovementBlockingGrid.class);
+
+  /** Above this many cells the moves are not stored, only tested. */
+  private static final int MAX_STORED_CELLS = 1 << 21;
+  /** How many cells around the topology may see it. */
+  private static final int CELL_PADDING = 2;
+  /** How many derived structures to keep. */
+  private static final int MAX_DERIVED = 8;
+
+  private static final int FOOTPRINT_KNOWN = 1;
+  private static final int FOOTPRINT_BLOCKED = 2;
+
+  private final Grid grid;
+  private final int gridSize;
+  private final Rectangle vblBounds;
+  private final GeometryFactory geometryFactory = new GeometryFactory();
+  private final PreparedGeometry vblGeometry;
+
+  // Cells stored, as a rectangle of cell coordinates
+  private final int minX;
+  private final int minY;
+  private final int width;
+  private final int height;
+  /** Two bits for each of the 9 moves of a cell, null if nothing is stored. */
+  private final AtomicIntegerArray moves;
+  /** Two bits per cell for each footprint, telling whether it would overlap the topology. */
+  private final Map<TokenFootprint, byte[]> footprintCells = new IdentityHashMap<>();
+  /** Structures derived from the blocking, least recently used first. */
+  private final Map<Object, Object> derived =
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+          return size() > MAX_DERIVED;
+        }
+      };
+
+  /**
+   * Create the blocking grid of a topology.
+   *
+   * @param grid the grid of the map.
+   * @param vbl the topology blocking movement. Must not be modified afterwards.
+   */
+  public MovementBlockingGrid(Grid grid, Area vbl) {
+    this(grid, vbl, buildGeometry(vbl));
+  }
+
+  private MovementBlockingGrid(Grid grid, Area vbl, PreparedGeometry vblGeometry) {
+    this.grid = grid;
+    this.gridSize = grid.getSize();
+    this.vblBounds = vbl.getBounds();
+    this.vblGeometry = vblGeometry;
+
+    if (vblGeometry == null) {
+      minX = minY = width = height = 0;
+      moves = null;
+      return;
+    }
+
+    Rectangle cells = toCellRange(vblBounds, CELL_PADDING);
+    minX = cells.x;
+    minY = cells.y;
+    width = cells.width;
+    height = cells.height;
+    if ((long) width * height > MAX_STORED_CELLS) {
+      log.debug("Topology spans " + width + "x" + height + " cells, moves will not be stored");
+      moves = null;
+    } else {
+      moves = new AtomicIntegerArray(width * height);
+    }
+  }
+
+  /**
+   * Make the blocking grid of a changed topology. The moves stored for cells away from the change
+   * are carried over.
+   *
+   * @param newVbl the new topology blocking movement. Must not be modified afterwards.
+   * @param changedBounds the zone bounds of the topology that changed.
+   * @return the new blocking grid.
+   */
+  public MovementBlockingGrid update(Area newVbl, Rectangle changedBounds) {
+    MovementBlockingGrid updated = new MovementBlockingGrid(grid, newVbl);
+    if (moves == null || updated.moves == null) {
+      return updated;
+    }
+
+    Rectangle changedCells = toCellRange(changedBounds, CELL_PADDING);
+    copyCells(
+        updated,
+        changedCells,
+        (from, to, length) -> {
+          for (int i = 0; i < length; i++) {
+            updated.moves.set(to + i, moves.get(from + i));
+          }
+        });
+    synchronized (footprintCells) {
+      for (var entry : footprintCells.entrySet()) {
+        // The footprint overlaps the topology from further away
+        int reach = getFootprintReach(entry.getKey());
+        Rectangle footprintChangedCells = new Rectangle(changedCells);
+        footprintChangedCells.grow(reach, reach);
+
+        byte[] cells = new byte[updated.moves.length()];
+        copyCells(
+            updated,
+            footprintChangedCells,
+            (from, to, length) -> System.arraycopy(entry.getValue(), from, cells, to, length));
+        updated.footprintCells.put(entry.getKey(), cells);
+      }
+    }
+    return updated;
+  }
+
+  /** Copies a run of cells from the per cell array of one grid to that of another. */
+  private interface CellCopier {
+    void copy(int fromIndex, int toIndex, int length);
+  }
+
+  /**
+   * Copy the cells this grid and another have in common, except the changed ones.
+   *
+   * @param target the target grid.
+   * @param changedCells the cells not to copy.
+   * @param copier copies runs of cells.
+   */
+  private void copyCells(MovementBlockingGrid target, Rectangle changedCells, CellCopier copier) {
+    int startX = Math.max(minX, target.minX);
+    int endX = Math.min(minX + width, target.minX + target.width);
+    int startY = Math.max(minY, target.minY);
+    int endY = Math.min(minY + height, target.minY + target.height);
+    int changedStartX = Math.max(startX, Math.min(endX, changedCells.x));
+    int changedEndX = Math.max(changedStartX, Math.min(endX, changedCells.x + changedCells.width));
+
+    for (int y = startY; y < endY; y++) {
+      int fromRow = (y - minY) * width - minX;
+      int toRow = (y - target.minY) * target.width - target.minX;
+      if (y < changedCells.y || y >= changedCells.y + changedCells.height) {
+        copier.copy(fromRow + startX, toRow + startX, endX - startX);
+      } else {
+        copier.copy(fromRow + startX, toRow + startX, changedStartX - startX);
+        copier.copy(fromRow + changedEndX, toRow + changedEndX, endX - changedEndX);
+      }
+    }
+  }
+
+  /**
+   * Check whether the token can move from a cell to one of its neighbors. The move is blocked when
+   * the line between the centers of the two cells crosses the topology.
+   *
+   * @param fromX the x of the cell moved from.
+   * @param fromY the y of the cell moved from.
+   * @param toX the x of the cell moved to, at most one cell away.
+   * @param toY the y of the cell moved to, at most one cell away.
+   * @return true if the topology blocks the move.
+   */
+  public boolean blocksMovement(int fromX, int fromY, int toX, int toY) {
+    if (vblGeometry == null) {
+      return false;
+    }
+
+    int index = getIndex(fromX, fromY);
+    int dx = toX - fromX;
+    int dy = toY - fromY;
+    boolean stored = index >= 0 && Math.abs(dx) <= 1 && Math.abs(dy) <= 1;
+    int direction = 2 * ((dx + 1) * 3 + dy + 1);
+    if (stored) {
+      int bits = moves.get(index) >>> direction;
+      if ((bits & 1) != 0) {
+        return (bits & 2) != 0;
+      }
+    }
+
+    Boolean blocked = testMovement(fromX, fromY, toX, toY);
+    if (blocked == null) {
+      // The geometry failed; block the move but do not remember it
+      return true;
+    }
+    if (stored) {
+      int moveBits = (blocked ? 3 : 1) << direction;
+      moves.getAndUpdate(index, bits -> bits | moveBits);
+    }
+    return blocked;
+  }
+
+  /**
+   * Check whether a token would overlap the topology if it stood at a cell.
+   *
+   * @param footprint the footprint of the token.
+   * @param x the x of the cell.
+   * @param y the y of the cell.
+   * @return true if the convex hull of the centers of the cells occupied by the token crosses the
+   *     topology.
+   */
+  public boolean footprintIntersects(TokenFootprint footprint, int x, int y) {
+    if (vblGeometry == null) {
+      return false;
+    }
+
+    int index = getIndex(x, y);
+    if (index < 0) {
+      return testFootprint(footprint, x, y);
+    }
+
+    byte[] cells;
+    synchronized (footprintCells) {
+      cells = footprintCells.computeIfAbsent(footprint, f -> new byte[moves.length()]);
+    }
+    int bits = cells[index];
+    if ((bits & FOOTPRINT_KNOWN) != 0) {
+      return (bits & FOOTPRINT_BLOCKED) != 0;
+    }
+
+    boolean blocked = testFootprint(footprint, x, y);
+    cells[index] = (byte) (FOOTPRINT_KNOWN | (blocked ? FOOTPRINT_BLOCKED : 0));
+    return blocked;
+  }
+
+  /**
+   * @return the moves found to be blocked so far, as the cells moved from for each cell moved to.
+   */
+  public Map<CellPoint, Set<CellPoint>> getBlockedMoves() {
+    Map<CellPoint, Set<CellPoint>> result = new HashMap<>();
+    if (moves == null) {
+      return result;
+    }
+    for (int index = 0; index < moves.length(); index++) {
+      int bits = moves.get(index);
+      if (bits == 0) {
+        continue;
+      }
+      int x = minX + index % width;
+      int y = minY + index / width;
+      for (int dx = -1; dx <= 1; dx++) {
+        for (int dy = -1; dy <= 1; dy++) {
+          if (((bits >>> (2 * ((dx + 1) * 3 + dy + 1))) & 3) == 3) {
+            result
+                .computeIfAbsent(new CellPoint(x + dx, y + dy), cell -> new HashSet<>())
+                .add(new CellPoint(x, y));
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Get a structure derived from the blocking, such as the cluster graph of hierarchical A*, making
+   * it the first time it is asked for. It goes away with the grid when the topology changes.
+   *
+   * @param key what the structure depends on besides the blocking.
+   * @param supplier makes the structure.
+   * @param <T> the type of the structure.
+   * @return the structure.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T getDerived(Object key, Supplier<T> supplier) {
+    synchronized (derived) {
+      return (T) derived.computeIfAbsent(key, k -> supplier.get());
+    }
+  }
+
+  /** @return the bounds of the topology. */
+  public Rectangle getBounds() {
+    return new Rectangle(vblBounds);
+  }
+
+  /** @return whether there is no topology blocking movement. */
+  public boolean isEmpty() {
+    return vblGeometry == null;
+  }
+
+  /**
+   * @param grid the grid of the map.
+   * @return whether the grid is the one the blocking was computed for, and was not resized since.
+   */
+  public boolean isFor(Grid grid) {
+    return this.grid == grid && gridSize == grid.getSize();
+  }
+
+  private int getIndex(int x, int y) {
+    if (moves == null) {
+      return -1;
+    }
+    x -= minX;
+    y -= minY;
+    if (x < 0 || y < 0 || x >= width || y >= height) {
+      return -1;
+    }
+    return y * width + x;
+  }
+
+  /** @return true if the move is blocked, false if not, null if it could not be tested. */
+  private Boolean testMovement(int fromX, int fromY, int toX, int toY) {
+    Rectangle startBounds = grid.getBounds(new CellPoint(fromX, fromY));
+    Rectangle goalBounds = grid.getBounds(new CellPoint(toX, toY));
+
+    if (goalBounds.isEmpty() || startBounds.isEmpty()) {
+      return false;
+    }
+
+    double x1 = startBounds.getCenterX();
+    double y1 = startBounds.getCenterY();
+    double x2 = goalBounds.getCenterX();
+    double y2 = goalBounds.getCenterY();
+    // The geometry is buffered by one unit around the topology
+    if (Math.max(x1, x2) < vblBounds.x - 2
+        || Math.min(x1, x2) > vblBounds.getMaxX() + 2
+        || Math.max(y1, y2) < vblBounds.y - 2
+        || Math.min(y1, y2) > vblBounds.getMaxY() + 2) {
+      return false;
+    }
+
+    LineString centerRay =
+        geometryFactory.createLineString(
+            new Coordinate[] {new Coordinate(x1, y1), new Coordinate(x2, y2)});
+    try {
+      return vblGeometry.intersects(centerRay);
+    } catch (Exception e) {
+      log.info("clipped.intersects oh oh: ", e);
+      return null;
+    }
+  }
+
+  private boolean testFootprint(TokenFootprint footprint, int x, int y) {
+    var points =
+        footprint.getOccupiedCells(new CellPoint(x, y)).stream()
+            .map(
+                cellPoint -> {
+                  var bounds = grid.getBounds(cellPoint);
+                  return new Coordinate(bounds.getCenterX(), bounds.getCenterY());
+                })
+            .toArray(Coordinate[]::new);
+    Geometry footprintGeometry = new ConvexHull(points, geometryFactory).getConvexHull();
+
+    return vblGeometry.intersects(footprintGeometry);
+  }
+
+  /**
+   * @param footprint a token footprint.
+   * @return how many cells away from its position the footprint reaches.
+   */
+  private static int getFootprintReach(TokenFootprint footprint) {
+    int reach = 0;
+    for (CellPoint cell : footprint.getOccupiedCells(new CellPoint(0, 0))) {
+      reach = Math.max(reach, Math.max(Math.abs(cell.x), Math.abs(cell.y)));
+    }
+    return reach;
+  }
+
+  /**
+   * Get the rectangle of cells covering zone bounds.
+   *
+   * @param bounds the zone bounds.
+   * @param padding how many cells to add around.
+   * @return the cell coordinates of the rectangle.
+   */
+  private Rectangle toCellRange(Rectangle bounds, int padding) {
+    // Convert all four corners, as the cells of isometric grids are rotated
+    int[][] corners = {
+      {bounds.x, bounds.y},
+      {bounds.x + bounds.width, bounds.y},
+      {bounds.x, bounds.y + bounds.height},
+      {bounds.x + bounds.width, bounds.y + bounds.height}
+    };
+    Rectangle cells = null;
+    for (int[] corner : corners) {
+      CellPoint cell = grid.convert(new ZonePoint(corner[0], corner[1]));
+      if (cells == null) {
+        cells = new Rectangle(cell.x, cell.y, 1, 1);
+      } else {
+        cells.add(new Rectangle(cell.x, cell.y, 1, 1));
+      }
+    }
+    cells.grow(padding, padding);
+    return cells;
+  }
+
+  private static PreparedGeometry buildGeometry(Area vbl) {
+    if (vbl.isEmpty()) {
+      return null;
+    }
+    // Using JTS because AWT Area can only intersect with Area and we want to use simple lines here.
+    try {
+      var vblGeometry =
+          new ShapeReader(new GeometryFactory())
+              .read(new ReverseShapePathIterator(vbl.getPathIterator(null)));
+
+      // polygons
+      if (!vblGeometry.isValid()) {
+        log.info("vblGeometry is invalid! May cause issues. Check for self-intersecting polygons.");
+        log.debug("Invalid vblGeometry: " + new IsValidOp(vblGeometry).getValidationError());
+      }
+
+      vblGeometry = vblGeometry.buffer(1); // .buffer always creates valid geometry.
+      return PreparedGeometryFactory.prepare(vblGeometry);
+    } catch (Exception e) {
+      log.info("vblGeometry oh oh: ", e);
+      return null;
+    }
+  }
+}
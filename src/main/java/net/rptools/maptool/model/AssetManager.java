@@ -29,19 +29,20 @@
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
 import net.rptools.lib.FileUtil;
 import net.rptools.lib.MD5Key;
 import net.rptools.maptool.client.AppUtil;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.language.I18N;
+import net.rptools.maptool.util.LoadingStage;
+import net.rptools.maptool.util.LoadingStage.Priority;
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -75,8 +76,8 @@ public class AssetManager {
    * A list of listeners which should be notified when the asset associated with a given MD5 sum has
    * finished downloading.
    */
-  private static Map<MD5Key, List<AssetAvailableListener>> assetListenerListMap =
-      new ConcurrentHashMap<MD5Key, List<AssetAvailableListener>>();
+  private static Map<MD5Key, CopyOnWriteArrayList<AssetAvailableListener>> assetListenerListMap =
+      new ConcurrentHashMap<MD5Key, CopyOnWriteArrayList<AssetAvailableListener>>();
 
   /** Property string associated with asset name */
   public static final String NAME = "name";
@@ -84,12 +85,68 @@ public class AssetManager {
   /** Used to load assets from storage */
   private static AssetLoader assetLoader = new AssetLoader();
 
-  private static ExecutorService assetLoaderThreadPool = Executors.newFixedThreadPool(1);
-  private static ExecutorService assetWriterThreadPool = Executors.newFixedThreadPool(1);
+  /** Reads assets from the persistent cache or their local reference. */
+  private static final LoadingStage readStage =
+      new LoadingStage("read", LoadingStage.threadsPerCore(1));
+
+  /** Checks that the data read for an asset matches its MD5 sum. */
+  private static final LoadingStage verifyStage =
+      new LoadingStage("verify", LoadingStage.threadsPerCore(1));
+
+  /** Writes new assets to the persistent cache. */
+  private static final LoadingStage writeStage =
+      new LoadingStage("write", LoadingStage.threadsPerCore(0.5));
+
+  /** Assets that are going through the read and verify stages, with their task in the stage. */
+  private static final Map<MD5Key, LoadingStage.Task> loadingAssets =
+      new ConcurrentHashMap<MD5Key, LoadingStage.Task>();
+
+  /** Asset ids known to stay within the asset cache directory, see {@link #sanitizeAssetId}. */
+  private static final Set<MD5Key> validatedIds = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Ids of the assets in the persistent cache, read from the cache directory at startup and kept
+   * up to date as assets are written and purged, so that lookups don't have to hit the disk.
+   */
+  private static final Set<MD5Key> persistentCacheIds = ConcurrentHashMap.newKeySet();
+
+  /** The assets still waiting in the file of the open campaign, null if there are none. */
+  private static volatile AssetSource assetSource;
+
+  /** Asset ids that can be used as file names as they are, which MD5 sums always are. */
+  private static final Pattern SAFE_ASSET_ID = Pattern.compile("[0-9a-fA-F]+");
 
   static {
     cacheDir = AppUtil.getAppHome("assetcache");
     usePersistentCache = true;
+    loadPersistentCacheIds();
+  }
+
+  /**
+   * Use another directory for the persistent cache. Package level for testing purposes.
+   *
+   * @param dir the directory of the persistent cache
+   */
+  static void setCacheDir(File dir) {
+    cacheDir = dir;
+    validatedIds.clear();
+    loadPersistentCacheIds();
+  }
+
+  /** Fill {@link #persistentCacheIds} from the files in the cache directory. */
+  private static void loadPersistentCacheIds() {
+    persistentCacheIds.clear();
+    File[] files = cacheDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      String name = file.getName();
+      // Skip the .info and .lnk files as well as unfinished writes
+      if (SAFE_ASSET_ID.matcher(name).matches() && file.length() > 0) {
+        persistentCacheIds.add(new MD5Key(name));
+      }
+    }
   }
 
   /**
@@ -108,6 +165,8 @@ public static void clearCache() {
       // TODO Auto-generated catch block
       e.printStackTrace();
     }
+    // Some files may have been in use and survived
+    loadPersistentCacheIds();
   }
 
   /**
@@ -160,13 +219,12 @@ public static void addAssetListener(MD5Key key, AssetAvailableListener... listen
       return;
     }
 
-    List<AssetAvailableListener> listenerList =
-        assetListenerListMap.computeIfAbsent(key, k -> new LinkedList<AssetAvailableListener>());
+    CopyOnWriteArrayList<AssetAvailableListener> listenerList =
+        assetListenerListMap.computeIfAbsent(
+            key, k -> new CopyOnWriteArrayList<AssetAvailableListener>());
 
     for (AssetAvailableListener listener : listeners) {
-      if (!listenerList.contains(listener)) {
-        listenerList.add(listener);
-      }
+      listenerList.addIfAbsent(listener);
     }
   }
 
@@ -208,7 +266,8 @@ public static boolean hasAsset(Asset asset) {
   public static boolean hasAsset(MD5Key key) {
     return assetMap.containsKey(key)
         || assetIsInPersistentCache(key)
-        || assetHasLocalReference(key);
+        || assetHasLocalReference(key)
+        || assetIsInSource(key);
   }
 
   /**
@@ -254,14 +313,20 @@ public static void putAsset(Asset asset) {
     // Clear the waiting status
     assetLoader.completeRequest(asset.getId());
 
-    // Listeners
-    List<AssetAvailableListener> listenerList = assetListenerListMap.get(asset.getId());
+    notifyAssetListeners(asset.getId());
+  }
+
+  /**
+   * Notify, and then forget, the listeners waiting for the asset.
+   *
+   * @param id MD5 of the asset that is available
+   */
+  private static void notifyAssetListeners(MD5Key id) {
+    List<AssetAvailableListener> listenerList = assetListenerListMap.remove(id);
     if (listenerList != null) {
       for (AssetAvailableListener listener : listenerList) {
-        listener.assetAvailable(asset.getId());
+        listener.assetAvailable(id);
       }
-
-      assetListenerListMap.remove(asset.getId());
     }
   }
 
@@ -274,26 +339,104 @@ public static void putAsset(Asset asset) {
    */
   public static void getAssetAsynchronously(
       final MD5Key id, final AssetAvailableListener... listeners) {
+    getAssetAsynchronously(id, Priority.VISIBLE, listeners);
+  }
 
-    assetLoaderThreadPool.submit(
-        () -> {
-          Asset asset = getAsset(id);
+  /**
+   * Similar to getAsset(), but does not block. The asset is read and verified on the loading
+   * stages, or requested from the server if it is not stored locally. It will always use the
+   * listeners to pass the data.
+   *
+   * @param id MD5 of the asset requested
+   * @param priority how urgently the asset is needed
+   * @param listeners instances of {@link AssetAvailableListener} that will be notified when the
+   *     asset is available
+   */
+  public static void getAssetAsynchronously(
+      final MD5Key id, Priority priority, final AssetAvailableListener... listeners) {
+    if (id == null) {
+      return;
+    }
+    // Registered first, so that the listeners are notified even if the asset is loaded right now
+    addAssetListener(id, listeners);
+    loadingAssets.compute(
+        id,
+        (key, task) -> {
+          if (task == null) {
+            return readStage.execute(priority, () -> readAsset(id));
+          }
+          // Already on its way, but it may be needed sooner than it was queued for
+          task.raise(priority);
+          return task;
+        });
+  }
 
-          // Simplest case, we already have it
-          if (asset != null) {
-            for (AssetAvailableListener listener : listeners) {
-              listener.assetAvailable(id);
-            }
+  /** First loading stage: read the asset data from disk, unless it is in memory already. */
+  private static void readAsset(MD5Key id) {
+    MD5Key assetId = id;
+    try {
+      assetId = sanitizeAssetId(id);
+    } catch (IOException e) {
+      log.error(I18N.getText("msg.error.errorResolvingCacheDir", id, e));
+    }
 
-            return;
-          }
+    if (assetMap.containsKey(assetId)) {
+      // Simplest case, we already have it
+      finishLoading(id);
+      return;
+    }
 
-          // Let's get it from the server
-          // As a last resort we request the asset from the server
-          if (!isAssetRequested(id)) {
-            requestAssetFromServer(id, listeners);
-          }
-        });
+    AssetData data = usePersistentCache ? readFromPersistentCache(assetId) : null;
+    if (data == null) {
+      data = readFromLocalReference(assetId);
+    }
+    if (data == null && readFromSource(assetId) != null) {
+      finishLoading(id);
+      return;
+    }
+    if (data == null) {
+      loadingAssets.remove(id);
+      requestMissingAsset(id);
+      return;
+    }
+
+    MD5Key verifyId = assetId;
+    AssetData verifyData = data;
+    // Replaced under the lock of the entry, so that a request meanwhile raises the new task
+    loadingAssets.computeIfPresent(
+        id,
+        (key, task) ->
+            verifyStage.execute(
+                task.getPriority(), () -> verifyAsset(id, verifyId, verifyData)));
+  }
+
+  /** Second loading stage: check the data against the MD5 sum and make the asset available. */
+  private static void verifyAsset(MD5Key id, MD5Key assetId, AssetData data) {
+    Asset asset = createVerifiedAsset(assetId, data);
+    if (asset == null && data.fromPersistentCache) {
+      asset = createVerifiedAsset(assetId, readFromLocalReference(assetId));
+    }
+    if (asset == null) {
+      loadingAssets.remove(id);
+      requestMissingAsset(id);
+      return;
+    }
+    finishLoading(id);
+  }
+
+  private static void finishLoading(MD5Key id) {
+    // Removed before notifying, so that a listener added meanwhile either gets notified here or
+    // starts another load that finds the asset in memory
+    loadingAssets.remove(id);
+    notifyAssetListeners(id);
+  }
+
+  private static void requestMissingAsset(MD5Key id) {
+    // Let's get it from the server
+    // As a last resort we request the asset from the server
+    if (!isAssetRequested(id)) {
+      assetLoader.requestAsset(id);
+    }
   }
 
   /**
@@ -309,6 +452,12 @@ public static Asset getAsset(MD5Key id) {
       return null;
     }
 
+    // Only ever holds ids that were sanitized, so the fast path needs no checks
+    Asset asset = assetMap.get(id);
+    if (asset != null) {
+      return asset;
+    }
+
     MD5Key assetId = null;
     try {
       assetId = sanitizeAssetId(id);
@@ -316,39 +465,65 @@ public static Asset getAsset(MD5Key id) {
       log.error(I18N.getText("msg.error.errorResolvingCacheDir", id, e));
     }
 
-    Asset asset = assetMap.get(assetId);
+    asset = assetMap.get(assetId);
 
-    if (asset == null && usePersistentCache && assetIsInPersistentCache(assetId)) {
-      // Guaranteed that asset is in the cache.
-      asset = getFromPersistentCache(assetId);
+    if (asset == null && usePersistentCache) {
+      asset = createVerifiedAsset(assetId, readFromPersistentCache(assetId));
     }
 
-    if (asset == null && assetHasLocalReference(assetId)) {
+    if (asset == null) {
+      asset = createVerifiedAsset(assetId, readFromLocalReference(assetId));
+    }
 
-      File imageFile = getLocalReference(assetId);
+    if (asset == null) {
+      asset = readFromSource(assetId);
+    }
 
-      if (imageFile != null) {
+    return asset;
+  }
 
-        try {
-          String name = FileUtil.getNameWithoutExtension(imageFile);
-          byte[] data = FileUtils.readFileToByteArray(imageFile);
+  /**
+   * Sets where the assets still waiting in the file of the open campaign are read from. The
+   * previous source is closed.
+   *
+   * @param source the source, or null if there are no such assets
+   */
+  public static void setAssetSource(AssetSource source) {
+    AssetSource previous;
+    synchronized (AssetManager.class) {
+      previous = assetSource;
+      assetSource = source;
+    }
+    if (previous != null && previous != source) {
+      previous.close();
+    }
+  }
 
-          asset = new Asset(name, data);
+  /** @return the source of the assets still waiting in the file of the open campaign, or null */
+  public static AssetSource getAssetSource() {
+    return assetSource;
+  }
 
-          // Just to be sure the image didn't change
-          if (!asset.getId().equals(assetId)) {
-            throw new IOException("Image reference did not match the requested image");
-          }
+  private static boolean assetIsInSource(MD5Key id) {
+    AssetSource source = assetSource;
+    return source != null && source.hasAsset(id);
+  }
 
-          // Put it in the persistent cache so we'll find it faster next time
-          putInPersistentCache(asset);
-        } catch (IOException ioe) {
-          // Log, but continue as if we didn't have a link
-          ioe.printStackTrace();
-        }
-      }
+  /**
+   * Reads an asset from the file of the open campaign, and adds it to the cache.
+   *
+   * @param id the id of the asset
+   * @return the asset, or null if the campaign file does not have it
+   */
+  private static Asset readFromSource(MD5Key id) {
+    AssetSource source = assetSource;
+    if (source == null || !source.hasAsset(id)) {
+      return null;
+    }
+    Asset asset = source.readAsset(id);
+    if (asset != null) {
+      putAsset(asset);
     }
-
     return asset;
   }
 
@@ -359,11 +534,18 @@ public static Asset getAsset(MD5Key id) {
    * @return The passed in {@code md5Key} if it is ok, otherwise the key of an {@link Asset} in the
    *     asset cache to use in its place.
    */
-  private static MD5Key sanitizeAssetId(MD5Key md5Key) throws IOException {
+  // Package level for testing purposes
+  static MD5Key sanitizeAssetId(MD5Key md5Key) throws IOException {
     if (md5Key == null) {
       return null;
     }
 
+    // Hex digits can't name anything outside of the directory, or a device, and neither can an id
+    // that was checked before
+    if (validatedIds.contains(md5Key) || SAFE_ASSET_ID.matcher(md5Key.toString()).matches()) {
+      return md5Key;
+    }
+
     // Check to see that the asset path wont escape the asset cache directory.
     File inCache = cacheDir.getCanonicalFile().toPath().resolve(md5Key.toString()).toFile();
     File toCheck = cacheDir.toPath().resolve(md5Key.toString()).toFile().getCanonicalFile();
@@ -372,6 +554,7 @@ private static MD5Key sanitizeAssetId(MD5Key md5Key) throws IOException {
       return BAD_ASSET_LOCATION_KEY;
     }
 
+    validatedIds.add(md5Key);
     return md5Key;
   }
 
@@ -430,13 +613,13 @@ public static Asset requestAssetFromServer(MD5Key id) {
   }
 
   /**
-   * Retrieve the asset from the persistent cache. If the asset is not in the cache, or loading from
-   * the cache failed then this function returns null.
+   * Read the asset data from the persistent cache. If the asset is not in the cache, or reading
+   * from the cache failed then this function returns null.
    *
    * @param id MD5 of the requested asset
-   * @return Asset from the cache
+   * @return the data read from the cache, not checked yet
    */
-  private static Asset getFromPersistentCache(MD5Key id) {
+  private static AssetData readFromPersistentCache(MD5Key id) {
 
     if (id == null || id.toString().length() == 0) {
       return null;
@@ -452,21 +635,68 @@ private static Asset getFromPersistentCache(MD5Key id) {
       byte[] data = FileUtils.readFileToByteArray(assetFile);
       Properties props = getAssetInfo(id);
 
-      Asset asset = new Asset(props.getProperty(NAME), data);
+      return new AssetData(props.getProperty(NAME), data, assetFile, true);
+    } catch (IOException ioe) {
+      log.error("Could not load asset from persistent cache", ioe);
+      // Most likely removed behind our back
+      persistentCacheIds.remove(id);
+      return null;
+    }
+  }
+
+  /**
+   * Read the asset data from the file it was last seen in, if any.
+   *
+   * @param id MD5 of the requested asset
+   * @return the data read from the file, not checked yet
+   */
+  private static AssetData readFromLocalReference(MD5Key id) {
+    File imageFile = getLocalReference(id);
+    if (imageFile == null) {
+      return null;
+    }
+    try {
+      String name = FileUtil.getNameWithoutExtension(imageFile);
+      return new AssetData(name, FileUtils.readFileToByteArray(imageFile), imageFile, false);
+    } catch (IOException ioe) {
+      // Log, but continue as if we didn't have a link
+      log.error("Could not read the local reference of asset " + id, ioe);
+      return null;
+    }
+  }
 
-      if (!asset.getId().equals(id)) {
+  /**
+   * Create the asset from the data read for it, and add it to the assets in memory if the data
+   * matches the MD5 sum. A corrupted cache file is deleted, while data read from a local reference
+   * is put in the persistent cache so we'll find it faster next time.
+   *
+   * @param id MD5 of the requested asset
+   * @param data the data read for the asset, may be null
+   * @return the asset, or null if there was no data or it did not match
+   */
+  private static Asset createVerifiedAsset(MD5Key id, AssetData data) {
+    if (data == null) {
+      return null;
+    }
+    Asset asset = new Asset(data.name, data.data);
+
+    if (!asset.getId().equals(id)) {
+      if (data.fromPersistentCache) {
         log.error("MD5 for asset " + asset.getName() + " corrupted; purging corrupted file");
-        assetFile.delete();
-        return null;
+        persistentCacheIds.remove(id);
+        data.file.delete();
+      } else {
+        // Just to be sure the image didn't change
+        log.warn("Image reference " + data.file + " did not match the requested image");
       }
-
-      assetMap.put(id, asset);
-
-      return asset;
-    } catch (IOException ioe) {
-      log.error("Could not load asset from persistent cache", ioe);
       return null;
     }
+
+    assetMap.put(id, asset);
+    if (!data.fromPersistentCache) {
+      putInPersistentCache(asset);
+    }
+    return asset;
   }
 
   /**
@@ -533,7 +763,8 @@ private static void putInPersistentCache(final Asset asset) {
     if (!assetIsInPersistentCache(asset)) {
       final File assetFile = getAssetCacheFile(asset);
 
-      assetWriterThreadPool.submit(
+      writeStage.execute(
+          Priority.BACKGROUND,
           () -> {
             assetFile.getParentFile().mkdirs();
 
@@ -544,6 +775,7 @@ private static void putInPersistentCache(final Asset asset) {
 
               // Now that the data is in a file, we move it to its final resting place.
               operation.commit();
+              persistentCacheIds.add(asset.getId());
             } catch (IOException ioe) {
               log.error("Could not persist asset while writing image data", ioe);
             } catch (NullPointerException npe) {
@@ -667,9 +899,9 @@ private static boolean assetInfoIsInPersistentCache(Asset asset) {
    * @return True if asset is in the persistent cache, false otherwise
    * @see this#assetIsInPersistentCache(Asset)
    */
-  private static boolean assetIsInPersistentCache(MD5Key id) {
-
-    return getAssetCacheFile(id).exists() && getAssetCacheFile(id).length() > 0;
+  // Package level for testing purposes
+  static boolean assetIsInPersistentCache(MD5Key id) {
+    return persistentCacheIds.contains(id);
   }
 
   /**
@@ -826,6 +1058,21 @@ public static Map<MD5Key, Asset> findAllAssetsNotInRepositories(List<String> rep
     return missing;
   }
 
+  /** Data read for an asset, before it is checked against the MD5 sum. */
+  private static class AssetData {
+    private final String name;
+    private final byte[] data;
+    private final File file;
+    private final boolean fromPersistentCache;
+
+    AssetData(String name, byte[] data, File file, boolean fromPersistentCache) {
+      this.name = name;
+      this.data = data;
+      this.file = file;
+      this.fromPersistentCache = fromPersistentCache;
+    }
+  }
+
   /** Helper type to handle creating and moving temporary files. */
   private static class AssetWriteRenameOperation implements AutoCloseable {
     private final File assetFile;
@@ -0,0 +1,43 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import net.rptools.lib.MD5Key;
+
+/**
+ * Source of the assets that were left in the campaign file when the campaign was opened. They are
+ * only read once they are needed. Implementations must support reading different assets from
+ * several threads at once.
+ *
+ * @see AssetManager#setAssetSource(AssetSource)
+ */
+public interface AssetSource extends AutoCloseable {
+
+  /**
+   * @param id the id of the asset
+   * @return true if the source has the asset
+   */
+  boolean hasAsset(MD5Key id);
+
+  /**
+   * @param id the id of the asset
+   * @return the asset, or null if the source does not have it or it can not be read
+   */
+  Asset readAsset(MD5Key id);
+
+  /** Releases the underlying file. */
+  @Override
+  void close();
+}
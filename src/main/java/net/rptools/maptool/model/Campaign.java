@@ -23,8 +23,11 @@
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import net.rptools.lib.MD5Key;
 import net.rptools.lib.net.Location;
 import net.rptools.maptool.client.MapTool;
@@ -38,6 +41,8 @@
 import net.rptools.maptool.client.ui.token.MultipleImageBarTokenOverlay;
 import net.rptools.maptool.client.ui.token.SingleImageBarTokenOverlay;
 import net.rptools.maptool.client.ui.token.TwoImageBarTokenOverlay;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 /**
  * This object contains {@link Zone}s and {@link Asset}s that make up a campaign as well as links to
@@ -53,9 +58,32 @@ public class Campaign {
 
   private GUID id = new GUID();
 
-  /** The {@link Zone}s that make up this {@code Campaign}. */
-  private final Map<GUID, Zone> zones =
-      Collections.synchronizedMap(new LinkedHashMap<GUID, Zone>());
+  private static final Logger log = LogManager.getLogger(Campaign.class);
+
+  /**
+   * The {@link Zone}s that make up this {@code Campaign}. Zones that are still waiting in {@link
+   * #zoneLoader} are mapped to null so that they keep their place in the order. Not final so that
+   * campaign files which store the zones separately can be read, see {@link #readResolve()}.
+   */
+  private Map<GUID, Zone> zones = Collections.synchronizedMap(new LinkedHashMap<GUID, Zone>());
+
+  /** Reads the zones that have not been deserialized yet, null once all of them have been. */
+  private transient ZoneLoader zoneLoader;
+
+  /** One task per zone still to be loaded, so that each zone is only deserialized once. */
+  private transient Map<GUID, FutureTask<Zone>> pendingZones;
+
+  /** The thread serializing this campaign for a copy in this process, see {@link #shareZones}. */
+  private transient volatile Thread sharingThread;
+
+  /**
+   * Loaders shared with the copies of campaigns that are on their way to another part of this
+   * process, by campaign id. A copy takes its loader when it is deserialized, see {@link
+   * #readResolve()}. Serialization is synchronous but deserialization may happen later on another
+   * thread, so a loader waits here until it is taken, or replaced by the next one of the campaign.
+   */
+  private static final Map<GUID, ZoneLoader> sharedZoneLoaders =
+      new ConcurrentHashMap<GUID, ZoneLoader>();
 
   private String name; // the name of the campaign, to be displayed in the MapToolFrame title bar
 
@@ -123,6 +151,70 @@ public Campaign() {
     gmMacroButtonProperties = new ArrayList<MacroButtonProperties>();
   }
 
+  private Object readResolve() {
+    if (zones == null) {
+      zones = Collections.synchronizedMap(new LinkedHashMap<GUID, Zone>());
+    }
+    // Placeholders are only serialized by shareZones(), for a copy that loads them on its own
+    List<GUID> placeholders = new ArrayList<GUID>();
+    synchronized (zones) {
+      zones.forEach(
+          (zoneId, zone) -> {
+            if (zone == null) {
+              placeholders.add(zoneId);
+            }
+          });
+    }
+    if (!placeholders.isEmpty()) {
+      ZoneLoader loader = sharedZoneLoaders.remove(id);
+      if (loader != null) {
+        addPendingZones(loader, placeholders);
+      } else {
+        log.warn("Dropping " + placeholders.size() + " maps that were not sent along");
+        synchronized (zones) {
+          zones.values().removeIf(Objects::isNull);
+        }
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Loads the zones still waiting in the campaign file before the campaign is serialized, so that
+   * neither the campaign file nor the clients get the placeholders of those zones. Only a copy in
+   * this process gets them, see {@link #shareZones(Runnable)}.
+   */
+  private Object writeReplace() {
+    if (sharingThread != Thread.currentThread()) {
+      loadPendingZones();
+    }
+    return this;
+  }
+
+  /**
+   * Serializes the campaign for a copy in this process, such as the one of the personal or hosted
+   * server, without loading the zones still waiting in the campaign file. The copy reads those from
+   * the same file when it needs them.
+   *
+   * @param serialization serializes this campaign on the calling thread
+   */
+  public void shareZones(Runnable serialization) {
+    synchronized (zones) {
+      if (zoneLoader != null) {
+        ZoneLoader previous = sharedZoneLoaders.put(id, zoneLoader.share());
+        if (previous != null) {
+          previous.close();
+        }
+      }
+    }
+    sharingThread = Thread.currentThread();
+    try {
+      serialization.run();
+    } finally {
+      sharingThread = null;
+    }
+  }
+
   private void checkCampaignPropertyConversion() {
     if (campaignProperties == null) {
       campaignProperties = new CampaignProperties();
@@ -164,12 +256,8 @@ public Campaign(Campaign campaign) {
      * as is done below for the campaign properties and macro buttons. Iteration over a synchronized
      *  map must lock the map.
      */
-    Map<GUID, Zone> zonesToCopy;
-    synchronized (zones) {
-      zonesToCopy = new LinkedHashMap<>(campaign.zones);
-    }
-    for (Entry<GUID, Zone> entry : zonesToCopy.entrySet()) {
-      Zone copy = new Zone(entry.getValue(), true);
+    for (Zone zone : campaign.getZones()) {
+      Zone copy = new Zone(zone, true);
       zones.put(copy.getId(), copy);
     }
     campaignProperties = new CampaignProperties(campaign.campaignProperties);
@@ -239,6 +327,28 @@ public List<TokenProperty> getTokenPropertyList(String tokenType) {
         : new ArrayList<TokenProperty>();
   }
 
+  /**
+   * Returns the token properties of a token type by lower case name.
+   *
+   * @param tokenType the token type.
+   * @return the properties, see {@link CampaignProperties#getTokenPropertyIndex(String)}.
+   */
+  public Map<String, TokenProperty> getTokenPropertyIndex(String tokenType) {
+    checkCampaignPropertyConversion();
+    return campaignProperties.getTokenPropertyIndex(tokenType);
+  }
+
+  /**
+   * Returns a token property of a token type.
+   *
+   * @param tokenType the token type.
+   * @param name the name of the property, in any case.
+   * @return the property, or null if the token type has no such property.
+   */
+  public TokenProperty getTokenProperty(String tokenType, String name) {
+    return getTokenPropertyIndex(tokenType).get(name.toLowerCase());
+  }
+
   public void putTokenType(String name, List<TokenProperty> propertyList) {
     getTokenTypeMap().put(name, propertyList);
   }
@@ -367,19 +477,150 @@ public void setId(GUID id) {
    * @return a list of zones
    */
   public List<Zone> getZones() {
+    loadPendingZones();
     synchronized (zones) { // Must lock synchronized map while iterating over contents.
       return new ArrayList<Zone>(zones.values());
     }
   }
 
   /**
-   * Return the <code>Zone</code> with the given GUID.
+   * Return the <code>Zone</code> with the given GUID. A zone that has not been deserialized yet is
+   * loaded first.
    *
    * @param id the id to look for
    * @return the Zone for the id
    */
   public Zone getZone(GUID id) {
-    return zones.get(id);
+    Zone zone = zones.get(id);
+    if (zone == null && pendingZones != null) {
+      zone = loadZone(id);
+    }
+    return zone;
+  }
+
+  /**
+   * Adds zones that are only deserialized once they are needed, either through {@link
+   * #getZone(GUID)} or, all of the remaining ones in parallel, through {@link #getZones()}. The
+   * loader is closed once it has no zones left.
+   *
+   * @param loader the source of the zones
+   */
+  public void setZoneLoader(ZoneLoader loader) {
+    synchronized (zones) {
+      for (GUID id : loader.getZoneIds()) {
+        zones.put(id, null);
+      }
+      addPendingZones(loader, loader.getZoneIds());
+    }
+  }
+
+  /**
+   * Makes the zones, which already have their placeholders, wait for the loader.
+   *
+   * @param loader the source of the zones
+   * @param ids the ids of the zones to load from it
+   */
+  private void addPendingZones(ZoneLoader loader, List<GUID> ids) {
+    Map<GUID, FutureTask<Zone>> tasks = new ConcurrentHashMap<GUID, FutureTask<Zone>>();
+    for (GUID id : ids) {
+      tasks.put(id, new FutureTask<Zone>(() -> loader.loadZone(id)));
+    }
+    synchronized (zones) {
+      closeZoneLoader();
+      zoneLoader = loader;
+      pendingZones = tasks;
+    }
+  }
+
+  /**
+   * @return the zones that have been deserialized so far, in campaign order. Unlike {@link
+   *     #getZones()}, this does not load the zones still waiting in the campaign file.
+   */
+  public List<Zone> getLoadedZones() {
+    synchronized (zones) {
+      List<Zone> loaded = new ArrayList<Zone>(zones.size());
+      for (Zone zone : zones.values()) {
+        if (zone != null) {
+          loaded.add(zone);
+        }
+      }
+      return loaded;
+    }
+  }
+
+  /** @return the ids of all the zones, in campaign order, without loading any of them. */
+  public List<GUID> getZoneIds() {
+    synchronized (zones) {
+      return new ArrayList<GUID>(zones.keySet());
+    }
+  }
+
+  /** @return true if some zones have not been deserialized from the campaign file yet. */
+  public boolean hasPendingZones() {
+    Map<GUID, FutureTask<Zone>> pending = pendingZones;
+    return pending != null && !pending.isEmpty();
+  }
+
+  /**
+   * Deserializes all the zones still waiting in the campaign file, in parallel, and closes the
+   * file. The file has to be closed before a save can replace it.
+   */
+  public void loadPendingZones() {
+    Map<GUID, FutureTask<Zone>> pending = pendingZones;
+    if (pending != null && !pending.isEmpty()) {
+      new ArrayList<GUID>(pending.keySet()).parallelStream().forEach(this::loadZone);
+    }
+  }
+
+  /**
+   * Loads a pending zone. Concurrent calls for the same zone wait for the first one. A zone that
+   * cannot be read is dropped from the campaign.
+   */
+  private Zone loadZone(GUID id) {
+    Map<GUID, FutureTask<Zone>> pending = pendingZones;
+    FutureTask<Zone> task = pending == null ? null : pending.get(id);
+    if (task == null) {
+      return zones.get(id);
+    }
+    task.run();
+    Zone zone = null;
+    try {
+      zone = task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException e) {
+      log.error("Could not load map " + id, e.getCause());
+    }
+    synchronized (zones) {
+      if (pending.remove(id, task) && zones.containsKey(id) && zones.get(id) == null) {
+        if (zone != null) {
+          zones.put(id, zone);
+        } else {
+          zones.remove(id);
+        }
+      }
+      if (pending.isEmpty() && pendingZones == pending) {
+        closeZoneLoader();
+      }
+      return zones.get(id);
+    }
+  }
+
+  /** Must be called with the zones locked. */
+  private void dropPendingZone(GUID id) {
+    if (pendingZones != null && pendingZones.remove(id) != null && pendingZones.isEmpty()) {
+      closeZoneLoader();
+    }
+  }
+
+  /** Must be called with the zones locked. */
+  private void closeZoneLoader() {
+    if (zoneLoader != null) {
+      zoneLoader.close();
+      zoneLoader = null;
+      pendingZones = null;
+    }
   }
 
   /**
@@ -389,11 +630,17 @@ public Zone getZone(GUID id) {
    * @param zone the zone to put into zones.
    */
   public void putZone(Zone zone) {
-    zones.put(zone.getId(), zone);
+    synchronized (zones) {
+      dropPendingZone(zone.getId());
+      zones.put(zone.getId(), zone);
+    }
   }
 
   public void removeAllZones() {
-    zones.clear();
+    synchronized (zones) {
+      closeZoneLoader();
+      zones.clear();
+    }
   }
 
   /**
@@ -402,7 +649,10 @@ public void removeAllZones() {
    * @param id the GUID of the zone.
    */
   public void removeZone(GUID id) {
-    zones.remove(id);
+    synchronized (zones) {
+      dropPendingZone(id);
+      zones.remove(id);
+    }
   }
 
   public boolean containsAsset(Asset asset) {
@@ -410,6 +660,7 @@ public boolean containsAsset(Asset asset) {
   }
 
   public boolean containsAsset(MD5Key key) {
+    loadPendingZones();
     Collection<Zone> zonesToCheck;
     synchronized (zones) { // iteration over synchronized map must lock the map
       zonesToCheck = zones.values();
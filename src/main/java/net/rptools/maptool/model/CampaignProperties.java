@@ -18,6 +18,7 @@
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -72,6 +73,36 @@ public class CampaignProperties {
   /** Whether the Next/Previous buttons are disabled on the Initiative Panel */
   private boolean initiativePanelButtonsDisabled = false;
 
+  /** The token properties of each token type by lower case name, built when first needed. */
+  private transient Map<String, TokenPropertyIndex> tokenPropertyIndexes;
+
+  /** The token properties of a token type, by lower case name. */
+  private static class TokenPropertyIndex {
+    /** The list the index was built from. */
+    private final List<TokenProperty> list;
+    /** The size of the list when the index was built. */
+    private final int size;
+
+    private final Map<String, TokenProperty> byName;
+
+    private TokenPropertyIndex(List<TokenProperty> list) {
+      this.list = list;
+      size = list == null ? 0 : list.size();
+      Map<String, TokenProperty> map = new HashMap<>();
+      if (list != null) {
+        for (TokenProperty property : list) {
+          // The first property wins, as when searching the list.
+          map.putIfAbsent(property.getName().toLowerCase(), property);
+        }
+      }
+      byName = Collections.unmodifiableMap(map);
+    }
+
+    private boolean isFor(List<TokenProperty> list) {
+      return this.list == list && size == (list == null ? 0 : list.size());
+    }
+  }
+
   public CampaignProperties() {
     init();
   }
@@ -190,6 +221,27 @@ public List<TokenProperty> getTokenPropertyList(String tokenType) {
     return getTokenTypeMap().get(tokenType);
   }
 
+  /**
+   * Returns the token properties of a token type by lower case name. The same map is returned
+   * until the property list of the token type is replaced or changes size, so callers can use its
+   * identity to check whether the properties changed.
+   *
+   * @param tokenType the token type.
+   * @return the properties of the token type, empty if the type does not exist.
+   */
+  public synchronized Map<String, TokenProperty> getTokenPropertyIndex(String tokenType) {
+    if (tokenPropertyIndexes == null) {
+      tokenPropertyIndexes = new HashMap<>();
+    }
+    List<TokenProperty> list = getTokenPropertyList(tokenType);
+    TokenPropertyIndex index = tokenPropertyIndexes.get(tokenType);
+    if (index == null || !index.isFor(list)) {
+      index = new TokenPropertyIndex(list);
+      tokenPropertyIndexes.put(tokenType, index);
+    }
+    return index.byName;
+  }
+
   public List<String> getRemoteRepositoryList() {
     if (remoteRepositoryList == null) {
       initRemoteRepositoryList();
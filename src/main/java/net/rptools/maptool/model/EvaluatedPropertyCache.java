@@ -0,0 +1,198 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import com.google.gson.JsonElement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The evaluated properties of a token, with the properties each one was computed from. Setting a
+ * property only recomputes the properties that depend on it.
+ *
+ * <p>Only values whose evaluation cannot depend on anything else than the properties of the token
+ * are cached: plain text, json, and <code>{...}</code> expressions made of numbers, operators and
+ * property names. Anything that may call a function, roll dice or assign a variable is evaluated
+ * each time, and so is anything computed from such a value.
+ *
+ * <p>Json values are mutable, so the cache keeps a copy of its own and hands out copies.
+ */
+class EvaluatedPropertyCache {
+
+  /** An evaluated property and the properties it was computed from. */
+  private static class Entry {
+    private final Object value;
+    /** The lower case names of the properties the value was computed from. */
+    private final Set<String> dependencies;
+
+    private Entry(Object value, Set<String> dependencies) {
+      this.value = value;
+      this.dependencies = dependencies;
+    }
+  }
+
+  /** The evaluated properties by lower case name. */
+  private final Map<String, Entry> entries = new HashMap<>();
+
+  /** The token properties the values were evaluated with. */
+  private Map<String, TokenProperty> propertyIndex;
+
+  /**
+   * Returns the evaluated value of a property.
+   *
+   * @param key the name of the property.
+   * @param propertyIndex the current properties of the token type, by lower case name. The cache
+   *     is cleared if they are not the ones the values were evaluated with.
+   * @return the value, or null if it is not cached.
+   */
+  synchronized Object get(String key, Map<String, TokenProperty> propertyIndex) {
+    if (this.propertyIndex != propertyIndex) {
+      entries.clear();
+      this.propertyIndex = propertyIndex;
+      return null;
+    }
+    Entry entry = entries.get(key.toLowerCase());
+    if (entry == null) {
+      return null;
+    }
+    return entry.value instanceof JsonElement json ? json.deepCopy() : entry.value;
+  }
+
+  /**
+   * Checks if the values of properties are cached, that is if they only depend on the properties
+   * of the token.
+   *
+   * @param keys the lower case names of the properties.
+   * @return true if all the values are cached.
+   */
+  synchronized boolean containsAll(Set<String> keys) {
+    return entries.keySet().containsAll(keys);
+  }
+
+  /**
+   * Adds the evaluated value of a property.
+   *
+   * @param key the name of the property.
+   * @param value the value.
+   * @param dependencies the lower case names of the other properties the value was computed from.
+   * @param propertyIndex the properties of the token type the value was evaluated with.
+   */
+  synchronized void put(
+      String key,
+      Object value,
+      Set<String> dependencies,
+      Map<String, TokenProperty> propertyIndex) {
+    if (this.propertyIndex != propertyIndex) {
+      entries.clear();
+      this.propertyIndex = propertyIndex;
+    }
+    if (value instanceof JsonElement json) {
+      value = json.deepCopy();
+    }
+    entries.put(key.toLowerCase(), new Entry(value, dependencies));
+  }
+
+  /**
+   * Removes the value of a property, and of all the properties computed from it.
+   *
+   * @param key the name of the property that changed.
+   */
+  synchronized void invalidate(String key) {
+    if (entries.isEmpty()) {
+      return;
+    }
+    Deque<String> changed = new ArrayDeque<>();
+    changed.add(key.toLowerCase());
+    while (!changed.isEmpty()) {
+      String name = changed.poll();
+      entries.remove(name);
+      for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+        Map.Entry<String, Entry> entry = it.next();
+        if (entry.getValue().dependencies.contains(name)) {
+          it.remove();
+          changed.add(entry.getKey());
+        }
+      }
+    }
+  }
+
+  /** Removes all the values. */
+  synchronized void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Returns the properties a value is computed from, if its evaluation can only depend on them.
+   *
+   * @param value the unevaluated value.
+   * @param propertyIndex the properties of the token type, by lower case name.
+   * @return the lower case names of the properties, or null if the value must not be cached.
+   */
+  static Set<String> findDependencies(String value, Map<String, TokenProperty> propertyIndex) {
+    Set<String> dependencies = new HashSet<>();
+    boolean inExpression = false;
+    int length = value.length();
+    int i = 0;
+    while (i < length) {
+      char c = value.charAt(i);
+      if (!inExpression) {
+        if (c == '{') {
+          inExpression = true;
+        } else if (c == '[' || c == '}' || c == '\\') {
+          return null;
+        }
+        i++;
+      } else if (c == '}') {
+        inExpression = false;
+        i++;
+      } else if (Character.isLetter(c) || c == '_') {
+        if (i > 0 && Character.isDigit(value.charAt(i - 1))) {
+          return null; // dice such as 1d6
+        }
+        int start = i;
+        while (i < length
+            && (Character.isLetterOrDigit(value.charAt(i))
+                || value.charAt(i) == '_'
+                || value.charAt(i) == '.')) {
+          i++;
+        }
+        String name = value.substring(start, i).toLowerCase();
+        if (!propertyIndex.containsKey(name) || name.matches("d\\d.*")) {
+          return null; // a variable, a constant or dice
+        }
+        int next = i;
+        while (next < length && Character.isWhitespace(value.charAt(next))) {
+          next++;
+        }
+        if (next < length && value.charAt(next) == '(') {
+          return null; // a function
+        }
+        dependencies.add(name);
+      } else if (Character.isDigit(c)
+          || Character.isWhitespace(c)
+          || "+-*/%()<>!&|^.".indexOf(c) >= 0) {
+        i++;
+      } else {
+        return null; // strings, assignments, roll options...
+      }
+    }
+    return inExpression ? null : dependencies;
+  }
+}
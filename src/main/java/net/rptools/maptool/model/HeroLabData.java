@@ -32,6 +32,7 @@
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import javax.imageio.ImageIO;
 import net.rptools.lib.MD5Key;
 import net.rptools.maptool.client.AppPreferences;
@@ -116,6 +117,29 @@ public HeroLabData(String name) {
     heroImageAssets.put(DefaultAssetKey.PORTRAIT_KEY, DEFAULT_HERO_LAB_PORTRAIT_ASSET.getId());
   }
 
+  /**
+   * Copies the data of another instance, without loading the default images again.
+   *
+   * @param other the data to copy
+   */
+  public HeroLabData(HeroLabData other) {
+    heroLabStatblockAssetID = other.heroLabStatblockAssetID;
+    name = other.name;
+    summary = other.summary;
+    playerName = other.playerName;
+    gameSystem = other.gameSystem;
+    heroLabIndex = other.heroLabIndex;
+    minionMasterIndex = other.minionMasterIndex;
+    minionMasterName = other.minionMasterName;
+    isAlly = other.isAlly;
+    isDirty = other.isDirty;
+    isMinion = other.isMinion;
+    portfolioFile = other.portfolioFile;
+    portfolioPath = other.portfolioPath;
+    lastModified = other.lastModified;
+    heroImageAssets.putAll(other.heroImageAssets);
+  }
+
   /**
    * Evaluate the HeroLab XML statBlock against the supplied xPath expression, returning the results
    * as a String List with the requested delimiter.
@@ -500,6 +524,37 @@ public String toString() {
     return JSONMacroFunctions.getInstance().jsonIndent(getInfo(), 4);
   }
 
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof HeroLabData)) {
+      return false;
+    }
+    HeroLabData other = (HeroLabData) o;
+    return isAlly == other.isAlly
+        && isDirty == other.isDirty
+        && isMinion == other.isMinion
+        && lastModified == other.lastModified
+        && Objects.equals(heroLabStatblockAssetID, other.heroLabStatblockAssetID)
+        && Objects.equals(name, other.name)
+        && Objects.equals(summary, other.summary)
+        && Objects.equals(playerName, other.playerName)
+        && Objects.equals(gameSystem, other.gameSystem)
+        && Objects.equals(heroLabIndex, other.heroLabIndex)
+        && Objects.equals(minionMasterIndex, other.minionMasterIndex)
+        && Objects.equals(minionMasterName, other.minionMasterName)
+        && Objects.equals(portfolioFile, other.portfolioFile)
+        && Objects.equals(portfolioPath, other.portfolioPath)
+        && heroImageAssets.equals(other.heroImageAssets);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(name, heroLabIndex, heroLabStatblockAssetID, lastModified);
+  }
+
   public JsonObject getInfo() {
     JsonObject heroLabInfo = new JsonObject();
     heroLabInfo.addProperty("name", name);
@@ -914,6 +914,43 @@ public int hashCode() { // modified so longest strings are at the end
     return result;
   }
 
+  /**
+   * Compares every saved setting of two macros, including the index, hot key and cosmetic fields
+   * that {@link #hashCodeForComparison()} leaves out.
+   *
+   * @param other the macro to compare with
+   * @return true if nothing that is saved with the macro differs
+   */
+  public boolean contentEquals(MacroButtonProperties other) {
+    return other != null
+        && index == other.index
+        && autoExecute == other.autoExecute
+        && includeLabel == other.includeLabel
+        && applyToTokens == other.applyToTokens
+        && Objects.equals(macroUUID, other.macroUUID)
+        && Objects.equals(saveLocation, other.saveLocation)
+        && Objects.equals(colorKey, other.colorKey)
+        && Objects.equals(hotKey, other.hotKey)
+        && Objects.equals(command, other.command)
+        && Objects.equals(label, other.label)
+        && Objects.equals(group, other.group)
+        && Objects.equals(sortby, other.sortby)
+        && Objects.equals(fontColorKey, other.fontColorKey)
+        && Objects.equals(fontSize, other.fontSize)
+        && Objects.equals(minWidth, other.minWidth)
+        && Objects.equals(maxWidth, other.maxWidth)
+        && Objects.equals(allowPlayerEdits, other.allowPlayerEdits)
+        && Objects.equals(toolTip, other.toolTip)
+        && Objects.equals(displayHotKey, other.displayHotKey)
+        && Objects.equals(commonMacro, other.commonMacro)
+        && Objects.equals(compareGroup, other.compareGroup)
+        && Objects.equals(compareSortPrefix, other.compareSortPrefix)
+        && Objects.equals(compareCommand, other.compareCommand)
+        && Objects.equals(compareIncludeLabel, other.compareIncludeLabel)
+        && Objects.equals(compareAutoExecute, other.compareAutoExecute)
+        && Objects.equals(compareApplyToSelectedTokens, other.compareApplyToSelectedTokens);
+  }
+
   // Don't include the index, so you can compare all the other properties between two macros
   // Also don't include hot key since they can't be the same anyway, or cosmetic fields
   public int hashCodeForComparison() {
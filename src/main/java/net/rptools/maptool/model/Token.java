@@ -318,6 +318,9 @@ public String toString() {
 
   private CaseInsensitiveHashMap<Object> propertyMapCI;
 
+  /** The evaluated properties, created when first needed. */
+  private transient EvaluatedPropertyCache evaluatedProperties;
+
   private Map<String, String> macroMap;
   private Map<Integer, MacroButtonProperties> macroPropertiesMap;
 
@@ -325,6 +328,12 @@ public String toString() {
 
   private HeroLabData heroLabData;
 
+  /**
+   * Incremented every time the whole token is sent to the server. A {@link TokenDelta} is only
+   * applied to a copy of the token that is at the version the delta was made from.
+   */
+  private int syncVersion;
+
   /**
    * Constructor from another token, with the option to keep the token id
    *
@@ -588,6 +597,7 @@ public String getPropertyType() {
 
   public void setPropertyType(String propertyType) {
     this.propertyType = propertyType;
+    getEvaluatedProperties().clear();
   }
 
   public String getGMNotes() {
@@ -610,6 +620,11 @@ public String getGMName() {
     }
   }
 
+  /** @return the GM name of the token, without checking whether the player may see it. */
+  String getGMNameUnchecked() {
+    return gmName;
+  }
+
   public void setGMName(String name) {
     gmName = name;
   }
@@ -1707,10 +1722,12 @@ public void setAllStates(Object aValue) {
 
   public void resetProperty(String key) {
     getPropertyMap().remove(key);
+    getEvaluatedProperties().invalidate(key);
   }
 
   public void setProperty(String key, Object value) {
     getPropertyMap().put(key, value);
+    getEvaluatedProperties().invalidate(key);
   }
 
   public Object getProperty(String key) {
@@ -1733,31 +1750,80 @@ public Object getEvaluatedProperty(String key) {
   }
 
   /**
-   * Returns the evaluated property corresponding to the key.
+   * Returns the evaluated property corresponding to the key. Values that only depend on the
+   * properties of the token are cached until one of these properties changes. A value computed
+   * from properties is only cached if the values of these properties are, so that a property
+   * computed from a roll or a function is evaluated again each time.
    *
    * @param resolver the variable resolver to parse code inside the property
    * @param key the key of the value
    * @return the value
    */
   public Object getEvaluatedProperty(MapToolVariableResolver resolver, String key) {
+    Map<String, TokenProperty> propertyIndex =
+        MapTool.getCampaign().getTokenPropertyIndex(propertyType);
+    // A resolver for another token would read the properties of that token
+    boolean ownResolver = resolver == null || resolver.getTokenInContext() == this;
+    EvaluatedPropertyCache cache = getEvaluatedProperties();
+    if (ownResolver) {
+      Object cached = cache.get(key, propertyIndex);
+      if (cached != null) {
+        return cached;
+      }
+    }
     Object val = getProperty(key);
     if (val == null) {
       // Global default ?
-      List<TokenProperty> propertyList =
-          MapTool.getCampaign().getCampaignProperties().getTokenPropertyList(propertyType);
-      if (propertyList != null) {
-        for (TokenProperty property : propertyList) {
-          if (key.equalsIgnoreCase(property.getName())) {
-            val = property.getDefaultValue();
-            break;
-          }
-        }
+      TokenProperty property = propertyIndex.get(key.toLowerCase());
+      if (property != null) {
+        val = property.getDefaultValue();
       }
     }
     if (val == null) {
       return "";
     }
-    if (val.toString().trim().startsWith("{")) {
+    JsonElement json = parseJsonProperty(val.toString());
+    if (json != null) {
+      cache.put(key, json, Collections.emptySet(), propertyIndex);
+      return json;
+    }
+    Object result = evaluateProperty(resolver, key, val);
+    if (ownResolver && isCacheable(result.toString())) {
+      Set<String> dependencies =
+          EvaluatedPropertyCache.findDependencies(val.toString(), propertyIndex);
+      // The properties the value was computed from have been evaluated by now
+      if (dependencies != null && cache.containsAll(dependencies)) {
+        cache.put(key, result, dependencies, propertyIndex);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Checks if an evaluated value can be reused whatever the context it is read in. Untrusted
+   * contexts strip roll markers from the results.
+   *
+   * @param value the evaluated value.
+   * @return true if the value can be cached.
+   */
+  private static boolean isCacheable(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\u00AB' || c == '\u00BB' || c == '&' || c == '\036' || c == '\037') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parses the value of a property that is a JSON object or array.
+   *
+   * @param val the value of the property
+   * @return the JSON object or array, or null if the value is not one
+   */
+  private JsonElement parseJsonProperty(String val) {
+    if (val.trim().startsWith("{")) {
       /*
        * The normal Gson evaluator was too lenient in identifying JSON objects, so we had to move
        * that lower (see #1560). But we would really like to avoid the performance cost of
@@ -1765,7 +1831,7 @@ public Object getEvaluatedProperty(MapToolVariableResolver resolver, String key)
        * evaluation process here first (see #2396).
        */
       try {
-        try (JsonReader reader = new JsonReader(new StringReader(val.toString()))) {
+        try (JsonReader reader = new JsonReader(new StringReader(val))) {
           JsonObject result = strictGsonObjectAdapter.read(reader);
           // in case of a situation like {"a": 1}{"b": 2}, the above would have stopped at the first
           // complete object.  This next line will throw an exception on finding another top-level
@@ -1780,12 +1846,24 @@ public Object getEvaluatedProperty(MapToolVariableResolver resolver, String key)
       }
     }
     // try to convert it to a JSON array. Fixes #2057.
-    if (val.toString().trim().startsWith("[")) {
-      JsonElement json = JSONMacroFunctions.getInstance().asJsonElement(val.toString());
+    if (val.trim().startsWith("[")) {
+      JsonElement json = JSONMacroFunctions.getInstance().asJsonElement(val);
       if (json.isJsonArray()) {
         return json;
       }
     }
+    return null;
+  }
+
+  /**
+   * Evaluates the value of a property that is not a JSON object or array.
+   *
+   * @param resolver the variable resolver to parse code inside the property
+   * @param key the key of the value
+   * @param val the unevaluated value
+   * @return the value
+   */
+  private Object evaluateProperty(MapToolVariableResolver resolver, String key, Object val) {
     try {
       if (log.isDebugEnabled()) {
         log.debug(
@@ -1826,7 +1904,14 @@ public Set<String> getPropertyNamesRaw() {
     return getPropertyMap().keySetRaw();
   }
 
-  private CaseInsensitiveHashMap<Object> getPropertyMap() {
+  private EvaluatedPropertyCache getEvaluatedProperties() {
+    if (evaluatedProperties == null) {
+      evaluatedProperties = new EvaluatedPropertyCache();
+    }
+    return evaluatedProperties;
+  }
+
+  CaseInsensitiveHashMap<Object> getPropertyMap() {
     if (propertyMapCI == null) {
       propertyMapCI = new CaseInsensitiveHashMap<Object>();
     }
@@ -1986,7 +2071,7 @@ public void setSpeech(String key, String value) {
     getSpeechMap().put(key, value);
   }
 
-  private Map<String, String> getSpeechMap() {
+  Map<String, String> getSpeechMap() {
     if (speechMap == null) {
       speechMap = new HashMap<String, String>();
     }
@@ -2435,7 +2520,9 @@ public GUID getExposedAreaGUID() {
   @Override
   public Token clone() {
     try {
-      return (Token) super.clone();
+      Token token = (Token) super.clone();
+      token.evaluatedProperties = null;
+      return token;
     } catch (CloneNotSupportedException e) {
       return null;
     }
@@ -2455,6 +2542,55 @@ public void setHeroLabData(HeroLabData heroLabData) {
     this.heroLabData = heroLabData;
   }
 
+  /** @return the version of the token last shared with the server. */
+  public int getSyncVersion() {
+    return syncVersion;
+  }
+
+  public void setSyncVersion(int syncVersion) {
+    this.syncVersion = syncVersion;
+  }
+
+  /**
+   * Returns a shallow copy of the token without its properties, macros, speech and Hero Lab data.
+   * The copy must not be modified, it shares every other field with this token.
+   *
+   * @return the copy
+   */
+  Token createDeltaShell() {
+    Token shell = clone();
+    shell.propertyMap = null;
+    shell.propertyMapCI = null;
+    shell.macroMap = null;
+    shell.macroPropertiesMap = null;
+    shell.speechMap = null;
+    shell.heroLabData = null;
+    return shell;
+  }
+
+  /**
+   * Replaces the properties, macros, speech and Hero Lab data of this token with copies of the maps
+   * of another token. The macros are copied as well, the other map values are shared.
+   *
+   * @param token the token to take the data from
+   */
+  void adoptBulkData(Token token) {
+    propertyMapCI = null;
+    evaluatedProperties = null;
+    if (token.propertyMapCI != null) {
+      getPropertyMap().putAll(token.propertyMapCI);
+    }
+    macroMap = null;
+    macroPropertiesMap = new HashMap<>();
+    for (MacroButtonProperties macro : token.getMacroPropertiesMap(false).values()) {
+      MacroButtonProperties copy = new MacroButtonProperties(macro);
+      copy.setTokenId(getId());
+      macroPropertiesMap.put(copy.getIndex(), copy);
+    }
+    speechMap = token.speechMap == null ? null : new HashMap<String, String>(token.speechMap);
+    heroLabData = token.heroLabData;
+  }
+
   /**
    * Call the relevant setter from methodName with an array of parameters Called by
    * ClientMethodHandler to deal with sent change to token
@@ -2687,6 +2823,8 @@ public void updateProperty(Zone zone, Update update, Object[] parameters) {
     if (panelLookChanged) {
       zone.tokenPanelChanged(this);
     }
+    // Every copy of the token applies the same update, so they all stay at the same version
+    syncVersion++;
     zone.tokenChanged(this); // fire Event.TOKEN_CHANGED, which updates topology if token has VBL
   }
 }
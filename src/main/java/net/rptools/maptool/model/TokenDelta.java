@@ -0,0 +1,166 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The changes made to a token since it was last sent over the network. The cheap fields of the
+ * token travel in a shallow copy that carries no properties, macros, speech or Hero Lab data; only
+ * the entries of those that changed are included.
+ *
+ * <p>A delta can only be applied to a token at the version it was made from, see {@link
+ * #isBasedOn(Token)}. Instances are created by {@link TokenDeltaTracker}.
+ *
+ * <p>Deltas replace the whole token that {@code putToken} used to send. The single field changes
+ * that already go out as a {@link Token.Update} keep doing so; every copy applies those alike and
+ * bumps its version in {@link Token#updateProperty}, so that a delta made before one of them is
+ * recognised as stale.
+ */
+public class TokenDelta {
+  private int baseVersion;
+  private Token shell;
+
+  private Map<String, Object> properties;
+  private List<String> removedProperties;
+  private Map<Integer, MacroButtonProperties> macros;
+  private List<Integer> removedMacros;
+
+  /** The new speech map, or null if the speech did not change. */
+  private Map<String, String> speechMap;
+
+  private boolean heroLabDataChanged;
+  private HeroLabData heroLabData;
+
+  /** For serialization. */
+  TokenDelta() {}
+
+  TokenDelta(int baseVersion, Token token) {
+    this.baseVersion = baseVersion;
+    this.shell = token.createDeltaShell();
+  }
+
+  public GUID getTokenId() {
+    return shell.getId();
+  }
+
+  /** @return the version of the token the delta was made from. */
+  public int getBaseVersion() {
+    return baseVersion;
+  }
+
+  /** @return the version of the token once this delta has been applied. */
+  public int getVersion() {
+    return shell.getSyncVersion();
+  }
+
+  /**
+   * @param token the token to check
+   * @return true if the delta was made from the same version of the token.
+   */
+  public boolean isBasedOn(Token token) {
+    return token.getSyncVersion() == baseVersion;
+  }
+
+  /** @return true if nothing but the light fields of the token changed. */
+  public boolean isLight() {
+    return properties == null
+        && removedProperties == null
+        && macros == null
+        && removedMacros == null
+        && speechMap == null
+        && !heroLabDataChanged;
+  }
+
+  /**
+   * Builds the updated token. Neither the delta nor the given token are modified, so the delta can
+   * still be forwarded as is afterwards.
+   *
+   * @param token the token to apply the changes to
+   * @return a new token with the changes applied
+   */
+  public Token applyTo(Token token) {
+    Token result = shell.clone();
+    result.adoptBulkData(token);
+    if (removedProperties != null) {
+      for (String key : removedProperties) {
+        result.getPropertyMap().remove(key);
+      }
+    }
+    if (properties != null) {
+      result.getPropertyMap().putAll(properties);
+    }
+    Map<Integer, MacroButtonProperties> macroMap = result.getMacroPropertiesMap(false);
+    if (removedMacros != null) {
+      for (Integer index : removedMacros) {
+        macroMap.remove(index);
+      }
+    }
+    if (macros != null) {
+      for (MacroButtonProperties macro : macros.values()) {
+        MacroButtonProperties copy = new MacroButtonProperties(macro);
+        copy.setTokenId(result.getId());
+        macroMap.put(copy.getIndex(), copy);
+      }
+    }
+    if (speechMap != null) {
+      result.setSpeechMap(speechMap);
+    }
+    if (heroLabDataChanged) {
+      result.setHeroLabData(heroLabData);
+    }
+    return result;
+  }
+
+  void putProperty(String key, Object value) {
+    if (properties == null) {
+      properties = new HashMap<String, Object>();
+    }
+    properties.put(key, value);
+  }
+
+  void removeProperty(String key) {
+    if (removedProperties == null) {
+      removedProperties = new ArrayList<String>();
+    }
+    removedProperties.add(key);
+  }
+
+  void putMacro(MacroButtonProperties macro) {
+    if (macros == null) {
+      macros = new HashMap<Integer, MacroButtonProperties>();
+    }
+    macros.put(macro.getIndex(), macro);
+  }
+
+  void removeMacro(Integer index) {
+    if (removedMacros == null) {
+      removedMacros = new ArrayList<Integer>();
+    }
+    removedMacros.add(index);
+  }
+
+  void setSpeechMap(Map<String, String> speechMap) {
+    this.speechMap = new HashMap<String, String>(speechMap);
+  }
+
+  void setHeroLabData(HeroLabData heroLabData) {
+    this.heroLabDataChanged = true;
+    this.heroLabData = heroLabData;
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the last version of every token this client sent or received, so that the next update
+ * of a token only needs to carry what changed since then.
+ */
+public class TokenDeltaTracker {
+  private final Map<GUID, Baseline> baselines = new ConcurrentHashMap<GUID, Baseline>();
+
+  /**
+   * Bumps the version of a token that is about to be sent and works out what changed since the last
+   * time it was sent or received.
+   *
+   * @param token the token about to be sent, its version is updated
+   * @return the changes, or null if the whole token has to be sent
+   */
+  public TokenDelta createDelta(Token token) {
+    Baseline baseline = baselines.get(token.getId());
+    int baseVersion = token.getSyncVersion();
+    token.setSyncVersion(baseVersion + 1);
+
+    TokenDelta delta = null;
+    if (baseline != null && baseline.version == baseVersion) {
+      delta = new TokenDelta(baseVersion, token);
+      diffProperties(baseline, token, delta);
+      diffMacros(baseline, token, delta);
+      if (!baseline.speech.equals(token.getSpeechMap())) {
+        delta.setSpeechMap(token.getSpeechMap());
+      }
+      // Compared by value, the data may have been changed in place since the baseline was taken
+      if (!Objects.equals(baseline.heroLabData, token.getHeroLabData())) {
+        delta.setHeroLabData(token.getHeroLabData());
+      }
+    }
+    baselines.put(token.getId(), new Baseline(token));
+    return delta;
+  }
+
+  /**
+   * Bumps the version of a token that is about to be sent whole, and records it as sent.
+   *
+   * @param token the token about to be sent, its version is updated
+   */
+  public void tokenSent(Token token) {
+    token.setSyncVersion(token.getSyncVersion() + 1);
+    baselines.put(token.getId(), new Baseline(token));
+  }
+
+  /**
+   * Records the state of a token that came in from the server, or that an update changed on every
+   * copy alike, if it is one this client has sent before.
+   *
+   * @param token the token that was received
+   */
+  public void tokenReceived(Token token) {
+    if (baselines.containsKey(token.getId())) {
+      baselines.put(token.getId(), new Baseline(token));
+    }
+  }
+
+  /** @param tokenId the token that no longer needs to be tracked */
+  public void forget(GUID tokenId) {
+    baselines.remove(tokenId);
+  }
+
+  /** Forgets every token, for example when the campaign changes. */
+  public void clear() {
+    baselines.clear();
+  }
+
+  private void diffProperties(Baseline baseline, Token token, TokenDelta delta) {
+    Map<String, Object> current = new HashMap<String, Object>();
+    for (String key : token.getPropertyNamesRaw()) {
+      current.put(key, token.getProperty(key));
+    }
+    // Removals are applied first, so a key that only changed case is removed and put again
+    for (String key : baseline.properties.keySet()) {
+      if (!current.containsKey(key)) {
+        delta.removeProperty(key);
+      }
+    }
+    for (Map.Entry<String, Object> entry : current.entrySet()) {
+      String key = entry.getKey();
+      if (!baseline.properties.containsKey(key)
+          || !Objects.equals(baseline.properties.get(key), entry.getValue())) {
+        delta.putProperty(key, entry.getValue());
+      }
+    }
+  }
+
+  private void diffMacros(Baseline baseline, Token token, TokenDelta delta) {
+    Map<Integer, MacroButtonProperties> current = token.getMacroPropertiesMap(false);
+    for (Integer index : baseline.macros.keySet()) {
+      if (!current.containsKey(index)) {
+        delta.removeMacro(index);
+      }
+    }
+    for (MacroButtonProperties macro : current.values()) {
+      if (!macro.contentEquals(baseline.macros.get(macro.getIndex()))) {
+        delta.putMacro(macro);
+      }
+    }
+  }
+
+  /** Copy of the parts of a token that are diffed. */
+  private static class Baseline {
+    private final int version;
+    private final Map<String, Object> properties = new HashMap<String, Object>();
+    private final Map<Integer, MacroButtonProperties> macros =
+        new HashMap<Integer, MacroButtonProperties>();
+    private final Map<String, String> speech;
+    private final HeroLabData heroLabData;
+
+    Baseline(Token token) {
+      version = token.getSyncVersion();
+      for (String key : token.getPropertyNamesRaw()) {
+        properties.put(key, token.getProperty(key));
+      }
+      for (MacroButtonProperties macro : token.getMacroPropertiesMap(false).values()) {
+        macros.put(macro.getIndex(), new MacroButtonProperties(macro));
+      }
+      speech = new HashMap<String, String>(token.getSpeechMap());
+      HeroLabData data = token.getHeroLabData();
+      heroLabData = data == null ? null : new HeroLabData(data);
+    }
+  }
+}
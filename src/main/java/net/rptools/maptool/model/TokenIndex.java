@@ -0,0 +1,224 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Secondary indexes over the tokens of a {@link Zone}, so that the tokens with a given name, owner,
+ * layer, type or state can be found without looking at every token of the map.
+ *
+ * <p>The index only knows what it was last told: it must be updated with {@link #put(Token)} each
+ * time a token of the zone changes. Callers should check the tokens they get back against the
+ * condition they are looking for, as a token edited in place may not have been reported yet.
+ */
+class TokenIndex {
+
+  /** The attributes of a token that are indexed. */
+  enum Kind {
+    NAME,
+    GM_NAME,
+    OWNER,
+    OWNED_BY_ALL,
+    LAYER,
+    TYPE,
+    STATE,
+    HAS_SIGHT,
+    HAS_VBL
+  }
+
+  /** A value of an indexed attribute. Names and GM names are stored case folded. */
+  record Key(Kind kind, Object value) {}
+
+  /** The keys of each token, so that its entries can be found again when it changes. */
+  private final Map<GUID, List<Key>> keysById = new HashMap<>();
+
+  /** The ids of the tokens having each key. */
+  private final Map<Key, Set<GUID>> idsByKey = new HashMap<>();
+
+  static Key name(String name) {
+    return new Key(Kind.NAME, fold(name));
+  }
+
+  static Key gmName(String gmName) {
+    return new Key(Kind.GM_NAME, fold(gmName));
+  }
+
+  static Key owner(String playerId) {
+    return new Key(Kind.OWNER, playerId);
+  }
+
+  static Key ownedByAll() {
+    return new Key(Kind.OWNED_BY_ALL, Boolean.TRUE);
+  }
+
+  static Key layer(Zone.Layer layer) {
+    return new Key(Kind.LAYER, layer);
+  }
+
+  static Key type(Token.Type type) {
+    return new Key(Kind.TYPE, type);
+  }
+
+  static Key state(String state) {
+    return new Key(Kind.STATE, state);
+  }
+
+  static Key hasSight() {
+    return new Key(Kind.HAS_SIGHT, Boolean.TRUE);
+  }
+
+  static Key hasVBL() {
+    return new Key(Kind.HAS_VBL, Boolean.TRUE);
+  }
+
+  /**
+   * Folds the case of a name the way {@link String#equalsIgnoreCase(String)} compares characters.
+   */
+  private static String fold(String name) {
+    return name.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Returns whether a state value counts as set: not <code>null</code>, <code>false</code> or zero.
+   *
+   * @param value the value of the state
+   * @return true if the state is set
+   */
+  static boolean isStateSet(Object value) {
+    if (value == null) {
+      return false;
+    } else if (value instanceof Boolean) {
+      return (Boolean) value;
+    } else if (value instanceof BigDecimal) {
+      return !value.equals(BigDecimal.ZERO);
+    }
+    return true;
+  }
+
+  /**
+   * Adds a token to the index, or updates its entries if it is already there.
+   *
+   * @param token the token
+   */
+  synchronized void put(Token token) {
+    remove(token.getId());
+    List<Key> keys = keysOf(token);
+    keysById.put(token.getId(), keys);
+    for (Key key : keys) {
+      idsByKey.computeIfAbsent(key, k -> new HashSet<>()).add(token.getId());
+    }
+  }
+
+  /**
+   * Removes a token from the index.
+   *
+   * @param id the id of the token
+   */
+  synchronized void remove(GUID id) {
+    List<Key> keys = keysById.remove(id);
+    if (keys == null) {
+      return;
+    }
+    for (Key key : keys) {
+      Set<GUID> ids = idsByKey.get(key);
+      if (ids != null) {
+        ids.remove(id);
+        if (ids.isEmpty()) {
+          idsByKey.remove(key);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the ids of the tokens having all the given keys.
+   *
+   * @param keys the keys to look for
+   * @return a new set with the ids of the matching tokens
+   */
+  synchronized Set<GUID> findAll(Key... keys) {
+    Set<GUID> smallest = null;
+    for (Key key : keys) {
+      Set<GUID> ids = idsByKey.getOrDefault(key, Collections.emptySet());
+      if (smallest == null || ids.size() < smallest.size()) {
+        smallest = ids;
+      }
+    }
+    Set<GUID> result = new HashSet<>(smallest == null ? Collections.emptySet() : smallest);
+    for (Key key : keys) {
+      Set<GUID> ids = idsByKey.get(key);
+      if (ids != smallest) {
+        if (ids == null) {
+          return new HashSet<>();
+        }
+        result.retainAll(ids);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the ids of the tokens having any of the given keys.
+   *
+   * @param keys the keys to look for
+   * @return a new set with the ids of the matching tokens
+   */
+  synchronized Set<GUID> findAny(Collection<Key> keys) {
+    Set<GUID> result = new HashSet<>();
+    for (Key key : keys) {
+      result.addAll(idsByKey.getOrDefault(key, Collections.emptySet()));
+    }
+    return result;
+  }
+
+  private static List<Key> keysOf(Token token) {
+    List<Key> keys = new ArrayList<>();
+    keys.add(name(token.getName()));
+    String gmName = token.getGMNameUnchecked();
+    if (gmName != null && !gmName.isEmpty()) {
+      keys.add(gmName(gmName));
+    }
+    for (String owner : token.getOwners()) {
+      keys.add(owner(owner));
+    }
+    if (token.isOwnedByAll()) {
+      keys.add(ownedByAll());
+    }
+    keys.add(layer(token.getLayer()));
+    keys.add(type(token.getType()));
+    for (String state : token.getStatePropertyNames()) {
+      if (isStateSet(token.getState(state))) {
+        keys.add(state(state));
+      }
+    }
+    if (token.getHasSight()) {
+      keys.add(hasSight());
+    }
+    if (token.hasVBL()) {
+      keys.add(hasVBL());
+    }
+    return keys;
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.awt.Rectangle;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A grid hash of the bounds of the tokens of a {@link Zone}, to find the tokens in an area of the
+ * map without looking at all of them. The map is divided in square buckets, and each token is
+ * listed in the buckets its bounds overlap. Tokens covering too many buckets, such as large
+ * background stamps, are kept apart and checked on every search.
+ *
+ * <p>Bounds are in zone coordinates. The index must be told about every token that moves or
+ * changes size with {@link #put(GUID, Rectangle)}.
+ */
+class TokenSpatialIndex {
+
+  /** The most buckets a token is listed in before it is kept with the large tokens. */
+  private static final int MAX_BUCKETS_PER_TOKEN = 64;
+
+  private final int bucketSize;
+
+  /** The bounds each token was put with. */
+  private final Map<GUID, Rectangle> boundsById = new HashMap<>();
+
+  /** The ids of the tokens overlapping each bucket, by bucket key. */
+  private final Map<Long, Set<GUID>> buckets = new HashMap<>();
+
+  /** The ids of the tokens too large to be listed in buckets. */
+  private final Set<GUID> largeTokens = new HashSet<>();
+
+  /** @param bucketSize the width and height of the buckets, in zone coordinates */
+  TokenSpatialIndex(int bucketSize) {
+    this.bucketSize = Math.max(1, bucketSize);
+  }
+
+  /**
+   * Adds a token to the index, or moves it if it is already there.
+   *
+   * @param id the id of the token
+   * @param bounds the area of the map covered by the token
+   */
+  synchronized void put(GUID id, Rectangle bounds) {
+    Rectangle old = boundsById.get(id);
+    if (bounds.equals(old)) {
+      return;
+    }
+    remove(id);
+    bounds = new Rectangle(bounds);
+    boundsById.put(id, bounds);
+    if (isLarge(bounds)) {
+      largeTokens.add(id);
+      return;
+    }
+    for (int bx = bucket(bounds.x); bx <= bucket(maxX(bounds)); bx++) {
+      for (int by = bucket(bounds.y); by <= bucket(maxY(bounds)); by++) {
+        buckets.computeIfAbsent(key(bx, by), k -> new HashSet<>()).add(id);
+      }
+    }
+  }
+
+  /**
+   * Removes a token from the index.
+   *
+   * @param id the id of the token
+   */
+  synchronized void remove(GUID id) {
+    Rectangle bounds = boundsById.remove(id);
+    if (bounds == null) {
+      return;
+    }
+    if (largeTokens.remove(id)) {
+      return;
+    }
+    for (int bx = bucket(bounds.x); bx <= bucket(maxX(bounds)); bx++) {
+      for (int by = bucket(bounds.y); by <= bucket(maxY(bounds)); by++) {
+        Long key = key(bx, by);
+        Set<GUID> ids = buckets.get(key);
+        if (ids != null) {
+          ids.remove(id);
+          if (ids.isEmpty()) {
+            buckets.remove(key);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the tokens whose bounds intersect an area of the map.
+   *
+   * @param area the area, in zone coordinates
+   * @return a new set with the ids of the tokens
+   */
+  synchronized Set<GUID> find(Rectangle area) {
+    Set<GUID> result = new HashSet<>();
+    for (GUID id : largeTokens) {
+      if (boundsById.get(id).intersects(area)) {
+        result.add(id);
+      }
+    }
+    long bucketCount =
+        ((long) bucket(maxX(area)) - bucket(area.x) + 1)
+            * ((long) bucket(maxY(area)) - bucket(area.y) + 1);
+    if (bucketCount > buckets.size()) {
+      // Cheaper to look at the buckets in use than at every bucket of a large area
+      for (Set<GUID> ids : buckets.values()) {
+        addIntersecting(ids, area, result);
+      }
+      return result;
+    }
+    for (int bx = bucket(area.x); bx <= bucket(maxX(area)); bx++) {
+      for (int by = bucket(area.y); by <= bucket(maxY(area)); by++) {
+        Set<GUID> ids = buckets.get(key(bx, by));
+        if (ids != null) {
+          addIntersecting(ids, area, result);
+        }
+      }
+    }
+    return result;
+  }
+
+  private void addIntersecting(Set<GUID> ids, Rectangle area, Set<GUID> result) {
+    for (GUID id : ids) {
+      if (!result.contains(id) && boundsById.get(id).intersects(area)) {
+        result.add(id);
+      }
+    }
+  }
+
+  private boolean isLarge(Rectangle bounds) {
+    long bucketCount =
+        ((long) bucket(maxX(bounds)) - bucket(bounds.x) + 1)
+            * ((long) bucket(maxY(bounds)) - bucket(bounds.y) + 1);
+    return bucketCount > MAX_BUCKETS_PER_TOKEN;
+  }
+
+  private int bucket(int coordinate) {
+    return Math.floorDiv(coordinate, bucketSize);
+  }
+
+  private static int maxX(Rectangle bounds) {
+    return (int) Math.min(Integer.MAX_VALUE, (long) bounds.x + Math.max(0, bounds.width - 1));
+  }
+
+  private static int maxY(Rectangle bounds) {
+    return (int) Math.min(Integer.MAX_VALUE, (long) bounds.y + Math.max(0, bounds.height - 1));
+  }
+
+  private static long key(int bx, int by) {
+    return ((long) bx << 32) | (by & 0xffffffffL);
+  }
+}
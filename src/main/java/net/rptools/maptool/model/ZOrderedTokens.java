@@ -0,0 +1,117 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The tokens of a {@link Zone} sorted by z-order, then by id, like {@link
+ * Zone#TOKEN_Z_ORDER_COMPARATOR}. Adding, moving and removing a token takes logarithmic time, and
+ * the sorted list is only copied again when it is asked for after a change.
+ *
+ * <p>The z-order of a token can be changed in place; the token is moved to its new position when it
+ * is put again or when {@link #reorder()} is called.
+ */
+class ZOrderedTokens {
+
+  /** The position of a token at the time it was put. */
+  private record Position(int zOrder, GUID id) implements Comparable<Position> {
+    @Override
+    public int compareTo(Position other) {
+      int result = Integer.compare(zOrder, other.zOrder);
+      return result != 0 ? result : id.compareTo(other.id);
+    }
+  }
+
+  private final TreeMap<Position, Token> tokens = new TreeMap<>();
+  private final Map<GUID, Position> positions = new HashMap<>();
+
+  /** The tokens in order, or <code>null</code> if they changed since the last copy. */
+  private List<Token> snapshot = Collections.emptyList();
+
+  /**
+   * Adds a token, or replaces the token with the same id and moves it to its current z-order.
+   *
+   * @param token the token
+   */
+  synchronized void put(Token token) {
+    Position position = new Position(token.getZOrder(), token.getId());
+    Position old = positions.put(token.getId(), position);
+    if (old != null && !old.equals(position)) {
+      tokens.remove(old);
+    }
+    tokens.put(position, token);
+    snapshot = null;
+  }
+
+  /**
+   * Removes a token.
+   *
+   * @param id the id of the token
+   * @return the removed token, or <code>null</code> if there was none with that id
+   */
+  synchronized Token remove(GUID id) {
+    Position position = positions.remove(id);
+    if (position == null) {
+      return null;
+    }
+    snapshot = null;
+    return tokens.remove(position);
+  }
+
+  /** Moves the tokens whose z-order was changed in place since they were put. */
+  synchronized void reorder() {
+    List<Token> moved = new ArrayList<>();
+    for (Map.Entry<Position, Token> entry : tokens.entrySet()) {
+      if (entry.getKey().zOrder() != entry.getValue().getZOrder()) {
+        moved.add(entry.getValue());
+      }
+    }
+    for (Token token : moved) {
+      put(token);
+    }
+  }
+
+  /** @return an unmodifiable list of the tokens in z-order, which later changes do not affect */
+  synchronized List<Token> getTokens() {
+    if (snapshot == null) {
+      snapshot = Collections.unmodifiableList(new ArrayList<>(tokens.values()));
+    }
+    return snapshot;
+  }
+
+  synchronized int size() {
+    return tokens.size();
+  }
+
+  synchronized boolean isEmpty() {
+    return tokens.isEmpty();
+  }
+
+  /** @return the token with the lowest z-order, or <code>null</code> if there are none */
+  synchronized Token first() {
+    return tokens.isEmpty() ? null : tokens.firstEntry().getValue();
+  }
+
+  /** @return the token with the highest z-order, or <code>null</code> if there are none */
+  synchronized Token last() {
+    return tokens.isEmpty() ? null : tokens.lastEntry().getValue();
+  }
+}
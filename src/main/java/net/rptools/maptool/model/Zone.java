@@ -193,8 +193,31 @@ public enum TopologyMode {
   /** Map each token GUID to its exposed area metadata */
   private Map<GUID, ExposedAreaMetaData> exposedAreaMeta = new HashMap<GUID, ExposedAreaMetaData>();
 
-  /** Token list ordered by Z. */
-  private final List<Token> tokenOrderedList = new LinkedList<Token>();
+  /**
+   * Token list ordered by Z, as saved. Only filled in when the zone is serialized, see {@link
+   * #writeReplace()}, and dropped as soon as the tokens change; use {@link #getOrderedTokens()}
+   * otherwise.
+   */
+  private List<Token> tokenOrderedList;
+
+  /** The tokens ordered by Z. Built on first use. */
+  private transient ZOrderedTokens orderedTokens;
+
+  /** The area covered by each token. Built on first use, and again when the grid changes. */
+  private transient TokenSpatialIndex spatialIndex;
+
+  /** The grid the spatial index was built for. */
+  private transient GridLayout spatialIndexGrid;
+
+  /** The grid settings the bounds of the tokens depend on. */
+  private record GridLayout(Grid grid, int size, int offsetX, int offsetY) {
+    GridLayout(Grid grid) {
+      this(grid, grid.getSize(), grid.getOffsetX(), grid.getOffsetY());
+    }
+  }
+
+  /** Indexes of the tokens by name, owner, layer, etc. Built on first use. */
+  private transient TokenIndex tokenIndex;
 
   private InitiativeList initiativeList = new InitiativeList(this);
 
@@ -655,7 +678,7 @@ public boolean isEmpty() {
         && (gmDrawables == null || gmDrawables.isEmpty())
         && (objectDrawables == null || objectDrawables.isEmpty())
         && (backgroundDrawables == null || backgroundDrawables.isEmpty())
-        && (tokenOrderedList == null || tokenOrderedList.isEmpty())
+        && (tokenMap == null || tokenMap.isEmpty())
         && (labels == null || labels.isEmpty());
     // @formatter:on
   }
@@ -762,7 +785,7 @@ public void clearTopology() {
   }
 
   /**
-   * Add the area to the topology, and fire the event TOPOLOGY_CHANGED
+   * Add the area to the topology, and fire the event TOPOLOGY_CHANGED with the area as argument
    *
    * @param area the area
    * @param topologyMode the mode of the topology
@@ -781,7 +804,7 @@ public void addTopology(Area area, TopologyMode topologyMode) {
         break;
     }
 
-    fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED));
+    fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED, area));
   }
 
   public void addTopology(Area area) {
@@ -789,7 +812,8 @@ public void addTopology(Area area) {
   }
 
   /**
-   * Subtract the area from the topology, and fire the event TOPOLOGY_CHANGED
+   * Subtract the area from the topology, and fire the event TOPOLOGY_CHANGED with the area as
+   * argument
    *
    * @param area the area
    * @param topologyMode the mode of the topology
@@ -808,7 +832,7 @@ public void removeTopology(Area area, TopologyMode topologyMode) {
         break;
     }
 
-    fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED));
+    fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED, area));
   }
 
   public void removeTopology(Area area) {
@@ -836,6 +860,10 @@ public Area getTopologyTerrain() {
    * @param token the token that changed
    */
   public void tokenChanged(Token token) {
+    if (tokenMap.containsKey(token.getId())) {
+      getTokenIndex().put(token);
+      updateSpatialIndex(token);
+    }
     fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_CHANGED, token));
   }
 
@@ -1140,18 +1168,29 @@ public void setTopologyMode(TopologyMode topologyMode) {
   }
 
   public int getLargestZOrder() {
-    return tokenOrderedList.size() > 0
-        ? tokenOrderedList.get(tokenOrderedList.size() - 1).getZOrder()
-        : 0;
+    Token last = getOrderedTokens().last();
+    return last != null ? last.getZOrder() : 0;
   }
 
   public int getSmallestZOrder() {
-    return tokenOrderedList.size() > 0 ? tokenOrderedList.get(0).getZOrder() : 0;
+    Token first = getOrderedTokens().first();
+    return first != null ? first.getZOrder() : 0;
   }
 
-  /** Sort the tokens by their ZOrder */
+  /** Sort the tokens by their ZOrder, after the ZOrder of some of them was changed in place. */
   public void sortZOrder() {
-    tokenOrderedList.sort(TOKEN_Z_ORDER_COMPARATOR);
+    getOrderedTokens().reorder();
+  }
+
+  private ZOrderedTokens getOrderedTokens() {
+    if (orderedTokens == null) {
+      ZOrderedTokens tokens = new ZOrderedTokens();
+      for (Token token : tokenMap.values()) {
+        tokens.put(token);
+      }
+      orderedTokens = tokens;
+    }
+    return orderedTokens;
   }
 
   ///////////////////////////////////////////////////////////////////////////
@@ -1339,11 +1378,10 @@ public void putToken(Token token) {
     boolean newToken = !tokenMap.containsKey(token.getId());
 
     tokenMap.put(token.getId(), token);
-
-    // LATER: optimize this
-    tokenOrderedList.remove(token);
-    tokenOrderedList.add(token);
-    tokenOrderedList.sort(TOKEN_Z_ORDER_COMPARATOR);
+    tokenOrderedList = null;
+    getTokenIndex().put(token);
+    getOrderedTokens().put(token);
+    updateSpatialIndex(token);
 
     if (newToken) {
       fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_ADDED, token));
@@ -1365,7 +1403,9 @@ public void editToken(Token token) {
    * Same as {@link #putToken(Token)} but optimizes map updates by accepting a list of Tokens. Note
    * that this method fires a single <code>ModelChangeEvent</code> using <code> Event.TOKEN_ADDED
    * </code> and passes the list of added tokens as a parameter. Ditto for <code>Event.TOKEN_CHANGED
-   * </code>.
+   * </code>. A batch of both new and existing tokens fires both events, as listeners treat them
+   * differently: changed tokens are flushed from the caches of {@link ZoneView}, which new tokens
+   * are not in yet.
    *
    * <p>Not currently invoked by other code, but event handling changes for multiple tokens has been
    * made. Marked as deprecated to prevent use until the rest of the integration is completed.
@@ -1376,21 +1416,22 @@ public void editToken(Token token) {
   public void putTokens(List<Token> tokens) {
     // System.out.println("putToken() called with list of " + tokens.size() + " tokens.");
 
-    Collection<Token> values = tokenMap.values();
-
-    List<Token> addedTokens = new LinkedList<Token>(tokens);
-    addedTokens.removeAll(values);
-
-    List<Token> changedTokens = new LinkedList<Token>(tokens);
-    changedTokens.retainAll(values);
+    List<Token> addedTokens = new ArrayList<Token>();
+    List<Token> changedTokens = new ArrayList<Token>();
+    tokenOrderedList = null;
 
     for (Token t : tokens) {
-      tokenMap.put(t.getId(), t);
+      if (tokenMap.put(t.getId(), t) == null) {
+        addedTokens.add(t);
+      } else {
+        changedTokens.add(t);
+      }
+      getTokenIndex().put(t);
+      getOrderedTokens().put(t);
+      updateSpatialIndex(t);
     }
-    tokenOrderedList.removeAll(tokens);
-    tokenOrderedList.addAll(tokens);
-    tokenOrderedList.sort(TOKEN_Z_ORDER_COMPARATOR);
 
+    // One event per kind, so a listener never has to tell added tokens from changed ones
     if (!addedTokens.isEmpty()) {
       fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_ADDED, addedTokens));
     }
@@ -1407,7 +1448,12 @@ public void putTokens(List<Token> tokens) {
   public void removeToken(GUID id) {
     Token token = tokenMap.remove(id);
     if (token != null) {
-      tokenOrderedList.remove(token);
+      tokenOrderedList = null;
+      getOrderedTokens().remove(id);
+      getTokenIndex().remove(id);
+      if (spatialIndex != null) {
+        spatialIndex.remove(id);
+      }
       fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_REMOVED, token));
     }
   }
@@ -1423,7 +1469,12 @@ public void removeTokens(List<GUID> ids) {
       for (GUID id : ids) {
         Token token = tokenMap.remove(id);
         if (token != null) {
-          tokenOrderedList.remove(token);
+          tokenOrderedList = null;
+          getOrderedTokens().remove(id);
+          getTokenIndex().remove(id);
+          if (spatialIndex != null) {
+            spatialIndex.remove(id);
+          }
           removedTokens.add(token);
         }
       }
@@ -1442,12 +1493,11 @@ public Token getToken(GUID id) {
    * @return the first token with a given name. The name is matched case-insensitively.
    */
   public Token getTokenByName(String name) {
-    for (Token token : getAllTokens()) {
-      if (name.equalsIgnoreCase(token.getName())) {
-        return token;
-      }
-    }
-    return null;
+    List<Token> tokens =
+        getIndexedTokens(
+            getTokenIndex().findAll(TokenIndex.name(name)),
+            t -> name.equalsIgnoreCase(t.getName()));
+    return tokens.isEmpty() ? null : tokens.get(0);
   }
 
   /**
@@ -1480,15 +1530,11 @@ public Token resolveToken(String identifier) {
    * @return the first token with a given GM name. The name is matched case-insensitively.
    */
   public Token getTokenByGMName(String name) {
-    for (Token token : getAllTokens()) {
-      if (StringUtil.isEmpty(token.getGMName())) {
-        continue;
-      }
-      if (token.getGMName().equalsIgnoreCase(name)) {
-        return token;
-      }
-    }
-    return null;
+    List<Token> tokens =
+        getIndexedTokens(
+            getTokenIndex().findAll(TokenIndex.gmName(name)),
+            t -> !StringUtil.isEmpty(t.getGMName()) && t.getGMName().equalsIgnoreCase(name));
+    return tokens.isEmpty() ? null : tokens.get(0);
   }
 
   public List<DrawnElement> getAllDrawnElements() {
@@ -1524,11 +1570,12 @@ private DrawnElement findDrawnElement(List<DrawnElement> list, GUID id) {
   }
 
   public int getTokenCount() {
-    return tokenOrderedList.size();
+    return getOrderedTokens().size();
   }
 
+  /** @return an unmodifiable list of the tokens in z-order, which later changes do not affect */
   public List<Token> getAllTokens() {
-    return List.copyOf(tokenOrderedList);
+    return getOrderedTokens().getTokens();
   }
 
   public Set<MD5Key> getAllAssetIds() {
@@ -1568,7 +1615,7 @@ public Set<MD5Key> getAllAssetIds() {
   public List<Token> getTokensFiltered(Filter filter) {
     ArrayList<Token> copy = new ArrayList<Token>(getTokenCount());
 
-    for (Token token : tokenOrderedList) {
+    for (Token token : getAllTokens()) {
       if (filter.matchToken(token)) {
         copy.add(token);
       }
@@ -1576,6 +1623,156 @@ public List<Token> getTokensFiltered(Filter filter) {
     return Collections.unmodifiableList(copy);
   }
 
+  /**
+   * Returns the tokens of the given layers, in z-order.
+   *
+   * @param layers the layers
+   * @return the tokens on any of the layers
+   */
+  public List<Token> getTokensOnLayers(Collection<Layer> layers) {
+    List<TokenIndex.Key> keys = new ArrayList<>(layers.size());
+    for (Layer layer : layers) {
+      keys.add(TokenIndex.layer(layer));
+    }
+    return getIndexedTokens(getTokenIndex().findAny(keys), t -> layers.contains(t.getLayer()));
+  }
+
+  /**
+   * Returns the tokens of the given type, in z-order.
+   *
+   * @param type the type of token, PC or NPC
+   * @return the tokens of that type
+   */
+  public List<Token> getTokensOfType(Token.Type type) {
+    return getIndexedTokens(
+        getTokenIndex().findAll(TokenIndex.type(type)), t -> t.getType() == type);
+  }
+
+  /**
+   * Returns the tokens that have a state set, in z-order. A state is set if its value is neither
+   * false nor zero.
+   *
+   * @param state the name of the state
+   * @return the tokens with the state set
+   */
+  public List<Token> getTokensWithState(String state) {
+    return getIndexedTokens(
+        getTokenIndex().findAll(TokenIndex.state(state)),
+        t -> TokenIndex.isStateSet(t.getState(state)));
+  }
+
+  /**
+   * Returns the tokens a player owns, including the tokens owned by all, in z-order.
+   *
+   * @param playerId the name of the player
+   * @return the tokens owned by the player
+   */
+  public List<Token> getTokensOwnedBy(String playerId) {
+    return getIndexedTokens(
+        getTokenIndex().findAny(List.of(TokenIndex.owner(playerId), TokenIndex.ownedByAll())),
+        t -> t.isOwner(playerId));
+  }
+
+  /**
+   * Returns the tokens of a set of ids that match a filter, in z-order. The filter is checked again
+   * on each token in case the token was edited in place and the index is not up to date.
+   *
+   * @param ids the ids found in the index
+   * @param filter the condition the tokens were looked up for
+   * @return the matching tokens
+   */
+  private List<Token> getIndexedTokens(Set<GUID> ids, Filter filter) {
+    List<Token> tokens = new ArrayList<>(ids.size());
+    for (GUID id : ids) {
+      Token token = tokenMap.get(id);
+      if (token != null && filter.matchToken(token)) {
+        tokens.add(token);
+      }
+    }
+    tokens.sort(TOKEN_Z_ORDER_COMPARATOR);
+    return Collections.unmodifiableList(tokens);
+  }
+
+  /**
+   * Returns the tokens that may be drawn over an area of the map, in z-order. A token with a facing
+   * that is drawn rotated is included if it intersects the area in any direction.
+   *
+   * @param area the area, in zone coordinates
+   * @return the tokens intersecting the area
+   */
+  public List<Token> getTokensIntersecting(Rectangle area) {
+    return getIndexedTokens(
+        getSpatialIndex().find(area), t -> getTokenExtent(t).intersects(area));
+  }
+
+  /**
+   * Returns the area of the map a token may be drawn over: its bounds, or for a top down token with
+   * a facing, the square its bounds cover when rotated around its anchor.
+   *
+   * @param token the token
+   * @return the area, in zone coordinates
+   */
+  private Rectangle getTokenExtent(Token token) {
+    Rectangle bounds = token.getBounds(this);
+    if (!token.hasFacing() || token.getShape() != Token.TokenShape.TOP_DOWN) {
+      return bounds;
+    }
+    Point anchor = token.getAnchor();
+    double cx = bounds.getCenterX() - anchor.x;
+    double cy = bounds.getCenterY() - anchor.y;
+    double dx = Math.max(Math.abs(bounds.getMinX() - cx), Math.abs(bounds.getMaxX() - cx));
+    double dy = Math.max(Math.abs(bounds.getMinY() - cy), Math.abs(bounds.getMaxY() - cy));
+    double radius = Math.sqrt(dx * dx + dy * dy);
+    int x = (int) Math.floor(cx - radius);
+    int y = (int) Math.floor(cy - radius);
+    int size = (int) Math.ceil(2 * radius) + 1;
+    return new Rectangle(x, y, size, size);
+  }
+
+  /**
+   * Refreshes the area of the map covered by a token that was moved or resized without a change
+   * event, such as while it is being resized or drawn on the iso plane, so that {@link
+   * #getTokensIntersecting(Rectangle)} still finds it.
+   *
+   * @param token the token
+   */
+  public void updateTokenBounds(Token token) {
+    if (tokenMap.containsKey(token.getId())) {
+      updateSpatialIndex(token);
+    }
+  }
+
+  private void updateSpatialIndex(Token token) {
+    // Not built yet, it will pick the token up when it is
+    if (spatialIndex != null) {
+      spatialIndex.put(token.getId(), getTokenExtent(token));
+    }
+  }
+
+  private TokenSpatialIndex getSpatialIndex() {
+    GridLayout layout = new GridLayout(getGrid());
+    if (spatialIndex == null || !layout.equals(spatialIndexGrid)) {
+      TokenSpatialIndex index = new TokenSpatialIndex(Math.max(64, layout.size() * 4));
+      for (Token token : tokenMap.values()) {
+        index.put(token.getId(), getTokenExtent(token));
+      }
+      spatialIndex = index;
+      spatialIndexGrid = layout;
+    }
+    return spatialIndex;
+  }
+
+  private TokenIndex getTokenIndex() {
+    if (tokenIndex == null) {
+      TokenIndex index = new TokenIndex();
+      for (Token token : tokenMap.values()) {
+        index.put(token);
+      }
+      tokenIndex = index;
+    }
+    return tokenIndex;
+  }
+
   public List<Token> removeTokens(List<Token> tokensToKeep, List<Token> tokensToRemove) {
     ArrayList<Token> originalList = new ArrayList<Token>(tokensToKeep);
     originalList.removeAll(tokensToRemove);
@@ -1604,7 +1801,8 @@ public List<Token> getGMStamps() {
   }
 
   public List<Token> getGMStamps(boolean getAlwaysVisible) {
-    return getTokensFiltered(
+    return getIndexedTokens(
+        getTokenIndex().findAll(TokenIndex.layer(Layer.GM)),
         t -> {
           if (getAlwaysVisible) {
             return t.isGMStamp();
@@ -1619,7 +1817,8 @@ public List<Token> getStampTokens() {
   }
 
   public List<Token> getStampTokens(boolean getAlwaysVisible) {
-    return getTokensFiltered(
+    return getIndexedTokens(
+        getTokenIndex().findAll(TokenIndex.layer(Layer.OBJECT)),
         t -> {
           if (getAlwaysVisible) {
             return t.isObjectStamp();
@@ -1634,7 +1833,8 @@ public List<Token> getBackgroundStamps() {
   }
 
   public List<Token> getBackgroundStamps(boolean getAlwaysVisible) {
-    return getTokensFiltered(
+    return getIndexedTokens(
+        getTokenIndex().findAll(TokenIndex.layer(Layer.BACKGROUND)),
         t -> {
           if (getAlwaysVisible) {
             return t.isBackgroundStamp();
@@ -1645,7 +1845,7 @@ public List<Token> getBackgroundStamps(boolean getAlwaysVisible) {
   }
 
   public List<Token> getPlayerTokens() {
-    return getTokensFiltered(t -> t.getType() == Token.Type.PC);
+    return getTokensOfType(Token.Type.PC);
   }
 
   public List<Token> getFigureTokens() {
@@ -1657,7 +1857,7 @@ public List<Token> getTokensAlwaysVisible() {
   }
 
   public List<Token> getTokensWithVBL() {
-    return getTokensFiltered(Token::hasVBL);
+    return getIndexedTokens(getTokenIndex().findAll(TokenIndex.hasVBL()), Token::hasVBL);
   }
 
   public List<Token> getTokensWithTerrainModifiers() {
@@ -1676,7 +1876,8 @@ public List<Token> getTokensWithTerrainModifiers() {
    * @since updated 1.4.1.0
    */
   public List<Token> getOwnedTokensWithSight(Player p) {
-    return getTokensFiltered(
+    return getIndexedTokens(
+        getTokenIndex().findAll(TokenIndex.hasSight()),
         t -> {
           // System.out.println("isOwnedByAll(): " + t.getName() + ":" + t.isOwnedByAll());
           // System.out.println("AppUtil.playerOwns(t): " + t.getName() + ":" +
@@ -1709,7 +1910,9 @@ public List<Token> getOwnedTokensWithSight(Player p) {
 
   /** @return list of PCs tokens with sight. For FogUtil.exposePCArea to skip sight test. */
   public List<Token> getPlayerTokensWithSight() {
-    return getTokensFiltered(t -> t.getType() == Token.Type.PC && t.getHasSight());
+    return getIndexedTokens(
+        getTokenIndex().findAll(TokenIndex.type(Token.Type.PC), TokenIndex.hasSight()),
+        t -> t.getType() == Token.Type.PC && t.getHasSight());
   }
 
   /**
@@ -1720,7 +1923,8 @@ public List<Token> getPlayerTokensWithSight() {
    */
   public List<Token> getTokensOwnedByAllWithSight() {
     // String playerId = MapTool.getPlayer().getName();
-    return getTokensFiltered(
+    return getIndexedTokens(
+        getTokenIndex().findAll(TokenIndex.type(Token.Type.PC), TokenIndex.hasSight()),
         t ->
             (t.getHasSight()
                 && (t.getType() == Token.Type.PC && (t.isOwnedByAll() || AppUtil.playerOwns(t)))));
@@ -1730,7 +1934,8 @@ public List<Token> getTokensOwnedByAllWithSight() {
   // All",
   // or "Owned" by the current player; in theory, NPC tokens the Player control.
   public List<Token> getTokensOwnedByAllWithSight(Player p) {
-    return getTokensFiltered(
+    return getIndexedTokens(
+        getTokenIndex().findAll(TokenIndex.hasSight()),
         new Filter() {
           String playerId = MapTool.getPlayer().getName();
 
@@ -1742,7 +1947,8 @@ public boolean matchToken(Token t) {
   }
 
   public List<Token> getPlayerOwnedTokensWithSight(Player p) {
-    return getTokensFiltered(
+    return getIndexedTokens(
+        getTokenIndex().findAll(TokenIndex.type(Token.Type.PC), TokenIndex.hasSight()),
         t -> t.getType() == Token.Type.PC && t.getHasSight() && AppUtil.playerOwns(t));
   }
 
@@ -1979,7 +2185,7 @@ protected Object readResolve() {
     // Look for the bizarre z-ordering disappearing trick
     boolean foundZero = false;
     boolean fixZOrder = false;
-    for (Token token : tokenOrderedList) {
+    for (Token token : getAllTokens()) {
       if (token.getZOrder() == 0) {
         if (foundZero) {
           fixZOrder = true;
@@ -1990,10 +2196,14 @@ protected Object readResolve() {
     }
     if (fixZOrder) {
       int z = 0;
-      for (Token token : tokenOrderedList) {
+      for (Token token : getAllTokens()) {
         token.setZOrder(z++);
       }
+      sortZOrder();
     }
+    // The tokens are ordered from tokenMap, no need to keep the saved list around
+    tokenOrderedList = null;
+
     // Transient "undo" field added in 1.3.b88
     // This will be true; it's just in case we decide to make it persistent in the future
     if (undo == null) {
@@ -2007,6 +2217,18 @@ protected Object readResolve() {
     return this;
   }
 
+  /**
+   * Copies the tokens to the saved token list before the zone is serialized, as older versions
+   * read the token order from it. The list only holds tokens of the zone, and is dropped by the
+   * next change to them, so that it never keeps a removed or replaced token alive.
+   *
+   * @return this zone
+   */
+  protected Object writeReplace() {
+    tokenOrderedList = new LinkedList<Token>(getAllTokens());
+    return this;
+  }
+
   /** @return the exposedAreaMeta. */
   public Map<GUID, ExposedAreaMetaData> getExposedAreaMetaData() {
     if (exposedAreaMeta == null) {
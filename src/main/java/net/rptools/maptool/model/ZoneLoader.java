@@ -0,0 +1,47 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Source of the zones of a {@link Campaign} that have not been deserialized yet. Implementations
+ * must support loading different zones from several threads at once.
+ *
+ * @see Campaign#setZoneLoader(ZoneLoader)
+ */
+public interface ZoneLoader extends AutoCloseable {
+
+  /** @return the ids of the zones this loader provides, in campaign order. */
+  List<GUID> getZoneIds();
+
+  /**
+   * @param id the id of the zone
+   * @return the zone, deserialized and ready for use
+   * @throws IOException if the zone could not be read
+   */
+  Zone loadZone(GUID id) throws IOException;
+
+  /**
+   * @return a loader of the same zones, from the same file, that stays usable after this one is
+   *     closed. Lets a copy of the campaign in this process load its zones on its own.
+   */
+  ZoneLoader share();
+
+  /** Releases the underlying file once every zone has been loaded or dropped. */
+  @Override
+  void close();
+}
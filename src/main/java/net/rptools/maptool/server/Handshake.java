@@ -23,8 +23,10 @@
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Arrays;
+import java.util.function.Consumer;
 import javax.crypto.*;
 import javax.crypto.spec.SecretKeySpec;
+import net.rptools.clientserver.compression.MessageCodec;
 import net.rptools.clientserver.hessian.HessianUtils;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.language.I18N;
@@ -46,6 +48,7 @@ public interface Code {
 
   private static String USERNAME_FIELD = "username:";
   private static String VERSION_FIELD = "version:";
+  private static String COMPRESSION_FIELD = "compression:";
 
   /** Instance used for log messages. */
   private static final Logger log = LogManager.getLogger(MapToolServerConnection.class);
@@ -55,12 +58,14 @@ public interface Code {
    *
    * @param server the MapTool server instance
    * @param s the server socket
+   * @param codecListener told about the message codec negotiated with the client
    * @throws IOException if an I/O error occurs when creating the input stream, the socket is
    *     closed, the socket is not connected, or the socket input has been shutdown using
    * @return A player structure for the connected player or null on issues
    * @throws IOException if there is a problem reading from the socket.
    */
-  public static Player receiveHandshake(MapToolServer server, Socket s)
+  public static Player receiveHandshake(
+      MapToolServer server, Socket s, Consumer<MessageCodec> codecListener)
       throws IOException, InvalidKeySpecException, NoSuchAlgorithmException {
 
     DataOutputStream dos = new DataOutputStream(s.getOutputStream());
@@ -146,6 +151,9 @@ public static Player receiveHandshake(MapToolServer server, Socket s)
       if (handshakeChallenge.getExpectedResponse().equals(challengeResponse)) {
         response.policy = server.getPolicy();
         response.role = player.getRole();
+        MessageCodec codec = MessageCompression.negotiate(request.compression);
+        response.compression = codec.getName();
+        codecListener.accept(codec);
       } else {
         response.message = I18N.getText("Handshake.msg.badChallengeResponse", player.getName());
         response.code = Code.ERROR;
@@ -188,7 +196,14 @@ private static byte[] encode(byte[] bytes, SecretKeySpec passwordKey) {
     }
   }
 
-  private static Request extractRequestDetails(byte[] bytes, Role role) {
+  /**
+   * Read the details of a request from the lines written by {@link #writeRequestDetails(Request)}.
+   *
+   * @param bytes the decrypted request.
+   * @param role the role the password of the request matched.
+   * @return the request, or null if it lacks the name or version.
+   */
+  static Request extractRequestDetails(byte[] bytes, Role role) {
     String[] lines = new String(bytes).split("\n");
     Request request = new Request();
     for (String line : lines) {
@@ -196,6 +211,8 @@ private static Request extractRequestDetails(byte[] bytes, Role role) {
         request.name = line.replace(USERNAME_FIELD, "");
       } else if (line.startsWith(VERSION_FIELD)) {
         request.version = line.replace(VERSION_FIELD, "");
+      } else if (line.startsWith(COMPRESSION_FIELD)) {
+        request.compression = line.replace(COMPRESSION_FIELD, "");
       }
     }
 
@@ -365,9 +382,13 @@ public static Response sendHandshake(Request request, Socket s)
     return response;
   }
 
-  private static byte[] buildRequest(Request request, byte[] macSalt)
-      throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException,
-          BadPaddingException, IllegalBlockSizeException, InvalidKeySpecException, IOException {
+  /**
+   * Write the details of a request as the lines that are sent encrypted to the server.
+   *
+   * @param request the request.
+   * @return the lines.
+   */
+  static String writeRequestDetails(Request request) {
     StringBuilder sb = new StringBuilder();
     sb.append(USERNAME_FIELD);
     sb.append(request.name);
@@ -375,11 +396,22 @@ private static byte[] buildRequest(Request request, byte[] macSalt)
     sb.append(VERSION_FIELD);
     sb.append(request.version);
     sb.append("\n");
+    if (request.compression != null) {
+      sb.append(COMPRESSION_FIELD);
+      sb.append(request.compression);
+      sb.append("\n");
+    }
+    return sb.toString();
+  }
 
+  private static byte[] buildRequest(Request request, byte[] macSalt)
+      throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException,
+          BadPaddingException, IllegalBlockSizeException, InvalidKeySpecException, IOException {
     byte[] salt = CipherUtil.getInstance().createSalt();
     Cipher cipher = CipherUtil.getInstance().createEncryptor(request.password, salt);
 
-    byte[] cipherBytes = cipher.doFinal(sb.toString().getBytes(StandardCharsets.UTF_8));
+    byte[] cipherBytes =
+        cipher.doFinal(writeRequestDetails(request).getBytes(StandardCharsets.UTF_8));
 
     byte[] mac = CipherUtil.getInstance().generateMacWithSalt(request.password, macSalt);
 
@@ -401,6 +433,8 @@ public static class Request {
     public String role;
     public String password;
     public String version;
+    /** The message codecs supported by the client, most preferred first. */
+    public String compression;
 
     public Request() {
       // for serialization
@@ -411,6 +445,7 @@ public Request(String name, String password, Player.Role role, String version) {
       this.password = password;
       this.role = role.name();
       this.version = version;
+      this.compression = MessageCompression.getSupportedNames();
     }
   }
 
@@ -419,6 +454,8 @@ public static class Response {
     public String message;
     public ServerPolicy policy;
     public Role role;
+    /** The message codec picked by the server. */
+    public String compression;
   }
 
   private static class HandshakeChallenge {
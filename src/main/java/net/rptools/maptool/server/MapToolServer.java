@@ -58,7 +58,7 @@ public class MapToolServer {
 
   public MapToolServer(ServerConfig config, ServerPolicy policy) throws IOException {
     handler = new ServerMethodHandler(this);
-    conn = new MapToolServerConnection(this, config.getPort());
+    conn = new MapToolServerConnection(this, config.getPort(), config.getUseNioTransport());
     conn.addMessageHandler(handler);
 
     campaign = new Campaign();
@@ -164,6 +164,9 @@ public ServerConfig getConfig() {
   }
 
   public void stop() {
+    if (log.isDebugEnabled()) {
+      log.debug("Message encoding statistics:\n" + conn.getEncodeStatistics());
+    }
     try {
       conn.close();
       if (heartbeatThread != null) {
@@ -34,7 +34,12 @@ public class MapToolServerConnection extends ServerConnection implements ServerO
   private final MapToolServer server;
 
   public MapToolServerConnection(MapToolServer server, int port) throws IOException {
-    super(port);
+    this(server, port, false);
+  }
+
+  public MapToolServerConnection(MapToolServer server, int port, boolean useNio)
+      throws IOException {
+    super(port, useNio);
     this.server = server;
     addObserver(this);
   }
@@ -47,7 +52,8 @@ public MapToolServerConnection(MapToolServer server, int port) throws IOExceptio
   @Override
   public boolean handleConnectionHandshake(String id, Socket socket) {
     try {
-      Player player = Handshake.receiveHandshake(server, socket);
+      Player player =
+          Handshake.receiveHandshake(server, socket, codec -> setMessageCodec(id, codec));
 
       if (player != null) {
         playerMap.put(id.toUpperCase(), player);
@@ -0,0 +1,51 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.server;
+
+import java.util.List;
+import net.rptools.clientserver.simple.CoalescingChannel;
+import net.rptools.maptool.client.AppPreferences;
+import net.rptools.maptool.model.GUID;
+
+/**
+ * The channels for the frequent messages that are stale as soon as the next one is sent, such as
+ * the position updates of a token drag or of a pointer. Only these keyed updates go on the
+ * channels; the messages that start or end an exchange, such as the start and stop of a token
+ * move, go on the default channel. A message on the default channel takes the updates still waiting
+ * on the channels along ahead of it, so the receiver sees them in the order they were sent.
+ */
+public class MessageChannels {
+  /** Token drag updates, keyed by {@link #tokenKey(GUID, GUID)}. */
+  public static final CoalescingChannel TOKEN_MOVE =
+      new CoalescingChannel("tokenMove", AppPreferences.getMaxTokenMoveUpdatesPerSecond());
+
+  /** Pointer positions, keyed by player name. */
+  public static final CoalescingChannel POINTER =
+      new CoalescingChannel("pointer", AppPreferences.getMaxPointerUpdatesPerSecond());
+
+  /** Chat typing notifications, keyed by player name. */
+  public static final CoalescingChannel TYPING = new CoalescingChannel("typing", 0);
+
+  private MessageChannels() {}
+
+  /**
+   * @param zoneGUID the zone of the token.
+   * @param tokenGUID the token.
+   * @return the key of the move updates of the token.
+   */
+  public static Object tokenKey(GUID zoneGUID, GUID tokenGUID) {
+    return List.of(zoneGUID, tokenGUID);
+  }
+}
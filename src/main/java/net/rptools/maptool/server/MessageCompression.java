@@ -0,0 +1,152 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.server;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import net.rptools.clientserver.compression.AdaptiveMessageCodec;
+import net.rptools.clientserver.compression.MessageCodec;
+import net.rptools.clientserver.compression.MessageCodecs;
+import net.rptools.lib.MD5Key;
+import net.rptools.maptool.client.ClientCommand;
+import net.rptools.maptool.model.Asset;
+import net.rptools.maptool.model.AttachedLightSource;
+import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.CampaignProperties;
+import net.rptools.maptool.model.CellPoint;
+import net.rptools.maptool.model.ExposedAreaMetaData;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.InitiativeList;
+import net.rptools.maptool.model.Label;
+import net.rptools.maptool.model.LightSource;
+import net.rptools.maptool.model.MacroButtonProperties;
+import net.rptools.maptool.model.Path;
+import net.rptools.maptool.model.Player;
+import net.rptools.maptool.model.Pointer;
+import net.rptools.maptool.model.TextMessage;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
+import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.model.ZonePoint;
+import net.rptools.maptool.model.drawing.DrawnElement;
+import net.rptools.maptool.model.drawing.Pen;
+
+/**
+ * Sets up the compression of the messages between MapTool clients and the server. The preset
+ * dictionary holds the class and field names Hessian writes out for the model objects, so both
+ * sides must be running the same version, which the handshake already enforces.
+ *
+ * <p>Codecs should be looked up through this class rather than {@link MessageCodecs}, which makes
+ * sure the MapTool codec has been registered first.
+ */
+public class MessageCompression {
+
+  /** Messages smaller than this are sent uncompressed. */
+  private static final int MIN_COMPRESS_SIZE = 512;
+
+  /** Frequent, small messages that are never worth compressing. */
+  private static final List<String> RAW_METHODS =
+      List.of(
+          ClientCommand.COMMAND.movePointer.name(),
+          ClientCommand.COMMAND.showPointer.name(),
+          ClientCommand.COMMAND.hidePointer.name(),
+          ClientCommand.COMMAND.startTokenMove.name(),
+          ClientCommand.COMMAND.updateTokenMove.name(),
+          ClientCommand.COMMAND.stopTokenMove.name(),
+          ClientCommand.COMMAND.toggleTokenMoveWaypoint.name(),
+          ClientCommand.COMMAND.setLiveTypingLabel.name(),
+          ClientCommand.COMMAND.enforceNotification.name());
+
+  private static final Class<?>[] DICTIONARY_CLASSES = {
+    Asset.class,
+    AttachedLightSource.class,
+    Campaign.class,
+    CampaignProperties.class,
+    CellPoint.class,
+    DrawnElement.class,
+    ExposedAreaMetaData.class,
+    GUID.class,
+    InitiativeList.class,
+    Label.class,
+    LightSource.class,
+    MacroButtonProperties.class,
+    MD5Key.class,
+    Path.class,
+    Pen.class,
+    Player.class,
+    Pointer.class,
+    TextMessage.class,
+    Token.class,
+    TokenDelta.class,
+    Zone.class,
+    ZonePoint.class
+  };
+
+  private static final MessageCodec ADAPTIVE =
+      new AdaptiveMessageCodec(MIN_COMPRESS_SIZE, RAW_METHODS, buildDictionary());
+
+  static {
+    MessageCodecs.register(ADAPTIVE);
+  }
+
+  private MessageCompression() {}
+
+  /** @return the codecs to offer in the handshake. */
+  public static String getSupportedNames() {
+    return MessageCodecs.getSupportedNames();
+  }
+
+  /**
+   * @param offered the codecs offered by the client, may be null.
+   * @return the codec to use with the client.
+   */
+  public static MessageCodec negotiate(String offered) {
+    return MessageCodecs.negotiate(offered);
+  }
+
+  /**
+   * @param name the codec picked by the server, may be null.
+   * @return the codec to use with the server.
+   */
+  public static MessageCodec get(String name) {
+    return MessageCodecs.get(name);
+  }
+
+  private static byte[] buildDictionary() {
+    Set<String> words = new TreeSet<String>();
+    for (Class<?> c : DICTIONARY_CLASSES) {
+      for (Class<?> k = c; k != null && k != Object.class; k = k.getSuperclass()) {
+        words.add(k.getName());
+        for (Field field : k.getDeclaredFields()) {
+          int modifiers = field.getModifiers();
+          if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+            words.add(field.getName());
+          }
+        }
+      }
+    }
+    for (ClientCommand.COMMAND command : ClientCommand.COMMAND.values()) {
+      words.add(command.name());
+    }
+    for (ServerCommand.COMMAND command : ServerCommand.COMMAND.values()) {
+      words.add(command.name());
+    }
+    return String.join("", words).getBytes(StandardCharsets.UTF_8);
+  }
+}
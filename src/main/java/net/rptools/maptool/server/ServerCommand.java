@@ -29,6 +29,7 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.TopologyMode;
 import net.rptools.maptool.model.Zone.VisionType;
@@ -50,6 +51,8 @@ public enum COMMAND {
     getAsset,
     removeAsset,
     putToken,
+    putTokenDelta,
+    getToken,
     editToken,
     removeToken,
     removeTokens,
@@ -145,6 +148,22 @@ public enum COMMAND {
 
   public void putToken(GUID zoneGUID, Token token);
 
+  /**
+   * Updates a token by sending only what changed since the version the delta was made from.
+   *
+   * @param zoneGUID the ID of the zone
+   * @param delta the changes to the token
+   */
+  public void putTokenDelta(GUID zoneGUID, TokenDelta delta);
+
+  /**
+   * Asks the server for the whole token, for a client whose copy fell behind.
+   *
+   * @param zoneGUID the ID of the zone
+   * @param tokenGUID the ID of the token
+   */
+  public void getToken(GUID zoneGUID, GUID tokenGUID);
+
   /**
    * Removes a token from a zone.
    *
@@ -17,6 +17,8 @@
 import java.awt.geom.Area;
 import java.util.*;
 import net.rptools.clientserver.hessian.AbstractMethodHandler;
+import net.rptools.clientserver.hessian.MessageFrame;
+import net.rptools.clientserver.simple.CoalescingChannel;
 import net.rptools.lib.MD5Key;
 import net.rptools.maptool.client.ClientCommand;
 import net.rptools.maptool.client.ClientMethodHandler;
@@ -39,6 +41,7 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.TopologyMode;
 import net.rptools.maptool.model.Zone.VisionType;
@@ -149,6 +152,12 @@ public void handleMethod(String id, String method, Object... parameters) {
         case putToken:
           putToken(context.getGUID(0), (Token) context.get(1));
           break;
+        case putTokenDelta:
+          putTokenDelta(context.getGUID(0), (TokenDelta) context.get(1));
+          break;
+        case getToken:
+          getToken(context.getGUID(0), context.getGUID(1));
+          break;
         case editToken:
           editToken(context.getGUID(0), (Token) context.get(1));
           break;
@@ -293,20 +302,45 @@ public void handleMethod(String id, String method, Object... parameters) {
 
   /** Send the current call to all other clients except for the sender */
   private void forwardToClients() {
+    RPCContext context = RPCContext.getCurrent();
+    server.getConnection().broadcastFrame(new String[] {context.id}, getForwardFrame(context));
+  }
+
+  /**
+   * Send the current call to all clients except the sender, on a channel where it may replace a
+   * waiting call with the same key.
+   */
+  private void forwardToClients(CoalescingChannel channel, Object key) {
+    RPCContext context = RPCContext.getCurrent();
     server
         .getConnection()
-        .broadcastCallMethod(
-            new String[] {RPCContext.getCurrent().id},
-            RPCContext.getCurrent().method,
-            RPCContext.getCurrent().parameters);
+        .broadcastFrame(new String[] {context.id}, channel, key, getForwardFrame(context));
   }
 
   /** Send the current call to all clients including the sender */
   private void forwardToAllClients() {
+    server.getConnection().broadcastFrame(getForwardFrame(RPCContext.getCurrent()));
+  }
+
+  /**
+   * Send the current call to all clients including the sender, on a channel where it may replace a
+   * waiting call with the same key.
+   */
+  private void forwardToAllClients(CoalescingChannel channel, Object key) {
     server
         .getConnection()
-        .broadcastCallMethod(
-            new String[] {}, RPCContext.getCurrent().method, RPCContext.getCurrent().parameters);
+        .broadcastFrame(new String[] {}, channel, key, getForwardFrame(RPCContext.getCurrent()));
+  }
+
+  /**
+   * Returns the current call encoded for forwarding. The call is encoded on every forward, so that
+   * the clients get the parameters as the handler left them.
+   *
+   * @param context the current call
+   * @return the encoded frame
+   */
+  private MessageFrame getForwardFrame(RPCContext context) {
+    return server.getConnection().encodeFrame(context.method, context.parameters);
   }
 
   /**
@@ -387,6 +421,7 @@ public void bringTokensToFront(GUID zoneGUID, Set<GUID> tokenSet) {
       }
       // Broadcast
       for (Token token : tokenList) {
+        token.setSyncVersion(token.getSyncVersion() + 1);
         broadcastToAllClients(ClientCommand.COMMAND.putToken.name(), zoneGUID, token);
       }
       zone.sortZOrder(); // update new ZOrder on server zone
@@ -503,7 +538,7 @@ public void hidePointer(String player) {
   }
 
   public void movePointer(String player, int x, int y) {
-    forwardToAllClients();
+    forwardToAllClients(MessageChannels.POINTER, player);
   }
 
   public void updateInitiative(InitiativeList list, Boolean ownerPermission) {
@@ -589,6 +624,8 @@ public void putToken(GUID zoneGUID, Token token) {
       if (newToken) {
         zOrder = zone.getLargestZOrder() + 1;
         token.setZOrder(zOrder);
+        // The sender applies the new ZOrder as an update, which bumps its version as well
+        token.setSyncVersion(token.getSyncVersion() + 1);
       }
       zone.putToken(token);
     }
@@ -603,6 +640,50 @@ public void putToken(GUID zoneGUID, Token token) {
     forwardToClients();
   }
 
+  public void putTokenDelta(GUID zoneGUID, TokenDelta delta) {
+    Zone zone = server.getCampaign().getZone(zoneGUID);
+    boolean forward;
+    synchronized (MUTEX) {
+      Token token = zone.getToken(delta.getTokenId());
+      if (token == null) {
+        return;
+      }
+      if (server.getCampaign() == MapTool.getCampaign()
+          && token.getSyncVersion() == delta.getVersion()) {
+        // The hosting client shares the campaign with the server and already applied the change
+        forward = true;
+      } else {
+        forward = delta.isBasedOn(token);
+        Token updated = delta.applyTo(token);
+        if (!forward) {
+          // Another update got here first: resolve in favour of this one and resync everybody
+          updated.setSyncVersion(Math.max(token.getSyncVersion(), delta.getVersion()) + 1);
+        }
+        zone.putToken(updated);
+        if (!forward) {
+          broadcastToAllClients(ClientCommand.COMMAND.putToken.name(), zoneGUID, updated);
+        }
+      }
+    }
+    if (forward) {
+      forwardToClients();
+    }
+  }
+
+  public void getToken(GUID zoneGUID, GUID tokenGUID) {
+    Zone zone = server.getCampaign().getZone(zoneGUID);
+    if (zone == null) {
+      return;
+    }
+    synchronized (MUTEX) {
+      Token token = zone.getToken(tokenGUID);
+      if (token != null) {
+        broadcastToClient(
+            RPCContext.getCurrent().id, ClientCommand.COMMAND.putToken.name(), zoneGUID, token);
+      }
+    }
+  }
+
   public void putZone(Zone zone) {
     server.getCampaign().putZone(zone);
     forwardToClients();
@@ -680,6 +761,7 @@ public void sendTokensToBack(GUID zoneGUID, Set<GUID> tokenSet) {
       }
       // Broadcast
       for (Token token : tokenList) {
+        token.setSyncVersion(token.getSyncVersion() + 1);
         broadcastToAllClients(ClientCommand.COMMAND.putToken.name(), zoneGUID, token);
       }
       zone.sortZOrder(); // update new ZOrder on server zone
@@ -688,7 +770,11 @@ public void sendTokensToBack(GUID zoneGUID, Set<GUID> tokenSet) {
 
   public void setCampaign(Campaign campaign) {
     server.setCampaign(campaign);
-    forwardToClients();
+    // Encoding the campaign reads all the maps still waiting in the campaign file, which is only
+    // worth it if there is someone to send them to
+    if (server.getConnection().hasClients(new String[] {RPCContext.getCurrent().id})) {
+      forwardToClients();
+    }
   }
 
   public void setCampaignName(String name) {
@@ -726,14 +812,11 @@ public void setZoneVisibility(GUID zoneGUID, boolean visible) {
   }
 
   public void showPointer(String player, Pointer pointer) {
-    server
-        .getConnection()
-        .broadcastCallMethod(
-            ClientCommand.COMMAND.showPointer.name(), RPCContext.getCurrent().parameters);
+    forwardToAllClients();
   }
 
   public void setLiveTypingLabel(String label, boolean show) {
-    forwardToClients();
+    forwardToClients(MessageChannels.TYPING, label);
   }
 
   public void enforceNotification(Boolean enforce) {
@@ -781,7 +864,7 @@ public void undoDraw(GUID zoneGUID, GUID drawableGUID) {
   }
 
   public void updateTokenMove(GUID zoneGUID, GUID tokenGUID, int x, int y) {
-    forwardToClients();
+    forwardToClients(MessageChannels.TOKEN_MOVE, MessageChannels.tokenKey(zoneGUID, tokenGUID));
   }
 
   public void setTokenLocation(GUID zoneGUID, GUID tokenGUID, int x, int y) {
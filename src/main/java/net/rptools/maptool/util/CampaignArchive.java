@@ -0,0 +1,274 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Read only view of a campaign file that is shared by everything reading the file on demand, the
+ * zones and the assets that were left in it when the campaign was opened. The file is memory
+ * mapped, so reading an entry copies it straight out of the page cache. The mapping is released
+ * with the last reference, after which the file can be replaced again.
+ */
+final class CampaignArchive {
+  private static final Logger log = LogManager.getLogger(CampaignArchive.class);
+
+  private final File file;
+  private final ZipFile zipFile;
+
+  /** The mapping of the file, null if the file is too large to be mapped in one piece. */
+  private MappedByteBuffer mapping;
+
+  /** Reads hold the read lock, so that the mapping is not released under them. */
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private int references = 1;
+  private boolean closed;
+
+  private CampaignArchive(File file, ZipFile zipFile, MappedByteBuffer mapping) {
+    this.file = file.getAbsoluteFile();
+    this.zipFile = zipFile;
+    this.mapping = mapping;
+  }
+
+  /**
+   * Opens the campaign file, with one reference held by the caller.
+   *
+   * @param file the campaign file
+   * @return the archive
+   * @throws IOException if the file can not be read as a zip file
+   */
+  static CampaignArchive open(File file) throws IOException {
+    MappedByteBuffer mapping = null;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      if (channel.size() <= Integer.MAX_VALUE) {
+        // The mapping stays valid once the channel is closed
+        mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+    }
+    try {
+      ZipFile zipFile =
+          mapping == null
+              ? new ZipFile(file)
+              : new ZipFile(
+                  new MappedChannel(mapping),
+                  file.getPath(),
+                  StandardCharsets.UTF_8.name(),
+                  true);
+      return new CampaignArchive(file, zipFile, mapping);
+    } catch (IOException | RuntimeException e) {
+      unmap(mapping);
+      throw e;
+    }
+  }
+
+  /** @return the absolute path of the campaign file */
+  File getFile() {
+    return file;
+  }
+
+  /**
+   * Takes another reference, which has to be given back through {@link #release()}.
+   *
+   * @return this archive
+   * @throws IllegalStateException if the last reference has been released already
+   */
+  synchronized CampaignArchive retain() {
+    if (closed) {
+      throw new IllegalStateException(file + " is closed");
+    }
+    references++;
+    return this;
+  }
+
+  /** Gives back a reference. The file is closed and unmapped with the last one. */
+  void release() {
+    synchronized (this) {
+      if (closed || --references > 0) {
+        return;
+      }
+      closed = true;
+    }
+    lock.writeLock().lock();
+    try {
+      zipFile.close();
+    } catch (IOException e) {
+      log.warn("Could not close " + file, e);
+    } finally {
+      unmap(mapping);
+      mapping = null;
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** @return the paths of all the entries of the file */
+  List<String> getPaths() {
+    List<String> paths = new ArrayList<>();
+    for (ZipArchiveEntry entry : Collections.list(zipFile.getEntries())) {
+      paths.add(entry.getName());
+    }
+    return paths;
+  }
+
+  /**
+   * @param path the path of the entry
+   * @return true if the file has the entry
+   */
+  boolean hasEntry(String path) {
+    return zipFile.getEntry(path) != null;
+  }
+
+  /**
+   * Reads an entry. Several entries can be read at once.
+   *
+   * @param path the path of the entry
+   * @return the uncompressed content of the entry
+   * @throws FileNotFoundException if the file has no such entry
+   * @throws IOException if the entry can not be read, or the archive has been released
+   */
+  byte[] read(String path) throws IOException {
+    lock.readLock().lock();
+    try {
+      if (closed) {
+        throw new ClosedChannelException();
+      }
+      ZipArchiveEntry entry = zipFile.getEntry(path);
+      if (entry == null) {
+        throw new FileNotFoundException("Missing " + path + " in " + file);
+      }
+      try (InputStream in = zipFile.getInputStream(entry)) {
+        return IOUtils.toByteArray(in);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Releases a mapping right away rather than once it is garbage collected, which on Windows keeps
+   * the file from being replaced until then.
+   */
+  private static void unmap(MappedByteBuffer mapping) {
+    if (mapping == null) {
+      return;
+    }
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      invokeCleaner.invoke(theUnsafe.get(null), mapping);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      log.debug("Leaving the mapping to the garbage collector", e);
+    }
+  }
+
+  /**
+   * Channel over the mapping of the file. The zip file synchronizes on the channel around setting
+   * the position and reading, so reads of different entries do not get mixed up.
+   */
+  private static final class MappedChannel implements SeekableByteChannel {
+    private final ByteBuffer buffer;
+    private int position;
+    private boolean open = true;
+
+    MappedChannel(ByteBuffer buffer) {
+      this.buffer = buffer.duplicate();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      ensureOpen();
+      if (position >= buffer.limit()) {
+        return -1;
+      }
+      int length = Math.min(dst.remaining(), buffer.limit() - position);
+      dst.put(buffer.duplicate().position(position).limit(position + length));
+      position += length;
+      return length;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+      throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+      ensureOpen();
+      return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+      ensureOpen();
+      if (newPosition < 0) {
+        throw new IllegalArgumentException("Negative position " + newPosition);
+      }
+      position = (int) Math.min(newPosition, buffer.limit());
+      return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+      ensureOpen();
+      return buffer.limit();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+      throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+      return open;
+    }
+
+    @Override
+    public void close() {
+      open = false;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+      if (!open) {
+        throw new ClosedChannelException();
+      }
+    }
+  }
+}
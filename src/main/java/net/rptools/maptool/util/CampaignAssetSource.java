@@ -0,0 +1,105 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import com.thoughtworks.xstream.XStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import net.rptools.lib.FileUtil;
+import net.rptools.lib.MD5Key;
+import net.rptools.maptool.model.Asset;
+import net.rptools.maptool.model.AssetSource;
+
+/**
+ * Reads the assets of a campaign file once they are needed, through a reference to its {@link
+ * CampaignArchive}. Each asset is read the same way as when all of them are read on opening the
+ * campaign.
+ */
+class CampaignAssetSource implements AssetSource, PersistenceUtil.AssetEntries {
+  private final XStream xstream = FileUtil.getConfiguredXStream();
+  private final CampaignArchive archive;
+  private final Set<MD5Key> assetIds = ConcurrentHashMap.newKeySet();
+  private final boolean fixRequired;
+  private final String campaignVersion;
+
+  /**
+   * @param archive the campaign file, of which the source takes a reference of its own
+   * @param progVersion the version of MapTool that wrote the file
+   * @param campaignVersion the campaign version of the file
+   */
+  CampaignAssetSource(CampaignArchive archive, String progVersion, String campaignVersion) {
+    // FJE: Ugly fix for a bug I introduced in b64. :(
+    this.fixRequired = "1.3.b64".equals(progVersion);
+    this.campaignVersion = campaignVersion;
+    xstream.processAnnotations(Asset.class);
+    xstream.ignoreUnknownElements();
+    // The XML descriptor of an asset is the entry without an extension
+    int start = PersistenceUtil.ASSET_DIR.length();
+    for (String path : archive.getPaths()) {
+      if (path.startsWith(PersistenceUtil.ASSET_DIR)
+          && path.length() > start
+          && path.indexOf('.', start) < 0) {
+        assetIds.add(new MD5Key(path.substring(start)));
+      }
+    }
+    this.archive = archive.retain();
+  }
+
+  /** @return the campaign file */
+  File getFile() {
+    return archive.getFile();
+  }
+
+  @Override
+  public boolean hasAsset(MD5Key id) {
+    return assetIds.contains(id);
+  }
+
+  @Override
+  public Asset readAsset(MD5Key id) {
+    if (!assetIds.contains(id)) {
+      return null;
+    }
+    Asset asset = PersistenceUtil.readAsset(id, this, fixRequired, campaignVersion);
+    if (asset == null) {
+      // Left to the other places assets come from, like when it is left out on opening
+      assetIds.remove(id);
+    }
+    return asset;
+  }
+
+  @Override
+  public InputStream open(String path) throws IOException {
+    return new ByteArrayInputStream(archive.read(path));
+  }
+
+  @Override
+  public Object readObject(String path) throws IOException {
+    try (InputStream in = open(path)) {
+      return xstream.fromXML(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+  }
+
+  @Override
+  public void close() {
+    archive.release();
+  }
+}
@@ -310,6 +310,29 @@ public static Float paramAsFloat(
   public static JsonElement paramAsJson(String functionName, List<Object> parameters, int index)
       throws ParserException {
     JsonElement jsonElement = JSONMacroFunctions.getInstance().asJsonElement(parameters.get(index));
+    return checkJson(functionName, index, jsonElement);
+  }
+
+  /**
+   * Return the jsonObject or jsonArray value of a parameter without copying it, see {@link
+   * JSONMacroFunctions#asSharedJsonElement(Object)}. The value must only be read. Throws a <code>
+   * ParserException</code> if the parameter can't be converted to a json.
+   *
+   * @param functionName this is used in the exception message
+   * @param parameters the list of parameters
+   * @param index the index of the parameter to return as Json
+   * @return the parameter as a jsonObject or jsonArray
+   * @throws ParserException if the parameter can't be converted to jsonObject or jsonArray
+   */
+  public static JsonElement paramAsSharedJson(
+      String functionName, List<Object> parameters, int index) throws ParserException {
+    JsonElement jsonElement =
+        JSONMacroFunctions.getInstance().asSharedJsonElement(parameters.get(index));
+    return checkJson(functionName, index, jsonElement);
+  }
+
+  private static JsonElement checkJson(String functionName, int index, JsonElement jsonElement)
+      throws ParserException {
     if (!jsonElement.isJsonObject() && !jsonElement.isJsonArray()) {
       throw new ParserException(I18N.getText(KEY_NOT_JSON, functionName, index + 1));
     }
@@ -370,18 +393,40 @@ public static JsonElement paramConvertedToJson(
     try {
       return paramAsJson(functionName, parameters, index);
     } catch (ParserException e) {
-      JsonArray json = new JsonArray();
-      Object val = parameters.get(index);
-      if (val.toString().length() > 0) {
-        if (val instanceof Number) {
-          json.add((Number) val);
-        } else {
-          json.add(val.toString());
-        }
-      }
+      return wrapInJsonArray(parameters.get(index));
+    }
+  }
+
+  /**
+   * Return the jsonElement value of a parameter like {@link #paramConvertedToJson(String, List,
+   * int)}, but without copying it, see {@link JSONMacroFunctions#asSharedJsonElement(Object)}. The
+   * value must only be read.
+   *
+   * @param functionName this is used in the exception message
+   * @param parameters the list of parameters
+   * @param index the index of the parameter to return as jsonArray
+   * @return the parameter as a jsonArray
+   */
+  public static JsonElement paramConvertedToSharedJson(
+      String functionName, List<Object> parameters, int index) {
+    try {
+      return paramAsSharedJson(functionName, parameters, index);
+    } catch (ParserException e) {
+      return wrapInJsonArray(parameters.get(index));
+    }
+  }
 
-      return json;
+  private static JsonArray wrapInJsonArray(Object val) {
+    JsonArray json = new JsonArray();
+    if (val.toString().length() > 0) {
+      if (val instanceof Number) {
+        json.add((Number) val);
+      } else {
+        json.add(val.toString());
+      }
     }
+
+    return json;
   }
 
   /**
@@ -404,6 +449,27 @@ public static JsonArray paramConvertedToJsonArray(
       return json.getAsJsonArray();
     }
   }
+
+  /**
+   * Return the jsonArray value of a parameter like {@link #paramConvertedToJsonArray(String, List,
+   * int)}, but without copying it, see {@link JSONMacroFunctions#asSharedJsonElement(Object)}. The
+   * value must only be read.
+   *
+   * @param functionName this is used in the exception message
+   * @param parameters the list of parameters
+   * @param index the index of the parameter to return as Json
+   * @return the parameter as a jsonArray
+   * @throws ParserException if the parameter can't be converted to jsonArray
+   */
+  public static JsonArray paramConvertedToSharedJsonArray(
+      String functionName, List<Object> parameters, int index) throws ParserException {
+    JsonElement json = paramConvertedToSharedJson(functionName, parameters, index);
+    if (!json.isJsonArray()) {
+      throw new ParserException(I18N.getText(KEY_NOT_JSON_ARRAY, functionName, index + 1));
+    } else {
+      return json.getAsJsonArray();
+    }
+  }
   /**
    * Convert an object into a boolean value. Never returns an error.
    *
@@ -0,0 +1,199 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import net.rptools.lib.MD5Key;
+
+/**
+ * The memory budget of the loaded images of the {@link ImageManager}. The budget is split between
+ * a bounded cache, which evicts the least recently used images, and the pinned images, which are
+ * kept until they are unpinned. Images that would take the pinned images over their share stay in
+ * the bounded cache instead, so that both together never hold more than the budget.
+ *
+ * <p>The bounded cache is split into segments with a lock each, and every segment evicts on its own
+ * share of the budget. An image larger than that share would be evicted as soon as it is put, so
+ * such images must not be put into the cache at all, see {@link #fitsCache(long)}.
+ */
+final class ImageBudget {
+  /** Share of the budget that pinned images may take up. */
+  private static final int PINNED_BUDGET_DIVISOR = 2;
+
+  /** Segments of the bounded cache, so that loading threads and the renderer rarely contend. */
+  private static final int CONCURRENCY_LEVEL = 4;
+
+  private final long maxBytes;
+  private final long maxPinnedBytes;
+  /** The smallest share of the bounded cache any segment gets. */
+  private final long maxCachedImageBytes;
+  private final Cache<Object, BufferedImage> cache;
+  private final Map<MD5Key, BufferedImage> pinnedImages = new HashMap<MD5Key, BufferedImage>();
+  private long pinnedBytes;
+  /** Bumped on every flush, so that images derived from flushed ones are not cached again. */
+  private final AtomicLong generation = new AtomicLong();
+
+  /**
+   * @param maxBytes the bytes the rasters of all loaded images may take up
+   * @param removalListener notified of every image that leaves the bounded cache
+   */
+  ImageBudget(long maxBytes, RemovalListener<Object, BufferedImage> removalListener) {
+    this.maxBytes = maxBytes;
+    this.maxPinnedBytes = maxBytes / PINNED_BUDGET_DIVISOR;
+    // The cache never has more segments than the concurrency level, so none gets less than this
+    this.maxCachedImageBytes = (maxBytes - maxPinnedBytes) / CONCURRENCY_LEVEL;
+    this.cache =
+        CacheBuilder.newBuilder()
+            .concurrencyLevel(CONCURRENCY_LEVEL)
+            .maximumWeight(maxBytes - maxPinnedBytes)
+            .weigher((Object key, BufferedImage image) -> getWeight(image))
+            .removalListener(removalListener)
+            .build();
+  }
+
+  /** @return the bounded cache, keyed by asset id or by the key of a scaled image. */
+  Cache<Object, BufferedImage> getCache() {
+    return cache;
+  }
+
+  /** @return the current flush generation, to pass to {@link #putIfCurrent}. */
+  long getGeneration() {
+    return generation.get();
+  }
+
+  /**
+   * @param bytes the weight of an image, see {@link #getWeight(BufferedImage)}
+   * @return true if an image of that weight can be kept in the bounded cache. Larger images would
+   *     be evicted from their segment right away.
+   */
+  boolean fitsCache(long bytes) {
+    return bytes <= maxCachedImageBytes;
+  }
+
+  /**
+   * Put an image into the bounded cache, unless images were flushed since the generation was
+   * read or it does not fit. An image put while a flush is running is removed again.
+   *
+   * @param generation the generation read before the image was derived
+   * @return true if the image was put into the cache, even if it was removed again right away
+   */
+  boolean putIfCurrent(Object key, BufferedImage image, long generation) {
+    if (this.generation.get() != generation || !fitsCache(getWeight(image))) {
+      return false;
+    }
+    cache.put(key, image);
+    if (this.generation.get() != generation) {
+      cache.asMap().remove(key, image);
+    }
+    return true;
+  }
+
+  /**
+   * Remove the images of the matching keys from the bounded cache, and start a new flush
+   * generation.
+   */
+  void invalidateIf(Predicate<Object> keys) {
+    generation.incrementAndGet();
+    cache.asMap().keySet().removeIf(keys);
+  }
+
+  /** @return the pinned image of the asset, or null if it is not pinned. */
+  synchronized BufferedImage getPinned(MD5Key assetId) {
+    return pinnedImages.get(assetId);
+  }
+
+  /**
+   * Pin the image of an asset, replacing the image pinned for it before.
+   *
+   * @return false if the image does not fit into the share of the pinned images, it is not pinned
+   *     then
+   */
+  synchronized boolean putPinned(MD5Key assetId, BufferedImage image) {
+    BufferedImage old = pinnedImages.get(assetId);
+    long bytes = pinnedBytes + getWeight(image) - (old != null ? getWeight(old) : 0);
+    if (bytes > maxPinnedBytes) {
+      return false;
+    }
+    pinnedImages.put(assetId, image);
+    pinnedBytes = bytes;
+    return true;
+  }
+
+  /** @return the image that was pinned for the asset, or null if it was not pinned. */
+  synchronized BufferedImage removePinned(MD5Key assetId) {
+    BufferedImage image = pinnedImages.remove(assetId);
+    if (image != null) {
+      pinnedBytes -= getWeight(image);
+    }
+    return image;
+  }
+
+  /** @return a copy of the ids of the pinned assets. */
+  synchronized Set<MD5Key> getPinnedIds() {
+    return new HashSet<MD5Key>(pinnedImages.keySet());
+  }
+
+  /**
+   * Unpin all images, and remove all images from the bounded cache.
+   *
+   * @return the images that were pinned, by asset id
+   */
+  Map<MD5Key, BufferedImage> clear() {
+    generation.incrementAndGet();
+    Map<MD5Key, BufferedImage> unpinned;
+    synchronized (this) {
+      unpinned = new HashMap<MD5Key, BufferedImage>(pinnedImages);
+      pinnedImages.clear();
+      pinnedBytes = 0;
+    }
+    cache.invalidateAll();
+    return unpinned;
+  }
+
+  /** @return the bytes used by the pinned images. */
+  synchronized long getPinnedBytes() {
+    return pinnedBytes;
+  }
+
+  /** @return the bytes the rasters of all loaded images may take up. */
+  long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /** @return the bytes the pinned images may take up. */
+  long getMaxPinnedBytes() {
+    return maxPinnedBytes;
+  }
+
+  /** @return the number of bytes used by the raster of the image. */
+  static int getWeight(BufferedImage image) {
+    DataBuffer buffer = image.getRaster().getDataBuffer();
+    long bytes =
+        (long) buffer.getSize()
+            * buffer.getNumBanks()
+            * DataBuffer.getDataTypeSize(buffer.getDataType())
+            / 8;
+    return (int) Math.min(Integer.MAX_VALUE, bytes);
+  }
+}
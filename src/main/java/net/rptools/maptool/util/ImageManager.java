@@ -14,6 +14,12 @@
  */
 package net.rptools.maptool.util;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.Striped;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
 import java.io.IOException;
@@ -21,13 +27,16 @@
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
 import net.rptools.lib.MD5Key;
 import net.rptools.lib.image.ImageUtil;
+import net.rptools.maptool.client.AppPreferences;
 import net.rptools.maptool.model.Asset;
 import net.rptools.maptool.model.AssetAvailableListener;
 import net.rptools.maptool.model.AssetManager;
+import net.rptools.maptool.util.LoadingStage.Priority;
 import org.apache.commons.collections4.map.AbstractReferenceMap;
 import org.apache.commons.collections4.map.ReferenceMap;
 import org.apache.logging.log4j.LogManager;
@@ -38,21 +47,64 @@
  * image data from an asset. The loading of the raw image data into a usable class is done in the
  * background by one of two threads. The ImageManager will return a "?" (UNKNOWN_IMAGE) if the asset
  * is still downloading or the asset image is still being loaded, and a "X" (BROKEN_IMAGE) if the
- * asset or image is invalid. Small images are loaded using a different thread pool from large
- * images, and allows small images to load quicker.
+ * asset or image is invalid. Images are decoded and then published to the cache on {@link
+ * LoadingStage}s, where images needed on screen go ahead of the others.
+ *
+ * <p>Loaded images are kept in a cache bounded by the memory their rasters take up, evicting the
+ * least recently used images first. Images of the current map can be pinned with {@link
+ * #setPinnedImages(Set)}; pinned images are kept until they are unpinned, up to their share of the
+ * budget, see {@link ImageBudget}.
+ *
+ * <p>Reduced and flipped copies of an image for drawing it small are kept under the same budget,
+ * see {@link #getScaledImage(MD5Key, int, boolean, boolean, ImageObserver...)}.
  *
  * @author RPTools Team.
  */
 public class ImageManager {
   private static final Logger log = LogManager.getLogger(ImageManager.class);
 
-  /** Cache of images loaded for assets. */
-  private static final Map<MD5Key, BufferedImage> imageMap = new HashMap<MD5Key, BufferedImage>();
+  /** Cache budget used when the preference is not set, as a fraction of the maximum heap. */
+  private static final int DEFAULT_BUDGET_DIVISOR = 4;
+
+  /** Smallest cache budget, so that a small heap can still hold a map and its tokens. */
+  private static final long MIN_BUDGET = 64L * 1024 * 1024;
 
-  /** Additional Soft-reference Cache of images that allows best . */
+  /** Images reduced further than this are not worth the extra cache entry. */
+  private static final int MIN_SCALED_IMAGE_SIZE = 16;
+
+  /** The budget shared by the cached and the pinned images. */
+  private static final ImageBudget budget =
+      new ImageBudget(getCacheBudget(), ImageManager::imageRemoved);
+
+  /**
+   * Cache of images loaded for assets, weighed by the size of their raster. Keys are either the
+   * {@link MD5Key} of the loaded image or a {@link ScaledImageKey}.
+   */
+  private static final Cache<Object, BufferedImage> imageCache = budget.getCache();
+
+  private static volatile Set<MD5Key> pinnedIds = Collections.emptySet();
+
+  /**
+   * Additional Soft-reference Cache of evicted and flushed images, and of images too large for the
+   * cache, which the GC has not reclaimed yet.
+   */
   private static final Map<MD5Key, BufferedImage> backupImageMap =
-      new ReferenceMap(
-          AbstractReferenceMap.ReferenceStrength.HARD, AbstractReferenceMap.ReferenceStrength.SOFT);
+      Collections.synchronizedMap(
+          new ReferenceMap(
+              AbstractReferenceMap.ReferenceStrength.HARD,
+              AbstractReferenceMap.ReferenceStrength.SOFT));
+
+  /** The assets whose image is being loaded, with the priority they were last requested at. */
+  private static final Map<MD5Key, Priority> loadingIds =
+      new ConcurrentHashMap<MD5Key, Priority>();
+
+  /** Serializes the loading of each image, without making every image wait on the same lock. */
+  private static final Striped<Lock> imageLoaderLocks = Striped.lock(32);
+
+  private static final LongAdder hitCount = new LongAdder();
+  private static final LongAdder missCount = new LongAdder();
+  private static final LongAdder evictionCount = new LongAdder();
+  private static final AtomicLong cachedBytes = new AtomicLong();
 
   /**
    * The unknown image, a "?" is used for all situations where the image will eventually appear e.g.
@@ -68,12 +120,22 @@ public class ImageManager {
 
   public static BufferedImage BROKEN_IMAGE;
 
-  /** Small and large thread pools for background processing of asset raw image data. */
-  private static ExecutorService smallImageLoader = Executors.newFixedThreadPool(1);
+  /** Decodes the raw image data of assets. */
+  private static final LoadingStage decodeStage =
+      new LoadingStage("decode", LoadingStage.threadsPerCore(1));
 
-  private static ExecutorService largeImageLoader = Executors.newFixedThreadPool(1);
+  /** Puts decoded images in the cache and notifies their observers. */
+  private static final LoadingStage publishStage = new LoadingStage("publish", 1);
+
+  /**
+   * Builds reduced images, so that the renderer never has to wait for them. Package level for
+   * testing purposes.
+   */
+  static final LoadingStage scaleStage = new LoadingStage("scale", 1);
 
-  private static final Object imageLoaderMutex = new Object();
+  /** Observers of the scaled images that are being built. */
+  private static final Map<ScaledImageKey, Set<ImageObserver>> scaledImageObserverMap =
+      new ConcurrentHashMap<ScaledImageKey, Set<ImageObserver>>();
 
   /**
    * A Map containing sets of observers for each asset id. Observers are notified when the image is
@@ -101,10 +163,14 @@ public class ImageManager {
   /**
    * Remove all images from the image cache. The observers and image load hints are not flushed. The
    * same observers will be notified when the image is reloaded, and the same hints will be used for
-   * loading.
+   * loading. The flushed images are revived without decoding them again for as long as the GC
+   * leaves them alone.
    */
   public static void flush() {
-    imageMap.clear();
+    // The bounded cache hands its images to the backup through the removal listener
+    backupImageMap.putAll(budget.clear());
+    // Let images whose asset never arrived be requested again
+    loadingIds.clear();
   }
 
   /**
@@ -124,10 +190,51 @@ public static BufferedImage getImageAndWait(MD5Key assetId) {
    * @param exceptionSet a set of images not to be flushed
    */
   public static void flush(Set<MD5Key> exceptionSet) {
-    synchronized (imageLoaderMutex) {
-      for (MD5Key id : new HashSet<MD5Key>(imageMap.keySet())) {
-        if (!exceptionSet.contains(id)) {
-          imageMap.remove(id);
+    budget.invalidateIf(key -> !exceptionSet.contains(getAssetId(key)));
+    for (MD5Key id : budget.getPinnedIds()) {
+      if (!exceptionSet.contains(id)) {
+        flushImage(id);
+      }
+    }
+  }
+
+  /**
+   * Pin the images of the given assets, usually those of the current map, so that they are not
+   * evicted however many other images are loaded. Images that are no longer in the set go back to
+   * the bounded cache, where they will be evicted once other images need the room.
+   *
+   * @param ids the assets whose images should stay loaded
+   */
+  public static synchronized void setPinnedImages(Set<MD5Key> ids) {
+    Set<MD5Key> pinned = Collections.unmodifiableSet(new HashSet<MD5Key>(ids));
+    pinnedIds = pinned;
+    for (MD5Key id : budget.getPinnedIds()) {
+      if (!pinned.contains(id)) {
+        Lock lock = imageLoaderLocks.get(id);
+        lock.lock();
+        try {
+          BufferedImage image = budget.removePinned(id);
+          if (image != null) {
+            cacheImage(id, image);
+          }
+        } finally {
+          lock.unlock();
+        }
+      }
+    }
+    for (MD5Key id : pinned) {
+      BufferedImage image = imageCache.getIfPresent(id);
+      if (image != null) {
+        Lock lock = imageLoaderLocks.get(id);
+        lock.lock();
+        try {
+          if (budget.putPinned(id, image)) {
+            imageCache.invalidate(id);
+            // Not flushed, so no need for the backup the removal listener made
+            backupImageMap.remove(id);
+          }
+        } finally {
+          lock.unlock();
         }
       }
     }
@@ -179,46 +286,304 @@ public static BufferedImage getImageAndWait(final MD5Key assetId, Map<String, Ob
    * @return the image, or BROKEN_IMAGE if assetId null, or TRANSFERING_IMAGE if loading.
    */
   public static BufferedImage getImage(MD5Key assetId, ImageObserver... observers) {
-    return getImage(assetId, null, observers);
+    return getImage(assetId, null, Priority.VISIBLE, observers);
   }
 
   /**
    * Return the image corresponding to the assetId.
    *
    * @param assetId Load image data from this asset.
-   * @param hints hints used when loading image data, if it isn't in the imageMap already.
+   * @param priority how urgently the image is needed, if it isn't in the cache already.
+   * @param observers the observers to be notified when the image loads, if it hasn't already.
+   * @return the image, or BROKEN_IMAGE if assetId null, or TRANSFERING_IMAGE if loading.
+   */
+  public static BufferedImage getImage(
+      MD5Key assetId, Priority priority, ImageObserver... observers) {
+    return getImage(assetId, null, priority, observers);
+  }
+
+  /**
+   * Return the image corresponding to the assetId.
+   *
+   * @param assetId Load image data from this asset.
+   * @param hints hints used when loading image data, if it isn't in the cache already.
    * @param observers the observers to be notified when the image loads, if it hasn't already.
    * @return the image, or BROKEN_IMAGE if assetId null, or TRANSFERING_IMAGE if loading.
    */
   public static BufferedImage getImage(
       MD5Key assetId, Map<String, Object> hints, ImageObserver... observers) {
+    return getImage(assetId, hints, Priority.VISIBLE, observers);
+  }
+
+  private static BufferedImage getImage(
+      MD5Key assetId, Map<String, Object> hints, Priority priority, ImageObserver... observers) {
     if (assetId == null) {
       return BROKEN_IMAGE;
     }
-    synchronized (imageLoaderMutex) {
-      BufferedImage image = imageMap.get(assetId);
-      if (image != null && image != TRANSFERING_IMAGE) {
+    BufferedImage image = getCachedImage(assetId);
+    if (image != null) {
+      hitCount.increment();
+      return image;
+    }
+
+    Lock lock = imageLoaderLocks.get(assetId);
+    lock.lock();
+    try {
+      image = getCachedImage(assetId);
+      if (image != null) {
+        hitCount.increment();
         return image;
       }
 
       // check if the soft reference still resolves image
-      image = backupImageMap.get(assetId);
+      image = backupImageMap.remove(assetId);
       if (image != null) {
-        imageMap.put(assetId, image);
+        hitCount.increment();
+        putImage(assetId, image);
         return image;
       }
 
-      // Make note that we're currently processing it
-      imageMap.put(assetId, TRANSFERING_IMAGE);
-
       // Make sure we are informed when it's done loading
       addObservers(assetId, observers);
 
-      // Force a load of the asset, this will trigger a transfer if the
-      // asset is not available locally
-      AssetManager.getAssetAsynchronously(assetId, new AssetListener(assetId, hints));
+      // Make note that we're currently processing it
+      Priority loading = loadingIds.putIfAbsent(assetId, priority);
+      if (loading == null) {
+        missCount.increment();
+        // Force a load of the asset, this will trigger a transfer if the
+        // asset is not available locally
+        AssetManager.getAssetAsynchronously(assetId, priority, new AssetListener(assetId, hints));
+      } else if (priority.compareTo(loading) < 0) {
+        // Requested in the background, but needed on screen now
+        loadingIds.put(assetId, priority);
+        AssetManager.getAssetAsynchronously(assetId, priority);
+      }
       return TRANSFERING_IMAGE;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** @return the image loaded for the asset, or null if it is not loaded. */
+  private static BufferedImage getCachedImage(MD5Key assetId) {
+    BufferedImage image = budget.getPinned(assetId);
+    return image != null ? image : imageCache.getIfPresent(assetId);
+  }
+
+  /** Store a loaded image, pinned if its asset is. The caller holds the lock of the asset. */
+  // Package level for testing purposes
+  static void putImage(MD5Key assetId, BufferedImage image) {
+    if (!pinnedIds.contains(assetId) || !budget.putPinned(assetId, image)) {
+      cacheImage(assetId, image);
+    }
+  }
+
+  private static void cacheImage(MD5Key assetId, BufferedImage image) {
+    if (!budget.fitsCache(ImageBudget.getWeight(image))) {
+      // Only kept for as long as the GC leaves it alone
+      backupImageMap.put(assetId, image);
+      return;
+    }
+    // Counted first, as the removal listener may already run during the put
+    cachedBytes.addAndGet(ImageBudget.getWeight(image));
+    imageCache.put(assetId, image);
+  }
+
+  /** Cache an image derived from another, unless images were flushed since the generation. */
+  private static void cacheImage(Object key, BufferedImage image, long generation) {
+    cachedBytes.addAndGet(ImageBudget.getWeight(image));
+    if (!budget.putIfCurrent(key, image, generation)) {
+      cachedBytes.addAndGet(-ImageBudget.getWeight(image));
+    }
+  }
+
+  /** @return the asset of a key of the image cache. */
+  private static MD5Key getAssetId(Object key) {
+    return key instanceof ScaledImageKey ? ((ScaledImageKey) key).assetId : (MD5Key) key;
+  }
+
+  private static void imageRemoved(RemovalNotification<Object, BufferedImage> notification) {
+    BufferedImage image = notification.getValue();
+    if (image == null) {
+      return;
+    }
+    cachedBytes.addAndGet(-ImageBudget.getWeight(image));
+    if (notification.wasEvicted()) {
+      evictionCount.increment();
+    }
+    if (notification.getCause() != RemovalCause.REPLACED
+        && notification.getKey() instanceof MD5Key) {
+      // Evicted or flushed, the image can still be revived as long as the GC leaves it alone
+      backupImageMap.put((MD5Key) notification.getKey(), image);
+    }
+  }
+
+  private static long getCacheBudget() {
+    long megabytes = AppPreferences.getImageCacheSize();
+    if (megabytes > 0) {
+      return megabytes * 1024 * 1024;
+    }
+    return Math.max(MIN_BUDGET, Runtime.getRuntime().maxMemory() / DEFAULT_BUDGET_DIVISOR);
+  }
+
+  /** @return a snapshot of the cache counters, for display. */
+  public static CacheStatistics getCacheStatistics() {
+    return new CacheStatistics(
+        hitCount.sum(),
+        missCount.sum(),
+        evictionCount.sum(),
+        cachedBytes.get(),
+        budget.getPinnedBytes(),
+        budget.getMaxBytes());
+  }
+
+  /**
+   * Return the pyramid level of an image that is closest to the size it is drawn at, without being
+   * smaller. Level 0 is the image itself, every further level halves its width and height.
+   *
+   * @param image the image to draw
+   * @param width the width the image is drawn at, in screen pixels
+   * @param height the height the image is drawn at, in screen pixels
+   * @return the level to pass to {@link #getScaledImage(MD5Key, int, boolean, boolean,
+   *     ImageObserver...)}
+   */
+  public static int getPyramidLevel(BufferedImage image, double width, double height) {
+    if (image == TRANSFERING_IMAGE || image == BROKEN_IMAGE || width <= 0 || height <= 0) {
+      return 0;
+    }
+    double ratio = Math.max(width / image.getWidth(), height / image.getHeight());
+    int level = 0;
+    while (ratio <= 0.5
+        && (image.getWidth() >> (level + 1)) >= MIN_SCALED_IMAGE_SIZE
+        && (image.getHeight() >> (level + 1)) >= MIN_SCALED_IMAGE_SIZE) {
+      ratio *= 2;
+      level++;
+    }
+    return level;
+  }
+
+  /**
+   * Return the image of the asset reduced to a level of its pyramid and flipped. Reduced images are
+   * built in the background the first time a level is asked for; until then the closest larger
+   * level that is available is returned and the observers are notified once the requested one is
+   * ready. Flipped images at full size are built right away, as there is nothing to fall back on.
+   *
+   * @param assetId Load image data from this asset
+   * @param level the level from {@link #getPyramidLevel(BufferedImage, double, double)}
+   * @param flipX true to mirror the image horizontally
+   * @param flipY true to mirror the image vertically
+   * @param observers the observers to be notified when the image loads, if it hasn't already.
+   * @return the image, or one of the placeholders if the asset image is not loaded yet.
+   */
+  public static BufferedImage getScaledImage(
+      MD5Key assetId, int level, boolean flipX, boolean flipY, ImageObserver... observers) {
+    // Read before the image, so that levels of an image flushed meanwhile are not cached
+    long generation = budget.getGeneration();
+    BufferedImage image = getCachedImage(assetId);
+    if (image == null) {
+      return getImage(assetId, observers);
+    }
+    if (image == TRANSFERING_IMAGE || image == BROKEN_IMAGE || (level == 0 && !flipX && !flipY)) {
+      return image;
+    }
+    if (!budget.fitsCache((long) ImageBudget.getWeight(image) >> (2 * level))) {
+      // Too large to be kept, so draw the image itself and flip it every time if need be
+      return flipX || flipY ? flipImage(image, flipX, flipY) : image;
+    }
+    ScaledImageKey key = new ScaledImageKey(assetId, level, flipX, flipY);
+    BufferedImage scaled = imageCache.getIfPresent(key);
+    if (scaled != null) {
+      return scaled;
     }
+    if (level == 0) {
+      return buildScaledImage(key, image, generation);
+    }
+
+    Set<ImageObserver> observerSet = ConcurrentHashMap.newKeySet();
+    observerSet.addAll(Arrays.asList(observers));
+    Set<ImageObserver> pending = scaledImageObserverMap.putIfAbsent(key, observerSet);
+    if (pending != null) {
+      pending.addAll(observerSet);
+    } else {
+      BufferedImage base = image;
+      scaleStage.execute(
+          Priority.VISIBLE, () -> backgroundBuildScaledImage(key, base, generation));
+    }
+
+    // Fall back on a larger level while waiting
+    for (int fallback = level - 1; fallback > 0; fallback--) {
+      scaled = imageCache.getIfPresent(new ScaledImageKey(assetId, fallback, flipX, flipY));
+      if (scaled != null) {
+        return scaled;
+      }
+    }
+    return getScaledImage(assetId, 0, flipX, flipY);
+  }
+
+  private static void backgroundBuildScaledImage(
+      ScaledImageKey key, BufferedImage base, long generation) {
+    BufferedImage image = null;
+    try {
+      image = buildScaledImage(key, base, generation);
+    } catch (Throwable t) {
+      log.error("Could not scale image " + key.assetId, t);
+    }
+    Set<ImageObserver> observerSet = scaledImageObserverMap.remove(key);
+    if (image != null && observerSet != null) {
+      for (ImageObserver observer : observerSet) {
+        observer.imageUpdate(
+            image, ImageObserver.ALLBITS, 0, 0, image.getWidth(), image.getHeight());
+      }
+    }
+  }
+
+  /** Build, and cache, the image for the key along with the levels above it. */
+  private static BufferedImage buildScaledImage(
+      ScaledImageKey key, BufferedImage base, long generation) {
+    BufferedImage image = base;
+    for (int level = 1; level <= key.level; level++) {
+      ScaledImageKey levelKey = new ScaledImageKey(key.assetId, level, false, false);
+      BufferedImage scaled = imageCache.getIfPresent(levelKey);
+      if (scaled == null) {
+        scaled = halveImage(image);
+        cacheImage(levelKey, scaled, generation);
+      }
+      image = scaled;
+    }
+    if (key.flipX || key.flipY) {
+      image = flipImage(image, key.flipX, key.flipY);
+      cacheImage(key, image, generation);
+    }
+    return image;
+  }
+
+  private static BufferedImage halveImage(BufferedImage image) {
+    int width = Math.max(1, image.getWidth() / 2);
+    int height = Math.max(1, image.getHeight() / 2);
+    BufferedImage scaled = ImageUtil.createCompatibleImage(width, height, image.getTransparency());
+    Graphics2D g = scaled.createGraphics();
+    g.setRenderingHint(
+        RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+    g.drawImage(image, 0, 0, width, height, null);
+    g.dispose();
+    return scaled;
+  }
+
+  private static BufferedImage flipImage(BufferedImage image, boolean flipX, boolean flipY) {
+    BufferedImage flipped =
+        ImageUtil.createCompatibleImage(
+            image.getWidth(), image.getHeight(), image.getTransparency());
+
+    int workW = image.getWidth() * (flipX ? -1 : 1);
+    int workH = image.getHeight() * (flipY ? -1 : 1);
+    int workX = flipX ? image.getWidth() : 0;
+    int workY = flipY ? image.getHeight() : 0;
+
+    Graphics2D g = flipped.createGraphics();
+    g.drawImage(image, workX, workY, workW, workH, null);
+    g.dispose();
+    return flipped;
   }
 
   /**
@@ -355,7 +720,18 @@ public static void flushImage(Asset asset) {
    */
   public static void flushImage(MD5Key assetId) {
     // LATER: investigate how this effects images that are already in progress
-    imageMap.remove(assetId);
+    Lock lock = imageLoaderLocks.get(assetId);
+    lock.lock();
+    try {
+      // The image along with its scaled copies
+      budget.invalidateIf(key -> getAssetId(key).equals(assetId));
+      BufferedImage image = budget.removePinned(assetId);
+      if (image != null) {
+        backupImageMap.put(assetId, image);
+      }
+    } finally {
+      lock.unlock();
+    }
   }
 
   /**
@@ -382,26 +758,31 @@ public static void addObservers(MD5Key assetId, ImageObserver... observers) {
   private static class BackgroundImageLoader implements Runnable {
     private final Asset asset;
     private final Map<String, Object> hints;
+    private final Priority priority;
 
     /**
      * Create a background image loader to load the asset image using the hints provided.
      *
      * @param asset Asset to load
      * @param hints Hints to use for image loading
+     * @param priority Priority to publish the image with
      */
-    public BackgroundImageLoader(Asset asset, Map<String, Object> hints) {
+    public BackgroundImageLoader(Asset asset, Map<String, Object> hints, Priority priority) {
       this.asset = asset;
       this.hints = hints;
+      this.priority = priority;
     }
 
     /** Load the asset raw image data and notify observers that the image is loaded. */
     public void run() {
       log.debug("Loading asset: " + asset.getId());
-      BufferedImage image = imageMap.get(asset.getId());
+      BufferedImage image = getCachedImage(asset.getId());
 
-      if (image != null && image != TRANSFERING_IMAGE) {
+      if (image != null) {
         // We've somehow already loaded this image
         log.debug("Image wasn't in transit: " + asset.getId());
+        loadingIds.remove(asset.getId());
+        notifyObservers(asset, image);
         return;
       }
 
@@ -439,13 +820,28 @@ public void run() {
         }
       }
 
-      synchronized (imageLoaderMutex) {
-        // Replace placeholder with actual image
-        imageMap.put(asset.getId(), image);
-        backupImageMap.put(asset.getId(), image);
-        notifyObservers(asset, image);
-      }
+      BufferedImage loadedImage = image;
+      publishStage.execute(priority, () -> publishImage(asset, loadedImage));
+    }
+  }
+
+  /**
+   * Replace the placeholder of the asset with the loaded image and notify the observers.
+   *
+   * @param asset the asset the image was loaded from
+   * @param image the loaded image
+   */
+  private static void publishImage(Asset asset, BufferedImage image) {
+    Lock lock = imageLoaderLocks.get(asset.getId());
+    lock.lock();
+    try {
+      putImage(asset.getId(), image);
+      loadingIds.remove(asset.getId());
+    } finally {
+      lock.unlock();
     }
+    // Observers registered after this point see the cached image instead
+    notifyObservers(asset, image);
   }
 
   /**
@@ -467,18 +863,15 @@ private static void notifyObservers(Asset asset, BufferedImage image) {
   }
 
   /**
-   * Run a thread to load the asset raw image data in the background using the provided hints.
+   * Queue the asset raw image data for decoding in the background using the provided hints.
    *
    * @param asset Load raw image data from this asset
    * @param hints Hints used when loading image data
+   * @param priority How urgently the image is needed
    */
-  private static void backgroundLoadImage(Asset asset, Map<String, Object> hints) {
-    // Use large image loader if the image is larger than 128kb.
-    if (asset.getImage().length > 128 * 1024) {
-      largeImageLoader.execute(new BackgroundImageLoader(asset, hints));
-    } else {
-      smallImageLoader.execute(new BackgroundImageLoader(asset, hints));
-    }
+  private static void backgroundLoadImage(
+      Asset asset, Map<String, Object> hints, Priority priority) {
+    decodeStage.execute(priority, new BackgroundImageLoader(asset, hints, priority));
   }
 
   private static class AssetListener implements AssetAvailableListener {
@@ -499,7 +892,8 @@ public void assetAvailable(MD5Key key) {
 
       // Image is now available for loading
       log.debug("Asset available: " + id);
-      backgroundLoadImage(AssetManager.getAsset(id), hints);
+      backgroundLoadImage(
+          AssetManager.getAsset(id), hints, loadingIds.getOrDefault(id, Priority.VISIBLE));
     }
 
     @Override
@@ -515,4 +909,90 @@ public boolean equals(Object o) {
       return Objects.equals(id, that.id);
     }
   }
+
+  /** Counters of the image cache, as returned by {@link #getCacheStatistics()}. */
+  public static class CacheStatistics {
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long cachedBytes;
+    private final long pinnedBytes;
+    private final long maxCachedBytes;
+
+    CacheStatistics(
+        long hitCount,
+        long missCount,
+        long evictionCount,
+        long cachedBytes,
+        long pinnedBytes,
+        long maxCachedBytes) {
+      this.hitCount = hitCount;
+      this.missCount = missCount;
+      this.evictionCount = evictionCount;
+      this.cachedBytes = cachedBytes;
+      this.pinnedBytes = pinnedBytes;
+      this.maxCachedBytes = maxCachedBytes;
+    }
+
+    /** @return the number of requests answered with a loaded image. */
+    public long getHitCount() {
+      return hitCount;
+    }
+
+    /** @return the number of requests that had to wait for an image to load. */
+    public long getMissCount() {
+      return missCount;
+    }
+
+    /** @return the number of images dropped to stay within the budget. */
+    public long getEvictionCount() {
+      return evictionCount;
+    }
+
+    /** @return the bytes used by images in the bounded cache. */
+    public long getCachedBytes() {
+      return cachedBytes;
+    }
+
+    /** @return the bytes used by pinned images, which count against the budget. */
+    public long getPinnedBytes() {
+      return pinnedBytes;
+    }
+
+    /** @return the budget of the cached and the pinned images together in bytes. */
+    public long getMaxCachedBytes() {
+      return maxCachedBytes;
+    }
+  }
+
+  /** Cache key of an image reduced to a level of its pyramid and flipped. */
+  private static final class ScaledImageKey {
+    private final MD5Key assetId;
+    private final int level;
+    private final boolean flipX;
+    private final boolean flipY;
+
+    ScaledImageKey(MD5Key assetId, int level, boolean flipX, boolean flipY) {
+      this.assetId = assetId;
+      this.level = level;
+      this.flipX = flipX;
+      this.flipY = flipY;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      ScaledImageKey that = (ScaledImageKey) o;
+      return level == that.level
+          && flipX == that.flipX
+          && flipY == that.flipY
+          && assetId.equals(that.assetId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(assetId, level, flipX, flipY);
+    }
+  }
 }
@@ -0,0 +1,204 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * One stage of the asset loading pipeline, such as reading assets from disk or decoding images. A
+ * stage has its own pool of threads, which take tasks by {@link Priority} and then in the order
+ * they were submitted. A task that is still waiting can be made more urgent, see {@link
+ * Task#raise(Priority)}. Every stage keeps count of the work it has done, see {@link #getStages()}.
+ */
+public class LoadingStage {
+  private static final Logger log = LogManager.getLogger(LoadingStage.class);
+
+  /** How urgently the result of a task is needed. */
+  public enum Priority {
+    /** Needed to draw what is on screen. */
+    VISIBLE,
+    /** Needed at some point, for example for the parts of the map that are scrolled off. */
+    BACKGROUND
+  }
+
+  private static final List<LoadingStage> stages = new CopyOnWriteArrayList<LoadingStage>();
+
+  private final String name;
+  private final int threadCount;
+  private final ThreadPoolExecutor executor;
+  private final AtomicLong sequence = new AtomicLong();
+  private final LongAdder completedCount = new LongAdder();
+  private final LongAdder busyNanos = new LongAdder();
+
+  /**
+   * @param name the name of the stage, used for its threads and in reports
+   * @param threadCount the number of tasks the stage runs at the same time
+   */
+  public LoadingStage(String name, int threadCount) {
+    this.name = name;
+    this.threadCount = threadCount;
+    executor =
+        new ThreadPoolExecutor(
+            threadCount,
+            threadCount,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<Runnable>(),
+            new ThreadFactoryBuilder()
+                .setNameFormat("asset-" + name + "-%d")
+                .setDaemon(true)
+                .build());
+    stages.add(this);
+  }
+
+  /**
+   * @param fraction the share of the processors to use
+   * @return the thread count for a stage that uses the given share of the processors, at least 1.
+   */
+  public static int threadsPerCore(double fraction) {
+    return Math.max(1, (int) (Runtime.getRuntime().availableProcessors() * fraction));
+  }
+
+  /** @return every stage that is running, in the order they were created. */
+  public static List<LoadingStage> getStages() {
+    return Collections.unmodifiableList(stages);
+  }
+
+  /**
+   * Queue a task for the stage.
+   *
+   * @param priority how urgently the task is needed
+   * @param task the task to run
+   * @return the queued task, whose priority can be raised while it waits
+   */
+  public Task execute(Priority priority, Runnable task) {
+    Task queued = new Task(priority, sequence.getAndIncrement(), task);
+    executor.execute(queued);
+    return queued;
+  }
+
+  /** Stop the threads of the stage once the queued tasks are done, and drop it from the stages. */
+  public void shutdown() {
+    stages.remove(this);
+    executor.shutdown();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getThreadCount() {
+    return threadCount;
+  }
+
+  /** @return the number of tasks waiting for a thread. */
+  public int getQueuedCount() {
+    return executor.getQueue().size();
+  }
+
+  /** @return the number of tasks that have run. */
+  public long getCompletedCount() {
+    return completedCount.sum();
+  }
+
+  /** @return the average time a task took, in milliseconds. */
+  public double getAverageTime() {
+    long completed = completedCount.sum();
+    return completed == 0 ? 0 : busyNanos.sum() / 1e6 / completed;
+  }
+
+  /** @return the tasks per second the stage handles with all its threads busy. */
+  public double getThroughput() {
+    double averageTime = getAverageTime();
+    return averageTime == 0 ? 0 : threadCount * 1000 / averageTime;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s (%d threads): %d done, %.1f ms each, %.0f/s, %d queued",
+        name,
+        threadCount,
+        getCompletedCount(),
+        getAverageTime(),
+        getThroughput(),
+        getQueuedCount());
+  }
+
+  /** A task queued for the stage, ordered by priority and then by submission. */
+  public class Task implements Runnable, Comparable<Task> {
+    /** Only changed while the task is out of the queue, so that the queue stays ordered. */
+    private volatile Priority priority;
+
+    private final long order;
+    private final Runnable task;
+
+    Task(Priority priority, long order, Runnable task) {
+      this.priority = priority;
+      this.order = order;
+      this.task = task;
+    }
+
+    public Priority getPriority() {
+      return priority;
+    }
+
+    /**
+     * Move the task ahead of the less urgent tasks, if it is still waiting for a thread.
+     *
+     * @param urgency how urgently the task is needed now
+     * @return true if the task was moved
+     */
+    public synchronized boolean raise(Priority urgency) {
+      if (urgency.compareTo(priority) >= 0 || !executor.getQueue().remove(this)) {
+        return false;
+      }
+      priority = urgency;
+      // Every thread of the stage is started, otherwise the task would not have been queued
+      executor.getQueue().add(this);
+      return true;
+    }
+
+    @Override
+    public void run() {
+      long start = System.nanoTime();
+      try {
+        task.run();
+      } catch (Throwable t) {
+        // Keep the thread for the next task
+        log.error("Task failed in loading stage " + name, t);
+      } finally {
+        busyNanos.add(System.nanoTime() - start);
+        completedCount.increment();
+      }
+    }
+
+    @Override
+    public int compareTo(Task other) {
+      int result = priority.compareTo(other.priority);
+      return result != 0 ? result : Long.compare(order, other.order);
+    }
+  }
+}
@@ -32,6 +32,7 @@
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -44,8 +45,10 @@
 import net.rptools.lib.ModelVersionManager;
 import net.rptools.lib.image.ImageUtil;
 import net.rptools.lib.io.PackedFile;
+import net.rptools.lib.io.PackedFileWriter;
 import net.rptools.lib.swing.SwingUtil;
 import net.rptools.maptool.client.AppConstants;
+import net.rptools.maptool.client.AppPreferences;
 import net.rptools.maptool.client.AppUtil;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.ui.Scale;
@@ -54,6 +57,7 @@
 import net.rptools.maptool.language.I18N;
 import net.rptools.maptool.model.Asset;
 import net.rptools.maptool.model.AssetManager;
+import net.rptools.maptool.model.AssetSource;
 import net.rptools.maptool.model.Campaign;
 import net.rptools.maptool.model.CampaignProperties;
 import net.rptools.maptool.model.GUID;
@@ -65,6 +69,9 @@
 import net.rptools.maptool.model.transform.campaign.ExportInfoTransform;
 import net.rptools.maptool.model.transform.campaign.PCVisionTransform;
 import net.rptools.maptool.model.transform.campaign.TokenPropertyMapTransform;
+import net.rptools.maptool.server.MapToolServer;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
@@ -76,7 +83,11 @@ public class PersistenceUtil {
 
   public static final String PROP_VERSION = "version"; // $NON-NLS-1$
   public static final String PROP_CAMPAIGN_VERSION = "campaignVersion"; // $NON-NLS-1$
-  private static final String ASSET_DIR = "assets/"; // $NON-NLS-1$
+  static final String ASSET_DIR = "assets/"; // $NON-NLS-1$
+  /** Where campaigns saved with {@link AppPreferences#getSaveZonesSeparately()} keep the zones. */
+  private static final String ZONE_DIR = "zones/"; // $NON-NLS-1$
+  /** The ids of the zones in {@link #ZONE_DIR}, in campaign order. */
+  static final String ZONE_INDEX = ZONE_DIR + "index.xml"; // $NON-NLS-1$
   public static final String HERO_LAB = "herolab"; // $NON-NLS-1$
 
   private static final String CAMPAIGN_VERSION = "1.4.1";
@@ -257,6 +268,195 @@ public static void saveCampaign(Campaign campaign, File campaignFile, String cam
     saveTimer.setEnabled(
         log.isDebugEnabled()); // Don't bother keeping track if it won't be displayed...
 
+    // Maps still waiting in the campaign file are needed for the save, and reading them closes the
+    // file, which could otherwise not be replaced on Windows. The copy of the server in this
+    // process shares the file.
+    campaign.loadPendingZones();
+    MapToolServer server = MapTool.getServer();
+    if (server != null && server.getCampaign() != null) {
+      server.getCampaign().loadPendingZones();
+    }
+
+    // Configure the meta file (this is for legacy support)
+    PersistedCampaign persistedCampaign = new PersistedCampaign();
+
+    persistedCampaign.campaign = campaign;
+
+    // Keep track of the current view
+    ZoneRenderer currentZoneRenderer = MapTool.getFrame().getCurrentZoneRenderer();
+    if (currentZoneRenderer != null) {
+      persistedCampaign.currentZoneId = currentZoneRenderer.getZone().getId();
+      persistedCampaign.currentView = currentZoneRenderer.getZoneScale();
+    }
+    // Save all assets in active use (consolidate duplicates between maps)
+    saveTimer.start("Collect all assets");
+    Set<MD5Key> allAssetIds = campaign.getAllAssetIds();
+    for (MD5Key key : allAssetIds) {
+      // Put in a placeholder; all we really care about is the MD5Key for now...
+      persistedCampaign.assetMap.put(key, null);
+    }
+    saveTimer.stop("Collect all assets");
+
+    try {
+      // If we are exporting the campaign, we will strip classes/fields that were added since the
+      // specified campaignVersion
+      if (campaignVersion != null) {
+        exportCampaign(persistedCampaign, allAssetIds, campaignFile, campaignVersion, saveTimer);
+      } else {
+        writeCampaign(persistedCampaign, allAssetIds, campaignFile, saveTimer);
+      }
+    } catch (OutOfMemoryError oom) {
+      /*
+       * This error is normally because the heap space has been exceeded while trying to save the campaign. Since MapTool caches the images used by the current Zone, and since the
+       * VersionManager must keep the XML for objects in memory in order to apply transforms to them, the memory usage can spike very high during the save() operation. A common solution is
+       * to switch to an empty map and perform the save from there; this causes MapTool to unload any images that it may have had cached and this can frequently free up enough memory for the
+       * save() to work. We'll tell the user all this right here and then fail the save and they can try again.
+       */
+      if (log.isDebugEnabled()) {
+        log.debug(saveTimer);
+      }
+      MapTool.showError("msg.error.failedSaveCampaignOOM");
+      return;
+    }
+
+    // Save the campaign thumbnail
+    saveTimer.start("Thumbnail");
+    saveCampaignThumbnail(campaignFile.getName());
+    saveTimer.stop("Thumbnail");
+
+    if (log.isDebugEnabled()) {
+      log.debug(saveTimer);
+    }
+  }
+
+  /**
+   * Writes the campaign in a single pass. Assets that are already in the previous version of the
+   * file are copied over without being decompressed, the rest are compressed in parallel, and the
+   * content is serialized straight into the zip. The old file is only replaced once the new one is
+   * complete.
+   */
+  private static void writeCampaign(
+      PersistedCampaign persistedCampaign,
+      Collection<MD5Key> assetIds,
+      File campaignFile,
+      CodeTimer saveTimer)
+      throws IOException {
+    try (PackedFileWriter writer = new PackedFileWriter(campaignFile)) {
+      saveTimer.start("Save assets");
+      // The previous file has to be closed again before it can be replaced
+      try (ZipFile previous = openPreviousCampaign(campaignFile)) {
+        saveAssets(assetIds, writer, previous);
+      }
+      saveTimer.stop("Save assets");
+
+      if (AppPreferences.getSaveZonesSeparately()) {
+        saveTimer.start("Save zones");
+        saveZones(persistedCampaign.campaign, writer);
+        saveTimer.stop("Save zones");
+      }
+
+      saveTimer.start("Set content");
+      writer.setContent(persistedCampaign);
+      writer.setProperty(PROP_CAMPAIGN_VERSION, CAMPAIGN_VERSION);
+      writer.setProperty(PROP_VERSION, MapTool.getVersion());
+      saveTimer.stop("Set content");
+
+      saveTimer.start("Save");
+      boolean reopenAssets = closeAssetSource(campaignFile);
+      try {
+        writer.save();
+      } finally {
+        if (reopenAssets) {
+          openAssetSource(campaignFile);
+        }
+      }
+      saveTimer.stop("Save");
+    }
+  }
+
+  /**
+   * Writes every zone to an entry of its own and leaves them out of the content, so that loading
+   * the campaign can defer deserializing them until they are needed.
+   */
+  private static void saveZones(Campaign campaign, PackedFileWriter writer) throws IOException {
+    List<GUID> zoneIds = new ArrayList<GUID>();
+    for (Zone zone : campaign.getZones()) {
+      writer.putFile(getZonePath(zone.getId()), zone);
+      zoneIds.add(zone.getId());
+    }
+    writer.putFile(ZONE_INDEX, zoneIds);
+    writer.getXStream().omitField(Campaign.class, "zones");
+  }
+
+  static String getZonePath(GUID zoneId) {
+    return ZONE_DIR + zoneId + ".xml";
+  }
+
+  /**
+   * Closes the source of the assets still waiting in the campaign file, if it is that file, which
+   * can not be replaced or overwritten while it is open. Those assets are in the new version of the
+   * file as well, which becomes their source through {@link #openAssetSource(File)}.
+   *
+   * @param campaignFile the campaign about to be replaced or overwritten
+   * @return true if the source was closed
+   */
+  private static boolean closeAssetSource(File campaignFile) {
+    AssetSource source = AssetManager.getAssetSource();
+    if (source instanceof CampaignAssetSource
+        && ((CampaignAssetSource) source).getFile().equals(campaignFile.getAbsoluteFile())) {
+      AssetManager.setAssetSource(null);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Makes the campaign file the source of the assets that have not been read yet.
+   *
+   * @param campaignFile the file of the open campaign
+   */
+  private static void openAssetSource(File campaignFile) {
+    try (PackedFile pakFile = new PackedFile(campaignFile)) {
+      String progVersion = (String) pakFile.getProperty(PROP_VERSION);
+      String campaignVersion = (String) pakFile.getProperty(PROP_CAMPAIGN_VERSION);
+      CampaignArchive archive = CampaignArchive.open(campaignFile);
+      try {
+        AssetManager.setAssetSource(new CampaignAssetSource(archive, progVersion, campaignVersion));
+      } finally {
+        archive.release();
+      }
+    } catch (IOException e) {
+      log.warn("Could not reopen " + campaignFile + " for the assets that are not cached", e);
+    }
+  }
+
+  /**
+   * @param campaignFile the campaign about to be overwritten
+   * @return the current version of the file, or null if there is none that can be read
+   */
+  private static ZipFile openPreviousCampaign(File campaignFile) {
+    if (!campaignFile.exists()) {
+      return null;
+    }
+    try {
+      return new ZipFile(campaignFile);
+    } catch (IOException e) {
+      log.warn("Not reusing assets of unreadable campaign " + campaignFile, e);
+      return null;
+    }
+  }
+
+  /**
+   * Writes the campaign in the format of an older version through a {@link PackedFile}, so that
+   * {@link CampaignExport} can strip what that version does not know about.
+   */
+  private static void exportCampaign(
+      PersistedCampaign persistedCampaign,
+      Collection<MD5Key> assetIds,
+      File campaignFile,
+      String campaignVersion,
+      CodeTimer saveTimer)
+      throws IOException {
     // Strategy: save the file to a tmp location so that if there's a failure the original file
     // won't be touched. Then once we're finished, replace the old with the new.
     File tmpDir = AppUtil.getTmpDir();
@@ -266,66 +466,26 @@ public static void saveCampaign(Campaign campaign, File campaignFile, String cam
     PackedFile pakFile = null;
     try {
       pakFile = new PackedFile(tmpFile);
-      // Configure the meta file (this is for legacy support)
-      PersistedCampaign persistedCampaign = new PersistedCampaign();
-
-      persistedCampaign.campaign = campaign;
-
-      // Keep track of the current view
-      ZoneRenderer currentZoneRenderer = MapTool.getFrame().getCurrentZoneRenderer();
-      if (currentZoneRenderer != null) {
-        persistedCampaign.currentZoneId = currentZoneRenderer.getZone().getId();
-        persistedCampaign.currentView = currentZoneRenderer.getZoneScale();
-      }
-      // Save all assets in active use (consolidate duplicates between maps)
-      saveTimer.start("Collect all assets");
-      Set<MD5Key> allAssetIds = campaign.getAllAssetIds();
-      for (MD5Key key : allAssetIds) {
-        // Put in a placeholder; all we really care about is the MD5Key for now...
-        persistedCampaign.assetMap.put(key, null);
-      }
-      saveTimer.stop("Collect all assets");
 
       // And store the asset elsewhere
       saveTimer.start("Save assets");
-      saveAssets(allAssetIds, pakFile);
+      saveAssets(assetIds, pakFile);
       saveTimer.stop("Save assets");
 
-      try {
-        saveTimer.start("Set content");
-
-        // If we are exporting the campaign, we will strip classes/fields that were added since the
-        // specified campaignVersion
-        if (campaignVersion != null) {
-          pakFile = CampaignExport.stripContent(pakFile, persistedCampaign, campaignVersion);
-        } else {
-          pakFile.setContent(persistedCampaign);
-          pakFile.setProperty(PROP_CAMPAIGN_VERSION, CAMPAIGN_VERSION);
-          pakFile.setProperty(PROP_VERSION, MapTool.getVersion());
-        }
+      saveTimer.start("Set content");
+      pakFile = CampaignExport.stripContent(pakFile, persistedCampaign, campaignVersion);
+      saveTimer.stop("Set content");
 
-        saveTimer.stop("Set content");
-        saveTimer.start("Save");
-        pakFile.save();
-        saveTimer.stop("Save");
-      } catch (OutOfMemoryError oom) {
-        /*
-         * This error is normally because the heap space has been exceeded while trying to save the campaign. Since MapTool caches the images used by the current Zone, and since the
-         * VersionManager must keep the XML for objects in memory in order to apply transforms to them, the memory usage can spike very high during the save() operation. A common solution is
-         * to switch to an empty map and perform the save from there; this causes MapTool to unload any images that it may have had cached and this can frequently free up enough memory for the
-         * save() to work. We'll tell the user all this right here and then fail the save and they can try again.
-         */
-        saveTimer.start("OOM Close");
-        pakFile.close(); // Have to close the tmpFile first on some OSes
-        pakFile = null;
-        tmpFile.delete(); // Delete the temporary file
-        saveTimer.stop("OOM Close");
-        if (log.isDebugEnabled()) {
-          log.debug(saveTimer);
-        }
-        MapTool.showError("msg.error.failedSaveCampaignOOM");
-        return;
-      }
+      saveTimer.start("Save");
+      pakFile.save();
+      saveTimer.stop("Save");
+    } catch (OutOfMemoryError oom) {
+      saveTimer.start("OOM Close");
+      pakFile.close(); // Have to close the tmpFile first on some OSes
+      pakFile = null;
+      tmpFile.delete(); // Delete the temporary file
+      saveTimer.stop("OOM Close");
+      throw oom;
     } finally {
       saveTimer.start("Close");
       try {
@@ -353,20 +513,18 @@ public static void saveCampaign(Campaign campaign, File campaignFile, String cam
     }
 
     saveTimer.start("Backup tmpFile");
-    FileUtil.copyFile(tmpFile, campaignFile);
+    boolean reopenAssets = closeAssetSource(campaignFile);
+    try {
+      FileUtil.copyFile(tmpFile, campaignFile);
+    } finally {
+      if (reopenAssets) {
+        openAssetSource(campaignFile);
+      }
+    }
     tmpFile.delete();
     saveTimer.stop("Backup tmpFile");
     if (bakFile.exists()) bakFile.delete();
     saveTimer.stop("Backup");
-
-    // Save the campaign thumbnail
-    saveTimer.start("Thumbnail");
-    saveCampaignThumbnail(campaignFile.getName());
-    saveTimer.stop("Thumbnail");
-
-    if (log.isDebugEnabled()) {
-      log.debug(saveTimer);
-    }
   }
 
   /*
@@ -430,13 +588,22 @@ public static PersistedCampaign loadCampaign(File campaignFile) throws IOExcepti
         MapTool.showError("PersistenceUtil.error.campaignVersion", ce);
       }
       if (persistedCampaign != null) {
-        // Now load up any images that we need
-        // Note that the values are all placeholders
-        Set<MD5Key> allAssetIds = persistedCampaign.assetMap.keySet();
-        loadAssets(allAssetIds, pakFile);
         for (Zone zone : persistedCampaign.campaign.getZones()) {
           zone.optimize();
         }
+        // The assets, and the zones stored separately, are only read once they are needed
+        CampaignArchive archive = CampaignArchive.open(campaignFile);
+        try {
+          AssetManager.setAssetSource(
+              new CampaignAssetSource(
+                  archive, progVersion, (String) pakFile.getProperty(PROP_CAMPAIGN_VERSION)));
+          if (archive.hasEntry(ZONE_INDEX)) {
+            persistedCampaign.campaign.setZoneLoader(
+                new ZipZoneLoader(archive, campaignVersionManager, campaignVersion));
+          }
+        } finally {
+          archive.release();
+        }
 
         // for (Entry<String, Map<GUID, LightSource>> entry :
         // persistedCampaign.campaign.getLightSourcesMap().entrySet()) {
@@ -624,55 +791,26 @@ private static void loadAssets(Collection<MD5Key> assetIds, PackedFile pakFile)
     // FJE: Ugly fix for a bug I introduced in b64. :(
     boolean fixRequired = "1.3.b64".equals(progVersion);
 
+    AssetEntries entries =
+        new AssetEntries() {
+          @Override
+          public InputStream open(String path) throws IOException {
+            return pakFile.getFileAsInputStream(path);
+          }
+
+          @Override
+          public Object readObject(String path) throws IOException {
+            return pakFile.getFileObject(path);
+          }
+        };
     for (MD5Key key : assetIds) {
       if (key == null) continue;
 
       if (!AssetManager.hasAsset(key)) {
-        String pathname = ASSET_DIR + key;
-        Asset asset = null;
-        if (fixRequired) {
-          try (InputStream is = pakFile.getFileAsInputStream(pathname)) {
-            asset = new Asset(key.toString(), IOUtils.toByteArray(is)); // Ugly bug fix :(
-          } catch (FileNotFoundException fnf) {
-            // Doesn't need to be reported, since that's handled below.
-          } catch (Exception e) {
-            log.error("Could not load asset from 1.3.b64 file in compatibility mode", e);
-          }
-        } else {
-          try {
-            asset = (Asset) pakFile.getFileObject(pathname); // XML deserialization
-          } catch (Exception e) {
-            // Do nothing. The asset will be 'null' and it'll be handled below.
-            log.info("Exception while handling asset '" + pathname + "'", e);
-          }
-        }
-        if (asset == null) { // Referenced asset not included in PackedFile??
-          log.error("Referenced asset '" + pathname + "' not found while loading?!");
+        Asset asset = readAsset(key, entries, fixRequired, campaignVersion);
+        if (asset == null) {
           continue;
         }
-        // If the asset was marked as "broken" then ignore it completely. The end
-        // result is that MT will attempt to load it from a repository again, as normal.
-        if ("broken".equals(asset.getName())) {
-          log.warn("Reference to 'broken' asset '" + pathname + "' not restored.");
-          ImageManager.flushImage(asset);
-          continue;
-        }
-        // pre 1.3b52 campaign files stored the image data directly in the asset serialization.
-        // New XStreamConverter creates empty byte[] for image.
-        if (asset.getImage() == null || asset.getImage().length < 4) {
-          String ext = asset.getImageExtension();
-          pathname = pathname + "." + (StringUtil.isEmpty(ext) ? "dat" : ext);
-          pathname = assetnameVersionManager.transform(pathname, campaignVersion);
-          try (InputStream is = pakFile.getFileAsInputStream(pathname)) {
-            asset.setImage(IOUtils.toByteArray(is));
-          } catch (FileNotFoundException fnf) {
-            log.error("Image data for '" + pathname + "' not found?!", fnf);
-            continue;
-          } catch (Exception e) {
-            log.error("While reading image data for '" + pathname + "'", e);
-            continue;
-          }
-        }
         AssetManager.putAsset(asset);
         addToServer.add(asset);
       }
@@ -697,6 +835,82 @@ private static void loadAssets(Collection<MD5Key> assetIds, PackedFile pakFile)
     }
   }
 
+  /** The entries of a campaign or token file that {@link #readAsset} reads an asset from. */
+  interface AssetEntries {
+    /**
+     * @param path the path of the entry
+     * @return the content of the entry
+     * @throws IOException if the entry can not be read, FileNotFoundException if there is none
+     */
+    InputStream open(String path) throws IOException;
+
+    /**
+     * @param path the path of the entry
+     * @return the object deserialized from the XML of the entry
+     * @throws IOException if the entry can not be read
+     */
+    Object readObject(String path) throws IOException;
+  }
+
+  /**
+   * Reads an asset of a campaign or token file: the XML that describes it, and its image data.
+   *
+   * @param key the id of the asset
+   * @param entries the entries of the file
+   * @param fixRequired true for files written by 1.3.b64, which only have the image data
+   * @param campaignVersion the campaign version of the file
+   * @return the asset, or null if the file does not have it or it was marked as broken
+   */
+  static Asset readAsset(
+      MD5Key key, AssetEntries entries, boolean fixRequired, String campaignVersion) {
+    String pathname = ASSET_DIR + key;
+    Asset asset = null;
+    if (fixRequired) {
+      try (InputStream is = entries.open(pathname)) {
+        asset = new Asset(key.toString(), IOUtils.toByteArray(is)); // Ugly bug fix :(
+      } catch (FileNotFoundException fnf) {
+        // Doesn't need to be reported, since that's handled below.
+      } catch (Exception e) {
+        log.error("Could not load asset from 1.3.b64 file in compatibility mode", e);
+      }
+    } else {
+      try {
+        asset = (Asset) entries.readObject(pathname); // XML deserialization
+      } catch (Exception e) {
+        // Do nothing. The asset will be 'null' and it'll be handled below.
+        log.info("Exception while handling asset '" + pathname + "'", e);
+      }
+    }
+    if (asset == null) { // Referenced asset not included in PackedFile??
+      log.error("Referenced asset '" + pathname + "' not found while loading?!");
+      return null;
+    }
+    // If the asset was marked as "broken" then ignore it completely. The end
+    // result is that MT will attempt to load it from a repository again, as normal.
+    if ("broken".equals(asset.getName())) {
+      log.warn("Reference to 'broken' asset '" + pathname + "' not restored.");
+      ImageManager.flushImage(asset);
+      return null;
+    }
+    // pre 1.3b52 campaign files stored the image data directly in the asset serialization.
+    // New XStreamConverter creates empty byte[] for image.
+    if (asset.getImage() == null || asset.getImage().length < 4) {
+      String ext = asset.getImageExtension();
+      pathname = pathname + "." + (StringUtil.isEmpty(ext) ? "dat" : ext);
+      pathname = assetnameVersionManager.transform(pathname, campaignVersion);
+      try (InputStream is = entries.open(pathname)) {
+        asset.setImage(IOUtils.toByteArray(is));
+      } catch (FileNotFoundException fnf) {
+        log.error("Image data for '" + pathname + "' not found?!", fnf);
+        return null;
+      } catch (Exception e) {
+        log.error("While reading image data for '" + pathname + "'", e);
+        return null;
+      }
+    }
+    return asset;
+  }
+
   private static void saveAssets(Collection<MD5Key> assetIds, PackedFile pakFile)
       throws IOException {
     // Special handling of assets: XML file to describe the Asset, but binary file for the image
@@ -725,6 +939,56 @@ private static void saveAssets(Collection<MD5Key> assetIds, PackedFile pakFile)
     }
   }
 
+  /**
+   * Writes the assets to a new campaign file. Assets are content addressed, so an asset whose
+   * entries are in the previous version of the file is copied from there as it is; only new assets
+   * are fetched from the {@link AssetManager} and compressed.
+   *
+   * @param assetIds the assets to write
+   * @param writer the new campaign file
+   * @param previous the previous version of the campaign file, or null
+   * @throws IOException If an I/O error occurs
+   */
+  private static void saveAssets(
+      Collection<MD5Key> assetIds, PackedFileWriter writer, ZipFile previous) throws IOException {
+    writer.getXStream().processAnnotations(Asset.class);
+
+    // Asset id -> the entries of the asset, the XML descriptor and the image data
+    Map<String, List<String>> previousAssets = new HashMap<>();
+    if (previous != null) {
+      Enumeration<ZipArchiveEntry> entries = previous.getEntries();
+      while (entries.hasMoreElements()) {
+        String path = entries.nextElement().getName();
+        if (path.startsWith(ASSET_DIR) && path.length() > ASSET_DIR.length()) {
+          int dot = path.indexOf('.', ASSET_DIR.length());
+          String id = path.substring(ASSET_DIR.length(), dot < 0 ? path.length() : dot);
+          previousAssets.computeIfAbsent(id, k -> new ArrayList<>()).add(path);
+        }
+      }
+    }
+
+    for (MD5Key assetId : assetIds) {
+      if (assetId == null) continue;
+
+      List<String> paths = previousAssets.get(assetId.toString());
+      if (paths != null && paths.contains(ASSET_DIR + assetId)) {
+        for (String path : paths) {
+          writer.copyFile(previous, path);
+        }
+        continue;
+      }
+
+      Asset asset = AssetManager.getAsset(assetId);
+      if (asset == null) {
+        log.error("AssetId " + assetId + " not found while saving?!");
+        continue;
+      }
+
+      writer.putFile(ASSET_DIR + assetId + "." + asset.getImageExtension(), asset.getImage());
+      writer.putFile(ASSET_DIR + assetId + "", asset); // Does not write the image
+    }
+  }
+
   private static void clearAssets(PackedFile pakFile) throws IOException {
     for (String path : pakFile.getPaths()) {
       if (path.startsWith(ASSET_DIR) && !path.equals(ASSET_DIR)) pakFile.removeFile(path);
@@ -0,0 +1,108 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import com.thoughtworks.xstream.XStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import net.rptools.lib.FileUtil;
+import net.rptools.lib.ModelVersionManager;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.model.ZoneLoader;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Reads the zones of a campaign file that stores every zone in an entry of its own. The file is
+ * kept open, through a reference to its {@link CampaignArchive}, until {@link #close()}; several
+ * zones can be deserialized at once. Each zone goes through the same transformations as the content
+ * of a campaign file of its version.
+ */
+class ZipZoneLoader implements ZoneLoader {
+  private final XStream xstream = FileUtil.getConfiguredXStream();
+  private final CampaignArchive archive;
+  private final List<GUID> zoneIds;
+  private final ModelVersionManager versionManager;
+  private final String campaignVersion;
+
+  /**
+   * @param archive the campaign file, of which the loader takes a reference of its own
+   * @param versionManager the transformations of the campaign content
+   * @param campaignVersion the campaign version of the file
+   * @throws IOException if the list of zones can not be read
+   */
+  @SuppressWarnings("unchecked")
+  ZipZoneLoader(CampaignArchive archive, ModelVersionManager versionManager, String campaignVersion)
+      throws IOException {
+    this.versionManager = versionManager;
+    this.campaignVersion = campaignVersion;
+    if (versionManager.isTransformationRequired(campaignVersion)) {
+      xstream.ignoreUnknownElements();
+    }
+    try (Reader r = openEntry(archive, PersistenceUtil.ZONE_INDEX)) {
+      zoneIds = (List<GUID>) xstream.fromXML(r);
+    }
+    this.archive = archive.retain();
+  }
+
+  private ZipZoneLoader(ZipZoneLoader loader) {
+    this.versionManager = loader.versionManager;
+    this.campaignVersion = loader.campaignVersion;
+    if (versionManager.isTransformationRequired(campaignVersion)) {
+      xstream.ignoreUnknownElements();
+    }
+    this.zoneIds = loader.zoneIds;
+    this.archive = loader.archive.retain();
+  }
+
+  @Override
+  public List<GUID> getZoneIds() {
+    return zoneIds;
+  }
+
+  @Override
+  public Zone loadZone(GUID id) throws IOException {
+    try (Reader r = openEntry(archive, PersistenceUtil.getZonePath(id))) {
+      Zone zone;
+      if (versionManager.isTransformationRequired(campaignVersion)) {
+        String xml = versionManager.transform(IOUtils.toString(r), campaignVersion);
+        zone = (Zone) xstream.fromXML(xml);
+      } else {
+        zone = (Zone) xstream.fromXML(r);
+      }
+      zone.optimize();
+      return zone;
+    }
+  }
+
+  @Override
+  public ZoneLoader share() {
+    return new ZipZoneLoader(this);
+  }
+
+  private static Reader openEntry(CampaignArchive archive, String path) throws IOException {
+    return new InputStreamReader(
+        new ByteArrayInputStream(archive.read(path)), StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public void close() {
+    archive.release();
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.compression;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class MessageCodecsTest {
+  private static final byte[] DICTIONARY = "putTokenupdateTokenPropertyzoneGUID".getBytes();
+
+  /** @return a message that compresses well. */
+  private static byte[] compressible() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      sb.append("putToken zoneGUID ").append(i % 7).append('\n');
+    }
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] roundTrip(MessageCodec codec, String method, byte[] payload)
+      throws IOException {
+    return MessageCodecs.decode(codec.encode(method, payload)).readAllBytes();
+  }
+
+  @Test
+  public void testGzipRoundTrip() throws IOException {
+    byte[] payload = compressible();
+    byte[] encoded = MessageCodecs.GZIP.encode("putToken", payload);
+
+    assertTrue(encoded.length < payload.length);
+    assertArrayEquals(payload, roundTrip(MessageCodecs.GZIP, "putToken", payload));
+    assertArrayEquals(new byte[0], roundTrip(MessageCodecs.GZIP, "putToken", new byte[0]));
+  }
+
+  @Test
+  public void testDeflateRoundTrip() throws IOException {
+    MessageCodec codec = new AdaptiveMessageCodec(16, List.of(), DICTIONARY);
+    byte[] payload = compressible();
+    byte[] encoded = codec.encode("putToken", payload);
+
+    assertEquals(MessageCodecs.DEFLATE_MARKER, encoded[0]);
+    assertTrue(encoded.length < payload.length);
+    assertArrayEquals(payload, roundTrip(codec, "putToken", payload));
+
+    MessageCodec withoutDictionary = new AdaptiveMessageCodec(16, List.of(), null);
+    assertArrayEquals(payload, roundTrip(withoutDictionary, "putToken", payload));
+  }
+
+  @Test
+  public void testMessagesNotWorthCompressingAreSentRaw() throws IOException {
+    MessageCodec codec = new AdaptiveMessageCodec(512, List.of("movePointer"), DICTIONARY);
+
+    byte[] small = "putToken".getBytes(StandardCharsets.UTF_8);
+    assertSame(small, codec.encode("putToken", small));
+    assertArrayEquals(small, roundTrip(codec, "putToken", small));
+
+    byte[] payload = compressible();
+    assertSame(payload, codec.encode("movePointer", payload));
+    assertArrayEquals(payload, roundTrip(codec, "movePointer", payload));
+
+    // Random bytes do not shrink, such as the data of an image
+    byte[] random = new byte[4096];
+    new Random(42).nextBytes(random);
+    assertSame(random, codec.encode("putAsset", random));
+    assertArrayEquals(random, roundTrip(codec, "putAsset", random));
+  }
+
+  @Test
+  public void testUnknownCodecsFallBackOnGzip() {
+    assertSame(MessageCodecs.GZIP, MessageCodecs.negotiate(GzipMessageCodec.NAME));
+    assertSame(MessageCodecs.GZIP, MessageCodecs.negotiate("unknown"));
+    assertSame(MessageCodecs.GZIP, MessageCodecs.negotiate(null));
+    assertSame(MessageCodecs.GZIP, MessageCodecs.get("unknown"));
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.simple;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+public class MessageQueueTest {
+  private static final long TENTH_SECOND = 100_000_000L;
+
+  private long sequence;
+
+  private static byte[] msg(int value) {
+    return new byte[] {(byte) value};
+  }
+
+  private void add(MessageQueue queue, Object key, int value) {
+    queue.add(key, msg(value), sequence++);
+  }
+
+  @Test
+  public void testKeyedMessagesAreReplaced() {
+    MessageQueue queue = new MessageQueue(new CoalescingChannel("test", 0));
+    add(queue, "a", 1);
+    add(queue, "b", 2);
+    add(queue, "a", 3);
+
+    assertEquals(2, queue.size());
+    assertEquals(3, queue.poll(0)[0]);
+    assertEquals(2, queue.poll(0)[0]);
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void testReplacementKeepsSequence() {
+    MessageQueue queue = new MessageQueue(new CoalescingChannel("test", 0));
+    assertEquals(Long.MAX_VALUE, queue.getHeadSequence());
+    add(queue, "a", 1);
+    add(queue, "a", 2);
+
+    assertEquals(0, queue.getHeadSequence());
+    assertEquals(2, queue.poll(0)[0]);
+  }
+
+  @Test
+  public void testUnkeyedMessageIsABarrier() {
+    MessageQueue queue = new MessageQueue(new CoalescingChannel("test", 0));
+    add(queue, "a", 1);
+    add(queue, null, 2);
+    add(queue, "a", 3);
+
+    assertEquals(3, queue.size());
+    assertEquals(1, queue.poll(0)[0]);
+    assertEquals(2, queue.poll(0)[0]);
+    assertEquals(3, queue.poll(0)[0]);
+  }
+
+  @Test
+  public void testSealedMessagesAreNotReplaced() {
+    MessageQueue queue = new MessageQueue(new CoalescingChannel("test", 0));
+    add(queue, "a", 1);
+    queue.seal();
+    add(queue, "a", 2);
+    add(queue, "a", 3);
+
+    assertEquals(2, queue.size());
+    assertEquals(1, queue.poll(0)[0]);
+    assertEquals(3, queue.poll(0)[0]);
+  }
+
+  @Test
+  public void testPlainChannelIgnoresKeys() {
+    MessageQueue queue = new MessageQueue(null);
+    add(queue, "a", 1);
+    add(queue, "a", 2);
+
+    assertEquals(2, queue.size());
+    assertEquals(0, queue.getSendDelay(0));
+  }
+
+  @Test
+  public void testRateLimit() {
+    MessageQueue queue = new MessageQueue(new CoalescingChannel("test", 10));
+    add(queue, "a", 1);
+    add(queue, "b", 2);
+
+    assertEquals(0, queue.getSendDelay(0));
+    queue.poll(0);
+    assertEquals(TENTH_SECOND, queue.getSendDelay(0));
+    assertEquals(0, queue.getSendDelay(TENTH_SECOND));
+  }
+
+  @Test
+  public void testDefaultChannelMessageWaitsForRateLimitedUpdate() {
+    CoalescingChannel channel = new CoalescingChannel("test", 10);
+    AbstractConnection connection = new AbstractConnection() {};
+    connection.addMessage(channel, "a", msg(1));
+    assertEquals(1, connection.nextMessage(0)[0]);
+    // The channel may not send again for a tenth of a second, so the update waits
+    connection.addMessage(channel, "a", msg(2));
+    connection.addMessage(null, msg(3));
+    assertNull(connection.nextMessage(0));
+
+    // The update waiting ahead of the default message is not replaced any more
+    connection.addMessage(channel, "a", msg(4));
+    assertNull(connection.nextMessage(0));
+    assertEquals(2, connection.nextMessage(TENTH_SECOND)[0]);
+    assertEquals(3, connection.nextMessage(TENTH_SECOND)[0]);
+    assertNull(connection.nextMessage(TENTH_SECOND));
+    assertEquals(4, connection.nextMessage(2 * TENTH_SECOND)[0]);
+    assertFalse(connection.hasMoreMessages());
+  }
+
+  @Test
+  public void testMixedChannels() {
+    CoalescingChannel moves = new CoalescingChannel("moves", 10);
+    CoalescingChannel pointers = new CoalescingChannel("pointers", 10);
+    AbstractConnection connection = new AbstractConnection() {};
+    connection.addMessage(moves, "token", msg(1));
+    connection.addMessage(pointers, "player", msg(2));
+    assertEquals(1, connection.nextMessage(0)[0]);
+    assertEquals(2, connection.nextMessage(0)[0]);
+
+    // Both channels are capped now, so their updates coalesce
+    connection.addMessage(moves, "token", msg(3));
+    connection.addMessage(moves, "token", msg(4));
+    connection.addMessage(pointers, "player", msg(5));
+    connection.addMessage(pointers, "player", msg(6));
+    connection.addMessage(null, msg(7));
+    connection.addMessage(moves, "token", msg(8));
+    connection.addMessage(moves, "token", msg(9));
+    assertNull(connection.nextMessage(0));
+
+    // The default message goes out once the updates queued before it have
+    assertEquals(4, connection.nextMessage(TENTH_SECOND)[0]);
+    assertEquals(6, connection.nextMessage(TENTH_SECOND)[0]);
+    assertEquals(7, connection.nextMessage(TENTH_SECOND)[0]);
+    // The update queued after it still keeps to the cap
+    assertNull(connection.nextMessage(TENTH_SECOND));
+    assertEquals(9, connection.nextMessage(2 * TENTH_SECOND)[0]);
+    assertFalse(connection.hasMoreMessages());
+  }
+}
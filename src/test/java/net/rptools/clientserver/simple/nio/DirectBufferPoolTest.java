@@ -0,0 +1,73 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.simple.nio;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+public class DirectBufferPoolTest {
+
+  @Test
+  public void testAcquireAllocatesDirectBuffers() {
+    DirectBufferPool pool = new DirectBufferPool(128, 2);
+    ByteBuffer buffer = pool.acquire();
+
+    assertTrue(buffer.isDirect());
+    assertEquals(128, buffer.capacity());
+    assertEquals(128, buffer.remaining());
+  }
+
+  @Test
+  public void testReleasedBufferIsReusedCleared() {
+    DirectBufferPool pool = new DirectBufferPool(128, 2);
+    ByteBuffer buffer = pool.acquire();
+    buffer.putInt(42).flip();
+    pool.release(buffer);
+
+    ByteBuffer reused = pool.acquire();
+    assertSame(buffer, reused);
+    assertEquals(0, reused.position());
+    assertEquals(128, reused.limit());
+    assertNotSame(buffer, pool.acquire());
+  }
+
+  @Test
+  public void testPoolKeepsAtMostMaxPooled() {
+    DirectBufferPool pool = new DirectBufferPool(128, 2);
+    ByteBuffer first = pool.acquire();
+    ByteBuffer second = pool.acquire();
+    ByteBuffer third = pool.acquire();
+    pool.release(first);
+    pool.release(second);
+    pool.release(third);
+
+    assertSame(first, pool.acquire());
+    assertSame(second, pool.acquire());
+    // The third one was dropped
+    assertNotSame(third, pool.acquire());
+  }
+
+  @Test
+  public void testForeignBuffersAreNotPooled() {
+    DirectBufferPool pool = new DirectBufferPool(128, 2);
+    ByteBuffer foreign = ByteBuffer.allocateDirect(64);
+    pool.release(foreign);
+    pool.release(null);
+
+    assertNotSame(foreign, pool.acquire());
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.simple.nio;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/** A {@link NioClientConnection} connected over the loopback interface to a plain socket. */
+class Loopback implements Closeable {
+  final Socket client;
+  final SocketChannel serverChannel;
+  final NioClientConnection connection;
+  final BlockingQueue<byte[]> received = new LinkedBlockingQueue<byte[]>();
+  final CountDownLatch disconnected = new CountDownLatch(1);
+
+  private Loopback(Socket client, SocketChannel serverChannel, NioTransport transport) {
+    this.client = client;
+    this.serverChannel = serverChannel;
+    connection = new NioClientConnection(serverChannel, "test", transport);
+    connection.addMessageHandler((id, message) -> received.add(message));
+    connection.addDisconnectHandler(conn -> disconnected.countDown());
+  }
+
+  /**
+   * @param transport the transport to serve the connection.
+   * @param bufferSize the socket buffer sizes, or 0 to keep the defaults.
+   * @return the started connection.
+   */
+  static Loopback open(NioTransport transport, int bufferSize) throws IOException {
+    try (ServerSocketChannel server = ServerSocketChannel.open()) {
+      server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      Socket client = new Socket();
+      if (bufferSize > 0) {
+        // Set before connecting so that the window stays small
+        client.setReceiveBufferSize(bufferSize);
+      }
+      client.connect(server.getLocalAddress());
+      client.setSoTimeout(10_000);
+      SocketChannel serverChannel = server.accept();
+      if (bufferSize > 0) {
+        serverChannel.socket().setSendBufferSize(bufferSize);
+      }
+      Loopback loopback = new Loopback(client, serverChannel, transport);
+      loopback.connection.start();
+      return loopback;
+    }
+  }
+
+  /** @return the message with its 4 byte length in front, as it goes over the wire. */
+  static byte[] frame(byte[] message) {
+    return ByteBuffer.allocate(4 + message.length).putInt(message.length).put(message).array();
+  }
+
+  /** Writes bytes from the client side in one go. */
+  void write(byte[] bytes) throws IOException {
+    OutputStream out = client.getOutputStream();
+    out.write(bytes);
+    out.flush();
+  }
+
+  /** Reads one message sent by the connection on the client side. */
+  byte[] readMessage() throws IOException {
+    DataInputStream in = new DataInputStream(client.getInputStream());
+    byte[] message = new byte[in.readInt()];
+    in.readFully(message);
+    return message;
+  }
+
+  static byte[] payload(int length) {
+    byte[] message = new byte[length];
+    for (int i = 0; i < length; i++) {
+      message[i] = (byte) (i * 31);
+    }
+    return message;
+  }
+
+  @Override
+  public void close() throws IOException {
+    client.close();
+    connection.close();
+  }
+}
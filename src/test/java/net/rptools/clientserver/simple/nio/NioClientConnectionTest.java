@@ -0,0 +1,121 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.simple.nio;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.SelectionKey;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class NioClientConnectionTest {
+  private NioTransport transport;
+  private Loopback loopback;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    transport = new NioTransport(1);
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    if (loopback != null) {
+      loopback.close();
+    }
+    transport.close();
+  }
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < deadline, "timed out");
+      Thread.sleep(5);
+    }
+  }
+
+  @Test
+  public void testMessageSplitAcrossReads() throws Exception {
+    loopback = Loopback.open(transport, 0);
+    byte[] message = Loopback.payload(100);
+    byte[] frame = Loopback.frame(message);
+    // Two bytes of the length, the rest of it with part of the body, then the rest of the body
+    int[] cuts = {0, 2, 50, frame.length};
+    for (int i = 1; i < cuts.length; i++) {
+      loopback.write(Arrays.copyOfRange(frame, cuts[i - 1], cuts[i]));
+      Thread.sleep(50);
+    }
+
+    assertArrayEquals(message, loopback.received.poll(10, TimeUnit.SECONDS));
+    assertTrue(loopback.received.isEmpty());
+  }
+
+  @Test
+  public void testSeveralMessagesInOneRead() throws Exception {
+    loopback = Loopback.open(transport, 0);
+    ByteArrayOutputStream frames = new ByteArrayOutputStream();
+    frames.write(Loopback.frame(new byte[] {1}));
+    frames.write(Loopback.frame(new byte[0]));
+    frames.write(Loopback.frame(new byte[] {2, 3}));
+    loopback.write(frames.toByteArray());
+
+    assertArrayEquals(new byte[] {1}, loopback.received.poll(10, TimeUnit.SECONDS));
+    assertArrayEquals(new byte[0], loopback.received.poll(10, TimeUnit.SECONDS));
+    assertArrayEquals(new byte[] {2, 3}, loopback.received.poll(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testMessageLargerThanTheReadBuffer() throws Exception {
+    loopback = Loopback.open(transport, 0);
+    byte[] message = Loopback.payload(5 * transport.getBufferPool().getBufferSize() / 2);
+    loopback.write(Loopback.frame(message));
+
+    assertArrayEquals(message, loopback.received.poll(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testWriteInterestOnlyWhileDataIsLeftOver() throws Exception {
+    loopback = Loopback.open(transport, 4096);
+    waitFor(() -> loopback.connection.getSelectionKey() != null);
+    SelectionKey key = loopback.connection.getSelectionKey();
+    assertEquals(SelectionKey.OP_READ, key.interestOps());
+
+    // The client does not read yet, so the socket only takes part of this
+    byte[] large = Loopback.payload(4 * 1024 * 1024);
+    loopback.connection.sendMessage(large);
+    loopback.connection.sendMessage(new byte[] {7});
+    waitFor(() -> (key.interestOps() & SelectionKey.OP_WRITE) != 0);
+
+    assertArrayEquals(large, loopback.readMessage());
+    assertArrayEquals(new byte[] {7}, loopback.readMessage());
+    waitFor(() -> key.interestOps() == SelectionKey.OP_READ);
+  }
+
+  @Test
+  public void testClientDisconnect() throws Exception {
+    loopback = Loopback.open(transport, 0);
+    assertTrue(loopback.connection.isAlive());
+    loopback.client.close();
+
+    assertTrue(loopback.disconnected.await(10, TimeUnit.SECONDS));
+    assertFalse(loopback.connection.isAlive());
+    // Sending to a closed connection is ignored
+    loopback.connection.sendMessage(new byte[] {1});
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.simple.nio;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class NioTransportTest {
+  private NioTransport transport;
+
+  @AfterEach
+  public void tearDown() {
+    if (transport != null) {
+      transport.close();
+    }
+  }
+
+  @Test
+  public void testMessageUpToTheLimitIsAccepted() throws Exception {
+    transport = new NioTransport(1, 1024);
+    try (Loopback loopback = Loopback.open(transport, 0)) {
+      byte[] message = Loopback.payload(1024);
+      loopback.write(Loopback.frame(message));
+
+      assertArrayEquals(message, loopback.received.poll(10, TimeUnit.SECONDS));
+      assertTrue(loopback.connection.isAlive());
+    }
+  }
+
+  @Test
+  public void testOversizedMessageClosesTheConnection() throws Exception {
+    transport = new NioTransport(1, 1024);
+    try (Loopback loopback = Loopback.open(transport, 0)) {
+      loopback.write(ByteBuffer.allocate(8).putInt(1025).array());
+
+      assertTrue(loopback.disconnected.await(10, TimeUnit.SECONDS));
+      assertFalse(loopback.connection.isAlive());
+      assertTrue(loopback.received.isEmpty());
+    }
+  }
+
+  @Test
+  public void testNegativeLengthClosesTheConnection() throws Exception {
+    transport = new NioTransport(1);
+    try (Loopback loopback = Loopback.open(transport, 0)) {
+      loopback.write(ByteBuffer.allocate(4).putInt(-1).array());
+
+      assertTrue(loopback.disconnected.await(10, TimeUnit.SECONDS));
+      assertFalse(loopback.connection.isAlive());
+    }
+  }
+
+  @Test
+  public void testConnectionsOnSeveralIoThreads() throws Exception {
+    transport = new NioTransport(2);
+    try (Loopback first = Loopback.open(transport, 0);
+        Loopback second = Loopback.open(transport, 0)) {
+      first.write(Loopback.frame(new byte[] {1}));
+      second.write(Loopback.frame(new byte[] {2}));
+      first.connection.sendMessage(new byte[] {3});
+      second.connection.sendMessage(new byte[] {4});
+
+      assertArrayEquals(new byte[] {1}, first.received.poll(10, TimeUnit.SECONDS));
+      assertArrayEquals(new byte[] {2}, second.received.poll(10, TimeUnit.SECONDS));
+      assertArrayEquals(new byte[] {3}, first.readMessage());
+      assertArrayEquals(new byte[] {4}, second.readMessage());
+
+      // A client going away leaves the other one alone
+      first.client.close();
+      assertTrue(first.disconnected.await(10, TimeUnit.SECONDS));
+      second.connection.sendMessage(new byte[] {5});
+      assertArrayEquals(new byte[] {5}, second.readMessage());
+      assertEquals(1, second.disconnected.getCount());
+    }
+  }
+}
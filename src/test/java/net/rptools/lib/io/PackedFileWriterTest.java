@@ -0,0 +1,84 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.lib.io;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PackedFileWriterTest {
+
+  public static final String A_PATH_TXT = "a_path.txt";
+  public static final String PACKED_TEST_FILE = "packedTestFile";
+
+  @Test
+  public void saveIsReadableAsPackedFile(@TempDir File tempDir) throws IOException {
+    File f = new File(tempDir, PACKED_TEST_FILE);
+    try (PackedFileWriter writer = new PackedFileWriter(f)) {
+      writer.putFile(A_PATH_TXT, "some content".getBytes());
+      writer.setContent("the content");
+      writer.setProperty("version", "1");
+      writer.save();
+    }
+
+    try (PackedFile loaded = new PackedFile(f)) {
+      assertEquals("the content", loaded.getContent());
+      assertEquals("1", loaded.getProperty("version"));
+      try (InputStream is = loaded.getFileAsInputStream(A_PATH_TXT)) {
+        assertEquals("some content", new String(is.readAllBytes()));
+      }
+    }
+    assertArrayEquals(new String[] {PACKED_TEST_FILE}, tempDir.list());
+  }
+
+  @Test
+  public void copyFromPreviousVersion(@TempDir File tempDir) throws IOException {
+    File f = new File(tempDir, PACKED_TEST_FILE);
+    try (PackedFileWriter writer = new PackedFileWriter(f)) {
+      writer.putFile(A_PATH_TXT, "some content".getBytes());
+      writer.save();
+    }
+
+    try (PackedFileWriter writer = new PackedFileWriter(f)) {
+      try (ZipFile previous = new ZipFile(f)) {
+        assertTrue(writer.copyFile(previous, A_PATH_TXT));
+        assertFalse(writer.copyFile(previous, "missing.txt"));
+      }
+      writer.setContent("new content");
+      writer.save();
+    }
+
+    try (PackedFile loaded = new PackedFile(f)) {
+      assertEquals("new content", loaded.getContent());
+      try (InputStream is = loaded.getFileAsInputStream(A_PATH_TXT)) {
+        assertEquals("some content", new String(is.readAllBytes()));
+      }
+    }
+  }
+
+  @Test
+  public void unsavedWriterLeavesTargetUntouched(@TempDir File tempDir) throws IOException {
+    File f = new File(tempDir, PACKED_TEST_FILE);
+    try (PackedFileWriter writer = new PackedFileWriter(f)) {
+      writer.putFile(A_PATH_TXT, "some content".getBytes());
+    }
+    assertEquals(0, tempDir.list().length);
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client;
+
+import net.rptools.parser.ParserException;
+
+/**
+ * Times runs of a library style macro whose parsed form is not cached yet against runs that reuse
+ * it. Every cold run gets a macro text of its own, so that neither its lines nor its expressions
+ * are in any cache. Both kinds of runs are repeated before they are timed, so that the times do
+ * not include the JIT compilation of the parser. Not run with the tests, only reports the times.
+ */
+public class MapToolLineParserBenchmark {
+
+  /** A macro as found on library tokens. Each %1$d is replaced by a number unique to the text. */
+  private static final String MACRO =
+      String.join(
+          "\n",
+          "[h: total = 0]",
+          "[h, count(20): total = total + roll.count * %1$d]",
+          "[h: names = \"alpha,beta,gamma,delta,epsilon\"]",
+          "[h, foreach(name, names): total = total + roll.count + %1$d]",
+          "[h: size = if(total > 100, \"big\", \"small\")]",
+          "[r, switch(size): case \"big\": \"big %1$d\"; default: \"small\"]",
+          "[r, if(total > 0), code: {[r: total]}; {[r: 0]}]");
+
+  private static final int RUNS = 500;
+
+  public static void main(String[] args) throws ParserException {
+    MapToolLineParser parser = MapTool.getParser();
+    int text = 1;
+
+    // Warm up the JIT on both paths
+    for (int i = 0; i < RUNS; i++) {
+      run(parser, text++);
+      run(parser, 1);
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < RUNS; i++) {
+      run(parser, text++);
+    }
+    long cold = (System.nanoTime() - start) / RUNS;
+
+    start = System.nanoTime();
+    for (int i = 0; i < RUNS; i++) {
+      run(parser, 1);
+    }
+    long warm = (System.nanoTime() - start) / RUNS;
+
+    System.out.printf(
+        "Library macro, %d runs each: cold %d us, warm %d us per run%n",
+        RUNS, cold / 1000, warm / 1000);
+  }
+
+  private static String run(MapToolLineParser parser, int text) throws ParserException {
+    String macro = String.format(MACRO, text);
+    MapToolVariableResolver resolver = new MapToolVariableResolver(null);
+    MapToolMacroContext context = new MapToolMacroContext("benchmark", macro, true);
+    return parser.parseLine(resolver, null, macro, context);
+  }
+}
@@ -271,4 +271,25 @@ public void testExpression() throws ParserException {
     assertEquals(resolver.getVariable("a"), BigDecimal.TEN);
     assertEquals(result.getDetailExpression(), "a = (a * 10)");
   }
+
+  @Test
+  public void testCompiledMacroCache() throws ParserException {
+    MapToolVariableResolver res = new MapToolVariableResolver(null);
+    res.setVariable("a", "2");
+    String macro =
+        "[h: total = 0][h, count(5): total = total + roll.count]"
+            + "[r, if(total > 5), code: {[r: \"big\"] [r: total]}; {small}] "
+            + "[r, switch(a): case 1: \"one\"; case 2: \"two\"; default: \"many\"]";
+
+    // Later runs reuse the parsed form of the macro
+    String first = parseLine(macro, null, res);
+    assertEquals("big 10 two", first);
+    assertEquals(first, parseLine(macro, null, res));
+
+    // The cached form still takes the values of the current run
+    res.setVariable("a", "1");
+    assertEquals("big 10 one", parseLine(macro, null, res));
+    res.setVariable("a", "3");
+    assertEquals("big 10 many", parseLine(macro, null, res));
+  }
 }
@@ -197,4 +197,42 @@ void convertPrimitiveFromString() {
     assertTrue(jsonPrimitive.isString());
     assertFalse(jsonPrimitive.isNumber());
   }
+
+  @Test
+  void parsedValuesAreCached() {
+    String json = "{\"a\": [1, 2, 3], \"b\": {\"c\": \"d\"}}";
+    JsonElement first = typeConversion.asSharedJsonElement(json);
+    assertSame(first, typeConversion.asSharedJsonElement(json));
+    assertSame(first, typeConversion.asSharedJsonElement(new String(json)));
+
+    // Clones must not share the cached value
+    JsonElement clone = typeConversion.asClonedJsonElement(json);
+    assertNotSame(first, clone);
+    clone.getAsJsonObject().addProperty("e", 1);
+    assertFalse(typeConversion.asSharedJsonElement(json).getAsJsonObject().has("e"));
+
+    typeConversion.clearCache();
+    JsonElement reparsed = typeConversion.asSharedJsonElement(json);
+    assertNotSame(first, reparsed);
+    assertEquals(first, reparsed);
+  }
+
+  @Test
+  void editedValuesDoNotChangeTheCache() {
+    String json = "{\"a\": [1, 2, 3], \"b\": {\"c\": \"d\"}}";
+    JsonElement original = JsonParser.parseString(json);
+
+    JsonElement edited = typeConversion.asJsonElement(json);
+    assertNotSame(typeConversion.asSharedJsonElement(json), edited);
+    edited.getAsJsonObject().addProperty("e", 1);
+    edited.getAsJsonObject().getAsJsonArray("a").add(4);
+    edited.getAsJsonObject().getAsJsonObject("b").remove("c");
+    assertEquals(original, typeConversion.asJsonElement(json));
+
+    // A value added to another json value must not change with the cache either
+    JsonArray array = new JsonArray();
+    array.add(typeConversion.asJsonElement(json));
+    array.get(0).getAsJsonObject().addProperty("f", 2);
+    assertEquals(original, typeConversion.asJsonElement(json));
+  }
 }
@@ -0,0 +1,87 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.util.List;
+import net.rptools.maptool.model.drawing.DrawnElement;
+import net.rptools.maptool.model.drawing.Pen;
+import net.rptools.maptool.model.drawing.ShapeDrawable;
+import org.junit.jupiter.api.Test;
+
+public class DrawableIndexTest {
+
+  private static DrawnElement element(int x, int y, int width, int height) {
+    return new DrawnElement(new ShapeDrawable(new Rectangle(x, y, width, height)), new Pen());
+  }
+
+  @Test
+  public void testIntersectingKeepsListOrder() {
+    DrawnElement back = element(0, 0, 100, 100);
+    DrawnElement front = element(50, 50, 100, 100);
+    DrawnElement far = element(5000, 5000, 100, 100);
+    DrawableIndex index = new DrawableIndex();
+    index.rebuild(List.of(front, far));
+    index.prepend(back);
+
+    assertEquals(List.of(back, front), index.getIntersecting(new Rectangle(60, 60, 10, 10)));
+    assertEquals(List.of(far), index.getIntersecting(new Rectangle(5050, 5050, 10, 10)));
+    assertTrue(index.getIntersecting(new Rectangle(1000, 1000, 10, 10)).isEmpty());
+    assertEquals(3, index.size());
+  }
+
+  @Test
+  public void testRemove() {
+    DrawnElement a = element(0, 0, 100, 100);
+    DrawnElement b = element(0, 0, 100, 100);
+    DrawableIndex index = new DrawableIndex();
+    index.append(a);
+    index.append(b);
+
+    assertNotNull(index.remove(a));
+    assertNull(index.remove(a));
+    assertEquals(List.of(b), index.getIntersecting(new Rectangle(10, 10, 10, 10)));
+    assertFalse(index.contains(a));
+  }
+
+  @Test
+  public void testLargeElement() {
+    DrawnElement large = element(-100000, -100000, 200000, 200000);
+    DrawnElement small = element(10, 10, 10, 10);
+    DrawableIndex index = new DrawableIndex();
+    index.append(large);
+    index.append(small);
+
+    assertEquals(List.of(large, small), index.getIntersecting(new Rectangle(0, 0, 50, 50)));
+    assertEquals(List.of(large), index.getIntersecting(new Rectangle(90000, 90000, 50, 50)));
+    index.remove(large);
+    assertEquals(List.of(small), index.getIntersecting(new Rectangle(0, 0, 50, 50)));
+  }
+
+  @Test
+  public void testUpdateCoversOldAndNewBounds() {
+    DrawnElement element = element(0, 0, 100, 100);
+    DrawableIndex index = new DrawableIndex();
+    index.append(element);
+
+    element.getPen().setThickness(20);
+    Rectangle2D changed = index.update(element);
+    assertTrue(changed.contains(new Rectangle(-5, -5, 110, 110)));
+    assertEquals(List.of(element), index.getIntersecting(new Rectangle(102, 102, 2, 2)));
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import java.awt.Point;
+import java.awt.geom.Area;
+import java.awt.geom.PathIterator;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.rptools.maptool.client.ui.zone.vbl.AreaTree;
+import net.rptools.maptool.model.SightType;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.util.PersistenceUtil;
+
+/**
+ * Replays the vision calculations of the tokens with sight of each map of a campaign: one at a
+ * time without caching, then in parallel, then again from the cache. Reports the times and whether
+ * every result is identical to the sequential one. Not run with the tests, run it with the path of
+ * a campaign file as argument.
+ */
+public class FogUtilBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.out.println("Usage: FogUtilBenchmark <campaign file>");
+      return;
+    }
+    PersistenceUtil.PersistedCampaign persisted = PersistenceUtil.loadCampaign(new File(args[0]));
+    if (persisted == null) {
+      System.out.println("Could not load " + args[0]);
+      return;
+    }
+    for (Zone zone : persisted.campaign.getZones()) {
+      List<Point> origins = new ArrayList<>();
+      List<Area> visions = new ArrayList<>();
+      for (Token token : zone.getTokensFiltered(Token::getHasSight)) {
+        SightType sight = persisted.campaign.getSightType(token.getSightType());
+        if (sight != null) {
+          origins.add(FogUtil.calculateVisionCenter(token, zone));
+          visions.add(sight.getVisionShape(token, zone));
+        }
+      }
+      if (origins.isEmpty()) {
+        continue;
+      }
+      Area topology = new Area(zone.getTopology());
+      for (Token vblToken : zone.getTokensWithVBL()) {
+        topology.add(vblToken.getTransformedVBL());
+      }
+
+      long start = System.nanoTime();
+      List<Area> sequential = new ArrayList<>();
+      for (int i = 0; i < origins.size(); i++) {
+        // A new tree for every token, so nothing is shared through the cache
+        AreaTree tree = new AreaTree(topology);
+        Point origin = origins.get(i);
+        sequential.add(FogUtil.calculateVisibility(origin.x, origin.y, visions.get(i), tree));
+      }
+      long sequentialTime = System.nanoTime() - start;
+
+      AreaTree tree = new AreaTree(topology);
+      start = System.nanoTime();
+      List<Area> parallel = FogUtil.calculateVisibility(origins, visions, tree);
+      long parallelTime = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      List<Area> cached = FogUtil.calculateVisibility(origins, visions, tree);
+      long cachedTime = System.nanoTime() - start;
+
+      boolean identical = true;
+      for (int i = 0; i < sequential.size(); i++) {
+        identical &= isSamePath(sequential.get(i), parallel.get(i));
+        identical &= isSamePath(sequential.get(i), cached.get(i));
+      }
+      System.out.printf(
+          "%s: %d tokens, sequential %d ms, parallel %d ms, cached %d ms, identical: %s%n",
+          zone.getName(),
+          origins.size(),
+          TimeUnit.NANOSECONDS.toMillis(sequentialTime),
+          TimeUnit.NANOSECONDS.toMillis(parallelTime),
+          TimeUnit.NANOSECONDS.toMillis(cachedTime),
+          identical);
+    }
+  }
+
+  /**
+   * @param a1 the first area, may be null.
+   * @param a2 the second area, may be null.
+   * @return true if both areas have exactly the same path segments and coordinates.
+   */
+  private static boolean isSamePath(Area a1, Area a2) {
+    if (a1 == null || a2 == null) {
+      return a1 == a2;
+    }
+    PathIterator i1 = a1.getPathIterator(null);
+    PathIterator i2 = a2.getPathIterator(null);
+    double[] c1 = new double[6];
+    double[] c2 = new double[6];
+    for (; !i1.isDone() && !i2.isDone(); i1.next(), i2.next()) {
+      if (i1.currentSegment(c1) != i2.currentSegment(c2) || !Arrays.equals(c1, c2)) {
+        return false;
+      }
+    }
+    return i1.isDone() && i2.isDone();
+  }
+}
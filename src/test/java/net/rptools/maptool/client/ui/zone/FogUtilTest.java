@@ -0,0 +1,109 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.util.ArrayList;
+import java.util.List;
+import net.rptools.maptool.client.ui.zone.vbl.AreaTree;
+import org.junit.jupiter.api.Test;
+
+public class FogUtilTest {
+
+  /** Pillars in a grid, so that every origin sees some of them. */
+  private static Area createPillars() {
+    Area topology = new Area();
+    for (int x = 0; x < 10; x++) {
+      for (int y = 0; y < 10; y++) {
+        topology.add(new Area(new Rectangle(x * 200 + 80, y * 200 + 80, 40, 40)));
+      }
+    }
+    return topology;
+  }
+
+  @Test
+  public void testParallelVisibilityMatchesSequential() {
+    Area topology = createPillars();
+    Area vision = new Area(new Ellipse2D.Double(-500, -500, 1000, 1000));
+    List<Point> origins = new ArrayList<>();
+    List<Area> visions = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      origins.add(new Point(30 + i * 47, 30 + (i * 89) % 1900));
+      visions.add(vision);
+    }
+    // Inside a pillar
+    origins.add(new Point(100, 100));
+    visions.add(vision);
+    // Twice the same origin, the second is answered from the cache
+    origins.add(origins.get(0));
+    visions.add(vision);
+
+    AreaTree tree = new AreaTree(topology);
+    List<Area> parallel = FogUtil.calculateVisibility(origins, visions, tree);
+
+    assertEquals(origins.size(), parallel.size());
+    for (int i = 0; i < origins.size(); i++) {
+      Point origin = origins.get(i);
+      Area sequential =
+          FogUtil.calculateVisibility(origin.x, origin.y, visions.get(i), new AreaTree(topology));
+      if (sequential == null) {
+        assertNull(parallel.get(i), "origin " + i);
+      } else {
+        assertTrue(sequential.equals(parallel.get(i)), "origin " + i);
+      }
+    }
+    assertNull(parallel.get(40));
+    assertNotNull(tree.getHiddenArea(origins.get(0)));
+  }
+
+  @Test
+  public void testUnionMatchesAddingOneByOne() {
+    for (int count : new int[] {1, 2, 5, 8, 13}) {
+      List<Area> areas = new ArrayList<>();
+      Area expected = new Area();
+      for (int i = 0; i < count; i++) {
+        // Overlapping neighbours, and a few apart
+        Rectangle r = new Rectangle(i * 30 + (i % 3) * 500, (i * 17) % 60, 50, 40);
+        areas.add(new Area(r));
+        expected.add(new Area(r));
+      }
+      assertTrue(expected.equals(FogUtil.union(areas)), count + " areas");
+    }
+  }
+
+  @Test
+  public void testHiddenAreaIsSharedByVisions() {
+    AreaTree tree = new AreaTree(createPillars());
+    Area small = new Area(new Ellipse2D.Double(-100, -100, 200, 200));
+    Area large = new Area(new Ellipse2D.Double(-500, -500, 1000, 1000));
+
+    Area smallVisible = FogUtil.calculateVisibility(330, 330, small, tree);
+    Area hidden = tree.getHiddenArea(new Point(330, 330));
+    assertNotNull(hidden);
+    Area largeVisible = FogUtil.calculateVisibility(330, 330, large, tree);
+
+    // The second vision reused the cached hidden area, and did not modify it
+    assertSame(hidden, tree.getHiddenArea(new Point(330, 330)));
+    assertTrue(
+        FogUtil.calculateVisibility(330, 330, large, new AreaTree(createPillars()))
+            .equals(largeVisible));
+    assertFalse(smallVisible.equals(largeVisible));
+  }
+}
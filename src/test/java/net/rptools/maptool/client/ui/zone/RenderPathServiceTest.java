@@ -0,0 +1,134 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class RenderPathServiceTest {
+  private static final long TIMEOUT = 10;
+
+  private final RenderPathService service = new RenderPathService();
+  private final Object key = new Object();
+
+  /** A path computation that runs until it is released. */
+  private static class BlockingWorker extends RenderPathWorker {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch finished = new CountDownLatch(1);
+    private final boolean stopOnInterrupt;
+    volatile boolean interrupted;
+
+    /** @param stopOnInterrupt false to keep running when cancelled, as a slow walker would */
+    BlockingWorker(boolean stopOnInterrupt) {
+      super(null, null, false, null, null, null);
+      this.stopOnInterrupt = stopOnInterrupt;
+    }
+
+    @Override
+    protected Void doInBackground() {
+      started.countDown();
+      try {
+        while (true) {
+          try {
+            release.await();
+            return null;
+          } catch (InterruptedException e) {
+            interrupted = true;
+            if (stopOnInterrupt) {
+              return null;
+            }
+          }
+        }
+      } finally {
+        finished.countDown();
+      }
+    }
+
+    @Override
+    protected void done() {
+      // No renderer to repaint
+    }
+  }
+
+  private static void await(CountDownLatch latch) throws InterruptedException {
+    assertTrue(latch.await(TIMEOUT, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testRunningRequestIsCancelled() throws InterruptedException {
+    BlockingWorker first = new BlockingWorker(true);
+    service.submit(key, first);
+    await(first.started);
+
+    BlockingWorker second = new BlockingWorker(true);
+    service.submit(key, second);
+
+    await(first.finished);
+    assertTrue(first.isCancelled());
+    assertTrue(first.interrupted);
+    // The next one only starts once the cancelled one stopped
+    await(second.started);
+    second.release.countDown();
+    await(second.finished);
+    assertFalse(second.isCancelled());
+  }
+
+  @Test
+  public void testWaitingRequestIsReplaced() throws InterruptedException {
+    BlockingWorker first = new BlockingWorker(false);
+    service.submit(key, first);
+    await(first.started);
+
+    BlockingWorker second = new BlockingWorker(true);
+    service.submit(key, second);
+    BlockingWorker third = new BlockingWorker(true);
+    service.submit(key, third);
+    assertTrue(second.isCancelled());
+    assertFalse(third.isCancelled());
+
+    first.release.countDown();
+    await(third.started);
+    third.release.countDown();
+    await(third.finished);
+    assertEquals(1, second.started.getCount(), "the replaced request never ran");
+  }
+
+  @Test
+  public void testRequestsAreRemovedAfterCompletion() throws InterruptedException {
+    BlockingWorker worker = new BlockingWorker(true);
+    service.submit(key, worker);
+    await(worker.started);
+    assertTrue(service.hasRequests(key));
+
+    worker.release.countDown();
+    await(worker.finished);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT);
+    while (service.hasRequests(key)) {
+      assertTrue(System.nanoTime() < deadline, "requests of the set were not removed");
+      Thread.sleep(10);
+    }
+
+    // The next request of the set runs right away
+    BlockingWorker next = new BlockingWorker(true);
+    service.submit(key, next);
+    await(next.started);
+    next.release.countDown();
+    await(next.finished);
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.util.Set;
+import net.rptools.maptool.model.GUID;
+import org.junit.jupiter.api.Test;
+
+public class VisionCellIndexTest {
+
+  @Test
+  public void testIntersecting() {
+    VisionCellIndex index = new VisionCellIndex();
+    GUID near = new GUID();
+    GUID far = new GUID();
+    index.put(near, new Rectangle(0, 0, 100, 100));
+    index.put(far, new Rectangle(5000, 5000, 100, 100));
+
+    Set<GUID> found = index.getIntersecting(new Rectangle(50, 50, 10, 10));
+    assertEquals(Set.of(near), found);
+
+    // Same cell, but the bounds themselves don't intersect
+    assertTrue(index.getIntersecting(new Rectangle(200, 200, 10, 10)).isEmpty());
+  }
+
+  @Test
+  public void testMoveAndRemove() {
+    VisionCellIndex index = new VisionCellIndex();
+    GUID id = new GUID();
+    index.put(id, new Rectangle(-700, -700, 100, 100));
+    index.put(id, new Rectangle(1000, 1000, 100, 100));
+
+    assertTrue(index.getIntersecting(new Rectangle(-700, -700, 100, 100)).isEmpty());
+    assertEquals(Set.of(id), index.getIntersecting(new Rectangle(1050, 1050, 1, 1)));
+
+    Rectangle2D removed = index.remove(id);
+    assertEquals(new Rectangle(1000, 1000, 100, 100), removed);
+    assertNull(index.remove(id));
+  }
+
+  @Test
+  public void testCellBounds() {
+    for (long cell : VisionCellIndex.getCells(new Rectangle(-10, 600, 20, 10))) {
+      Rectangle bounds = VisionCellIndex.getCellBounds(cell);
+      assertTrue(bounds.intersects(new Rectangle(-10, 600, 20, 10)));
+    }
+    assertEquals(2, VisionCellIndex.getCells(new Rectangle(-10, 600, 20, 10)).size());
+  }
+}
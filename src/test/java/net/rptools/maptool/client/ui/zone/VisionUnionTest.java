@@ -0,0 +1,96 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.PathIterator;
+import java.util.HashMap;
+import java.util.Map;
+import net.rptools.maptool.model.GUID;
+import org.junit.jupiter.api.Test;
+
+public class VisionUnionTest {
+
+  private static Area union(Map<GUID, Area> visions) {
+    Area union = new Area();
+    for (Area vision : visions.values()) {
+      union.add(vision);
+    }
+    return union;
+  }
+
+  private static int countSegments(Area area) {
+    int count = 0;
+    for (PathIterator i = area.getPathIterator(null); !i.isDone(); i.next()) {
+      count++;
+    }
+    return count;
+  }
+
+  @Test
+  public void testUnionFollowsChangedVisions() {
+    VisionUnion union = new VisionUnion();
+    Map<GUID, Area> visions = new HashMap<>();
+    GUID first = new GUID();
+    GUID second = new GUID();
+    GUID third = new GUID();
+    visions.put(first, new Area(new Ellipse2D.Double(0, 0, 400, 400)));
+    visions.put(second, new Area(new Ellipse2D.Double(300, 0, 400, 400)));
+    visions.put(third, new Area(new Ellipse2D.Double(5000, 5000, 100, 100)));
+    assertTrue(union.update(visions));
+    assertTrue(union(visions).equals(union.getArea()));
+
+    // Unchanged visions leave the union alone
+    Area before = union.getArea();
+    assertFalse(union.update(new HashMap<>(visions)));
+    assertSame(before, union.getArea());
+
+    // A moved vision
+    visions.put(second, new Area(new Ellipse2D.Double(350, 100, 400, 400)));
+    assertTrue(union.update(visions));
+    assertTrue(union(visions).equals(union.getArea()));
+
+    // A removed vision
+    visions.remove(first);
+    assertTrue(union.update(visions));
+    assertTrue(union(visions).equals(union.getArea()));
+    assertFalse(union.getArea().contains(100, 200));
+
+    // The union handed out before is not changed
+    assertTrue(before.contains(100, 200));
+  }
+
+  @Test
+  public void testNoSeamsWhereChangedRegionIsCut() {
+    VisionUnion union = new VisionUnion();
+    Map<GUID, Area> visions = new HashMap<>();
+    GUID wide = new GUID();
+    GUID moving = new GUID();
+    visions.put(wide, new Area(new Rectangle(0, 0, 1000, 100)));
+    visions.put(moving, new Area(new Rectangle(400, 50, 100, 100)));
+    union.update(visions);
+
+    visions.put(moving, new Area(new Rectangle(450, 50, 100, 100)));
+    union.update(visions);
+
+    Area expected = union(visions);
+    assertTrue(expected.equals(union.getArea()));
+    assertEquals(countSegments(expected), countSegments(union.getArea()));
+  }
+}
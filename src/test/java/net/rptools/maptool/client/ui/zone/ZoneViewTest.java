@@ -0,0 +1,42 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Point;
+import java.awt.geom.Rectangle2D;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class ZoneViewTest {
+
+  @Test
+  public void testLightBoundsContainEveryMultiplier() {
+    // A light shining to the east of the vision center, not containing the center
+    Rectangle2D light = new Rectangle2D.Double(50, -10, 20, 20);
+    Point center = new Point(1000, 2000);
+
+    Rectangle2D bounds = ZoneView.scaleLightBounds(light, center, List.of(0.5, 3.0));
+
+    // Unscaled, as for darkness and sights without a multiplier
+    assertTrue(bounds.contains(new Rectangle2D.Double(1050, 1990, 20, 20)));
+    // Scaled by 3 around the center
+    assertTrue(bounds.contains(new Rectangle2D.Double(1150, 1970, 60, 60)));
+    // Scaled by 0.5 around the center
+    assertTrue(bounds.contains(new Rectangle2D.Double(1025, 1995, 10, 10)));
+    assertEquals(new Rectangle2D.Double(1025, 1970, 185, 60), bounds);
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import org.junit.jupiter.api.Test;
+
+public class AreaTreeTest {
+
+  /** A square wall with an open room inside, and a pillar in the room. */
+  private static Area createRoom() {
+    Area area = new Area(new Rectangle(0, 0, 400, 400));
+    area.subtract(new Area(new Rectangle(20, 20, 360, 360)));
+    area.add(new Area(new Rectangle(150, 150, 50, 50)));
+    return area;
+  }
+
+  @Test
+  public void testOceanAt() {
+    AreaTree tree = new AreaTree(createRoom());
+
+    assertNull(tree.getOceanAt(new Point(10, 10)), "inside the wall");
+    assertNull(tree.getOceanAt(new Point(175, 175)), "inside the pillar");
+
+    AreaOcean room = tree.getOceanAt(new Point(50, 50));
+    assertNotNull(room);
+    assertEquals(1, room.getIslands().size(), "the pillar is in the room");
+
+    AreaOcean outside = tree.getOceanAt(new Point(1000, 1000));
+    assertNotNull(outside);
+    assertNotSame(room, outside);
+    assertEquals(1, outside.getIslands().size(), "only the wall is seen from outside");
+  }
+
+  @Test
+  public void testSetArea() {
+    AreaTree tree = new AreaTree(createRoom());
+    Point origin = new Point(50, 50);
+    Area hidden = new Area();
+    tree.putHiddenArea(tree.getOceanAt(origin), origin, hidden);
+    assertSame(hidden, tree.getHiddenArea(origin));
+
+    // Knock the pillar down
+    Area changed = createRoom();
+    changed.subtract(new Area(new Rectangle(150, 150, 50, 50)));
+    tree.setArea(changed);
+
+    assertNull(tree.getHiddenArea(origin));
+    assertNotNull(tree.getOceanAt(new Point(175, 175)));
+    assertTrue(tree.getOceanAt(origin).getIslands().isEmpty());
+  }
+
+  @Test
+  public void testHiddenAreaCacheEvictsLeastRecentlyUsed() {
+    AreaTree tree = new AreaTree(createRoom());
+    AreaOcean outside = tree.getOceanAt(new Point(1000, 1000));
+    for (int i = 0; i < AreaTree.HIDDEN_AREA_CACHE_SIZE; i++) {
+      tree.putHiddenArea(outside, new Point(1000 + i, 1000), new Area());
+    }
+    Point first = new Point(1000, 1000);
+    Area firstHidden = tree.getHiddenArea(first);
+    assertNotNull(firstHidden);
+
+    // The first origin was just used, so the second one goes
+    tree.putHiddenArea(outside, new Point(-1000, -1000), new Area());
+    assertSame(firstHidden, tree.getHiddenArea(first));
+    assertNull(tree.getHiddenArea(new Point(1001, 1000)));
+    assertNotNull(tree.getHiddenArea(new Point(-1000, -1000)));
+  }
+
+  @Test
+  public void testHiddenAreaOfPreviousAreaIsIgnored() {
+    AreaTree tree = new AreaTree(createRoom());
+    Point origin = new Point(50, 50);
+    AreaOcean room = tree.getOceanAt(origin);
+
+    tree.setArea(new Area(new Rectangle(0, 0, 400, 400)));
+    tree.putHiddenArea(room, origin, new Area());
+
+    assertNull(tree.getHiddenArea(origin));
+  }
+
+  @Test
+  public void testChangedRingKeepsTheRingsInside() {
+    AreaTree tree = new AreaTree(createRoom());
+    assertEquals(1, tree.getOceanAt(new Point(50, 50)).getIslands().size());
+
+    // Widen the room, so its hole is replaced while the pillar stays
+    Area wider = new Area(new Rectangle(0, 0, 400, 400));
+    wider.subtract(new Area(new Rectangle(10, 10, 380, 380)));
+    wider.add(new Area(new Rectangle(150, 150, 50, 50)));
+    tree.setArea(wider);
+
+    AreaOcean room = tree.getOceanAt(new Point(15, 15));
+    assertNotNull(room);
+    assertEquals(1, room.getIslands().size(), "the pillar moved to the new room");
+    assertEquals(1, tree.getOceanAt(new Point(1000, 1000)).getIslands().size());
+  }
+
+  @Test
+  public void testAddedRingTakesTheRingsInside() {
+    AreaTree tree = new AreaTree(new Area(new Rectangle(150, 150, 50, 50)));
+    assertEquals(1, tree.getOceanAt(new Point(50, 50)).getIslands().size());
+
+    // Build the room around the pillar
+    tree.setArea(createRoom());
+
+    assertEquals(1, tree.getOceanAt(new Point(50, 50)).getIslands().size(), "the pillar");
+    AreaOcean outside = tree.getOceanAt(new Point(1000, 1000));
+    assertEquals(1, outside.getIslands().size(), "only the wall is seen from outside");
+    assertEquals(1, tree.getOcean().getIslands().size());
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.util.List;
+import net.rptools.maptool.model.CellPoint;
+import org.junit.jupiter.api.Test;
+
+public class AStarClusterGraphTest {
+  private static final int[][] NEIGHBORS = {{0, -1}, {1, 0}, {0, 1}, {-1, 0}};
+  /** The clusters the searches may go through. */
+  private static final Rectangle BOUNDS = new Rectangle(-20, -20, 40, 40);
+
+  /** A wall along x = 40, with a gap at y = 100, on an open map. */
+  private static class WallMover implements AStarClusterGraph.Mover {
+    @Override
+    public int[][] getNeighborMap(int x, int y) {
+      return NEIGHBORS;
+    }
+
+    @Override
+    public boolean isStandable(int x, int y) {
+      return x != 40 || y == 100;
+    }
+
+    @Override
+    public boolean blocksMove(int x, int y, int[] neighborArray) {
+      return false;
+    }
+  }
+
+  @Test
+  public void testPathGoesThroughGap() {
+    AStarClusterGraph graph = new AStarClusterGraph();
+    CellPoint start = new CellPoint(0, 0);
+    CellPoint goal = new CellPoint(80, 0);
+    List<AStarClusterGraph.Node> path =
+        graph.findPath(new WallMover(), start, goal, BOUNDS, Long.MAX_VALUE);
+
+    assertNotNull(path);
+    AStarClusterGraph.Corridor corridor = AStarClusterGraph.getCorridor(path);
+    assertTrue(corridor.contains(0, 0));
+    assertTrue(corridor.contains(80, 0));
+    assertTrue(corridor.contains(40, 100));
+    assertFalse(corridor.contains(200, 200));
+
+    List<CellPoint> roughPath = graph.getRoughPath(path, start, goal);
+    assertEquals(start, roughPath.get(0));
+    assertEquals(goal, roughPath.get(roughPath.size() - 1));
+  }
+
+  @Test
+  public void testNoPathFromBlockedCell() {
+    AStarClusterGraph graph = new AStarClusterGraph();
+    assertNull(
+        graph.findPath(
+            new WallMover(),
+            new CellPoint(40, 0),
+            new CellPoint(80, 0),
+            BOUNDS,
+            Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testNoPathToEnclosedGoal() {
+    // The goal stands in a sealed room on an otherwise open map
+    AStarClusterGraph.Mover mover =
+        new WallMover() {
+          @Override
+          public boolean isStandable(int x, int y) {
+            return Math.max(Math.abs(x - 80), Math.abs(y)) != 3;
+          }
+        };
+    AStarClusterGraph graph = new AStarClusterGraph();
+    assertNull(
+        graph.findPath(mover, new CellPoint(0, 0), new CellPoint(80, 0), BOUNDS, Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testNoPathAfterDeadline() {
+    AStarClusterGraph graph = new AStarClusterGraph();
+    long deadline = System.currentTimeMillis() - 1;
+    assertNull(
+        graph.findPath(
+            new WallMover(), new CellPoint(0, 0), new CellPoint(80, 0), BOUNDS, deadline));
+  }
+
+  @Test
+  public void testNoPathOutsideBounds() {
+    AStarClusterGraph graph = new AStarClusterGraph();
+    Rectangle bounds = new Rectangle(0, 0, 2, 2);
+    assertNull(
+        graph.findPath(
+            new WallMover(), new CellPoint(0, 0), new CellPoint(80, 0), bounds, Long.MAX_VALUE));
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+public class AStarSearchStateTest {
+
+  @Test
+  public void testNodesOfCells() {
+    AStarSearchState search = new AStarSearchState();
+    search.reset();
+
+    int even = search.node(-3, 7, false);
+    int odd = search.node(-3, 7, true);
+    assertNotEquals(even, odd);
+    assertEquals(even, search.node(-3, 7, false));
+    assertEquals(odd, search.node(-3, 7, true));
+    assertNotEquals(even, search.node(7, -3, false));
+
+    assertEquals(-3, search.x(odd));
+    assertEquals(7, search.y(odd));
+    assertTrue(search.isOdd(odd));
+    assertFalse(search.isOdd(even));
+    assertFalse(search.isVisited(even));
+    assertFalse(search.isOpen(even));
+    assertFalse(search.isClosed(even));
+  }
+
+  @Test
+  public void testBuffersGrowAndReset() {
+    AStarSearchState search = new AStarSearchState();
+    search.reset();
+    for (int x = -50; x < 50; x++) {
+      for (int y = -50; y < 50; y++) {
+        int node = search.node(x, y, (x & 1) == 0);
+        search.close(node);
+      }
+    }
+    for (int x = -50; x < 50; x++) {
+      for (int y = -50; y < 50; y++) {
+        int node = search.node(x, y, (x & 1) == 0);
+        assertEquals(x, search.x(node));
+        assertEquals(y, search.y(node));
+        assertTrue(search.isClosed(node));
+      }
+    }
+
+    search.reset();
+    assertFalse(search.isClosed(search.node(0, 0, true)));
+  }
+
+  @Test
+  public void testOpenListOrder() {
+    AStarSearchState search = new AStarSearchState();
+    search.reset();
+    double[] costs = {5, 3, 8, 1, 9, 2, 7};
+    for (int i = 0; i < costs.length; i++) {
+      int node = search.node(i, 0, false);
+      search.setH(node, 0);
+      search.setCost(node, AStarSearchState.NO_PARENT, costs[i], 0, 0);
+      search.open(node);
+    }
+    // Lower the cost of an open node in place
+    search.setCost(search.node(4, 0, false), search.node(0, 0, false), 0.5, 0, 0);
+
+    assertEquals(4, search.x(search.pollOpen()));
+    assertEquals(3, search.x(search.pollOpen()));
+    assertEquals(5, search.x(search.pollOpen()));
+    assertEquals(1, search.x(search.pollOpen()));
+    assertEquals(0, search.x(search.pollOpen()));
+    assertEquals(6, search.x(search.pollOpen()));
+    assertEquals(2, search.x(search.pollOpen()));
+    assertFalse(search.hasOpen());
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+import net.rptools.maptool.model.CellPoint;
+import net.rptools.maptool.model.Grid;
+import net.rptools.maptool.model.SquareGrid;
+import net.rptools.maptool.model.TokenFootprint;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class MovementBlockingGridTest {
+  private Grid grid;
+  private int size;
+
+  @BeforeEach
+  public void setUp() {
+    grid = new SquareGrid(false, false);
+    size = grid.getSize();
+  }
+
+  /** @return thin walls down the left edge of the given columns, from row 0 to row 10. */
+  private Area walls(int... columns) {
+    Area vbl = new Area();
+    for (int column : columns) {
+      vbl.add(new Area(new Rectangle(column * size, 0, 10, 10 * size)));
+    }
+    return vbl;
+  }
+
+  /** @return a small square on the center of a cell. */
+  private Rectangle centerOf(int x, int y) {
+    return new Rectangle(x * size + size / 2 - 5, y * size + size / 2 - 5, 10, 10);
+  }
+
+  /** @return a footprint of the given number of cells on each side of its position. */
+  private static TokenFootprint squareFootprint(int reach) {
+    List<Point> points = new ArrayList<>();
+    for (int x = -reach; x <= reach; x++) {
+      for (int y = -reach; y <= reach; y++) {
+        if (x != 0 || y != 0) {
+          points.add(new Point(x, y));
+        }
+      }
+    }
+    return new TokenFootprint("Square " + reach, points.toArray(new Point[0]));
+  }
+
+  @Test
+  public void testUpdateKeepsMovesAwayFromChange() {
+    MovementBlockingGrid blocking = new MovementBlockingGrid(grid, walls(-10, 5, 30));
+    assertTrue(blocking.blocksMovement(4, 5, 5, 5));
+    assertTrue(blocking.blocksMovement(29, 5, 30, 5));
+    assertFalse(blocking.blocksMovement(20, 5, 21, 5));
+
+    Rectangle changedBounds = centerOf(3, 5);
+    Area newVbl = walls(-10, 5, 30);
+    newVbl.add(new Area(changedBounds));
+    MovementBlockingGrid updated = blocking.update(newVbl, changedBounds);
+
+    // Only the move away from the change is carried over
+    var blockedMoves = updated.getBlockedMoves();
+    assertEquals(Set.of(new CellPoint(29, 5)), blockedMoves.get(new CellPoint(30, 5)));
+    assertNull(blockedMoves.get(new CellPoint(5, 5)));
+
+    // The updated grid answers like one built from scratch
+    MovementBlockingGrid fresh = new MovementBlockingGrid(grid, newVbl);
+    for (int x = -13; x <= 33; x++) {
+      for (int y = 2; y <= 8; y++) {
+        for (int dx = -1; dx <= 1; dx++) {
+          for (int dy = -1; dy <= 1; dy++) {
+            assertEquals(
+                fresh.blocksMovement(x, y, x + dx, y + dy),
+                updated.blocksMovement(x, y, x + dx, y + dy),
+                "(" + x + ", " + y + ") by (" + dx + ", " + dy + ")");
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testUpdateDropsFootprintsReachingChange() {
+    TokenFootprint single = squareFootprint(0);
+    TokenFootprint large = squareFootprint(3);
+    MovementBlockingGrid blocking = new MovementBlockingGrid(grid, walls(-10, 5, 30));
+    assertFalse(blocking.footprintIntersects(large, 0, 5));
+    assertTrue(blocking.footprintIntersects(large, 2, 5));
+    assertFalse(blocking.footprintIntersects(single, 0, 5));
+    assertFalse(blocking.footprintIntersects(large, 20, 5));
+
+    // The change is further than the padding from (0, 5), but within the reach of the large token
+    Rectangle changedBounds = centerOf(3, 5);
+    Area newVbl = walls(-10, 5, 30);
+    newVbl.add(new Area(changedBounds));
+    MovementBlockingGrid updated = blocking.update(newVbl, changedBounds);
+
+    assertTrue(updated.footprintIntersects(large, 0, 5));
+    assertFalse(updated.footprintIntersects(single, 0, 5));
+    assertTrue(updated.footprintIntersects(large, 2, 5));
+    assertFalse(updated.footprintIntersects(large, 20, 5));
+
+    MovementBlockingGrid fresh = new MovementBlockingGrid(grid, newVbl);
+    for (int x = -13; x <= 33; x++) {
+      for (int y = 2; y <= 8; y++) {
+        assertEquals(
+            fresh.footprintIntersects(large, x, y),
+            updated.footprintIntersects(large, x, y),
+            "(" + x + ", " + y + ")");
+      }
+    }
+  }
+
+  @Test
+  public void testConcurrentFillsKeepAllMoves() {
+    Area vbl = walls(-10, 5, 30);
+    MovementBlockingGrid sequential = new MovementBlockingGrid(grid, vbl);
+    MovementBlockingGrid concurrent = new MovementBlockingGrid(grid, vbl);
+
+    // Every thread fills each direction of the same cells
+    IntStream.range(0, 9)
+        .forEach(direction -> fill(sequential, direction / 3 - 1, direction % 3 - 1));
+    IntStream.range(0, 9)
+        .parallel()
+        .forEach(direction -> fill(concurrent, direction / 3 - 1, direction % 3 - 1));
+
+    assertEquals(sequential.getBlockedMoves(), concurrent.getBlockedMoves());
+  }
+
+  private static void fill(MovementBlockingGrid blocking, int dx, int dy) {
+    for (int x = -13; x <= 33; x++) {
+      for (int y = -3; y <= 13; y++) {
+        blocking.blocksMovement(x, y, x + dx, y + dy);
+      }
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import net.rptools.lib.MD5Key;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class AssetManagerTest {
+  private File originalCacheDir;
+  private Asset asset;
+
+  @BeforeEach
+  public void setUp(@TempDir Path cacheDir) {
+    originalCacheDir = AssetManager.getAssetCacheFile(new MD5Key("0")).getParentFile();
+    AssetManager.setCacheDir(cacheDir.toFile());
+    asset = new Asset("test", "asset data".getBytes());
+  }
+
+  @AfterEach
+  public void tearDown() {
+    AssetManager.removeAsset(asset.getId());
+    AssetManager.setCacheDir(originalCacheDir);
+  }
+
+  /** Waits for the write stage to put the asset into the persistent cache. */
+  private static void awaitPersisted(MD5Key id) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (!AssetManager.assetIsInPersistentCache(id)) {
+      assertTrue(System.currentTimeMillis() < deadline, "asset was not written");
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testHexIdSkipsCanonicalCheck() throws IOException {
+    // Resolving any path against this directory fails
+    AssetManager.setCacheDir(new File("invalid\0dir"));
+
+    MD5Key hexId = new MD5Key("0123456789abcdefABCDEF0123456789");
+    assertSame(hexId, AssetManager.sanitizeAssetId(hexId));
+    assertThrows(IOException.class, () -> AssetManager.sanitizeAssetId(new MD5Key("not-hex")));
+  }
+
+  @Test
+  public void testIdEscapingCacheDirIsRejected() throws IOException {
+    MD5Key escaping = new MD5Key("../outside");
+    assertEquals(AssetManager.BAD_ASSET_LOCATION_KEY, AssetManager.sanitizeAssetId(escaping));
+
+    // A non-hex id that stays in the directory is fine, and remembered as such
+    MD5Key inside = new MD5Key("inside.txt");
+    assertSame(inside, AssetManager.sanitizeAssetId(inside));
+    assertSame(inside, AssetManager.sanitizeAssetId(inside));
+  }
+
+  @Test
+  public void testWrittenAssetIsInManifest() throws Exception {
+    assertFalse(AssetManager.assetIsInPersistentCache(asset.getId()));
+
+    AssetManager.putAsset(asset);
+    awaitPersisted(asset.getId());
+
+    assertTrue(AssetManager.getAssetCacheFile(asset).isFile());
+    // Read back from the directory as on the next start
+    AssetManager.setCacheDir(AssetManager.getAssetCacheFile(asset).getParentFile());
+    assertTrue(AssetManager.assetIsInPersistentCache(asset.getId()));
+  }
+
+  @Test
+  public void testCorruptedAssetIsPurgedFromManifest() throws Exception {
+    File file = AssetManager.getAssetCacheFile(asset);
+    Files.write(file.toPath(), "corrupted".getBytes());
+    AssetManager.setCacheDir(file.getParentFile());
+    assertTrue(AssetManager.assetIsInPersistentCache(asset.getId()));
+
+    assertNull(AssetManager.getAsset(asset.getId()));
+
+    assertFalse(AssetManager.assetIsInPersistentCache(asset.getId()));
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void testDeletedAssetIsPurgedFromManifest() throws Exception {
+    AssetManager.putAsset(asset);
+    awaitPersisted(asset.getId());
+    AssetManager.removeAsset(asset.getId());
+    assertTrue(AssetManager.getAssetCacheFile(asset).delete());
+
+    assertNull(AssetManager.getAsset(asset.getId()));
+
+    assertFalse(AssetManager.assetIsInPersistentCache(asset.getId()));
+  }
+
+  @Test
+  public void testClearCacheEmptiesManifest() throws Exception {
+    AssetManager.putAsset(asset);
+    awaitPersisted(asset.getId());
+
+    AssetManager.clearCache();
+
+    assertFalse(AssetManager.assetIsInPersistentCache(asset.getId()));
+    assertFalse(AssetManager.getAssetCacheFile(asset).exists());
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.caucho.hessian.io.HessianInput;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.rptools.clientserver.hessian.HessianUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class CampaignZoneLoaderTest {
+
+  Campaign campaign;
+  TestLoader loader;
+  List<GUID> ids;
+
+  @BeforeEach
+  public void setUp() {
+    campaign = new Campaign();
+    loader = new TestLoader();
+    for (int i = 0; i < 5; i++) {
+      Zone zone = new Zone();
+      zone.setName("Map " + i);
+      loader.zones.put(zone.getId(), zone);
+    }
+    ids = loader.getZoneIds();
+    campaign.setZoneLoader(loader);
+  }
+
+  @Test
+  public void testZoneIsLoadedOnDemand() {
+    Zone zone = campaign.getZone(ids.get(2));
+    assertEquals("Map 2", zone.getName());
+    assertSame(zone, campaign.getZone(ids.get(2)));
+    assertEquals(1, loader.loadCount.get());
+    assertFalse(loader.closed);
+  }
+
+  @Test
+  public void testGetZonesLoadsTheRestInOrder() {
+    campaign.getZone(ids.get(3));
+
+    List<Zone> zones = campaign.getZones();
+    assertEquals(5, zones.size());
+    for (int i = 0; i < zones.size(); i++) {
+      assertEquals(ids.get(i), zones.get(i).getId());
+    }
+    assertEquals(5, loader.loadCount.get());
+    assertTrue(loader.closed);
+  }
+
+  @Test
+  public void testRemovedZoneIsNotLoaded() {
+    campaign.removeZone(ids.get(0));
+
+    assertNull(campaign.getZone(ids.get(0)));
+    assertEquals(4, campaign.getZones().size());
+    assertEquals(4, loader.loadCount.get());
+  }
+
+  @Test
+  public void testUnreadableZoneIsDropped() {
+    loader.zones.put(ids.get(1), null);
+
+    assertNull(campaign.getZone(ids.get(1)));
+    assertEquals(4, campaign.getZones().size());
+  }
+
+  @Test
+  public void testRemoveAllZonesClosesLoader() {
+    campaign.removeAllZones();
+
+    assertTrue(loader.closed);
+    assertTrue(campaign.getZones().isEmpty());
+    assertEquals(0, loader.loadCount.get());
+  }
+
+  @Test
+  public void testLoadedZonesDoNotLoadTheRest() {
+    Zone zone = campaign.getZone(ids.get(1));
+
+    assertEquals(List.of(zone), campaign.getLoadedZones());
+    assertEquals(ids, campaign.getZoneIds());
+    assertTrue(campaign.hasPendingZones());
+    assertEquals(1, loader.loadCount.get());
+  }
+
+  @Test
+  public void testLoadPendingZonesClosesLoader() {
+    campaign.loadPendingZones();
+
+    assertFalse(campaign.hasPendingZones());
+    assertEquals(5, campaign.getLoadedZones().size());
+    assertTrue(loader.closed);
+  }
+
+  @Test
+  public void testSerializationLoadsPendingZones() throws IOException {
+    Campaign copy = roundTrip(campaign);
+
+    assertFalse(campaign.hasPendingZones());
+    assertFalse(copy.hasPendingZones());
+    assertEquals(Set.copyOf(ids), Set.copyOf(copy.getZoneIds()));
+    assertEquals(5, copy.getLoadedZones().size());
+  }
+
+  @Test
+  public void testCopyInThisProcessLoadsPendingZonesItself() throws IOException {
+    campaign.getZone(ids.get(0));
+
+    List<byte[]> calls = new ArrayList<byte[]>();
+    campaign.shareZones(() -> calls.add(encode(campaign)));
+
+    // Neither the campaign nor its copy loaded anything for the copy
+    Campaign copy = decode(calls.get(0));
+    assertEquals(1, loader.loadCount.get());
+    assertEquals(Set.copyOf(ids), Set.copyOf(copy.getZoneIds()));
+    assertEquals(1, copy.getLoadedZones().size());
+    assertTrue(copy.hasPendingZones());
+
+    assertEquals("Map 3", copy.getZone(ids.get(3)).getName());
+    assertEquals(2, loader.loadCount.get());
+    assertTrue(campaign.hasPendingZones());
+
+    // Each of them closes its own loader
+    copy.loadPendingZones();
+    assertTrue(loader.shared.get(1).closed);
+    assertFalse(loader.closed);
+  }
+
+  @Test
+  public void testPlaceholdersWithoutSharedLoaderAreDropped() throws IOException {
+    campaign.getZone(ids.get(2));
+    List<byte[]> calls = new ArrayList<byte[]>();
+    campaign.shareZones(() -> calls.add(encode(campaign)));
+
+    // Only one copy gets the loader, a second one of the same call gets the loaded zones only
+    Campaign first = decode(calls.get(0));
+    Campaign second = decode(calls.get(0));
+
+    assertEquals(Set.copyOf(ids), Set.copyOf(first.getZoneIds()));
+    assertEquals(List.of(ids.get(2)), second.getZoneIds());
+    assertFalse(second.hasPendingZones());
+  }
+
+  @Test
+  public void testUnclaimedSharedLoaderIsClosedByTheNextShare() {
+    campaign.shareZones(() -> {});
+    campaign.shareZones(() -> {});
+
+    assertTrue(loader.shared.get(1).closed);
+    assertFalse(loader.shared.get(2).closed);
+    assertFalse(loader.closed);
+  }
+
+  /** Sends the campaign like a call to the server, which is how it gets copied. */
+  private static Campaign roundTrip(Campaign campaign) throws IOException {
+    return decode(encode(campaign));
+  }
+
+  private static byte[] encode(Campaign campaign) {
+    return HessianUtils.methodToBytes("setCampaign", campaign);
+  }
+
+  private static Campaign decode(byte[] call) throws IOException {
+    HessianInput in = HessianUtils.createSafeHessianInput(new ByteArrayInputStream(call));
+    in.startCall();
+    Campaign copy = (Campaign) in.readObject();
+    in.completeCall();
+    return copy;
+  }
+
+  private static class TestLoader implements ZoneLoader {
+    final Map<GUID, Zone> zones;
+    final AtomicInteger loadCount;
+    final List<TestLoader> shared;
+    volatile boolean closed;
+
+    TestLoader() {
+      this(new LinkedHashMap<GUID, Zone>(), new AtomicInteger(), new ArrayList<TestLoader>());
+      shared.add(this);
+    }
+
+    private TestLoader(Map<GUID, Zone> zones, AtomicInteger loadCount, List<TestLoader> shared) {
+      this.zones = zones;
+      this.loadCount = loadCount;
+      this.shared = shared;
+    }
+
+    @Override
+    public List<GUID> getZoneIds() {
+      return new ArrayList<GUID>(zones.keySet());
+    }
+
+    @Override
+    public Zone loadZone(GUID id) throws IOException {
+      loadCount.incrementAndGet();
+      Zone zone = zones.get(id);
+      if (zone == null) {
+        throw new IOException("Unreadable " + id);
+      }
+      return zone;
+    }
+
+    @Override
+    public ZoneLoader share() {
+      TestLoader loader = new TestLoader(zones, loadCount, shared);
+      shared.add(loader);
+      return loader;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.gson.JsonObject;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class EvaluatedPropertyCacheTest {
+
+  private Map<String, TokenProperty> index;
+
+  @BeforeEach
+  void setup() {
+    index = new HashMap<>();
+    for (String name : new String[] {"Str", "StrBonus", "Attack", "Notes"}) {
+      index.put(name.toLowerCase(), new TokenProperty(name));
+    }
+  }
+
+  @Test
+  void findDependencies() {
+    assertEquals(Set.of(), EvaluatedPropertyCache.findDependencies("just text", index));
+    assertEquals(Set.of("str"), EvaluatedPropertyCache.findDependencies("{Str}", index));
+    assertEquals(
+        Set.of("str", "strbonus"),
+        EvaluatedPropertyCache.findDependencies("Total: {(STR - 10) / 2 + StrBonus}", index));
+
+    // Anything else than arithmetic on properties is not cached
+    assertNull(EvaluatedPropertyCache.findDependencies("{1d20 + Str}", index));
+    assertNull(EvaluatedPropertyCache.findDependencies("{d20}", index));
+    assertNull(EvaluatedPropertyCache.findDependencies("{floor(Str / 2)}", index));
+    assertNull(EvaluatedPropertyCache.findDependencies("{Str = 3}", index));
+    assertNull(EvaluatedPropertyCache.findDependencies("{Unknown + 1}", index));
+    assertNull(EvaluatedPropertyCache.findDependencies("{token.name}", index));
+    assertNull(EvaluatedPropertyCache.findDependencies("[r: Str]", index));
+    assertNull(EvaluatedPropertyCache.findDependencies("{\"a\" + Str}", index));
+    assertNull(EvaluatedPropertyCache.findDependencies("{Str", index));
+  }
+
+  @Test
+  void invalidateDependents() {
+    EvaluatedPropertyCache cache = new EvaluatedPropertyCache();
+    cache.put("Str", "14", Set.of(), index);
+    cache.put("StrBonus", "2", Set.of("str"), index);
+    cache.put("Attack", "5", Set.of("strbonus"), index);
+    cache.put("Notes", "text", Set.of(), index);
+
+    cache.invalidate("STR");
+    assertNull(cache.get("Str", index));
+    assertNull(cache.get("StrBonus", index));
+    assertNull(cache.get("Attack", index));
+    assertEquals("text", cache.get("notes", index));
+
+    // New token properties clear the cache
+    assertNull(cache.get("Notes", new HashMap<>(index)));
+  }
+
+  @Test
+  void jsonValuesAreCopied() {
+    EvaluatedPropertyCache cache = new EvaluatedPropertyCache();
+    JsonObject json = new JsonObject();
+    json.addProperty("a", 1);
+    cache.put("Notes", json, Set.of(), index);
+    json.addProperty("b", 2);
+
+    JsonObject cached = (JsonObject) cache.get("Notes", index);
+    assertFalse(cached.has("b"));
+    cached.addProperty("c", 3);
+    assertFalse(((JsonObject) cache.get("Notes", index)).has("c"));
+  }
+
+  @Test
+  void containsAll() {
+    EvaluatedPropertyCache cache = new EvaluatedPropertyCache();
+    cache.put("Str", "14", Set.of(), index);
+    assertTrue(cache.containsAll(Set.of()));
+    assertTrue(cache.containsAll(Set.of("str")));
+    assertFalse(cache.containsAll(Set.of("str", "strbonus")));
+  }
+}
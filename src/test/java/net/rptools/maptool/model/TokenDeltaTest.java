@@ -0,0 +1,266 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import net.rptools.lib.MD5Key;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TokenDeltaTest {
+
+  TokenDeltaTracker tracker;
+  Token token;
+  Token remote;
+
+  @BeforeEach
+  public void setUp() {
+    tracker = new TokenDeltaTracker();
+    token = new Token();
+    token.setName("Goblin");
+    token.setProperty("HP", "7");
+    token.setProperty("AC", "15");
+    token.setSpeech("hello", "Hi!");
+
+    // The first update always carries the whole token
+    assertNull(tracker.createDelta(token));
+    remote = new Token(token, true);
+    remote.setSyncVersion(token.getSyncVersion());
+  }
+
+  @Test
+  public void testOnlyChangesAreSent() {
+    token.setProperty("HP", "3");
+    token.setName("Wounded Goblin");
+
+    TokenDelta delta = tracker.createDelta(token);
+    assertNotNull(delta);
+    assertTrue(delta.isBasedOn(remote));
+    assertFalse(delta.isLight());
+
+    Token updated = delta.applyTo(remote);
+    assertAll(
+        () -> assertEquals("Wounded Goblin", updated.getName()),
+        () -> assertEquals("3", updated.getProperty("HP")),
+        () -> assertEquals("15", updated.getProperty("AC")),
+        () -> assertEquals("Hi!", updated.getSpeech("hello")),
+        () -> assertEquals(token.getSyncVersion(), updated.getSyncVersion()),
+        () -> assertEquals("7", remote.getProperty("HP")));
+  }
+
+  @Test
+  public void testRemovedProperty() {
+    token.resetProperty("AC");
+
+    Token updated = tracker.createDelta(token).applyTo(remote);
+    assertNull(updated.getProperty("AC"));
+    assertEquals("7", updated.getProperty("HP"));
+  }
+
+  @Test
+  public void testLightUpdate() {
+    token.setX(100);
+
+    TokenDelta delta = tracker.createDelta(token);
+    assertTrue(delta.isLight());
+    assertEquals(100, delta.applyTo(remote).getX());
+  }
+
+  @Test
+  public void testStaleCopyIsDetected() {
+    token.setProperty("HP", "3");
+    tracker.createDelta(token);
+    token.setProperty("HP", "1");
+
+    assertFalse(tracker.createDelta(token).isBasedOn(remote));
+  }
+
+  @Test
+  public void testForgottenTokenIsSentWhole() {
+    tracker.forget(token.getId());
+    token.setProperty("HP", "3");
+
+    assertNull(tracker.createDelta(token));
+  }
+
+  @Test
+  public void testAppliedMacrosAreCopies() {
+    MacroButtonProperties macro = new MacroButtonProperties(0);
+    macro.setLabel("Attack");
+    macro.setCommand("[r: 1d20]");
+    token.saveMacro(macro);
+
+    Token updated = tracker.createDelta(token).applyTo(remote);
+    Token again = tracker.createDelta(token).applyTo(updated);
+    updated.getMacro(macro.getIndex(), false).setCommand("[r: 1d6]");
+
+    assertEquals("[r: 1d20]", again.getMacro(macro.getIndex(), false).getCommand());
+  }
+
+  @Test
+  public void testUpdateBumpsVersion() {
+    Zone zone = new Zone();
+    zone.putToken(remote);
+
+    remote.updateProperty(zone, Token.Update.setName, new Object[] {"Hobgoblin"});
+    token.setProperty("HP", "3");
+
+    // The update changed the remote copy since the delta was made from it
+    assertFalse(tracker.createDelta(token).isBasedOn(remote));
+  }
+
+  @Test
+  public void testEditedTokenIsTracked() {
+    int version = token.getSyncVersion();
+    tracker.tokenSent(token);
+    assertEquals(version + 1, token.getSyncVersion());
+    remote = new Token(token, true);
+    remote.setSyncVersion(token.getSyncVersion());
+
+    // Later changes are sent as deltas on top of the edited token
+    token.setProperty("HP", "3");
+    TokenDelta delta = tracker.createDelta(token);
+    assertNotNull(delta);
+    assertTrue(delta.isBasedOn(remote));
+    assertEquals("3", delta.applyTo(remote).getProperty("HP"));
+  }
+
+  @Test
+  public void testChangedHeroLabDataIsSent() {
+    HeroLabData data = new HeroLabData("Goblin");
+    token.setHeroLabData(data);
+    assertNotNull(tracker.createDelta(token).applyTo(remote).getHeroLabData());
+
+    // An equal copy is not sent again, a change made in place is
+    token.setHeroLabData(new HeroLabData(data));
+    assertNull(tracker.createDelta(token).applyTo(remote).getHeroLabData());
+    token.getHeroLabData().setSummary("Level 2");
+    remote = tracker.createDelta(token).applyTo(remote);
+    assertEquals("Level 2", remote.getHeroLabData().getSummary());
+  }
+
+  /** The updates that only run in the client, with its frame, images and campaign. */
+  private static final Set<Token.Update> CLIENT_ONLY_UPDATES =
+      EnumSet.of(
+          Token.Update.setAllStates, Token.Update.setImageAsset, Token.Update.addLightSource);
+
+  @Test
+  public void testEveryUpdateBumpsVersion() {
+    Zone zone = new Zone();
+    zone.putToken(remote);
+    SquareGrid grid = new SquareGrid();
+    MacroButtonProperties macro = new MacroButtonProperties(0);
+    macro.setLabel("Attack");
+    macro.setCommand("[r: 1d20]");
+
+    for (Token.Update update : Token.Update.values()) {
+      if (CLIENT_ONLY_UPDATES.contains(update)) {
+        continue;
+      }
+      Object[] parameters = parametersFor(update, grid, macro);
+      int version = remote.getSyncVersion();
+      remote.updateProperty(zone, update, parameters);
+      assertEquals(version + 1, remote.getSyncVersion(), update.name());
+    }
+  }
+
+  private static Object[] parametersFor(Token.Update update, Grid grid, MacroButtonProperties m) {
+    MD5Key image = new MD5Key("0123456789abcdef0123456789abcdef");
+    switch (update) {
+      case setState:
+        return new Object[] {"Dead", Boolean.TRUE};
+      case setPropertyType:
+        return new Object[] {"Basic"};
+      case setLayer:
+        return new Object[] {Zone.Layer.GM};
+      case setLayerShape:
+        return new Object[] {Zone.Layer.OBJECT, Token.TokenShape.CIRCLE};
+      case setShape:
+        return new Object[] {Token.TokenShape.SQUARE};
+      case setSnapToScale:
+      case setSnapToGrid:
+      case setOwnedByAll:
+      case setVisible:
+      case setVisibleOnlyToOwner:
+      case setIsAlwaysVisible:
+      case setHasSight:
+        return new Object[] {true};
+      case setSnapToGridAndXY:
+        return new Object[] {true, 10, 20};
+      case setFootprint:
+        return new Object[] {grid, grid.getDefaultFootprint()};
+      case setProperty:
+        return new Object[] {"HP", "2"};
+      case resetProperty:
+        return new Object[] {"AC"};
+      case setZOrder:
+      case setX:
+      case setY:
+      case deleteMacro:
+        return new Object[] {0};
+      case setFacing:
+        return new Object[] {90};
+      case addOwner:
+        return new Object[] {"player"};
+      case setScaleX:
+      case setScaleY:
+      case setTerrainModifier:
+        return new Object[] {2.0};
+      case setScaleXY:
+        return new Object[] {2.0, 3.0};
+      case setNotes:
+      case setGMNotes:
+      case setLabel:
+      case setName:
+      case setGMName:
+        return new Object[] {"text"};
+      case saveMacro:
+        return new Object[] {m};
+      case saveMacroList:
+        return new Object[] {List.of(m), true};
+      case setXY:
+        return new Object[] {1, 2};
+      case setHaloColor:
+        return new Object[] {Color.RED};
+      case setTokenOpacity:
+        return new Object[] {"0.5"};
+      case setTerrainModifierOperation:
+        return new Object[] {Token.TerrainModifierOperation.ADD};
+      case setTerrainModifiersIgnored:
+        return new Object[] {EnumSet.of(Token.TerrainModifierOperation.ADD)};
+      case setVBL:
+        return new Object[] {new Area(new Rectangle(0, 0, 10, 10))};
+      case setPortraitImage:
+      case setCharsheetImage:
+        return new Object[] {image};
+      case setLayout:
+        return new Object[] {1.5, 3, 4};
+      case removeLightSource:
+        return new Object[] {new LightSource("Torch")};
+      case setSightType:
+        return new Object[] {"Normal"};
+      default:
+        // setPC, setNPC, clearAllOwners, clearLightSources, flipX and flipY
+        return new Object[0];
+    }
+  }
+}
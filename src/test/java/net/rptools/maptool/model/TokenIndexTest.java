@@ -0,0 +1,88 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TokenIndexTest {
+
+  private TokenIndex index;
+  private Token goblin;
+  private Token hero;
+
+  @BeforeEach
+  void setup() {
+    index = new TokenIndex();
+    goblin = new Token();
+    goblin.setName("Goblin");
+    goblin.setGMName("Gob 1");
+    goblin.setType(Token.Type.NPC);
+    goblin.setState("Dead", Boolean.TRUE);
+    goblin.setState("Prone", BigDecimal.ZERO);
+    index.put(goblin);
+
+    hero = new Token();
+    hero.setName("Hero");
+    hero.setType(Token.Type.PC);
+    hero.addOwner("alice");
+    hero.setHasSight(true);
+    hero.setLayer(Zone.Layer.TOKEN);
+    index.put(hero);
+  }
+
+  @Test
+  void findsByIndexedAttributes() {
+    assertAll(
+        () -> assertEquals(Set.of(goblin.getId()), index.findAll(TokenIndex.name("gOBLIN"))),
+        () -> assertEquals(Set.of(goblin.getId()), index.findAll(TokenIndex.gmName("GOB 1"))),
+        () -> assertEquals(Set.of(goblin.getId()), index.findAll(TokenIndex.state("Dead"))),
+        () -> assertEquals(Set.of(), index.findAll(TokenIndex.state("Prone"))),
+        () -> assertEquals(Set.of(hero.getId()), index.findAll(TokenIndex.owner("alice"))),
+        () ->
+            assertEquals(
+                Set.of(hero.getId()),
+                index.findAll(TokenIndex.type(Token.Type.PC), TokenIndex.hasSight())),
+        () ->
+            assertEquals(
+                Set.of(),
+                index.findAll(TokenIndex.type(Token.Type.NPC), TokenIndex.hasSight())),
+        () ->
+            assertEquals(
+                Set.of(goblin.getId(), hero.getId()),
+                index.findAny(
+                    List.of(TokenIndex.type(Token.Type.PC), TokenIndex.type(Token.Type.NPC)))));
+  }
+
+  @Test
+  void updatesEntriesOfChangedTokens() {
+    goblin.setName("Dead Goblin");
+    goblin.setState("Dead", null);
+    index.put(goblin);
+
+    assertAll(
+        () -> assertEquals(Set.of(), index.findAll(TokenIndex.name("Goblin"))),
+        () -> assertEquals(Set.of(goblin.getId()), index.findAll(TokenIndex.name("dead goblin"))),
+        () -> assertEquals(Set.of(), index.findAll(TokenIndex.state("Dead"))));
+
+    index.remove(hero.getId());
+    assertEquals(Set.of(), index.findAll(TokenIndex.owner("alice")));
+  }
+}
@@ -46,6 +46,9 @@ public void setUp() {
     propsList.add(new TokenProperty("jsonArr1", null, true, false, false, "[4, 3]"));
     propsList.add(new TokenProperty("plainStr1", null, true, false, false, "justAString"));
     propsList.add(new TokenProperty("badJson", null, true, false, false, "{\"a\": 1}{\"b\": 2}"));
+    propsList.add(new TokenProperty("base", null, true, false, false, "10"));
+    propsList.add(new TokenProperty("rolled", null, true, false, false, "{1d1 + base}"));
+    propsList.add(new TokenProperty("fromRolled", null, true, false, false, "{rolled * 2}"));
     MapTool.getCampaign().putTokenType("testType", propsList);
 
     testToken = new Token();
@@ -119,4 +122,24 @@ public void testUnknownProperty() {
   public void testBadJsonReturnsAsString() {
     assertEquals("{\"a\": 1}{\"b\": 2}", testToken.getEvaluatedProperty("badJson"));
   }
+
+  @Test
+  public void testValueComputedFromUncachedValueIsNotCached() {
+    assertEquals("22", testToken.getEvaluatedProperty("fromRolled").toString());
+
+    // rolled is evaluated again each time, so what is computed from it must be too
+    testToken.setProperty("base", "20");
+    assertEquals("42", testToken.getEvaluatedProperty("fromRolled").toString());
+  }
+
+  @Test
+  public void testCachedJsonCanNotBeChanged() {
+    JsonObject json = (JsonObject) testToken.getEvaluatedProperty("jsonObj1");
+    json.addProperty("added", 1);
+    json.remove("sampleKey");
+
+    JsonObject again = (JsonObject) testToken.getEvaluatedProperty("jsonObj1");
+    assertFalse(again.has("added"));
+    assertEquals(5, again.get("sampleKey").getAsInt());
+  }
 }
@@ -0,0 +1,89 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TokenSpatialIndexTest {
+
+  private TokenSpatialIndex index;
+  private final GUID near = new GUID();
+  private final GUID far = new GUID();
+  private final GUID background = new GUID();
+
+  @BeforeEach
+  void setup() {
+    index = new TokenSpatialIndex(100);
+    index.put(near, new Rectangle(10, 10, 50, 50));
+    index.put(far, new Rectangle(-5000, 3000, 50, 50));
+    // Covers far more buckets than a token is listed in
+    index.put(background, new Rectangle(-10000, -10000, 20000, 20000));
+  }
+
+  @Test
+  void findsTokensInArea() {
+    assertAll(
+        () -> assertEquals(Set.of(near, background), index.find(new Rectangle(0, 0, 20, 20))),
+        () -> assertEquals(Set.of(near, background), index.find(new Rectangle(59, 59, 1, 1))),
+        () -> assertEquals(Set.of(background), index.find(new Rectangle(60, 60, 1, 1))),
+        () ->
+            assertEquals(
+                Set.of(far, background), index.find(new Rectangle(-4990, 3040, 200, 200))),
+        () ->
+            assertEquals(
+                Set.of(near, far, background),
+                index.find(new Rectangle(-100000, -100000, 200000, 200000))),
+        () -> assertEquals(Set.of(), index.find(new Rectangle(20000, 20000, 10, 10))));
+  }
+
+  @Test
+  void movesAndRemovesTokens() {
+    index.put(near, new Rectangle(-5000, 3000, 10, 10));
+    assertEquals(Set.of(background), index.find(new Rectangle(0, 0, 100, 100)));
+    assertEquals(Set.of(near, far, background), index.find(new Rectangle(-5000, 3000, 1, 1)));
+
+    index.remove(far);
+    index.remove(background);
+    assertEquals(Set.of(near), index.find(new Rectangle(-5000, 3000, 1, 1)));
+  }
+
+  @Test
+  void zoneFindsTokenResizedWithoutEvent() {
+    Zone zone = new Zone();
+    Token token = new Token();
+    token.setSnapToScale(false);
+    token.setSnapToGrid(false);
+    token.setX(0);
+    token.setY(0);
+    token.setWidth(50);
+    token.setHeight(50);
+    zone.putToken(token);
+    Rectangle grown = new Rectangle(150, 150, 10, 10);
+    assertTrue(zone.getTokensIntersecting(grown).isEmpty());
+
+    // Resized in place, as while it is being dragged by the stamp tool
+    token.setScaleX(4);
+    token.setScaleY(4);
+    zone.updateTokenBounds(token);
+
+    assertEquals(List.of(token), zone.getTokensIntersecting(grown));
+  }
+}
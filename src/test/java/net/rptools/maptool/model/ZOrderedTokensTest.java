@@ -0,0 +1,83 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ZOrderedTokensTest {
+
+  private ZOrderedTokens tokens;
+  private Token back;
+  private Token middle;
+  private Token front;
+
+  private static Token token(int zOrder) {
+    Token token = new Token();
+    token.setZOrder(zOrder);
+    return token;
+  }
+
+  @BeforeEach
+  void setup() {
+    tokens = new ZOrderedTokens();
+    back = token(1);
+    middle = token(5);
+    front = token(9);
+    tokens.put(front);
+    tokens.put(back);
+    tokens.put(middle);
+  }
+
+  @Test
+  void keepsTokensInZOrder() {
+    assertEquals(List.of(back, middle, front), tokens.getTokens());
+    assertSame(back, tokens.first());
+    assertSame(front, tokens.last());
+  }
+
+  @Test
+  void movesTokensPutAgain() {
+    List<Token> before = tokens.getTokens();
+    assertSame(before, tokens.getTokens());
+
+    back.setZOrder(10);
+    tokens.put(back);
+
+    assertEquals(List.of(middle, front, back), tokens.getTokens());
+    assertEquals(List.of(back, middle, front), before);
+    assertEquals(3, tokens.size());
+  }
+
+  @Test
+  void reordersTokensChangedInPlace() {
+    middle.setZOrder(0);
+    assertEquals(List.of(back, middle, front), tokens.getTokens());
+
+    tokens.reorder();
+    assertEquals(List.of(middle, back, front), tokens.getTokens());
+  }
+
+  @Test
+  void removesTokens() {
+    front.setZOrder(0);
+    assertSame(front, tokens.remove(front.getId()));
+    assertNull(tokens.remove(front.getId()));
+    assertEquals(List.of(back, middle), tokens.getTokens());
+  }
+}
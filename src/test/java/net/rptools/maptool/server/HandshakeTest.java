@@ -0,0 +1,61 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import net.rptools.clientserver.compression.AdaptiveMessageCodec;
+import net.rptools.clientserver.compression.GzipMessageCodec;
+import net.rptools.maptool.model.Player;
+import org.junit.jupiter.api.Test;
+
+public class HandshakeTest {
+
+  private static Handshake.Request sendAndReceive(Handshake.Request request) {
+    byte[] bytes = Handshake.writeRequestDetails(request).getBytes(StandardCharsets.UTF_8);
+    return Handshake.extractRequestDetails(bytes, Player.Role.PLAYER);
+  }
+
+  private static Handshake.Request newRequest(String compression) {
+    Handshake.Request request = new Handshake.Request();
+    request.name = "player";
+    request.version = "1.0";
+    request.compression = compression;
+    return request;
+  }
+
+  @Test
+  public void testCompressionIsNegotiated() {
+    Handshake.Request received = sendAndReceive(newRequest(MessageCompression.getSupportedNames()));
+
+    assertEquals(MessageCompression.getSupportedNames(), received.compression);
+    assertEquals(
+        AdaptiveMessageCodec.NAME, MessageCompression.negotiate(received.compression).getName());
+  }
+
+  @Test
+  public void testClientsWithoutCompressionGetGzip() {
+    Handshake.Request received = sendAndReceive(newRequest(null));
+
+    assertEquals("player", received.name);
+    assertNull(received.compression);
+    assertEquals(GzipMessageCodec.NAME, MessageCompression.negotiate(null).getName());
+
+    received = sendAndReceive(newRequest(GzipMessageCodec.NAME));
+    assertEquals(
+        GzipMessageCodec.NAME, MessageCompression.negotiate(received.compression).getName());
+  }
+}
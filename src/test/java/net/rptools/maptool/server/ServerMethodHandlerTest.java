@@ -0,0 +1,73 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+public class ServerMethodHandlerTest {
+
+  @Test
+  public void testForwardedCallHasParametersAsHandlerLeftThem() {
+    MapToolServer server = Mockito.mock(MapToolServer.class);
+    MapToolServerConnection connection = Mockito.mock(MapToolServerConnection.class);
+    Campaign campaign = Mockito.mock(Campaign.class);
+    Zone zone = Mockito.mock(Zone.class);
+    GUID zoneId = new GUID();
+    Mockito.when(server.getConnection()).thenReturn(connection);
+    Mockito.when(server.getCampaign()).thenReturn(campaign);
+    Mockito.when(campaign.getZone(zoneId)).thenReturn(zone);
+    Mockito.when(zone.getLargestZOrder()).thenReturn(41);
+
+    // What the clients get is what the token looks like when the call is encoded
+    List<Integer> encodedZOrders = new ArrayList<>();
+    Mockito.when(
+            connection.encodeFrame(
+                ArgumentMatchers.eq(ServerCommand.COMMAND.putToken.name()),
+                ArgumentMatchers.any(),
+                ArgumentMatchers.any()))
+        .thenAnswer(
+            invocation -> {
+              encodedZOrders.add(((Token) invocation.getArgument(2)).getZOrder());
+              return null;
+            });
+
+    Token token = new Token();
+    int syncVersion = token.getSyncVersion();
+    ServerMethodHandler handler = new ServerMethodHandler(server);
+    handler.handleMethod("client", ServerCommand.COMMAND.putToken.name(), zoneId, token);
+
+    assertEquals(List.of(42), encodedZOrders);
+    assertEquals(syncVersion + 1, token.getSyncVersion());
+
+    // The next call of the same token is encoded anew
+    Mockito.when(zone.getToken(token.getId())).thenReturn(token);
+    token.setZOrder(7);
+    handler.handleMethod("client", ServerCommand.COMMAND.putToken.name(), zoneId, token);
+
+    assertEquals(List.of(42, 7), encodedZOrders);
+    Mockito.verify(connection, Mockito.times(2))
+        .broadcastFrame(ArgumentMatchers.aryEq(new String[] {"client"}), ArgumentMatchers.any());
+  }
+}
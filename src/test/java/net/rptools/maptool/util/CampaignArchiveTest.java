@@ -0,0 +1,126 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CampaignArchiveTest {
+
+  @Test
+  public void testReadsStoredAndCompressedEntries(@TempDir File tempDir) throws IOException {
+    File file = writeZip(tempDir, 3);
+    CampaignArchive archive = CampaignArchive.open(file);
+
+    assertEquals(
+        List.of("stored/0", "deflated/0", "stored/1", "deflated/1", "stored/2", "deflated/2"),
+        archive.getPaths());
+    assertTrue(archive.hasEntry("stored/1"));
+    assertFalse(archive.hasEntry("stored/3"));
+    assertArrayEquals(content(1), archive.read("stored/1"));
+    assertArrayEquals(content(2), archive.read("deflated/2"));
+    assertThrows(FileNotFoundException.class, () -> archive.read("stored/3"));
+    archive.release();
+  }
+
+  @Test
+  public void testConcurrentReads(@TempDir File tempDir) throws Exception {
+    int count = 20;
+    CampaignArchive archive = CampaignArchive.open(writeZip(tempDir, count));
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<byte[]>> reads = new ArrayList<>();
+      for (int round = 0; round < 5; round++) {
+        for (int i = 0; i < count; i++) {
+          String path = (i % 2 == 0 ? "stored/" : "deflated/") + i;
+          reads.add(executor.submit(() -> archive.read(path)));
+        }
+      }
+      for (int i = 0; i < reads.size(); i++) {
+        assertArrayEquals(content(i % count), reads.get(i).get());
+      }
+    } finally {
+      executor.shutdown();
+      archive.release();
+    }
+  }
+
+  @Test
+  public void testClosedWithTheLastReference(@TempDir File tempDir) throws IOException {
+    File file = writeZip(tempDir, 1);
+    CampaignArchive archive = CampaignArchive.open(file);
+    assertEquals(file.getAbsoluteFile(), archive.getFile());
+
+    assertSame(archive, archive.retain());
+    archive.release();
+    assertArrayEquals(content(0), archive.read("stored/0"));
+
+    archive.release();
+    assertThrows(IOException.class, () -> archive.read("stored/0"));
+    assertThrows(IllegalStateException.class, archive::retain);
+    // A release too many is harmless
+    archive.release();
+
+    // The file is no longer held
+    assertTrue(file.delete());
+  }
+
+  private static byte[] content(int i) {
+    StringBuilder content = new StringBuilder();
+    for (int line = 0; line <= i * 50; line++) {
+      content.append("entry ").append(i).append(" line ").append(line).append('\n');
+    }
+    return content.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /** Writes every entry twice, once stored as it is and once compressed. */
+  private static File writeZip(File dir, int count) throws IOException {
+    File file = new File(dir, "campaign.cmpgn");
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+      for (int i = 0; i < count; i++) {
+        byte[] data = content(i);
+        ZipEntry stored = new ZipEntry("stored/" + i);
+        stored.setMethod(ZipEntry.STORED);
+        stored.setSize(data.length);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        stored.setCrc(crc.getValue());
+        zip.putNextEntry(stored);
+        zip.write(data);
+        zip.closeEntry();
+
+        zip.putNextEntry(new ZipEntry("deflated/" + i));
+        zip.write(data);
+        zip.closeEntry();
+      }
+    }
+    return file;
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import net.rptools.lib.MD5Key;
+import org.junit.jupiter.api.Test;
+
+public class ImageBudgetTest {
+  /** A 16x16 ARGB image takes up 1024 bytes. */
+  private static final int IMAGE_BYTES = 16 * 16 * 4;
+
+  private static BufferedImage newImage() {
+    return new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+  }
+
+  @Test
+  public void testWeightIsRasterSize() {
+    assertEquals(IMAGE_BYTES, ImageBudget.getWeight(newImage()));
+  }
+
+  @Test
+  public void testImageLargerThanASegmentIsNotCached() {
+    // The cache gets half of the budget, and each of its four segments a quarter of that
+    ImageBudget budget = new ImageBudget(8 * IMAGE_BYTES, n -> {});
+    BufferedImage large = new BufferedImage(16, 32, BufferedImage.TYPE_INT_ARGB);
+
+    assertTrue(budget.fitsCache(IMAGE_BYTES));
+    assertFalse(budget.fitsCache(ImageBudget.getWeight(large)));
+    assertFalse(budget.putIfCurrent("large", large, budget.getGeneration()));
+    assertEquals(0, budget.getCache().size());
+
+    // It can still be pinned
+    assertTrue(budget.putPinned(new MD5Key("large".getBytes()), large));
+  }
+
+  @Test
+  public void testCacheAndPinnedImagesShareTheBudget() {
+    List<Object> evicted = new ArrayList<Object>();
+    ImageBudget budget = new ImageBudget(8 * IMAGE_BYTES, n -> evicted.add(n.getKey()));
+    for (int i = 0; i < 8; i++) {
+      budget.getCache().put(i, newImage());
+    }
+    for (int i = 0; i < 8; i++) {
+      budget.putPinned(new MD5Key(("pinned" + i).getBytes()), newImage());
+    }
+
+    // Each segment evicts on its own, so the cache may hold less than its share
+    long cached = budget.getCache().size();
+    assertTrue(cached <= 4);
+    assertEquals(8 - cached, evicted.size());
+    assertEquals(4 * IMAGE_BYTES, budget.getPinnedBytes());
+    assertTrue(cached * IMAGE_BYTES + budget.getPinnedBytes() <= budget.getMaxBytes());
+  }
+
+  @Test
+  public void testPinnedImagesAreCapped() {
+    ImageBudget budget = new ImageBudget(4 * IMAGE_BYTES, n -> {});
+    MD5Key first = new MD5Key("first".getBytes());
+    MD5Key second = new MD5Key("second".getBytes());
+    MD5Key third = new MD5Key("third".getBytes());
+
+    assertTrue(budget.putPinned(first, newImage()));
+    assertTrue(budget.putPinned(second, newImage()));
+    assertFalse(budget.putPinned(third, newImage()));
+    assertNull(budget.getPinned(third));
+
+    // Replacing a pinned image only counts the difference
+    assertTrue(budget.putPinned(second, newImage()));
+    assertEquals(2 * IMAGE_BYTES, budget.getPinnedBytes());
+
+    assertNotNull(budget.removePinned(first));
+    assertTrue(budget.putPinned(third, newImage()));
+    assertEquals(2 * IMAGE_BYTES, budget.getPinnedBytes());
+  }
+
+  @Test
+  public void testClearUnpinsAll() {
+    ImageBudget budget = new ImageBudget(64 * IMAGE_BYTES, n -> {});
+    MD5Key pinned = new MD5Key("pinned".getBytes());
+    BufferedImage image = newImage();
+    budget.putPinned(pinned, image);
+    budget.getCache().put("cached", newImage());
+
+    assertEquals(Map.of(pinned, image), budget.clear());
+
+    assertEquals(0, budget.getPinnedBytes());
+    assertTrue(budget.getPinnedIds().isEmpty());
+    assertEquals(0, budget.getCache().size());
+  }
+
+  @Test
+  public void testImagesDerivedBeforeAFlushAreNotCached() {
+    ImageBudget budget = new ImageBudget(64 * IMAGE_BYTES, n -> {});
+    long generation = budget.getGeneration();
+    assertTrue(budget.putIfCurrent("level 1", newImage(), generation));
+    assertNotNull(budget.getCache().getIfPresent("level 1"));
+
+    // A scale job that started before the flush must not publish its levels afterwards
+    budget.clear();
+    assertFalse(budget.putIfCurrent("level 2", newImage(), generation));
+    assertEquals(0, budget.getCache().size());
+
+    generation = budget.getGeneration();
+    budget.getCache().put("other", newImage());
+    budget.invalidateIf(key -> key.equals("level 1"));
+    assertFalse(budget.putIfCurrent("level 1", newImage(), generation));
+    assertNotNull(budget.getCache().getIfPresent("other"));
+
+    assertTrue(budget.putIfCurrent("level 1", newImage(), budget.getGeneration()));
+    assertEquals(2, budget.getCache().size());
+  }
+}
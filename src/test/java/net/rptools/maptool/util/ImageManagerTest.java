@@ -0,0 +1,184 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.rptools.lib.MD5Key;
+import net.rptools.maptool.util.LoadingStage.Priority;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class ImageManagerTest {
+  private static final int RED = Color.RED.getRGB();
+  private static final int BLUE = Color.BLUE.getRGB();
+
+  /** @return a blue image with a red top left quarter, to tell which way it is flipped. */
+  private static BufferedImage newImage(int size) {
+    BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = image.createGraphics();
+    g.setColor(Color.BLUE);
+    g.fillRect(0, 0, size, size);
+    g.setColor(Color.RED);
+    g.fillRect(0, 0, size / 2, size / 2);
+    g.dispose();
+    return image;
+  }
+
+  private static MD5Key putImage(String name, BufferedImage image) {
+    MD5Key assetId = new MD5Key(name.getBytes());
+    ImageManager.putImage(assetId, image);
+    return assetId;
+  }
+
+  /** @return an observer that counts the latch down once the image it waits for is ready. */
+  private static ImageObserver observer(CountDownLatch latch) {
+    return (image, flags, x, y, width, height) -> {
+      latch.countDown();
+      return false;
+    };
+  }
+
+  /** Wait for the level to be built, and return it. */
+  private static BufferedImage getBuiltImage(MD5Key assetId, int level, boolean flipX)
+      throws InterruptedException {
+    CountDownLatch built = new CountDownLatch(1);
+    ImageManager.getScaledImage(assetId, level, flipX, false, observer(built));
+    assertTrue(built.await(10, TimeUnit.SECONDS));
+    return ImageManager.getScaledImage(assetId, level, flipX, false);
+  }
+
+  @AfterEach
+  public void flushImages() {
+    ImageManager.flush();
+  }
+
+  @Test
+  public void testPyramidLevelIsNotSmallerThanTheDrawnSize() {
+    BufferedImage image = newImage(256);
+
+    assertEquals(0, ImageManager.getPyramidLevel(image, 256, 256));
+    assertEquals(0, ImageManager.getPyramidLevel(image, 129, 129));
+    assertEquals(1, ImageManager.getPyramidLevel(image, 128, 128));
+    assertEquals(1, ImageManager.getPyramidLevel(image, 100, 100));
+    assertEquals(2, ImageManager.getPyramidLevel(image, 64, 64));
+    // The larger side decides
+    assertEquals(0, ImageManager.getPyramidLevel(image, 256, 32));
+  }
+
+  @Test
+  public void testPyramidLevelStopsAtTheSmallestLevel() {
+    // 256 pixels halve four times before reaching the 16 pixels of the smallest level
+    assertEquals(4, ImageManager.getPyramidLevel(newImage(256), 1, 1));
+    assertEquals(0, ImageManager.getPyramidLevel(newImage(16), 1, 1));
+  }
+
+  @Test
+  public void testPlaceholdersAreNotScaled() {
+    assertEquals(0, ImageManager.getPyramidLevel(ImageManager.TRANSFERING_IMAGE, 1, 1));
+    assertEquals(0, ImageManager.getPyramidLevel(ImageManager.BROKEN_IMAGE, 1, 1));
+    assertEquals(0, ImageManager.getPyramidLevel(newImage(256), 0, 0));
+  }
+
+  @Test
+  public void testLevelZeroIsTheImageItself() {
+    BufferedImage image = newImage(64);
+    MD5Key assetId = putImage("level zero", image);
+
+    assertSame(image, ImageManager.getScaledImage(assetId, 0, false, false));
+  }
+
+  @Test
+  public void testFlippedImagesAreBuiltRightAway() {
+    MD5Key assetId = putImage("flipped", newImage(64));
+
+    BufferedImage flipX = ImageManager.getScaledImage(assetId, 0, true, false);
+    assertEquals(BLUE, flipX.getRGB(0, 0));
+    assertEquals(RED, flipX.getRGB(63, 0));
+
+    BufferedImage flipY = ImageManager.getScaledImage(assetId, 0, false, true);
+    assertEquals(BLUE, flipY.getRGB(0, 0));
+    assertEquals(RED, flipY.getRGB(0, 63));
+
+    BufferedImage flipXY = ImageManager.getScaledImage(assetId, 0, true, true);
+    assertEquals(BLUE, flipXY.getRGB(0, 0));
+    assertEquals(RED, flipXY.getRGB(63, 63));
+
+    // Kept for the next time it is drawn
+    assertSame(flipX, ImageManager.getScaledImage(assetId, 0, true, false));
+  }
+
+  @Test
+  public void testReducedImageIsBuiltInTheBackground() throws InterruptedException {
+    BufferedImage image = newImage(64);
+    MD5Key assetId = putImage("reduced", image);
+
+    // Nothing to fall back on but the image itself
+    CountDownLatch built = new CountDownLatch(1);
+    assertSame(image, ImageManager.getScaledImage(assetId, 1, false, false, observer(built)));
+    assertTrue(built.await(10, TimeUnit.SECONDS));
+
+    BufferedImage reduced = ImageManager.getScaledImage(assetId, 1, false, false);
+    assertEquals(32, reduced.getWidth());
+    assertEquals(32, reduced.getHeight());
+    assertEquals(RED, reduced.getRGB(0, 0));
+    assertEquals(BLUE, reduced.getRGB(31, 31));
+  }
+
+  @Test
+  public void testReducedFlippedImageIsMirrored() throws InterruptedException {
+    MD5Key assetId = putImage("reduced flipped", newImage(64));
+
+    BufferedImage reduced = getBuiltImage(assetId, 1, true);
+    assertEquals(32, reduced.getWidth());
+    assertEquals(BLUE, reduced.getRGB(0, 0));
+    assertEquals(RED, reduced.getRGB(31, 0));
+  }
+
+  @Test
+  public void testLargerLevelIsShownWhileALevelIsBuilt() throws InterruptedException {
+    MD5Key assetId = putImage("fallback", newImage(64));
+    BufferedImage levelOne = getBuiltImage(assetId, 1, false);
+
+    // Hold up the scaling thread, so that level 2 stays in the works
+    CountDownLatch release = new CountDownLatch(1);
+    ImageManager.scaleStage.execute(
+        Priority.VISIBLE,
+        () -> {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    CountDownLatch built = new CountDownLatch(1);
+    try {
+      assertSame(levelOne, ImageManager.getScaledImage(assetId, 2, false, false, observer(built)));
+    } finally {
+      release.countDown();
+    }
+
+    assertTrue(built.await(10, TimeUnit.SECONDS));
+    BufferedImage levelTwo = ImageManager.getScaledImage(assetId, 2, false, false);
+    assertEquals(16, levelTwo.getWidth());
+    assertEquals(16, levelTwo.getHeight());
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.rptools.maptool.util.LoadingStage.Priority;
+import org.junit.jupiter.api.Test;
+
+public class LoadingStageTest {
+
+  @Test
+  public void testVisibleTasksGoFirst() throws InterruptedException {
+    LoadingStage stage = new LoadingStage("test", 1);
+    List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    CountDownLatch blocker = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(4);
+
+    // Keep the only thread busy until everything is queued
+    stage.execute(
+        Priority.BACKGROUND,
+        () -> {
+          try {
+            blocker.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    stage.execute(Priority.BACKGROUND, () -> add(order, "background 1", done));
+    stage.execute(Priority.VISIBLE, () -> add(order, "visible 1", done));
+    stage.execute(Priority.BACKGROUND, () -> add(order, "background 2", done));
+    stage.execute(Priority.VISIBLE, () -> add(order, "visible 2", done));
+    blocker.countDown();
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(List.of("visible 1", "visible 2", "background 1", "background 2"), order);
+    stage.shutdown();
+  }
+
+  @Test
+  public void testRaisedTaskGoesFirst() throws InterruptedException {
+    LoadingStage stage = new LoadingStage("test", 1);
+    List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    CountDownLatch blocker = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(3);
+
+    stage.execute(
+        Priority.BACKGROUND,
+        () -> {
+          try {
+            blocker.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    LoadingStage.Task background =
+        stage.execute(Priority.BACKGROUND, () -> add(order, "background", done));
+    LoadingStage.Task raised =
+        stage.execute(Priority.BACKGROUND, () -> add(order, "scrolled into view", done));
+    stage.execute(Priority.VISIBLE, () -> add(order, "visible", done));
+    assertTrue(raised.raise(Priority.VISIBLE));
+    assertFalse(raised.raise(Priority.BACKGROUND));
+    blocker.countDown();
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(List.of("scrolled into view", "visible", "background"), order);
+    // Too late to move a task that already ran
+    assertFalse(background.raise(Priority.VISIBLE));
+    stage.shutdown();
+  }
+
+  @Test
+  public void testFailedTaskKeepsStageRunning() throws InterruptedException {
+    LoadingStage stage = new LoadingStage("test", 1);
+    CountDownLatch done = new CountDownLatch(1);
+
+    stage.execute(
+        Priority.VISIBLE,
+        () -> {
+          throw new IllegalStateException("expected");
+        });
+    stage.execute(Priority.VISIBLE, done::countDown);
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertTrue(LoadingStage.getStages().contains(stage));
+
+    stage.shutdown();
+    assertFalse(LoadingStage.getStages().contains(stage));
+  }
+
+  private static void add(List<String> order, String name, CountDownLatch done) {
+    order.add(name);
+    done.countDown();
+  }
+}